@@ -32,8 +32,9 @@ abstract class AbstractZmqMessageProducer implements MessageProducer {
     private Destination destination;
     private boolean disableMessageID;
     private boolean disableMessageTimestamp;
-    private int priority;
+    private int priority = Message.DEFAULT_PRIORITY;
     private long timeToLive;
+    private String connectionId = null;
 
     /**
      * Construct a Zero MQ JMS base message producer (for both topic and queue).
@@ -46,6 +47,15 @@ abstract class AbstractZmqMessageProducer implements MessageProducer {
         this.destination = destination;
     }
 
+    /**
+     * Set the identifier of the connection stamped on each message sent, so the subscribers of the connection with
+     * noLocal set can drop it.
+     * @param connectionId  the connection identifier, or null for none
+     */
+    void setConnectionId(final String connectionId) {
+        this.connectionId = connectionId;
+    }
+
     /**
      * @return  return the socket producer
      */
@@ -53,6 +63,41 @@ abstract class AbstractZmqMessageProducer implements MessageProducer {
         return protocol;
     }
 
+    /**
+     * Return the gateway to send the message through, i.e. a reply travels back through the gateway which received
+     * the request, correlated to the request unless the JMSCorrelationID has already been set.
+     * @param  destination   the destination
+     * @param  message       the message
+     * @return               return the gateway
+     * @throws JMSException  throws exception when the message cannot be correlated
+     */
+    private ZmqGateway getProtocol(final Destination destination, final Message message) throws JMSException {
+        if (destination instanceof ZmqReplyQueue) {
+            final ZmqReplyQueue replyQueue = (ZmqReplyQueue) destination;
+
+            if (message.getJMSCorrelationID() == null) {
+                message.setJMSCorrelationID(replyQueue.getCorrelationId());
+            }
+
+            return replyQueue.getGateway();
+        }
+
+        return protocol;
+    }
+
+    /**
+     * Return the JMS expiration of a message sent now with the specified time to live.
+     * @param  timeToLive  the time to live (milliseconds), zero for never
+     * @return             return the expiration time (milliseconds), zero for never
+     */
+    private static long getExpiration(final long timeToLive) {
+        if (timeToLive > 0) {
+            return System.currentTimeMillis() + timeToLive;
+        }
+
+        return 0;
+    }
+
     @Override
     public void close() throws JMSException {
         protocol.close(-1);
@@ -110,15 +155,35 @@ abstract class AbstractZmqMessageProducer implements MessageProducer {
 
         message.setJMSDeliveryMode(deliveryMode);
         message.setJMSPriority(priority);
-        message.setJMSExpiration(timeToLive);
+        message.setJMSExpiration(getExpiration(timeToLive));
 
-        send(destination, message);
+        sendMessage(destination, message);
     }
 
     @Override
     public void send(final Destination destination, final Message message) throws JMSException {
+        message.setJMSPriority(priority);
+
+        if (timeToLive > 0) {
+            message.setJMSExpiration(getExpiration(timeToLive));
+        }
+
+        sendMessage(destination, message);
+    }
+
+    /**
+     * Send the message, with its JMS headers already set.
+     * @param  destination   the destination
+     * @param  message       the message
+     * @throws JMSException  throws exception on send failure
+     */
+    private void sendMessage(final Destination destination, final Message message) throws JMSException {
+        if (connectionId != null) {
+            message.setStringProperty(ZmqConnection.CONNECTION_ID_PROPERTY, connectionId);
+        }
+
         try {
-            protocol.send((ZmqMessage) message);
+            getProtocol(destination, message).send((ZmqMessage) message);
         } catch (ZmqException | ZMQException ex) {
             throw new JMSException(ex.getMessage());
         }
@@ -158,26 +223,61 @@ abstract class AbstractZmqMessageProducer implements MessageProducer {
 
     @Override
     public void send(final Message message, final CompletionListener completionListener) throws JMSException {
-        throw new UnsupportedOperationException();
+        send(destination, message, completionListener);
     }
 
     @Override
     public void send(final Destination destination, final Message message, final CompletionListener completionListener) throws JMSException {
-        throw new UnsupportedOperationException();
+        message.setJMSPriority(priority);
+
+        if (timeToLive > 0) {
+            message.setJMSExpiration(getExpiration(timeToLive));
+        }
+
+        sendMessage(destination, message, completionListener);
+    }
+
+    /**
+     * Send the message asynchronously, with its JMS headers already set.
+     * @param  destination         the destination
+     * @param  message             the message
+     * @param  completionListener  the listener notified once the send completes
+     * @throws JMSException        throws exception on send failure
+     */
+    private void sendMessage(final Destination destination, final Message message, final CompletionListener completionListener)
+        throws JMSException {
+
+        if (completionListener == null) {
+            throw new IllegalArgumentException("Completion listener cannot be null");
+        }
+
+        if (connectionId != null) {
+            message.setStringProperty(ZmqConnection.CONNECTION_ID_PROPERTY, connectionId);
+        }
+
+        try {
+            getProtocol(destination, message).send((ZmqMessage) message, completionListener);
+        } catch (ZmqException | ZMQException ex) {
+            throw new JMSException(ex.getMessage());
+        }
     }
 
     @Override
     public void send(final Message message, final int deliveryMode, final int priority, final long timeToLive,
         final CompletionListener completionListener) throws JMSException {
 
-        throw new UnsupportedOperationException();
+        send(destination, message, deliveryMode, priority, timeToLive, completionListener);
     }
 
     @Override
     public void send(final Destination destination, final Message message, final int deliveryMode, final int priority, final long timeToLive,
         final CompletionListener completionListener) throws JMSException {
 
-        throw new UnsupportedOperationException();
+        message.setJMSDeliveryMode(deliveryMode);
+        message.setJMSPriority(priority);
+        message.setJMSExpiration(getExpiration(timeToLive));
+
+        sendMessage(destination, message, completionListener);
     }
 
     @Override
@@ -26,6 +26,13 @@ public class ZmpMapMessage extends ZmqMessage implements MapMessage {
 
     private Map<String, Object> map = new HashMap<String, Object>();
 
+    @Override
+    protected void copyTo(final ZmqMessage message) {
+        super.copyTo(message);
+
+        ((ZmpMapMessage) message).map = new HashMap<String, Object>(map);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T> T getBody(final Class<T> c) throws JMSException {
@@ -43,6 +43,27 @@ public class ZmqByteMessage extends ZmqMessage implements BytesMessage {
         outData = new DataOutputStream(outByteArray);
     }
 
+    /**
+     * Copy the body to the (new) message, leaving the copy in "Read" mode, as a received message.
+     * @param message  the message copied to
+     */
+    @Override
+    protected void copyTo(final ZmqMessage message) {
+        super.copyTo(message);
+
+        final ZmqByteMessage byteMessage = (ZmqByteMessage) message;
+        final byte[] body = (outByteArray != null) ? outByteArray.toByteArray() : content;
+
+        byteMessage.content = (body == null) ? null : body.clone();
+
+        if (byteMessage.content != null) {
+            byteMessage.outByteArray = null;
+            byteMessage.outData = null;
+            byteMessage.inByteArray = new ByteArrayInputStream(byteMessage.content);
+            byteMessage.inData = new DataInputStream(byteMessage.inByteArray);
+        }
+    }
+
     @Override
     public void clearBody() throws JMSException {
         if (inData != null) {
@@ -7,7 +7,9 @@ package org.zeromq.jms;
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
+import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,6 +36,12 @@ public class ZmqConnection implements QueueConnection, TopicConnection {
 
     private static final Logger LOGGER = Logger.getLogger(ZmqConnection.class.getCanonicalName());
 
+    /**
+     * The (string) message property holding the identifier of the connection that published the message, so a
+     * subscriber of the connection with noLocal set can drop it.
+     */
+    public static final String CONNECTION_ID_PROPERTY = "JMS_ZMQConnectionID";
+
     /**
      *  Handler asynchronous exceptions.
      */
@@ -57,6 +65,8 @@ public class ZmqConnection implements QueueConnection, TopicConnection {
     private ZmqGatewayFactory gatewayFactory;
     private Map<String, ZmqURI> destinationSchema;
     private ZmqExceptionHandler exceptionHandler = new ZmqExceptionHandler();
+    private final Map<String, ZmqSharedSubscription> sharedSubscriptions = new HashMap<String, ZmqSharedSubscription>();
+    private final String connectionId = UUID.randomUUID().toString();
 
     private String clientID = null;
 
@@ -91,7 +101,8 @@ public class ZmqConnection implements QueueConnection, TopicConnection {
 
     @Override
     public Session createSession(final boolean transacted, final int acknowledgeMode) throws JMSException {
-        Session session = new ZmqSession(gatewayFactory, destinationSchema, transacted, acknowledgeMode, exceptionHandler);
+        Session session = new ZmqSession(gatewayFactory, destinationSchema, transacted, acknowledgeMode, exceptionHandler,
+            sharedSubscriptions, connectionId);
 
         return session;
     }
@@ -142,7 +153,8 @@ public class ZmqConnection implements QueueConnection, TopicConnection {
     @SuppressWarnings("resource")
     @Override
     public QueueSession createQueueSession(final boolean transacted, final int acknowledgeMode) throws JMSException {
-        QueueSession session = (QueueSession) new ZmqSession(gatewayFactory, destinationSchema, transacted, acknowledgeMode, exceptionHandler);
+        QueueSession session = (QueueSession) new ZmqSession(gatewayFactory, destinationSchema, transacted, acknowledgeMode, exceptionHandler,
+            sharedSubscriptions, connectionId);
 
         return session;
     }
@@ -157,7 +169,8 @@ public class ZmqConnection implements QueueConnection, TopicConnection {
     @SuppressWarnings("resource")
     @Override
     public TopicSession createTopicSession(final boolean transacted, final int acknowledgeMode) throws JMSException {
-        TopicSession session = (TopicSession) new ZmqSession(gatewayFactory, destinationSchema, transacted, acknowledgeMode, exceptionHandler);
+        TopicSession session = (TopicSession) new ZmqSession(gatewayFactory, destinationSchema, transacted, acknowledgeMode, exceptionHandler,
+            sharedSubscriptions, connectionId);
 
         return session;
     }
@@ -171,7 +184,8 @@ public class ZmqConnection implements QueueConnection, TopicConnection {
 
     @Override
     public Session createSession(final int sessionMode) throws JMSException {
-        final Session session = new ZmqSession(gatewayFactory, destinationSchema, false, sessionMode, exceptionHandler);
+        final Session session = new ZmqSession(gatewayFactory, destinationSchema, false, sessionMode, exceptionHandler, sharedSubscriptions,
+            connectionId);
 
         return session;
     }
@@ -13,9 +13,7 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Vector;
 
 import javax.jms.Destination;
 import javax.jms.JMSException;
@@ -26,7 +24,7 @@ import javax.jms.Message;
  */
 public class ZmqMessage implements Message, Externalizable {
 
-    private final Map<String, Object> properties = new HashMap<String, Object>();
+    private final ZmqMessageProperties properties = new ZmqMessageProperties();
 
     private String correlationID;
     private int deliveryMode;
@@ -49,6 +47,86 @@ public class ZmqMessage implements Message, Externalizable {
         return properties;
     }
 
+    /**
+     * Typed (un-boxed) view of the properties. This is a back door for the library (selectors, filter
+     * policies, etc...) to resolve primitive values without boxing.
+     * @return  return the internal property bag.
+     */
+    public ZmqMessageProperties getTypedProperties() {
+        return properties;
+    }
+
+    /**
+     * Reset the message headers and properties so the instance can be re-used. This is a back door for the
+     * library's "flyweight" receive mode, where message instances are recycled once delivered.
+     */
+    public void recycle() {
+        properties.clear();
+
+        correlationID = null;
+        deliveryMode = 0;
+        destrination = null;
+        expiration = 0;
+        messageID = null;
+        priority = 0;
+        redelivered = false;
+        replyTo = null;
+        timestamp = 0;
+        type = null;
+        deliveryTime = 0;
+    }
+
+    /**
+     * Return a copy of the message (headers, properties and body), so the copy can be modified without changing the
+     * message. This is a back door for the library's in-VM gateway, where each receiver is handed its own message
+     * without serialization. The body of an object message is the same (Serializable) instance.
+     * @return               return the copy
+     * @throws ZmqException  throws exception when the message class cannot be constructed
+     */
+    public ZmqMessage copy() throws ZmqException {
+        final ZmqMessage message;
+
+        try {
+            message = getClass().newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new ZmqException("Unable to construct a copy of message: " + this, ex);
+        }
+
+        copyTo(message);
+
+        return message;
+    }
+
+    /**
+     * Copy the headers and properties to the (new) message. Sub-classes copy their body, after calling this method.
+     * @param message  the message copied to
+     */
+    protected void copyTo(final ZmqMessage message) {
+        message.properties.putAll(properties);
+
+        message.correlationID = correlationID;
+        message.deliveryMode = deliveryMode;
+        message.destrination = destrination;
+        message.expiration = expiration;
+        message.messageID = messageID;
+        message.priority = priority;
+        message.redelivered = redelivered;
+        message.replyTo = replyTo;
+        message.timestamp = timestamp;
+        message.type = type;
+        message.deliveryTime = deliveryTime;
+    }
+
+    /**
+     * Return true when the message has a JMS expiration that has passed. This is a back door for the library to
+     * discard stale messages from the header alone, without touching the properties or body.
+     * @param  currentTime  the current time (milliseconds)
+     * @return              return true when expired
+     */
+    public boolean isExpired(final long currentTime) {
+        return expiration > 0 && expiration <= currentTime;
+    }
+
     @Override
     public void acknowledge() throws JMSException {
         throw new UnsupportedOperationException();
@@ -160,9 +238,7 @@ public class ZmqMessage implements Message, Externalizable {
 
     @Override
     public Enumeration<String> getPropertyNames() throws JMSException {
-        final Vector<String> names = new Vector<String>(properties.keySet());
-
-        return names.elements();
+        return properties.names();
     }
 
     @Override
@@ -182,27 +258,27 @@ public class ZmqMessage implements Message, Externalizable {
 
     @Override
     public void setBooleanProperty(final String name, final boolean value) throws JMSException {
-        properties.put(name, value);
+        properties.putBoolean(name, value);
     }
 
     @Override
     public void setByteProperty(final String name, final byte value) throws JMSException {
-        properties.put(name, value);
+        properties.putByte(name, value);
     }
 
     @Override
     public void setDoubleProperty(final String name, final double value) throws JMSException {
-        properties.put(name, value);
+        properties.putDouble(name, value);
     }
 
     @Override
     public void setFloatProperty(final String name, final float value) throws JMSException {
-        properties.put(name, value);
+        properties.putFloat(name, value);
     }
 
     @Override
     public void setIntProperty(final String name, final int value) throws JMSException {
-        properties.put(name, value);
+        properties.putInt(name, value);
     }
 
     @Override
@@ -273,22 +349,22 @@ public class ZmqMessage implements Message, Externalizable {
 
     @Override
     public void setLongProperty(final String name, final long value) throws JMSException {
-        properties.put(name, value);
+        properties.putLong(name, value);
     }
 
     @Override
     public void setObjectProperty(final String name, final Object value) throws JMSException {
-        properties.put(name, value);
+        properties.putObject(name, value);
     }
 
     @Override
     public void setShortProperty(final String name, final short value) throws JMSException {
-        properties.put(name, value);
+        properties.putShort(name, value);
     }
 
     @Override
     public void setStringProperty(final String name, final String value) throws JMSException {
-        properties.put(name, value);
+        properties.putObject(name, value);
     }
 
     @Override
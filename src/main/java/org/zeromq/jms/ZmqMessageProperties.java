@@ -0,0 +1,667 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact property bag used by the Zero MQ JMS message.
+ *
+ * Properties are held in small open-addressed (linear probing) arrays. Primitive values are stored
+ * unboxed as raw bits within a long slot, while String and other object values are held in a lazily
+ * allocated object slot array. Property names are interned so messages with the same headers share the
+ * same key instances.
+ *
+ * The class is still a Map so it can be passed to message selectors, but the typed accessors (i.e.
+ * getDouble(), getLong(), isNumber(), etc...) should be used on hot paths to avoid boxing.
+ *
+ * This class is NOT thread safe, the same as the JMS message it belongs to.
+ */
+public class ZmqMessageProperties extends AbstractMap<String, Object> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static final byte TYPE_NONE = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_BYTE = 2;
+    private static final byte TYPE_SHORT = 3;
+    private static final byte TYPE_INT = 4;
+    private static final byte TYPE_LONG = 5;
+    private static final byte TYPE_FLOAT = 6;
+    private static final byte TYPE_DOUBLE = 7;
+    private static final byte TYPE_OBJECT = 8;
+
+    private String[] keys;
+    private byte[] types;
+    private long[] values;
+    private Object[] objects;
+
+    private int size;
+    private int modCount;
+
+    /**
+     * Iterate through the occupied slots of the property arrays.
+     */
+    private abstract class SlotIterator {
+        private final int expectedModCount = modCount;
+        private int next = -1;
+
+        /**
+         * Construct slot iterator positioned before the first property.
+         */
+        SlotIterator() {
+            advance();
+        }
+
+        /**
+         * Move to the next occupied slot.
+         */
+        private void advance() {
+            next++;
+
+            while (keys != null && next < keys.length && keys[next] == null) {
+                next++;
+            }
+        }
+
+        /**
+         * @return  return true when another slot exists
+         */
+        public boolean hasNext() {
+            return keys != null && next < keys.length;
+        }
+
+        /**
+         * @return  return the index of the next occupied slot
+         */
+        protected int nextSlot() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final int slot = next;
+            advance();
+
+            return slot;
+        }
+
+        /**
+         * Removal is not supported since backward shift deletion would move the un-iterated slots.
+         */
+        public void remove() {
+            throw new UnsupportedOperationException("Property removal during iteration is not supported.");
+        }
+    }
+
+    /**
+     * Enumeration of the property names, this is returned by the JMS getPropertyNames().
+     */
+    private class NameEnumeration extends SlotIterator implements Enumeration<String> {
+
+        @Override
+        public boolean hasMoreElements() {
+            return hasNext();
+        }
+
+        @Override
+        public String nextElement() {
+            return keys[nextSlot()];
+        }
+    }
+
+    /**
+     * Iterator of the properties as map entries (values are boxed).
+     */
+    private class EntryIterator extends SlotIterator implements Iterator<Map.Entry<String, Object>> {
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            final int slot = nextSlot();
+
+            return new SimpleImmutableEntry<String, Object>(keys[slot], box(slot));
+        }
+    }
+
+    /**
+     * @return  return an enumeration of the property names (no intermediate collection is constructed)
+     */
+    public Enumeration<String> names() {
+        return new NameEnumeration();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(final Object name) {
+        return (name instanceof String) && indexOf((String) name) >= 0;
+    }
+
+    @Override
+    public Object get(final Object name) {
+        if (!(name instanceof String)) {
+            return null;
+        }
+
+        final int slot = indexOf((String) name);
+
+        return (slot < 0) ? null : box(slot);
+    }
+
+    @Override
+    public Object put(final String name, final Object value) {
+        final Object oldValue = get(name);
+
+        putObject(name, value);
+
+        return oldValue;
+    }
+
+    @Override
+    public Object remove(final Object name) {
+        if (!(name instanceof String)) {
+            return null;
+        }
+
+        final int slot = indexOf((String) name);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        final Object oldValue = box(slot);
+
+        delete(slot);
+
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        // retain the slot arrays, so re-used (flyweight) messages do not re-allocate them
+        if (size > 0) {
+            Arrays.fill(keys, null);
+
+            if (objects != null) {
+                Arrays.fill(objects, null);
+            }
+
+            size = 0;
+            modCount++;
+        }
+    }
+
+    /**
+     * Store a property, boxed primitives are unwrapped into the primitive slots.
+     * @param name   the property name
+     * @param value  the value
+     */
+    public void putObject(final String name, final Object value) {
+        if (value instanceof Boolean) {
+            putBoolean(name, (Boolean) value);
+        } else if (value instanceof Byte) {
+            putPrimitive(name, TYPE_BYTE, (Byte) value);
+        } else if (value instanceof Short) {
+            putPrimitive(name, TYPE_SHORT, (Short) value);
+        } else if (value instanceof Integer) {
+            putPrimitive(name, TYPE_INT, (Integer) value);
+        } else if (value instanceof Long) {
+            putPrimitive(name, TYPE_LONG, (Long) value);
+        } else if (value instanceof Float) {
+            putFloat(name, (Float) value);
+        } else if (value instanceof Double) {
+            putDouble(name, (Double) value);
+        } else {
+            final int slot = insert(name);
+
+            types[slot] = TYPE_OBJECT;
+            values[slot] = 0;
+            objectSlots()[slot] = value;
+        }
+    }
+
+    /**
+     * Store a boolean property.
+     * @param name   the property name
+     * @param value  the value
+     */
+    public void putBoolean(final String name, final boolean value) {
+        putPrimitive(name, TYPE_BOOLEAN, value ? 1 : 0);
+    }
+
+    /**
+     * Store a byte property.
+     * @param name   the property name
+     * @param value  the value
+     */
+    public void putByte(final String name, final byte value) {
+        putPrimitive(name, TYPE_BYTE, value);
+    }
+
+    /**
+     * Store a short property.
+     * @param name   the property name
+     * @param value  the value
+     */
+    public void putShort(final String name, final short value) {
+        putPrimitive(name, TYPE_SHORT, value);
+    }
+
+    /**
+     * Store an integer property.
+     * @param name   the property name
+     * @param value  the value
+     */
+    public void putInt(final String name, final int value) {
+        putPrimitive(name, TYPE_INT, value);
+    }
+
+    /**
+     * Store a long property.
+     * @param name   the property name
+     * @param value  the value
+     */
+    public void putLong(final String name, final long value) {
+        putPrimitive(name, TYPE_LONG, value);
+    }
+
+    /**
+     * Store a float property.
+     * @param name   the property name
+     * @param value  the value
+     */
+    public void putFloat(final String name, final float value) {
+        putPrimitive(name, TYPE_FLOAT, Float.floatToRawIntBits(value));
+    }
+
+    /**
+     * Store a double property.
+     * @param name   the property name
+     * @param value  the value
+     */
+    public void putDouble(final String name, final double value) {
+        putPrimitive(name, TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * @param  name  the property name
+     * @return       return true when the property is held as a number (byte, short, int, long, float, double)
+     */
+    public boolean isNumber(final String name) {
+        final int slot = indexOf(name);
+
+        if (slot < 0) {
+            return false;
+        }
+
+        final byte type = types[slot];
+
+        return (type >= TYPE_BYTE && type <= TYPE_DOUBLE) || (type == TYPE_OBJECT && objects[slot] instanceof Number);
+    }
+
+    /**
+     * @param  name  the property name
+     * @return       return true when the property is held as a boolean
+     */
+    public boolean isBoolean(final String name) {
+        final int slot = indexOf(name);
+
+        return slot >= 0 && types[slot] == TYPE_BOOLEAN;
+    }
+
+    /**
+     * @param  name  the property name
+     * @return       return true when the property is held as an integral number (byte, short, int, long)
+     */
+    public boolean isIntegral(final String name) {
+        final int slot = indexOf(name);
+
+        return slot >= 0 && types[slot] >= TYPE_BYTE && types[slot] <= TYPE_LONG;
+    }
+
+    /**
+     * Return the numeric property widened to a double without boxing.
+     * @param  name  the property name
+     * @return       return the value, or NaN when the property does not exist or is not a number
+     */
+    public double getDouble(final String name) {
+        final int slot = indexOf(name);
+
+        if (slot < 0) {
+            return Double.NaN;
+        }
+
+        switch (types[slot]) {
+        case TYPE_BYTE:
+        case TYPE_SHORT:
+        case TYPE_INT:
+        case TYPE_LONG:
+            return values[slot];
+        case TYPE_FLOAT:
+            return Float.intBitsToFloat((int) values[slot]);
+        case TYPE_DOUBLE:
+            return Double.longBitsToDouble(values[slot]);
+        case TYPE_OBJECT:
+            if (objects[slot] instanceof Number) {
+                return ((Number) objects[slot]).doubleValue();
+            }
+            return Double.NaN;
+        default:
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Return the integral property widened to a long without boxing.
+     * @param  name  the property name
+     * @return       return the value
+     * @throws       ClassCastException when the property is not an integral number
+     */
+    public long getLong(final String name) {
+        final int slot = indexOf(name);
+
+        if (slot >= 0 && types[slot] >= TYPE_BYTE && types[slot] <= TYPE_LONG) {
+            return values[slot];
+        }
+
+        throw new ClassCastException("Property is not an integral number: " + name);
+    }
+
+    /**
+     * Return the boolean property without boxing.
+     * @param  name  the property name
+     * @return       return the value
+     * @throws       ClassCastException when the property is not a boolean
+     */
+    public boolean getBoolean(final String name) {
+        final int slot = indexOf(name);
+
+        if (slot >= 0 && types[slot] == TYPE_BOOLEAN) {
+            return values[slot] != 0;
+        }
+
+        throw new ClassCastException("Property is not a boolean: " + name);
+    }
+
+    /**
+     * Return the property as a string, primitives are formatted directly rather than via a boxed instance.
+     * @param  name  the property name
+     * @return       return the value as a string, or null when the property does not exist
+     */
+    public String getAsString(final String name) {
+        final int slot = indexOf(name);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        switch (types[slot]) {
+        case TYPE_BOOLEAN:
+            return Boolean.toString(values[slot] != 0);
+        case TYPE_BYTE:
+        case TYPE_SHORT:
+        case TYPE_INT:
+        case TYPE_LONG:
+            return Long.toString(values[slot]);
+        case TYPE_FLOAT:
+            return Float.toString(Float.intBitsToFloat((int) values[slot]));
+        case TYPE_DOUBLE:
+            return Double.toString(Double.longBitsToDouble(values[slot]));
+        default:
+            return (objects[slot] == null) ? null : objects[slot].toString();
+        }
+    }
+
+    /**
+     * Store a primitive value (as raw bits) in the slot for the name.
+     * @param name   the property name
+     * @param type   the primitive type
+     * @param bits   the value as raw bits
+     */
+    private void putPrimitive(final String name, final byte type, final long bits) {
+        final int slot = insert(name);
+
+        types[slot] = type;
+        values[slot] = bits;
+
+        if (objects != null) {
+            objects[slot] = null;
+        }
+    }
+
+    /**
+     * Return the boxed value held in a slot.
+     * @param  slot  the slot index
+     * @return       return the boxed value
+     */
+    private Object box(final int slot) {
+        final long bits = values[slot];
+
+        switch (types[slot]) {
+        case TYPE_BOOLEAN:
+            return bits != 0;
+        case TYPE_BYTE:
+            return (byte) bits;
+        case TYPE_SHORT:
+            return (short) bits;
+        case TYPE_INT:
+            return (int) bits;
+        case TYPE_LONG:
+            return bits;
+        case TYPE_FLOAT:
+            return Float.intBitsToFloat((int) bits);
+        case TYPE_DOUBLE:
+            return Double.longBitsToDouble(bits);
+        default:
+            return objects[slot];
+        }
+    }
+
+    /**
+     * @return  return the object slots, allocating them on first use
+     */
+    private Object[] objectSlots() {
+        if (objects == null) {
+            objects = new Object[keys.length];
+        }
+
+        return objects;
+    }
+
+    /**
+     * @param  name  the property name
+     * @return       return the spread hash of the name
+     */
+    private static int hash(final String name) {
+        final int h = name.hashCode();
+
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Return the slot of the name, or -1 when it does not exist.
+     * @param  name  the property name
+     * @return       return the slot index
+     */
+    private int indexOf(final String name) {
+        if (keys == null || name == null) {
+            return -1;
+        }
+
+        final int mask = keys.length - 1;
+        int slot = hash(name) & mask;
+
+        String key = keys[slot];
+
+        while (key != null) {
+            if (key == name || key.equals(name)) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+            key = keys[slot];
+        }
+
+        return -1;
+    }
+
+    /**
+     * Return the slot for the name, claiming a new slot (and growing the arrays) when it does not exist.
+     * @param  name  the property name
+     * @return       return the slot index
+     */
+    private int insert(final String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Property name cannot be null.");
+        }
+
+        if (keys == null) {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        int slot = indexOf(name);
+
+        if (slot >= 0) {
+            return slot;
+        }
+
+        // keep the load factor at or below 3/4
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+
+        final int mask = keys.length - 1;
+        slot = hash(name) & mask;
+
+        while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = name.intern();
+        size++;
+        modCount++;
+
+        return slot;
+    }
+
+    /**
+     * Allocate empty slot arrays.
+     * @param capacity  the capacity (power of 2)
+     */
+    private void allocate(final int capacity) {
+        keys = new String[capacity];
+        types = new byte[capacity];
+        values = new long[capacity];
+    }
+
+    /**
+     * Re-hash all properties into larger slot arrays.
+     * @param capacity  the new capacity (power of 2)
+     */
+    private void resize(final int capacity) {
+        final String[] oldKeys = keys;
+        final byte[] oldTypes = types;
+        final long[] oldValues = values;
+        final Object[] oldObjects = objects;
+
+        allocate(capacity);
+        objects = (oldObjects == null) ? null : new Object[capacity];
+
+        final int mask = capacity - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+
+                keys[slot] = oldKeys[i];
+                types[slot] = oldTypes[i];
+                values[slot] = oldValues[i];
+
+                if (oldObjects != null) {
+                    objects[slot] = oldObjects[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the property in the slot using backward shift deletion, so no tombstones are required.
+     * @param slot  the slot index
+     */
+    private void delete(final int slot) {
+        final int mask = keys.length - 1;
+
+        int hole = slot;
+        int next = (hole + 1) & mask;
+
+        while (keys[next] != null) {
+            final int home = hash(keys[next]) & mask;
+
+            // move the entry back when its home slot is not cyclically within (hole, next]
+            final boolean inRange = (hole <= next) ? (hole < home && home <= next) : (hole < home || home <= next);
+
+            if (!inRange) {
+                keys[hole] = keys[next];
+                types[hole] = types[next];
+                values[hole] = values[next];
+
+                if (objects != null) {
+                    objects[hole] = objects[next];
+                }
+
+                hole = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        keys[hole] = null;
+        types[hole] = TYPE_NONE;
+        values[hole] = 0;
+
+        if (objects != null) {
+            objects[hole] = null;
+        }
+
+        size--;
+        modCount++;
+    }
+}
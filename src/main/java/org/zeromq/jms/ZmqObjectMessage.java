@@ -22,6 +22,13 @@ public class ZmqObjectMessage extends ZmqMessage implements ObjectMessage {
 
     private Serializable object;
 
+    @Override
+    protected void copyTo(final ZmqMessage message) {
+        super.copyTo(message);
+
+        ((ZmqObjectMessage) message).object = object;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T> T getBody(final Class<T> c) throws JMSException {
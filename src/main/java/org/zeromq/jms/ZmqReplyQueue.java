@@ -0,0 +1,51 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import org.zeromq.jms.protocol.ZmqGateway;
+
+/**
+ * The JMSReplyTo of a request received by the request/reply gateway. Replies sent to it travel back through the
+ * gateway which received the request, to the requesting peer.
+ */
+public class ZmqReplyQueue extends ZmqQueue {
+
+    private final transient ZmqGateway gateway;
+    private final String correlationId;
+
+    /**
+     * Construct the reply queue of a request.
+     * @param gateway        the gateway which received the request
+     * @param correlationId  the correlation identifier of the request, i.e. its JMSMessageID
+     */
+    public ZmqReplyQueue(final ZmqGateway gateway, final String correlationId) {
+        super("reply-queue-" + correlationId);
+
+        this.gateway = gateway;
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * @return  return the gateway which received the request
+     */
+    public ZmqGateway getGateway() {
+        return gateway;
+    }
+
+    /**
+     * @return  return the correlation identifier of the request
+     */
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqReplyQueue [getName()=" + getName() + ", correlationId=" + correlationId + "]";
+    }
+}
@@ -0,0 +1,39 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+
+/**
+ * Concrete ZERO MQ implementation of the JMS Queue Sender for replies, sending through the gateway which received
+ * the request. The gateway belongs to the receiver of the request, so it is not closed with the sender.
+ */
+public class ZmqReplySender extends ZmqQueueSender {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqReplySender.class.getCanonicalName());
+
+    /**
+     * Construct ZERO MQ reply sender.
+     * @param replyQueue  the reply queue of the request
+     */
+    ZmqReplySender(final ZmqReplyQueue replyQueue) {
+        super(replyQueue.getGateway(), replyQueue);
+    }
+
+    @Override
+    public void close() throws JMSException {
+        LOGGER.fine("Reply sender closed: " + this);
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqReplySender [" + "protocol=" + getProtocol() + "]";
+    }
+}
@@ -8,9 +8,12 @@ package org.zeromq.jms;
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
 import java.io.Serializable;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,7 +46,10 @@ import javax.management.ObjectName;
 import org.zeromq.jms.jmx.ZmqMBeanUtils;
 import org.zeromq.jms.protocol.ZmqGateway;
 import org.zeromq.jms.protocol.ZmqGatewayFactory;
+import org.zeromq.jms.protocol.ZmqReplayGateway;
 import org.zeromq.jms.protocol.ZmqSocketType;
+import org.zeromq.jms.selector.ZmqMessageSelector;
+import org.zeromq.jms.selector.ZmqMessageSelectorFactory;
 
 /**
  * Generic Zero MQ JMS session for (Topic and Queue Consumers).
@@ -52,14 +58,22 @@ public class ZmqSession implements QueueSession, TopicSession {
 
     private static final Logger LOGGER = Logger.getLogger(ZmqSession.class.getCanonicalName());
 
+    private static final int DEFAULT_SUBSCRIPTION_CAPACITY = 1000;
+
     private final Map<String, ZmqURI> destinationSchema;
     private final boolean transacted;
     private final int acknowledgeMode;
     private final ExceptionListener exceptionHandler;
     private final List<ZmqGateway> gateways = new ArrayList<ZmqGateway>();
+    private final List<ZmqTemporaryQueue> temporaryQueues = new ArrayList<ZmqTemporaryQueue>();
+    private final List<ZmqSharedSubscriber> sharedSubscribers = new ArrayList<ZmqSharedSubscriber>();
+    private final Map<String, ZmqSharedSubscription> sharedSubscriptions;
+    private final String connectionId;
+    private final ZmqMessageSelectorFactory sharedSelectorFactory = new ZmqMessageSelectorFactory();
 
     private static AtomicInteger gatewayProducerCount = new AtomicInteger(0);
     private static AtomicInteger gatewayConsumerCount = new AtomicInteger(0);
+    private static AtomicInteger gatewaySharedCount = new AtomicInteger(0);
 
     private final ZmqGatewayFactory gatewayFactory;
 
@@ -77,11 +91,32 @@ public class ZmqSession implements QueueSession, TopicSession {
     ZmqSession(final ZmqGatewayFactory gatewayFactory, final Map<String, ZmqURI> destinationSchema, final boolean transacted,
             final int acknowledgeMode, final ExceptionListener exceptionHandler) {
 
+        this(gatewayFactory, destinationSchema, transacted, acknowledgeMode, exceptionHandler, new HashMap<String, ZmqSharedSubscription>(),
+            UUID.randomUUID().toString());
+    }
+
+    /**
+     * Package level session constructor, with the shared subscriptions of the connection.
+     * @param gatewayFactory       the gateway factory
+     * @param destinationSchema    the destination schema
+     * @param transacted           session transacted indicates
+     * @param acknowledgeMode      indicates whether the consumer or the client will acknowledge any messages it receives; ignored if the
+     *                             session is transacted.
+     * @param exceptionHandler     the exception handler for JMS exception.
+     * @param sharedSubscriptions  the shared subscriptions of the connection
+     * @param connectionId         the identifier of the connection, stamped on the messages it publishes
+     */
+    ZmqSession(final ZmqGatewayFactory gatewayFactory, final Map<String, ZmqURI> destinationSchema, final boolean transacted,
+            final int acknowledgeMode, final ExceptionListener exceptionHandler, final Map<String, ZmqSharedSubscription> sharedSubscriptions,
+            final String connectionId) {
+
         this.destinationSchema = destinationSchema;
         this.transacted = transacted;
         this.acknowledgeMode = acknowledgeMode;
         this.exceptionHandler = exceptionHandler;
         this.gatewayFactory = gatewayFactory;
+        this.sharedSubscriptions = sharedSubscriptions;
+        this.connectionId = connectionId;
     }
 
     /**
@@ -122,6 +157,22 @@ public class ZmqSession implements QueueSession, TopicSession {
             gateways.clear();
         }
 
+        synchronized (temporaryQueues) {
+            for (ZmqTemporaryQueue temporaryQueue : temporaryQueues) {
+                temporaryQueue.delete();
+            }
+
+            temporaryQueues.clear();
+        }
+
+        synchronized (sharedSubscribers) {
+            for (ZmqSharedSubscriber sharedSubscriber : sharedSubscribers) {
+                sharedSubscriber.close();
+            }
+
+            sharedSubscribers.clear();
+        }
+
         for (ObjectName objectName : mbeanNames) {
             ZmqMBeanUtils.unregister(objectName);
         }
@@ -144,6 +195,12 @@ public class ZmqSession implements QueueSession, TopicSession {
                         gateway.commit();
                     }
                 }
+
+                synchronized (sharedSubscribers) {
+                    for (ZmqSharedSubscriber sharedSubscriber : sharedSubscribers) {
+                        sharedSubscriber.commit();
+                    }
+                }
             } catch (ZmqException ex) {
                 throw new ZmqException("Unable to commit messages: " + this, ex);
             }
@@ -211,14 +268,35 @@ public class ZmqSession implements QueueSession, TopicSession {
     @Override
     public TopicSubscriber createDurableSubscriber(final Topic topic, final String name) throws JMSException {
 
-        throw new UnsupportedOperationException();
+        final TopicSubscriber subscriber = createDurableSubscriber(topic, name, null, false);
+
+        return subscriber;
     }
 
     @Override
     public TopicSubscriber createDurableSubscriber(final Topic topic, final String name, final String messageSelector, final boolean noLocal)
             throws JMSException {
 
-        throw new UnsupportedOperationException();
+        final ZmqTopic zmqTopic = (ZmqTopic) topic;
+        final boolean transacted = getTransacted();
+        final String prefixName = "durable-" + name;
+        final ZmqGateway gateway = gatewayFactory.newConsumerGateway(prefixName, zmqTopic, ZmqSocketType.SUB, false, messageSelector,
+                transacted);
+
+        if (!(gateway instanceof ZmqReplayGateway)) {
+            throw new ZmqException("Durable subscription requires a topic with a replay gateway (gateway=replay): " + topic);
+        }
+
+        // the committed offset of the subscription is the point replay restarts from
+        ((ZmqReplayGateway) gateway).setSubscriptionName(name);
+
+        open(gateway);
+
+        final TopicSubscriber subscriber = new ZmqTopicSubscriber(gateway, topic, messageSelector, noLocal, exceptionHandler);
+
+        LOGGER.info("Created durable subscriber: " + subscriber);
+
+        return subscriber;
     }
 
     @Override
@@ -317,6 +395,12 @@ public class ZmqSession implements QueueSession, TopicSession {
                         gateway.rollback();
                     }
                 }
+
+                synchronized (sharedSubscribers) {
+                    for (ZmqSharedSubscriber sharedSubscriber : sharedSubscribers) {
+                        sharedSubscriber.rollback();
+                    }
+                }
             } catch (ZmqException ex) {
                 throw new ZmqException("Unable to rollback messages", ex);
             }
@@ -416,7 +500,13 @@ public class ZmqSession implements QueueSession, TopicSession {
     @Override
     public TemporaryQueue createTemporaryQueue() throws JMSException {
 
-        throw new UnsupportedOperationException();
+        final ZmqTemporaryQueue temporaryQueue = new ZmqTemporaryQueue();
+
+        synchronized (temporaryQueues) {
+            temporaryQueues.add(temporaryQueue);
+        }
+
+        return temporaryQueue;
     }
 
     @Override
@@ -428,6 +518,11 @@ public class ZmqSession implements QueueSession, TopicSession {
     @Override
     public QueueReceiver createReceiver(final Queue queue, final String messageSelector) throws JMSException {
 
+        if (queue instanceof ZmqTemporaryQueue) {
+            // replies are routed to the temporary queue by the request/reply gateway
+            return new ZmqTemporaryQueueReceiver((ZmqTemporaryQueue) queue);
+        }
+
         final ZmqQueue zmqQueue = (ZmqQueue) queue;
         final boolean transacted = getTransacted();
         final String prefixName = "receiver-" + gatewayConsumerCount.incrementAndGet();
@@ -446,6 +541,11 @@ public class ZmqSession implements QueueSession, TopicSession {
     @Override
     public QueueSender createSender(final Queue queue) throws JMSException {
 
+        if (queue instanceof ZmqReplyQueue) {
+            // replies travel back through the (already open) gateway which received the request
+            return new ZmqReplySender((ZmqReplyQueue) queue);
+        }
+
         final ZmqQueue zmqQueue = (ZmqQueue) queue;
         final boolean transacted = getTransacted();
         final String prefixName = "sender-" + gatewayProducerCount.incrementAndGet();
@@ -470,7 +570,9 @@ public class ZmqSession implements QueueSession, TopicSession {
 
         open(gateway);
 
-        TopicPublisher publisher = new ZmqTopicPublisher(gateway, topic);
+        final ZmqTopicPublisher publisher = new ZmqTopicPublisher(gateway, topic);
+
+        publisher.setConnectionId(connectionId);
 
         LOGGER.info("Created publisher: " + publisher);
 
@@ -489,6 +591,12 @@ public class ZmqSession implements QueueSession, TopicSession {
     public TopicSubscriber createSubscriber(final Topic topic, final String messageSelector, final boolean noLocal) throws JMSException {
 
         final ZmqTopic zmqTopic = (ZmqTopic) topic;
+
+        if (isFanout(zmqTopic)) {
+            // one gateway (socket and decode) fanned out to all subscribers of the connection
+            return createSharedSubscriber(zmqTopic, "fanout", messageSelector, noLocal, false, null);
+        }
+
         final boolean transacted = getTransacted();
         final String prefixName = "subscriber-" + gatewayConsumerCount.incrementAndGet();
         final ZmqGateway gateway = gatewayFactory.newConsumerGateway(prefixName, zmqTopic, ZmqSocketType.SUB, false, messageSelector,
@@ -506,39 +614,153 @@ public class ZmqSession implements QueueSession, TopicSession {
     @Override
     public MessageConsumer createDurableConsumer(final Topic topic, final String name) throws JMSException {
 
-        throw new UnsupportedOperationException();
+        final MessageConsumer consumer = createDurableSubscriber(topic, name, null, false);
+
+        return consumer;
     }
 
     @Override
     public MessageConsumer createDurableConsumer(final Topic topic, final String name, final String messageSelector, final boolean noLocal)
             throws JMSException {
 
-        throw new UnsupportedOperationException();
+        final MessageConsumer consumer = createDurableSubscriber(topic, name, messageSelector, noLocal);
+
+        return consumer;
     }
 
     @Override
     public MessageConsumer createSharedConsumer(final Topic topic, final String sharedSubscriptionName) throws JMSException {
 
-        throw new UnsupportedOperationException();
+        final MessageConsumer consumer = createSharedConsumer(topic, sharedSubscriptionName, null);
+
+        return consumer;
     }
 
     @Override
     public MessageConsumer createSharedConsumer(final Topic topic, final String sharedSubscriptionName,
         final String messageSelector) throws JMSException {
 
-        throw new UnsupportedOperationException();
+        final MessageConsumer consumer =
+            createSharedSubscriber((ZmqTopic) topic, "shared:" + sharedSubscriptionName, messageSelector, false, true, null);
+
+        return consumer;
     }
 
     @Override
     public MessageConsumer createSharedDurableConsumer(final Topic topic, final String name) throws JMSException {
 
-        throw new UnsupportedOperationException();
+        final MessageConsumer consumer = createSharedDurableConsumer(topic, name, null);
+
+        return consumer;
     }
 
     @Override
     public MessageConsumer createSharedDurableConsumer(final Topic topic, final String name, final String messageSelector) throws JMSException {
 
-        throw new UnsupportedOperationException();
+        final MessageConsumer consumer = createSharedSubscriber((ZmqTopic) topic, "durable:" + name, messageSelector, false, true, name);
+
+        return consumer;
+    }
+
+    /**
+     * Return true when the subscribers of the topic share one gateway per connection (URI option "subscription.fanout").
+     * @param  topic  the topic
+     * @return        return true to fan out
+     */
+    protected boolean isFanout(final ZmqTopic topic) {
+        final ZmqURI uri = (topic.getURI() == null) ? destinationSchema.get(topic.getName()) : topic.getURI();
+
+        return uri != null && uri.getOptionValue("subscription.fanout", false);
+    }
+
+    /**
+     * Return the maximum number of messages held for each subscriber of a shared subscription of the topic (URI option
+     * "subscription.capacity").
+     * @param  topic  the topic
+     * @return        return the capacity
+     */
+    protected int getSubscriptionCapacity(final ZmqTopic topic) {
+        final ZmqURI uri = (topic.getURI() == null) ? destinationSchema.get(topic.getName()) : topic.getURI();
+        final String value = (uri == null) ? null : uri.getOptionValue("subscription.capacity", null);
+
+        return (value == null) ? DEFAULT_SUBSCRIPTION_CAPACITY : Math.max(1, Integer.parseInt(value));
+    }
+
+    /**
+     * Return a subscriber of the shared subscription of the connection, opening the subscription (and its gateway)
+     * for the first subscriber.
+     * @param  topic             the topic
+     * @param  subscriptionName  the name of the subscription within the topic
+     * @param  messageSelector   the optional message selector
+     * @param  noLocal           the noLocal indicator
+     * @param  balanced          balance the messages across the subscribers (shared), rather than fan them out to all
+     * @param  durableName       the durable subscription name, or null
+     * @return                   return the subscriber
+     * @throws JMSException      throws exception when the subscription cannot be opened or shared
+     */
+    protected TopicSubscriber createSharedSubscriber(final ZmqTopic topic, final String subscriptionName, final String messageSelector,
+        final boolean noLocal, final boolean balanced, final String durableName) throws JMSException {
+
+        final String key = topic.getName() + "#" + subscriptionName;
+        final ZmqSharedSubscriber subscriber;
+        // parsed before any gateway is opened, so a bad selector leaves nothing behind
+        final ZmqMessageSelector selector = getSharedMessageSelector(messageSelector);
+
+        synchronized (sharedSubscriptions) {
+            ZmqSharedSubscription subscription = sharedSubscriptions.get(key);
+            final boolean opening = (subscription == null);
+
+            if (opening) {
+                final String prefixName = "shared-" + gatewaySharedCount.incrementAndGet();
+                // selectors are matched per subscriber by the subscription, so none on the gateway
+                final ZmqGateway gateway = gatewayFactory.newConsumerGateway(prefixName, topic, ZmqSocketType.SUB, false, null, false);
+
+                if (durableName != null) {
+                    if (!(gateway instanceof ZmqReplayGateway)) {
+                        throw new ZmqException("Durable subscription requires a topic with a replay gateway (gateway=replay): " + topic);
+                    }
+
+                    ((ZmqReplayGateway) gateway).setSubscriptionName(durableName);
+                }
+
+                subscription = new ZmqSharedSubscription(key, gateway, balanced, messageSelector, getSubscriptionCapacity(topic),
+                    connectionId, sharedSubscriptions);
+            }
+
+            subscriber = subscription.subscribe(topic, messageSelector, selector, noLocal, transacted);
+
+            if (opening) {
+                // opened once the first subscriber has been added, so no message is dispatched to nobody
+                subscription.open();
+                sharedSubscriptions.put(key, subscription);
+            }
+        }
+
+        synchronized (sharedSubscribers) {
+            sharedSubscribers.add(subscriber);
+        }
+
+        LOGGER.info("Created shared subscriber: " + subscriber);
+
+        return subscriber;
+    }
+
+    /**
+     * Return the parsed message selector of a shared subscriber, matched by the subscription rather than a gateway.
+     * @param  messageSelector  the message selector expression, or null
+     * @return                  return the selector, or null when none
+     * @throws ZmqException     throws exception when the expression cannot be parsed
+     */
+    private ZmqMessageSelector getSharedMessageSelector(final String messageSelector) throws ZmqException {
+        if (messageSelector == null || messageSelector.trim().length() == 0) {
+            return null;
+        }
+
+        try {
+            return sharedSelectorFactory.parse(messageSelector);
+        } catch (ParseException ex) {
+            throw new ZmqException("Unable to parse the message selector: " + messageSelector, ex);
+        }
     }
 
     @Override
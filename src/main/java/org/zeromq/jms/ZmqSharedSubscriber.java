@@ -0,0 +1,315 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Topic;
+import javax.jms.TopicSubscriber;
+
+/**
+ * Concrete ZERO MQ implementation of the JMS Topic Subscriber of a shared subscription, receiving the messages
+ * handed on by the subscription rather than from a gateway of its own. The messages are held on a bounded queue of
+ * the subscriber, so the subscription blocks (rather than holding ever more messages) once a subscriber falls behind.
+ * With a message listener the messages are delivered on a thread of the subscriber, so a slow listener never holds
+ * up the other subscribers.
+ *
+ * Within a transacted session the messages received since the last commit are held, and a rollback hands them on
+ * again (marked as redelivered) ahead of the queued messages.
+ */
+public class ZmqSharedSubscriber implements TopicSubscriber {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqSharedSubscriber.class.getCanonicalName());
+
+    private static final long RECEIVE_WAIT_MILLI_SECOND = 500;
+
+    private final ZmqSharedSubscription subscription;
+    private final Topic topic;
+    private final String messageSelector;
+    private final boolean noLocal;
+    private final boolean transacted;
+    private final BlockingQueue<ZmqMessage> messages;
+    private final LinkedList<ZmqMessage> redeliveredMessages = new LinkedList<ZmqMessage>();
+    private final List<ZmqMessage> uncommittedMessages = new ArrayList<ZmqMessage>();
+
+    private volatile MessageListener listener = null;
+    private volatile boolean closed = false;
+    private ExecutorService listenerExecutor = null;
+
+    /**
+     * Construct the shared subscriber.
+     * @param subscription     the shared subscription
+     * @param topic            the topic
+     * @param messageSelector  the optional message selector
+     * @param noLocal          the noLocal indicator
+     * @param transacted       the transacted (session) indicator
+     * @param capacity         the maximum number of messages held for the subscriber
+     */
+    ZmqSharedSubscriber(final ZmqSharedSubscription subscription, final Topic topic, final String messageSelector, final boolean noLocal,
+        final boolean transacted, final int capacity) {
+
+        this.subscription = subscription;
+        this.topic = topic;
+        this.messageSelector = messageSelector;
+        this.noLocal = noLocal;
+        this.transacted = transacted;
+        this.messages = new LinkedBlockingQueue<ZmqMessage>(capacity);
+    }
+
+    /**
+     * Hold the message until received, waiting up to the timeout for room. A message for a closed subscriber is
+     * dropped.
+     * @param  message               the message
+     * @param  timeout               the time to wait for room
+     * @param  unit                  the time unit
+     * @return                       return true when held (or dropped), false when there was no room
+     * @throws InterruptedException  throws exception when interrupted while waiting
+     */
+    boolean offer(final ZmqMessage message, final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (closed) {
+            return true;
+        }
+
+        return messages.offer(message, timeout, unit);
+    }
+
+    /**
+     * @return  return the shared subscription
+     */
+    public ZmqSharedSubscription getSubscription() {
+        return subscription;
+    }
+
+    /**
+     * @return  return true once closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Commit the messages received since the last commit (or rollback).
+     */
+    void commit() {
+        synchronized (uncommittedMessages) {
+            uncommittedMessages.clear();
+        }
+    }
+
+    /**
+     * Hand on the messages received since the last commit again, ahead of the queued messages.
+     * @throws JMSException  throws exception when a message cannot be marked as redelivered
+     */
+    void rollback() throws JMSException {
+        synchronized (uncommittedMessages) {
+            for (int i = uncommittedMessages.size() - 1; i >= 0; i--) {
+                final ZmqMessage message = uncommittedMessages.get(i);
+
+                message.setJMSRedelivered(true);
+
+                synchronized (redeliveredMessages) {
+                    redeliveredMessages.addFirst(message);
+                }
+            }
+
+            uncommittedMessages.clear();
+        }
+    }
+
+    /**
+     * Return the next message, a rolled back message first, waiting up to the timeout.
+     * @param  timeout               the time to wait (milliseconds)
+     * @return                       return the message, or null on timeout
+     * @throws InterruptedException  throws exception when interrupted while waiting
+     */
+    private ZmqMessage next(final long timeout) throws InterruptedException {
+        ZmqMessage message;
+
+        synchronized (redeliveredMessages) {
+            message = redeliveredMessages.poll();
+        }
+
+        if (message == null) {
+            message = (timeout > 0) ? messages.poll(timeout, TimeUnit.MILLISECONDS) : messages.poll();
+        }
+
+        if (message != null && transacted) {
+            synchronized (uncommittedMessages) {
+                uncommittedMessages.add(message);
+            }
+        }
+
+        return message;
+    }
+
+    @Override
+    public void close() throws JMSException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        synchronized (this) {
+            if (listenerExecutor != null) {
+                listenerExecutor.shutdownNow();
+                listenerExecutor = null;
+            }
+        }
+
+        messages.clear();
+
+        synchronized (redeliveredMessages) {
+            redeliveredMessages.clear();
+        }
+
+        subscription.unsubscribe(this);
+
+        LOGGER.info("Shared subscriber closed: " + this);
+    }
+
+    @Override
+    public MessageListener getMessageListener() throws JMSException {
+        return listener;
+    }
+
+    @Override
+    public synchronized void setMessageListener(final MessageListener listener) throws JMSException {
+        if (closed) {
+            throw new ZmqException("Subscriber has been closed: " + this);
+        }
+
+        this.listener = listener;
+
+        if (listener != null && listenerExecutor == null) {
+            listenerExecutor = Executors.newSingleThreadExecutor();
+            listenerExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        }
+    }
+
+    /**
+     * Deliver the messages to the message listener, until the listener is removed or the subscriber closed.
+     */
+    private void deliver() {
+        while (true) {
+            final MessageListener currentListener;
+
+            synchronized (this) {
+                currentListener = listener;
+
+                if (closed || currentListener == null) {
+                    if (listenerExecutor != null) {
+                        listenerExecutor.shutdown();
+                        listenerExecutor = null;
+                    }
+
+                    return;
+                }
+            }
+
+            try {
+                final Message message = next(RECEIVE_WAIT_MILLI_SECOND);
+
+                if (message != null) {
+                    currentListener.onMessage(message);
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.SEVERE, "Listener failed on message: " + this, ex);
+            }
+        }
+    }
+
+    @Override
+    public String getMessageSelector() throws JMSException {
+        return messageSelector;
+    }
+
+    @Override
+    public Message receive() throws JMSException {
+        Message message = null;
+
+        while (message == null && !closed) {
+            message = receive(RECEIVE_WAIT_MILLI_SECOND);
+        }
+
+        return message;
+    }
+
+    @Override
+    public Message receive(final long timeout) throws JMSException {
+        if (timeout == 0) {
+            return receive();
+        }
+
+        if (closed) {
+            return null;
+        }
+
+        try {
+            return next(timeout);
+        } catch (InterruptedException ex) {
+            throw new ZmqException("Receive interrupted: " + this, ex);
+        }
+    }
+
+    @Override
+    public Message receiveNoWait() throws JMSException {
+        if (closed) {
+            return null;
+        }
+
+        try {
+            return next(0);
+        } catch (InterruptedException ex) {
+            throw new ZmqException("Receive interrupted: " + this, ex);
+        }
+    }
+
+    @Override
+    public Topic getTopic() throws JMSException {
+        return topic;
+    }
+
+    @Override
+    public boolean getNoLocal() throws JMSException {
+        return noLocal;
+    }
+
+    /**
+     * @return  return true when the messages published by the connection of the subscriber are not received
+     */
+    boolean isNoLocal() {
+        return noLocal;
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqSharedSubscriber [subscription=" + subscription.getKey() + ", messageSelector=" + messageSelector
+            + ", noLocal=" + noLocal + ", transacted=" + transacted + ", closed=" + closed + "]";
+    }
+}
@@ -0,0 +1,374 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.Topic;
+import javax.management.ObjectName;
+
+import org.zeromq.jms.jmx.ZmqMBeanUtils;
+import org.zeromq.jms.protocol.ZmqGateway;
+import org.zeromq.jms.selector.ZmqMessageSelector;
+import org.zeromq.jms.selector.ZmqMessageSelectorIndex;
+
+/**
+ * Subscription of a topic shared by the subscribers of a connection, so each message is received and decoded once
+ * by a single gateway and then handed on to the local subscribers whose selector it matches (found through the
+ * selector index). The message is either fanned out to every matching subscriber (non-shared semantics), or
+ * balanced in turn across them (JMS 2.0 shared subscription semantics).
+ *
+ * Each subscriber holds its messages on a bounded queue of its own (and delivers to its listener on its own thread),
+ * so the dispatch thread only blocks once a subscriber has fallen behind by the capacity. A subscriber with noLocal
+ * set is not handed the messages published by its own connection.
+ *
+ * A fanned out message is copied for each subscriber, so its body is read (and its redelivered flag set on
+ * rollback) independently. The subscription is closed, with its gateway, once the last subscriber has closed.
+ */
+public class ZmqSharedSubscription {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqSharedSubscription.class.getCanonicalName());
+
+    private static final int DISPATCH_WAIT_MILLI_SECOND = 100;
+
+    private final String key;
+    private final ZmqGateway gateway;
+    private final boolean balanced;
+    private final String messageSelector;
+    private final int capacity;
+    private final String connectionId;
+    private final Map<String, ZmqSharedSubscription> registry;
+
+    private final ZmqMessageSelectorIndex<ZmqSharedSubscriber> index = new ZmqMessageSelectorIndex<ZmqSharedSubscriber>();
+    private final List<ZmqSharedSubscriber> subscribers = new ArrayList<ZmqSharedSubscriber>();
+    private final List<ObjectName> mbeanNames = new ArrayList<ObjectName>();
+
+    private ExecutorService dispatchExecutor = null;
+    private volatile boolean closed = false;
+    private long dispatchCount = 0;
+
+    /**
+     * Construct the shared subscription.
+     * @param key              the key of the subscription within the registry
+     * @param gateway          the (unopened) gateway receiving the messages
+     * @param balanced         balance the messages across the subscribers (shared), rather than fan them out to all
+     * @param messageSelector  the message selector every subscriber must share when balanced
+     * @param capacity         the maximum number of messages held for each subscriber
+     * @param connectionId     the identifier of the connection, stamped on the messages it publishes
+     * @param registry         the registry (of the connection) of the shared subscriptions, locked on change
+     */
+    ZmqSharedSubscription(final String key, final ZmqGateway gateway, final boolean balanced, final String messageSelector,
+        final int capacity, final String connectionId, final Map<String, ZmqSharedSubscription> registry) {
+
+        this.key = key;
+        this.gateway = gateway;
+        this.balanced = balanced;
+        this.messageSelector = messageSelector;
+        this.capacity = capacity;
+        this.connectionId = connectionId;
+        this.registry = registry;
+    }
+
+    /**
+     * Open the gateway and start handing on its messages to the subscribers. The first subscriber is added before
+     * opening, so it receives the first messages.
+     * @throws ZmqException  throws exception when the gateway cannot be opened
+     */
+    void open() throws ZmqException {
+        try {
+            gateway.open(-1);
+
+            mbeanNames.addAll(ZmqMBeanUtils.register(gateway));
+        } catch (RuntimeException ex) {
+            throw new ZmqException("Unable to open to ZMQ gateway: " + gateway, ex);
+        }
+
+        dispatchExecutor = Executors.newSingleThreadExecutor();
+        dispatchExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                dispatch();
+            }
+        });
+
+        LOGGER.info("Shared subscription opened: " + this);
+    }
+
+    /**
+     * Add a subscriber to the subscription. Called with the registry locked.
+     * @param  topic                  the topic
+     * @param  subscriberSelector     the message selector expression of the subscriber
+     * @param  selector               the parsed message selector, or null
+     * @param  noLocal                the noLocal indicator
+     * @param  transacted             the transacted (session) indicator
+     * @return                        return the subscriber
+     * @throws ZmqException           throws exception when the selector differs from the one the subscription is shared on
+     */
+    ZmqSharedSubscriber subscribe(final Topic topic, final String subscriberSelector, final ZmqMessageSelector selector,
+        final boolean noLocal, final boolean transacted) throws ZmqException {
+
+        if (balanced && !isSameSelector(messageSelector, subscriberSelector)) {
+            throw new ZmqException("Shared subscription (" + key + ") has selector '" + messageSelector + "', not: " + subscriberSelector);
+        }
+
+        final ZmqSharedSubscriber subscriber = new ZmqSharedSubscriber(this, topic, subscriberSelector, noLocal, transacted, capacity);
+
+        synchronized (subscribers) {
+            subscribers.add(subscriber);
+        }
+
+        index.register(subscriber, selector);
+
+        return subscriber;
+    }
+
+    /**
+     * Remove the subscriber from the subscription, closing the subscription when it was the last one.
+     * @param subscriber  the subscriber
+     */
+    void unsubscribe(final ZmqSharedSubscriber subscriber) {
+        boolean last = false;
+
+        synchronized (registry) {
+            index.unregister(subscriber);
+
+            synchronized (subscribers) {
+                subscribers.remove(subscriber);
+                last = subscribers.isEmpty();
+            }
+
+            if (last) {
+                closed = true;
+                registry.remove(key);
+            }
+        }
+
+        if (last) {
+            close();
+        }
+    }
+
+    /**
+     * Receive the messages from the gateway and hand them on to the matching subscribers, until closed.
+     */
+    private void dispatch() {
+        int turn = 0;
+
+        while (!closed) {
+            final ZmqMessage message;
+
+            try {
+                message = gateway.receive(DISPATCH_WAIT_MILLI_SECOND);
+            } catch (ZmqException ex) {
+                if (!closed) {
+                    LOGGER.log(Level.SEVERE, "Shared subscription (" + key + ") unable to receive from gateway: " + gateway, ex);
+                }
+
+                return;
+            }
+
+            if (message == null) {
+                continue;
+            }
+
+            final List<ZmqSharedSubscriber> matches = getMatches(message);
+
+            if (matches.isEmpty()) {
+                continue;
+            }
+
+            dispatchCount++;
+
+            try {
+                if (balanced) {
+                    turn = (turn + 1) % matches.size();
+                    offer(matches, turn, message);
+                } else {
+                    fanOut(matches, message);
+                }
+            } catch (InterruptedException ex) {
+                if (!closed) {
+                    LOGGER.log(Level.WARNING, "Shared subscription (" + key + ") dispatch interrupted: " + this, ex);
+                }
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return the subscribers whose selector the message matches, less those with noLocal set when the message was
+     * published by this connection.
+     * @param  message  the message
+     * @return          return the subscribers
+     */
+    private List<ZmqSharedSubscriber> getMatches(final ZmqMessage message) {
+        final List<ZmqSharedSubscriber> matches = index.match(message.getProperties());
+        final Object publisherConnectionId = message.getProperties().get(ZmqConnection.CONNECTION_ID_PROPERTY);
+
+        if (publisherConnectionId == null || !publisherConnectionId.toString().equals(connectionId)) {
+            return matches;
+        }
+
+        final List<ZmqSharedSubscriber> remoteMatches = new ArrayList<ZmqSharedSubscriber>(matches.size());
+
+        for (ZmqSharedSubscriber subscriber : matches) {
+            if (!subscriber.isNoLocal()) {
+                remoteMatches.add(subscriber);
+            }
+        }
+
+        return remoteMatches;
+    }
+
+    /**
+     * Hand on a copy of the message to each subscriber, the last taking the message itself.
+     * @param  subscribers           the subscribers
+     * @param  message               the message
+     * @throws InterruptedException  throws exception when interrupted while waiting
+     */
+    private void fanOut(final List<ZmqSharedSubscriber> subscribers, final ZmqMessage message) throws InterruptedException {
+        final int last = subscribers.size() - 1;
+
+        for (int i = 0; i < last; i++) {
+            try {
+                offer(subscribers.get(i), message.copy());
+            } catch (ZmqException ex) {
+                LOGGER.log(Level.SEVERE, "Shared subscription (" + key + ") unable to copy message for subscriber: " + subscribers.get(i), ex);
+            }
+        }
+
+        offer(subscribers.get(last), message);
+    }
+
+    /**
+     * Hand on the message to the subscriber, waiting while it has no room until it (or the subscription) closes.
+     * @param  subscriber            the subscriber
+     * @param  message               the message
+     * @throws InterruptedException  throws exception when interrupted while waiting
+     */
+    private void offer(final ZmqSharedSubscriber subscriber, final ZmqMessage message) throws InterruptedException {
+        while (!closed && !subscriber.offer(message, DISPATCH_WAIT_MILLI_SECOND, TimeUnit.MILLISECONDS)) {
+            LOGGER.fine("Shared subscription (" + key + ") waiting on subscriber: " + subscriber);
+        }
+    }
+
+    /**
+     * Hand on the message to the first subscriber with room, starting from the one whose turn it is, and waiting
+     * on that one when none has room.
+     * @param  subscribers           the subscribers
+     * @param  turn                  the index of the subscriber whose turn it is
+     * @param  message               the message
+     * @throws InterruptedException  throws exception when interrupted while waiting
+     */
+    private void offer(final List<ZmqSharedSubscriber> subscribers, final int turn, final ZmqMessage message) throws InterruptedException {
+        for (int i = 0; i < subscribers.size(); i++) {
+            final ZmqSharedSubscriber subscriber = subscribers.get((turn + i) % subscribers.size());
+
+            if (subscriber.offer(message, 0, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+
+        offer(subscribers.get(turn), message);
+    }
+
+    /**
+     * Close the gateway and stop handing on messages.
+     */
+    private void close() {
+        closed = true;
+
+        gateway.close(-1);
+
+        for (ObjectName objectName : mbeanNames) {
+            ZmqMBeanUtils.unregister(objectName);
+        }
+
+        mbeanNames.clear();
+
+        if (dispatchExecutor != null) {
+            try {
+                dispatchExecutor.shutdown();
+                final boolean success = dispatchExecutor.awaitTermination(3, TimeUnit.SECONDS);
+
+                if (!success) {
+                    LOGGER.severe("Shared subscription (" + key + ") dispatch thread failed to stop: " + toString());
+                }
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.SEVERE, "Shared subscription (" + key + ") dispatch thread failed to stop: " + toString(), ex);
+            }
+        }
+
+        LOGGER.info("Shared subscription closed: " + this);
+    }
+
+    /**
+     * Return true when both selectors are the same expression (or both none).
+     * @param  selector1  the first selector
+     * @param  selector2  the second selector
+     * @return            return true when the same
+     */
+    private static boolean isSameSelector(final String selector1, final String selector2) {
+        final String expression1 = (selector1 == null) ? "" : selector1.trim();
+        final String expression2 = (selector2 == null) ? "" : selector2.trim();
+
+        return expression1.equals(expression2);
+    }
+
+    /**
+     * @return  return the key of the subscription within the registry
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return  return the gateway receiving the messages
+     */
+    public ZmqGateway getGateway() {
+        return gateway;
+    }
+
+    /**
+     * @return  return true when the messages are balanced across the subscribers, rather than fanned out to all
+     */
+    public boolean isBalanced() {
+        return balanced;
+    }
+
+    /**
+     * @return  return the number of subscribers
+     */
+    public int getSubscriberCount() {
+        synchronized (subscribers) {
+            return subscribers.size();
+        }
+    }
+
+    /**
+     * @return  return true once the last subscriber has closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqSharedSubscription [key=" + key + ", balanced=" + balanced + ", subscribers=" + getSubscriberCount()
+            + ", dispatchCount=" + dispatchCount + ", gateway=" + gateway + "]";
+    }
+}
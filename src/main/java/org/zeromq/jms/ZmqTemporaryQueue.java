@@ -0,0 +1,76 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.TemporaryQueue;
+
+/**
+ * Concrete ZERO MQ implementation of the JMS Temporary Queue. It has no socket of its own, but holds the replies
+ * routed back (by the request/reply gateway) to the requests sent with it as their JMSReplyTo, until they are
+ * received by a consumer of the same connection.
+ */
+public class ZmqTemporaryQueue extends ZmqQueue implements TemporaryQueue {
+
+    private final transient BlockingQueue<ZmqMessage> replies = new LinkedBlockingQueue<ZmqMessage>();
+
+    private volatile boolean deleted = false;
+
+    /**
+     * Construct the temporary queue with a unique name.
+     */
+    public ZmqTemporaryQueue() {
+        super("temp-queue-" + UUID.randomUUID().toString());
+    }
+
+    /**
+     * Deliver a reply to the queue.
+     * @param  message  the reply message
+     * @return          return false when the queue has been deleted, and the reply dropped
+     */
+    public boolean deliver(final ZmqMessage message) {
+        if (deleted) {
+            return false;
+        }
+
+        return replies.offer(message);
+    }
+
+    /**
+     * Return the next reply, waiting up to the time out.
+     * @param  timeout               the time out (milliseconds)
+     * @return                       return the reply, or null on time out
+     * @throws InterruptedException  throws exception when interrupted while waiting
+     */
+    ZmqMessage receive(final long timeout) throws InterruptedException {
+        return replies.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return  return true when the queue has been deleted
+     */
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public void delete() throws JMSException {
+        deleted = true;
+        replies.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqTemporaryQueue [getName()=" + getName() + ", replies=" + replies.size() + ", deleted=" + deleted + "]";
+    }
+}
@@ -0,0 +1,172 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.QueueReceiver;
+
+/**
+ * Concrete ZERO MQ implementation of the JMS Queue Reciever for a temporary queue, receiving the replies held by the
+ * queue rather than from a gateway. With a message listener the replies are delivered on a thread of the receiver.
+ */
+public class ZmqTemporaryQueueReceiver implements QueueReceiver {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqTemporaryQueueReceiver.class.getCanonicalName());
+
+    private static final long RECEIVE_WAIT_MILLI_SECOND = 500;
+
+    private final ZmqTemporaryQueue queue;
+
+    private volatile boolean closed = false;
+    private volatile MessageListener listener = null;
+    private ExecutorService listenerExecutor = null;
+
+    /**
+     * Construct the temporary queue receiver.
+     * @param queue  the temporary queue
+     */
+    ZmqTemporaryQueueReceiver(final ZmqTemporaryQueue queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public void close() throws JMSException {
+        closed = true;
+
+        synchronized (this) {
+            if (listenerExecutor != null) {
+                listenerExecutor.shutdownNow();
+                listenerExecutor = null;
+            }
+        }
+    }
+
+    @Override
+    public MessageListener getMessageListener() throws JMSException {
+        return listener;
+    }
+
+    @Override
+    public String getMessageSelector() throws JMSException {
+        return null;
+    }
+
+    @Override
+    public Message receive() throws JMSException {
+        Message message = null;
+
+        while (message == null && !closed && !queue.isDeleted()) {
+            message = receive(RECEIVE_WAIT_MILLI_SECOND);
+        }
+
+        return message;
+    }
+
+    @Override
+    public Message receive(final long timeout) throws JMSException {
+        if (timeout == 0) {
+            return receive();
+        }
+
+        if (closed) {
+            return null;
+        }
+
+        try {
+            return queue.receive(timeout);
+        } catch (InterruptedException ex) {
+            throw new ZmqException("Receive interrupted: " + this, ex);
+        }
+    }
+
+    @Override
+    public Message receiveNoWait() throws JMSException {
+        if (closed) {
+            return null;
+        }
+
+        try {
+            return queue.receive(0);
+        } catch (InterruptedException ex) {
+            throw new ZmqException("Receive interrupted: " + this, ex);
+        }
+    }
+
+    @Override
+    public synchronized void setMessageListener(final MessageListener listener) throws JMSException {
+        if (closed) {
+            throw new ZmqException("Receiver has been closed: " + this);
+        }
+
+        this.listener = listener;
+
+        if (listener != null && listenerExecutor == null) {
+            listenerExecutor = Executors.newSingleThreadExecutor();
+            listenerExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    deliver();
+                }
+            });
+        }
+    }
+
+    /**
+     * Deliver the replies to the message listener, until the listener is removed, the receiver closed, or the
+     * queue deleted.
+     */
+    private void deliver() {
+        while (true) {
+            final MessageListener currentListener;
+
+            synchronized (this) {
+                currentListener = listener;
+
+                if (closed || queue.isDeleted() || currentListener == null) {
+                    if (listenerExecutor != null) {
+                        listenerExecutor.shutdown();
+                        listenerExecutor = null;
+                    }
+
+                    return;
+                }
+            }
+
+            try {
+                final Message message = queue.receive(RECEIVE_WAIT_MILLI_SECOND);
+
+                if (message != null) {
+                    currentListener.onMessage(message);
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Message listener failed: " + currentListener, ex);
+            }
+        }
+    }
+
+    @Override
+    public Queue getQueue() throws JMSException {
+        return queue;
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqTemporaryQueueReceiver [queue=" + queue + ", closed=" + closed + "]";
+    }
+}
@@ -31,6 +31,20 @@ public class ZmqTextMessage extends ZmqMessage implements TextMessage {
         this.text = text;
     }
 
+    @Override
+    public void recycle() {
+        super.recycle();
+
+        text = null;
+    }
+
+    @Override
+    protected void copyTo(final ZmqMessage message) {
+        super.copyTo(message);
+
+        ((ZmqTextMessage) message).text = text;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T> T getBody(final Class<T> c) throws JMSException {
@@ -286,4 +286,19 @@ public class ZmqGatewayManager implements ZmqGatewayManagerMBean, Serializable {
 
         return new Date(lastReceiveTime);
     }
+
+    @Override
+    public long getExpiredSendCount() {
+        return gateway.getExpiredSendCount();
+    }
+
+    @Override
+    public long getExpiredReceiveCount() {
+        return gateway.getExpiredReceiveCount();
+    }
+
+    @Override
+    public long getExpiredJournalCount() {
+        return gateway.getExpiredJournalCount();
+    }
 }
@@ -69,4 +69,19 @@ public interface ZmqGatewayManagerMBean extends ZmqMetricsMBean {
      */
     Date getLastReceiveTime();
 
+    /**
+     * @return  return the number of expired messages discarded rather than sent
+     */
+    long getExpiredSendCount();
+
+    /**
+     * @return  return the number of expired messages discarded rather than received
+     */
+    long getExpiredReceiveCount();
+
+    /**
+     * @return  return the number of expired messages purged from the journal
+     */
+    long getExpiredJournalCount();
+
 }
@@ -96,6 +96,16 @@ public class ZmqSocketStatistics implements ZmqSocketStatisticsMBean, Serializab
         return new Date(socketMetrics.getLastReceiveTime());
     }
 
+    @Override
+    public long getSendBytes() {
+        return socketMetrics.getSendBytes();
+    }
+
+    @Override
+    public long getReceiveBytes() {
+        return socketMetrics.getReceiveBytes();
+    }
+
     /**
      * Calculate the metrics for the send or receive based on the bucket counts.
      * @param bucketInterval  the bucket interval, i.e. 10000 milliseconds
@@ -208,4 +218,20 @@ public class ZmqSocketStatistics implements ZmqSocketStatisticsMBean, Serializab
 
         return calculateMetrics(bucketInterval, bucketCounts);
     }
+
+    @Override
+    public Map<String, Double> getSendByteMetrics() {
+        final int bucketInterval = socketMetrics.getBucketInternval();
+        final long[] bucketCounts = socketMetrics.getSendByteBucketCounts();
+
+        return calculateMetrics(bucketInterval, bucketCounts);
+    }
+
+    @Override
+    public Map<String, Double> getReceiveByteMetrics() {
+        final int bucketInterval = socketMetrics.getBucketInternval();
+        final long[] bucketCounts = socketMetrics.getReceiveByteBucketCounts();
+
+        return calculateMetrics(bucketInterval, bucketCounts);
+    }
 }
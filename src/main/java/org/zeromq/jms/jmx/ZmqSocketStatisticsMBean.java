@@ -8,6 +8,7 @@ package org.zeromq.jms.jmx;
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
 import java.util.Date;
+import java.util.Map;
 
 /**
  * ZMQ MBean interface that exposes socket attributes within the JConsole.
@@ -53,4 +54,24 @@ public interface ZmqSocketStatisticsMBean extends ZmqMetricsMBean {
      * @return  return the last time message was received
      */
     Date getLastReceiveTime();
+
+    /**
+     * @return  return the total bytes sent
+     */
+    long getSendBytes();
+
+    /**
+     * @return  return the total bytes received
+     */
+    long getReceiveBytes();
+
+    /**
+     * @return  return the byte rates and counts sent, i.e. bytes per second
+     */
+    Map<String, Double> getSendByteMetrics();
+
+    /**
+     * @return  return the byte rates and counts received, i.e. bytes per second
+     */
+    Map<String, Double> getReceiveByteMetrics();
 }
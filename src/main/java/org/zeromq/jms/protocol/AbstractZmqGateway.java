@@ -10,31 +10,46 @@ package org.zeromq.jms.protocol;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TransferQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.jms.CompletionListener;
+
 import org.zeromq.ZMQ;
 import org.zeromq.jms.ZmqException;
 import org.zeromq.jms.ZmqMessage;
+import org.zeromq.jms.annotation.ZmqUriParameter;
 import org.zeromq.jms.protocol.event.ZmqEventHandler;
 import org.zeromq.jms.protocol.filter.ZmqFilterPolicy;
+import org.zeromq.jms.protocol.redelivery.ZmqBackoutRedeliveryPolicy;
 import org.zeromq.jms.protocol.redelivery.ZmqRedeliveryPolicy;
 import org.zeromq.jms.protocol.store.ZmqJournalEntry;
+import org.zeromq.jms.protocol.store.ZmqJournalPolicy;
 import org.zeromq.jms.protocol.store.ZmqJournalStore;
+import org.zeromq.jms.protocol.store.ZmqJournalWriter;
 import org.zeromq.jms.selector.ZmqMessageSelector;
 import org.zeromq.jms.util.Stopwatch;
 
@@ -55,6 +70,14 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
 
     private static final int LISTENER_THREAD_POOL = 1;
     private static final int LISTENER_WAIT_MILLI_SECOND = 500;
+    private static final int REDELIVERY_WAIT_MILLI_SECOND = 100;
+
+    private static final int FLYWEIGHT_POOL_SIZE = 1024;
+
+    private static final int JOURNAL_QUEUE_SIZE = 4096;
+    private static final int PRIORITY_BAND_LIMIT = 10;
+    private static final int PRIORITY_STARVATION_LIMIT = 10;
+    private static final int JOURNAL_WRITER_STOP_MILLI_SECOND = 3000;
 
 
     private AtomicBoolean active = new AtomicBoolean(false);
@@ -90,15 +113,38 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
     private final ZmqJournalStore journalStore;
 
     private ZmqGatewayListener listener = null;
+    private ZmqGateway deadLetterGateway = null;
+
+    private final AtomicLong expiredSendCount = new AtomicLong();
+    private final AtomicLong expiredReceiveCount = new AtomicLong();
+
+    private boolean flyweight = false;
+    private int flyweightPoolSize = FLYWEIGHT_POOL_SIZE;
+    private ZmqMessagePool messagePool = null;
+
+    private ZmqJournalPolicy journalPolicy = ZmqJournalPolicy.SYNC;
+    private int journalQueueSize = JOURNAL_QUEUE_SIZE;
+    private ZmqJournalWriter journalWriter = null;
+
+    private int credit = 0;
+    private final Object creditMonitor = new Object();
+    private String partitionKey = null;
+    private int spillThreshold = 0;
+    private String spillDirectory = System.getProperty("java.io.tmpdir");
+    private int priorityBands = 0;
+    private int priorityStarvationLimit = PRIORITY_STARVATION_LIMIT;
+    private String priorityAddr = null;
 
     private ExecutorService socketExecutor = null;
     private ExecutorService listenerExecutor = null;
     private ExecutorService proxyExecutor = null;
 
-    private final TransferQueue<ZmqSendEvent> incomingQueue = new LinkedTransferQueue<ZmqSendEvent>();
+    private final ZmqSendCompletions completions;
+
+    private BlockingQueue<ZmqSendEvent> incomingQueue = new LinkedTransferQueue<ZmqSendEvent>();
     private final Queue<ZmqSendEvent> incomingSnapshot = new LinkedList<ZmqSendEvent>();
 
-    private final TransferQueue<ZmqSendEvent> outgoingQueue = new LinkedTransferQueue<ZmqSendEvent>();
+    private BlockingQueue<ZmqSendEvent> outgoingQueue = new LinkedBlockingDeque<ZmqSendEvent>();
     private final Queue<ZmqSendEvent> outgoingSnapshot = new LinkedList<ZmqSendEvent>();
 
     /**
@@ -110,10 +156,15 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         public void run() {
             while (active.get() && listener != null) {
                 try {
-                    final ZmqMessage message = receive(LISTENER_WAIT_MILLI_SECOND);
+                    final ZmqSendEvent event = receiveEvent(LISTENER_WAIT_MILLI_SECOND);
+
+                    if (event != null) {
+                        listener.onMessage(event.getMessage());
 
-                    if (message != null) {
-                        listener.onMessage(message);
+                        // the message cannot escape the call-back in flyweight mode, so recycle it
+                        if (messagePool != null) {
+                            messagePool.release(event);
+                        }
                     }
                 } catch (ZmqException ex) {
                     listener.onException(ex);
@@ -145,6 +196,7 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         final boolean heartbeat, final Direction direction) {
 
         this.name = name;
+        this.completions = new ZmqSendCompletions(name);
         this.type = socketContext.getType();
         this.socketContext = new ZmqSocketContext(socketContext);
         this.bound = socketContext.isBindFlag();
@@ -171,9 +223,31 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
      */
     protected String[] getSocketAddrs() {
         String[] addrs = addr.split(",");
+
+        if (isPriorityAddr()) {
+            // the extra socket dedicated to the top priority band
+            addrs = Arrays.copyOf(addrs, addrs.length + 1);
+            addrs[addrs.length - 1] = priorityAddr;
+        }
+
         return addrs;
     }
 
+    /**
+     * @return  return true when the top priority band travels through its own socket address
+     */
+    private boolean isPriorityAddr() {
+        return priorityAddr != null && priorityBands > 1 && partitionKey == null;
+    }
+
+    /**
+     * @param  session  the socket session
+     * @return          return true when the session is dedicated to the top priority band
+     */
+    private boolean isPrioritySession(final ZmqSocketSession session) {
+        return isPriorityAddr() && priorityAddr.equals(session.getAddr());
+    }
+
     /**
      * wait for a status to change and return true, otherwise timeout and return false.
      * @param  millis    the milliseconds to wait before giving up
@@ -231,6 +305,22 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
                 LOGGER.log(Level.SEVERE, "Unable to journal store: " + journalStore, ex);
                 return;
             }
+
+            if (journalPolicy != ZmqJournalPolicy.SYNC) {
+                journalWriter = new ZmqJournalWriter(journalStore, journalQueueSize);
+                journalWriter.start();
+            }
+        }
+
+        openOutgoingQueue();
+        openIncomingQueue();
+
+        if (flyweight) {
+            if (transacted) {
+                LOGGER.warning("Gateway [" + name + "] ignoring flyweight receive mode, since transacted messages are retained: " + this);
+            } else {
+                messagePool = new ZmqMessagePool(flyweightPoolSize);
+            }
         }
 
         listenerExecutor = Executors.newFixedThreadPool(LISTENER_THREAD_POOL);
@@ -241,11 +331,12 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         }
 
         String[] socketAddrs = getSocketAddrs();
-        socketExecutor = Executors.newFixedThreadPool(socketAddrs.length);
+        // no sockets when messages are handed on in-VM
+        socketExecutor = (socketAddrs.length == 0) ? null : Executors.newFixedThreadPool(socketAddrs.length);
         proxyExecutor = (socketContext.isProxy()) ? Executors.newFixedThreadPool(1) : null;
 
-        final boolean socketOutgoing = (direction == Direction.OUTGOING || heartbeat || acknowledge);
-        final boolean socketIncoming = (direction == Direction.INCOMING || heartbeat || acknowledge);
+        final boolean socketOutgoing = isSocketOutgoing();
+        final boolean socketIncoming = isSocketIncoming();
 
         // Setup the ZMQ sockets
         for (String socketAddr : socketAddrs) {
@@ -282,6 +373,13 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
                 socket, type, socketAddr, bound, socketIncoming, socketOutgoing, flags,
                 SOCKET_WAIT_MILLI_SECOND, heartbeat, acknowledge, socketListener, filterPolicy, eventHandler, socketMetrics);
 
+            socketSession.setMessagePool(messagePool);
+
+            if (credit > 0 && socketOutgoing && acknowledge) {
+                // initial window until the peer advertises its credit
+                socketSession.setCredit(credit);
+            }
+
             // override closed socket (cannot re-use)
             socketSessions.put(socketAddr, socketSession);
             socketExecutor.execute(socketSession);
@@ -303,31 +401,108 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
 
         //Setup the ZMQ PROXY
         if (socketContext.isProxy()) {
-            proxyContext = ZMQ.context(socketContext.getIOThreads());
-
-            final String proxyName = "proxy(" + name + ")";
-            final String frontSocketAddr = socketContext.getProxyAddr();
-            final ZmqSocketType frontSocketType = (socketContext.getProxyType() == null) ? ZmqSocketType.ROUTER : socketContext.getProxyType();
-            final boolean frontSocketBound = true;
-            final ZMQ.Socket frontSocket = context.socket(frontSocketType.getType());
-            final String backSocketAddr = addr;
-            final ZmqSocketType backSocketType = (socketContext.getProxyOutType() == null) ? ZmqSocketType.DEALER : socketContext.getProxyOutType();
-            final boolean backSocketBound = true;
-            final ZMQ.Socket backSocket =  context.socket(backSocketType.getType());
-
-            proxySession =
-                new ZmqProxySession(proxyName, active,
-                    frontSocket, frontSocketType, frontSocketAddr, frontSocketBound,
-                    backSocket, backSocketType, backSocketAddr, backSocketBound);
-            proxyExecutor.execute(proxySession);
+            openProxy(socketAddrs);
         }
 
         waitOnStatus(timeout,
             EnumSet.of(ZmqSocketStatus.RUNNING, ZmqSocketStatus.PAUSED, ZmqSocketStatus.ERROR));
 
+        if (deadLetterGateway != null) {
+            deadLetterGateway.open(timeout);
+        }
+
         LOGGER.info("Gateway openned: " + toString());
     }
 
+    /**
+     * Open the proxy, balancing the messages received on the front socket across a back socket per gateway address.
+     * @param socketAddrs  the gateway socket addresses
+     */
+    protected void openProxy(final String[] socketAddrs) {
+        proxyContext = ZMQ.context(socketContext.getIOThreads());
+
+        final String proxyName = "proxy(" + name + ")";
+        final String frontSocketAddr = socketContext.getProxyAddr();
+        final ZmqSocketType frontSocketType = (socketContext.getProxyType() == null) ? ZmqSocketType.ROUTER : socketContext.getProxyType();
+        final boolean frontSocketBound = true;
+        final ZMQ.Socket frontSocket = context.socket(frontSocketType.getType());
+        final ZmqSocketType backSocketType = (socketContext.getProxyOutType() == null) ? ZmqSocketType.DEALER : socketContext.getProxyOutType();
+        final boolean backSocketBound = true;
+        final ZMQ.Socket[] backSockets = new ZMQ.Socket[socketAddrs.length];
+        final ZmqSocketMetrics[] backMetrics = new ZmqSocketMetrics[socketAddrs.length];
+
+        for (int i = 0; i < socketAddrs.length; i++) {
+            backSockets[i] = context.socket(backSocketType.getType());
+            // do not block on a busy back socket, try the next one
+            backSockets[i].setSendTimeOut(0);
+            backMetrics[i] = getProxyMetrics(socketAddrs[i]);
+        }
+
+        proxySession =
+            new ZmqProxySession(proxyName, active,
+                frontSocket, frontSocketType, frontSocketAddr, frontSocketBound,
+                backSockets, backSocketType, socketAddrs, backSocketBound);
+        proxySession.setMetrics(getProxyMetrics(frontSocketAddr), backMetrics);
+
+        final String captureSocketAddr = socketContext.getProxyCaptureAddr();
+
+        if (captureSocketAddr != null) {
+            final ZMQ.Socket captureSocket = context.socket(ZmqSocketType.PUB.getType());
+
+            proxySession.setCapture(captureSocket, captureSocketAddr, socketContext.getProxyCaptureSample());
+        }
+
+        proxyExecutor.execute(proxySession);
+    }
+
+    /**
+     * Return the proxy metrics of the socket address, re-using the metrics of a previous open of the gateway.
+     * @param socketAddr  the proxy socket address
+     * @return            return the proxy socket metrics
+     */
+    private ZmqSocketMetrics getProxyMetrics(final String socketAddr) {
+        final String proxyAddr = "proxy(" + socketAddr + ")";
+
+        synchronized (metrics) {
+            for (ZmqSocketMetrics socketMetrics : metrics) {
+                if (proxyAddr.equals(socketMetrics.getAddr())) {
+                    return socketMetrics;
+                }
+            }
+
+            final ZmqSocketMetrics socketMetrics = new ZmqSocketMetrics(proxyAddr, SOCKET_METRIC_BUCKET_COUNT,
+                SOCKET_METRIC_BUCKET_INTERVAL_MILLI_SECOND, true, true);
+
+            metrics.add(socketMetrics);
+
+            return socketMetrics;
+        }
+    }
+
+    /**
+     * @return  return true when the sockets send events, i.e. outgoing messages, heart-beats or acknowledgements
+     */
+    protected boolean isSocketOutgoing() {
+        return (direction == Direction.OUTGOING || heartbeat || acknowledge);
+    }
+
+    /**
+     * @return  return true when the sockets receive events, i.e. incoming messages, heart-beats or acknowledgements
+     */
+    protected boolean isSocketIncoming() {
+        return (direction == Direction.INCOMING || heartbeat || acknowledge);
+    }
+
+    /**
+     * Return the time (milliseconds) a socket session waits on the outgoing queue for a message to send. Sessions
+     * that also receive (i.e. request/reply) only check for incoming messages in between, so the wait bounds their
+     * receive latency.
+     * @return  return the wait time
+     */
+    protected long getOutgoingWaitTime() {
+        return SOCKET_WAIT_MILLI_SECOND;
+    }
+
     /**
      * Construct a ZMQ socket and initialise default settings.
      * @param context           the Zero MQ context
@@ -401,6 +576,11 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
                 return socketSend(session);
             }
 
+            @Override
+            public void sent(final ZmqSocketSession session, final ZmqEvent event) {
+                socketSent(session, event);
+            }
+
             @Override
             public void error(final ZmqSocketSession session, final ZmqEvent event) {
                 socketError(session, event);
@@ -429,6 +609,10 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
     public void close(final int timeout) {
         active.set(false);
 
+        if (deadLetterGateway != null) {
+            deadLetterGateway.close(timeout);
+        }
+
         if (proxyContext != null) {
             // need to interrupt the proxy
             proxyContext.close();
@@ -461,6 +645,22 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         // What for sockets to shut down
         waitOnStatus(timeout, EnumSet.of(ZmqSocketStatus.STOPPED));
 
+        if (journalWriter != null) {
+            // apply the pending writes before closing the store
+            journalWriter.stop(JOURNAL_WRITER_STOP_MILLI_SECOND);
+            journalWriter = null;
+        }
+
+        if (outgoingQueue instanceof AbstractZmqSendQueue) {
+            for (BlockingQueue<ZmqSendEvent> queue : ((AbstractZmqSendQueue) outgoingQueue).getQueues()) {
+                if (queue instanceof ZmqSpillQueue) {
+                    ((ZmqSpillQueue) queue).close();
+                }
+            }
+        } else if (outgoingQueue instanceof ZmqSpillQueue) {
+            ((ZmqSpillQueue) outgoingQueue).close();
+        }
+
         if (journalStore != null) {
             try {
                 journalStore.close();
@@ -508,6 +708,9 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
             }
         }
 
+        // fail the sends still waiting on completion
+        completions.close(new ZmqException("Gateway closed before the send completed: " + toString()));
+
         // dump all tracked missing
         if (acknowledge) {
             for (ZmqSocketSession socketSession : socketSessions.values()) {
@@ -533,10 +736,11 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
      * @return        return the true to open socket (difference between connect and bind)
      */
     protected boolean socketOpen(final ZmqSocketSession source) {
-        if (source.isBound()) {
+        // the priority socket runs alongside the (one) bound socket of the other bands
+        if (source.isBound() && !isPrioritySession(source)) {
             for (ZmqSocketSession socketSession : socketSessions.values()) {
                 ZmqSocketStatus status = socketSession.getStatus();
-                if (status == ZmqSocketStatus.RUNNING) {
+                if (status == ZmqSocketStatus.RUNNING && !isPrioritySession(socketSession)) {
                     return false;
                 }
             }
@@ -565,27 +769,48 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
 
         ZmqEvent sendEvent = null;
 
-        // Only get real message if the socket session is running.
-        if (source.getStatus() == ZmqSocketStatus.RUNNING) {
-            if (journalStore != null) {
-                try {
-                    final ZmqJournalEntry journalEntry = journalStore.read();
-                    if (journalEntry != null && (!source.isTracked(journalEntry.getMessageId()))) {
-                        sendEvent =
-                                eventHandler.createSendEvent(journalEntry.getMessageId(), journalEntry.getMessage());
+        // Only get real message if the socket session is running, and the peer has credit.
+        if (source.getStatus() == ZmqSocketStatus.RUNNING && !isDispatchable(source)) {
+            awaitDispatchable(source);
+        } else if (source.getStatus() == ZmqSocketStatus.RUNNING) {
+            // skip (discard) the expired messages, rather than serialize and send them
+            do {
+                sendEvent = null;
+
+                if (journalStore != null) {
+                    try {
+                        final ZmqJournalEntry journalEntry = journalStore.read();
+                        if (journalEntry != null && (!source.isTracked(journalEntry.getMessageId()))) {
+                            sendEvent =
+                                    eventHandler.createSendEvent(journalEntry.getMessageId(), journalEntry.getMessage());
+                        }
+                    } catch (ZmqException ex) {
+                        LOGGER.log(Level.WARNING, "Socket [" + name + "@" + socketAddr + "] failed to read from the journal store", ex);
                     }
-                } catch (ZmqException ex) {
-                    LOGGER.log(Level.WARNING, "Socket [" + name + "@" + socketAddr + "] failed to read from the journal store", ex);
                 }
-            }
 
-            if (sendEvent == null) {
-                try {
-                    sendEvent = outgoingQueue.poll(SOCKET_WAIT_MILLI_SECOND, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException ex) {
-                    LOGGER.log(Level.WARNING, "Socket [" + name + "@" + socketAddr + "] polling of outgoing queue interrupted", ex);
+                if (sendEvent == null) {
+                    try {
+                        if (outgoingQueue instanceof ZmqPartitionedQueue) {
+                            sendEvent = ((ZmqPartitionedQueue) outgoingQueue).poll(socketAddr, getOutgoingWaitTime(), TimeUnit.MILLISECONDS);
+                        } else if (outgoingQueue instanceof ZmqPriorityQueue && isPriorityAddr()) {
+                            // the top band only travels through its own socket, so never queues behind the other bands
+                            final ZmqPriorityQueue priorityQueue = (ZmqPriorityQueue) outgoingQueue;
+                            final int topBand = priorityQueue.getTopBand();
+
+                            if (isPrioritySession(source)) {
+                                sendEvent = priorityQueue.poll(topBand, topBand, getOutgoingWaitTime(), TimeUnit.MILLISECONDS);
+                            } else {
+                                sendEvent = priorityQueue.poll(0, topBand - 1, getOutgoingWaitTime(), TimeUnit.MILLISECONDS);
+                            }
+                        } else {
+                            sendEvent = outgoingQueue.poll(getOutgoingWaitTime(), TimeUnit.MILLISECONDS);
+                        }
+                    } catch (InterruptedException ex) {
+                        LOGGER.log(Level.WARNING, "Socket [" + name + "@" + socketAddr + "] polling of outgoing queue interrupted", ex);
+                    }
                 }
-            }
+            } while (sendEvent instanceof ZmqSendEvent && discardExpired((ZmqSendEvent) sendEvent, true));
         }
 
         // No message(s) so send a heart-beat when required
@@ -625,6 +850,11 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         if (sendEvent != null && (socketOutgoing && acknowledge)) {
             source.track(sendEvent);
 
+            if (source.getCredit() >= 0) {
+                // less credit available here, so may now be the turn of another session
+                notifyCredit();
+            }
+
             if (LOGGER.isLoggable(Level.FINEST)) {
                 LOGGER.log(Level.FINEST, "Socket [" + name + "@" + socketAddr + "] tacking event: " + sendEvent);
             }
@@ -637,6 +867,158 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         return sendEvent;
     }
 
+    /**
+     * The event has been handed to the ZMQ socket, completing an asynchronous send when there is no later
+     * completion point (acknowledgement or journal).
+     * @param source   the socket session
+     * @param event    the event sent
+     */
+    public void socketSent(final ZmqSocketSession source, final ZmqEvent event) {
+        if (!acknowledge && journalStore == null && event instanceof ZmqSendEvent && !completions.isEmpty()) {
+            completions.complete(event.getMessageId(), null);
+        }
+    }
+
+    /**
+     * Replace the outgoing queue with a partitioned, priority, or spilling, queue when configured, handing on anything sent
+     * before the gateway was opened.
+     */
+    private void openOutgoingQueue() {
+        BlockingQueue<ZmqSendEvent> queue = null;
+
+        if (partitionKey != null && direction == Direction.OUTGOING) {
+            final Map<String, BlockingQueue<ZmqSendEvent>> partitionQueues = new LinkedHashMap<String, BlockingQueue<ZmqSendEvent>>();
+
+            for (String socketAddr : getSocketAddrs()) {
+                partitionQueues.put(socketAddr, createOutgoingQueue());
+            }
+
+            queue = new ZmqPartitionedQueue(partitionKey, createOutgoingQueue(), partitionQueues);
+        } else if (priorityBands > 0) {
+            final List<BlockingQueue<ZmqSendEvent>> bandQueues = new ArrayList<BlockingQueue<ZmqSendEvent>>();
+
+            for (int band = 0; band < priorityBands; band++) {
+                bandQueues.add(createOutgoingQueue());
+            }
+
+            queue = new ZmqPriorityQueue(bandQueues, priorityStarvationLimit);
+        } else if (spillThreshold > 0) {
+            queue = createOutgoingQueue();
+        }
+
+        if (queue != null) {
+            outgoingQueue.drainTo(queue);
+            outgoingQueue = queue;
+        }
+    }
+
+    /**
+     * Replace the incoming queue with a priority queue when priority bands are configured, handing on anything
+     * received before the gateway was opened.
+     */
+    private void openIncomingQueue() {
+        if (priorityBands > 0) {
+            final List<BlockingQueue<ZmqSendEvent>> bandQueues = new ArrayList<BlockingQueue<ZmqSendEvent>>();
+
+            for (int band = 0; band < priorityBands; band++) {
+                bandQueues.add(new LinkedTransferQueue<ZmqSendEvent>());
+            }
+
+            final BlockingQueue<ZmqSendEvent> queue = new ZmqPriorityQueue(bandQueues, priorityStarvationLimit);
+
+            incomingQueue.drainTo(queue);
+            incomingQueue = queue;
+        }
+    }
+
+    /**
+     * Return a new (un-partitioned) outgoing queue, spilling to file when a spill threshold has been set. Both can take
+     * a failed event back at their head.
+     * @return  return the queue
+     */
+    private BlockingQueue<ZmqSendEvent> createOutgoingQueue() {
+        if (spillThreshold > 0) {
+            return new ZmqSpillQueue(spillThreshold, Paths.get(spillDirectory), eventHandler);
+        }
+
+        return new LinkedBlockingDeque<ZmqSendEvent>();
+    }
+
+    /**
+     * Return true when the session should take the next outgoing message, i.e. its peer has credit and no other
+     * running session has more available credit (least loaded peer first). Always true when the peers do not
+     * advertise credit.
+     * @param  source  the socket session
+     * @return         return true to dispatch to the session
+     */
+    protected boolean isDispatchable(final ZmqSocketSession source) {
+        if (source.getCredit() < 0) {
+            return true;
+        }
+
+        final int availableCredit = source.getAvailableCredit();
+
+        if (availableCredit <= 0) {
+            return false;
+        }
+
+        if (outgoingQueue instanceof ZmqPartitionedQueue) {
+            // keyed messages can only travel through their own session
+            return true;
+        }
+
+        if (isPrioritySession(source)) {
+            // top band messages can only travel through the priority session
+            return true;
+        }
+
+        synchronized (socketSessions) {
+            for (ZmqSocketSession socketSession : socketSessions.values()) {
+                if (socketSession != source && !isPrioritySession(socketSession) && socketSession.isOutgoing()
+                    && socketSession.getStatus() == ZmqSocketStatus.RUNNING
+                    && socketSession.getAvailableCredit() > availableCredit) {
+
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait (up to the outgoing wait time) for the session to become dispatchable, rather than spin the session
+     * thread. A session without credit waits on its own socket for the ACK returning it, while a session with
+     * credit waits for the credit of the other sessions to change.
+     * @param source  the socket session
+     */
+    protected void awaitDispatchable(final ZmqSocketSession source) {
+        if (source.getAvailableCredit() <= 0) {
+            source.awaitIncoming(getOutgoingWaitTime());
+
+            return;
+        }
+
+        synchronized (creditMonitor) {
+            if (!isDispatchable(source)) {
+                try {
+                    creditMonitor.wait(getOutgoingWaitTime());
+                } catch (InterruptedException ex) {
+                    LOGGER.log(Level.WARNING, "Socket [" + name + "@" + source.getAddr() + "] waiting for credit interrupted", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wake the sessions waiting on the credit of another session.
+     */
+    private void notifyCredit() {
+        synchronized (creditMonitor) {
+            creditMonitor.notifyAll();
+        }
+    }
+
     /**
      * There has been an error relating to the following event.
      * @param source   the socket session having the exception
@@ -646,15 +1028,11 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         if (event instanceof ZmqSendEvent) {
             final ZmqSendEvent sendEvent = (ZmqSendEvent) event;
 
-            try {
-                outgoingQueue.put(sendEvent);
+            // back at the head, so it is still sent before the events (i.e. of the same key) queued behind it
+            AbstractZmqSendQueue.offerFirst(outgoingQueue, sendEvent);
 
-                if (LOGGER.isLoggable(Level.FINEST) && sendEvent != null) {
-                    LOGGER.log(Level.FINEST, "Socket [" + source.getAddr() + "] send event: " + sendEvent);
-                }
-            } catch (InterruptedException ex) {
-                final String socketAddr = source.getAddr();
-                LOGGER.log(Level.SEVERE, "Socket [" + name + "@" + socketAddr + "] was unable to re-send event: " + event, ex);
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.log(Level.FINEST, "Socket [" + source.getAddr() + "] send event: " + sendEvent);
             }
         }
     }
@@ -672,18 +1050,14 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         if (LOGGER.isLoggable(Level.FINEST)) {
             LOGGER.log(Level.FINEST, "Socket [" + name + "@" + socketAddr + "] consume event: " + event);
         }
-        if (event instanceof ZmqSendEvent) {
+        if (event instanceof ZmqSendEvent && discardExpired((ZmqSendEvent) event, false)) {
+            // the expired message is neither journaled nor delivered, but is still acknowledged
+            if (messagePool != null) {
+                messagePool.release((ZmqSendEvent) event);
+            }
+        } else if (event instanceof ZmqSendEvent) {
             try {
-                if (journalStore != null) {
-                    journalStore.create(event.getMessageId(),  ((ZmqSendEvent) event).getMessage());
-                }
-
-                incomingQueue.put((ZmqSendEvent) event);
-            } catch (InterruptedException ex) {
-                LOGGER.log(Level.SEVERE, "Socket [" + name + "@" + socketAddr + "] for gateway " + name
-                    + " cannot consume message due to intenral error: " + event, ex);
-
-                return null;
+                journal((ZmqSendEvent) event, incomingQueue);
             } catch (ZmqException ex) {
                 LOGGER.log(Level.SEVERE, "Socket [" + name + "@" + socketAddr + "] for gateway " + name
                     + " cannot store messahe due to intenral error: " + event, ex);
@@ -697,7 +1071,14 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
             // Heart beat is ALL SENDS
             try {
                 if (source.isAcknowledge() && source.isIncoming()) {
-                    replyEvent = eventHandler.createAckEvent(event);
+                    final ZmqAckEvent ackEvent = eventHandler.createAckEvent(event);
+
+                    if (credit > 0) {
+                        // advertise the room left within the incoming backlog
+                        ackEvent.setCredit(Math.max(0, credit - incomingQueue.size()));
+                    }
+
+                    replyEvent = ackEvent;
                 }
             } catch (ZmqException ex) {
                 LOGGER.log(Level.SEVERE, "Socket [" + name + "@" + socketAddr + "] received corrupt event: " + event, ex);
@@ -710,9 +1091,20 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
             } else {
                 LOGGER.log(Level.INFO, "Socket [" + name + "@" + socketAddr + "] received ACK event: " + event);
                 final ZmqSocketSession.TrackEvent trackedEvent = source.untrack(messageId);
+
+                if (ackEvent.getCredit() >= 0) {
+                    source.setCredit(ackEvent.getCredit());
+                }
+
+                if (source.getCredit() >= 0) {
+                    notifyCredit();
+                }
+
                 if (trackedEvent == null) {
                     LOGGER.log(Level.WARNING, "Socket [" + name + "@" + socketAddr + "] received ACK for untracked event: "
                         + event);
+                } else if (!completions.isEmpty()) {
+                    completions.complete(messageId, null);
                 }
             }
         }
@@ -742,11 +1134,15 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         }
 
         synchronized (outgoingSnapshot) {
-            for (ZmqSendEvent event : outgoingSnapshot) {
-                outgoingQueue.add(event);
+            if (!outgoingSnapshot.isEmpty()) {
+                final CompletableFuture<Boolean> future = journalAll(outgoingSnapshot, outgoingQueue);
 
-                if (journalStore != null) {
-                    journalStore.create(event.getMessageId(), event.getMessage());
+                for (ZmqSendEvent event : outgoingSnapshot) {
+                    if (event.getMessageId() == null) {
+                        completions.complete(event, null);
+                    } else {
+                        completeOnJournal(event.getMessageId(), future);
+                    }
                 }
             }
 
@@ -759,10 +1155,14 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
 
             }
 
-            for (final ZmqSendEvent event : incomingSnapshot) {
-                if (journalStore != null) {
-                    journalStore.delete(event.getMessageId());
+            if (journalStore != null && !incomingSnapshot.isEmpty()) {
+                final List<Object> messageIds = new ArrayList<Object>(incomingSnapshot.size());
+
+                for (final ZmqSendEvent event : incomingSnapshot) {
+                    messageIds.add(event.getMessageId());
                 }
+
+                journalDeleteAll(messageIds);
             }
 
             incomingSnapshot.clear();
@@ -782,11 +1182,17 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         }
 
         synchronized (outgoingSnapshot) {
+            for (ZmqSendEvent event : outgoingSnapshot) {
+                completions.complete(event, new ZmqException("Transaction rolled back: " + toString()));
+            }
+
             outgoingSnapshot.clear();
         }
 
         synchronized (incomingSnapshot) {
-            if (redelivery != null) {
+            if (redelivery instanceof ZmqBackoutRedeliveryPolicy) {
+                backout(((ZmqBackoutRedeliveryPolicy) redelivery).redeliverOrBackout(incomingSnapshot));
+            } else if (redelivery != null) {
                 redelivery.redeliver(incomingSnapshot);
             }
 
@@ -796,20 +1202,322 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         LOGGER.fine("Transaction rolledback: " + toString());
     }
 
+    /**
+     * Back out the events that have exhausted their re-deliveries, handing their messages on to the dead-letter
+     * gateway (when there is one) and deleting them from the journal. A message that cannot be handed on to the
+     * dead-letter gateway is left in the journal, so it is not lost.
+     * @param  events        the events
+     * @throws ZmqException  throws exception when the messages cannot be deleted from the journal
+     */
+    private void backout(final List<ZmqSendEvent> events) throws ZmqException {
+        final List<Object> messageIds = new ArrayList<Object>(events.size());
+
+        for (ZmqSendEvent event : events) {
+            boolean backedOut = true;
+
+            if (deadLetterGateway != null) {
+                try {
+                    deadLetterGateway.send(event.getMessage());
+                } catch (ZmqException ex) {
+                    LOGGER.log(Level.SEVERE, "Gateway [" + name + "] unable to send message to the dead-letter gateway: " + deadLetterGateway, ex);
+                    backedOut = false;
+                }
+            }
+
+            if (backedOut && event.getMessageId() != null) {
+                messageIds.add(event.getMessageId());
+            }
+
+            redelivery.onBackout(event);
+        }
+
+        if (journalStore != null && !messageIds.isEmpty()) {
+            journalDeleteAll(messageIds);
+        }
+    }
+
     @Override
     public void send(final ZmqMessage message) throws ZmqException {
-        final ZmqSendEvent event = eventHandler.createSendEvent(message);
+        sendEvent(createSendEvent(message));
+    }
 
+    /**
+     * Return the send event of the message. Both the synchronous and asynchronous sends create their event here, so a
+     * gateway can stamp (or route) the message before it is handed on.
+     * @param  message       the message
+     * @return               return the send event
+     * @throws ZmqException  throws exception when the message cannot be sent by the gateway
+     */
+    protected ZmqSendEvent createSendEvent(final ZmqMessage message) throws ZmqException {
+        return eventHandler.createSendEvent(message);
+    }
+
+    /**
+     * Send the event, holding it until commit when transacted, otherwise journaling it (when there is a journal
+     * store) and handing it on to the outgoing queue.
+     * @param  event         the event
+     * @throws ZmqException  throws exception when the message cannot be journaled
+     */
+    protected void sendEvent(final ZmqSendEvent event) throws ZmqException {
         if (transacted) {
             synchronized (outgoingSnapshot) {
                 outgoingSnapshot.add(event);
             }
         } else {
-            outgoingQueue.add(event);
+            journal(event, outgoingQueue);
+        }
+    }
+
+    @Override
+    public void send(final ZmqMessage message, final CompletionListener completionListener) throws ZmqException {
+        if (!active.get()) {
+            throw new ZmqException("The gateway has been close: " + toString());
+        }
+
+        final ZmqSendEvent event = createSendEvent(message);
+        final Object messageId = event.getMessageId();
+
+        if (messageId == null) {
+            sendUnidentified(event, completionListener);
+
+            return;
+        }
+
+        // register before the event is handed on, since it can complete straight away
+        completions.add(messageId, message, completionListener);
+
+        if (transacted) {
+            synchronized (outgoingSnapshot) {
+                outgoingSnapshot.add(event);
+            }
+        } else {
+            try {
+                completeOnJournal(messageId, journal(event, outgoingQueue));
+            } catch (ZmqException ex) {
+                completions.remove(messageId);
+
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Asynchronous send of an event without a message identifier (i.e. the serialize event handler), so it cannot be
+     * matched to its socket, acknowledgement or journal call-back. The send is completed once the event has been handed
+     * on to the outgoing queue, or on commit when transacted.
+     * @param  event               the event
+     * @param  completionListener  the listener to notify
+     * @throws ZmqException         throws exception when the message cannot be journaled
+     */
+    private void sendUnidentified(final ZmqSendEvent event, final CompletionListener completionListener) throws ZmqException {
+        if (transacted) {
+            synchronized (outgoingSnapshot) {
+                completions.add(event, completionListener);
+                outgoingSnapshot.add(event);
+            }
+        } else {
+            journal(event, outgoingQueue);
+            completions.complete(event.getMessage(), completionListener, null);
+        }
+    }
+
+    /**
+     * Complete the asynchronous send of the message once journaled, when the journal is the completion point, i.e.
+     * there is a journal store and no acknowledgement.
+     * @param messageId  the message identifier
+     * @param future     the future completed once the message has been journaled
+     */
+    private void completeOnJournal(final Object messageId, final CompletableFuture<Boolean> future) {
+        if (acknowledge || journalStore == null || completions.isEmpty()) {
+            return;
+        }
+
+        future.whenComplete(new BiConsumer<Boolean, Throwable>() {
+
+            @Override
+            public void accept(final Boolean result, final Throwable ex) {
+                completions.complete(messageId, ex);
+            }
+        });
+    }
+
+    /**
+     * Journal the message of the event (when there is a journal store) and hand the event on to the queue. With an
+     * asynchronous journal policy the event is handed on straight away (PARALLEL), or once journaled (BEFORE_SEND).
+     * @param  event         the event
+     * @param  queue         the queue the event is handed on to
+     * @return               return the future completed once the message has been journaled
+     * @throws ZmqException  throws exception when the message cannot be journaled
+     */
+    protected CompletableFuture<Boolean> journal(final ZmqSendEvent event, final Queue<ZmqSendEvent> queue) throws ZmqException {
+        if (journalStore == null) {
+            queue.add(event);
+
+            return CompletableFuture.completedFuture(true);
+        }
+
+        final CompletableFuture<Boolean> future = journalCreate(event.getMessageId(), event.getMessage());
+
+        if (journalWriter == null || journalPolicy == ZmqJournalPolicy.PARALLEL) {
+            queue.add(event);
+        } else {
+            future.whenComplete(new BiConsumer<Boolean, Throwable>() {
+
+                @Override
+                public void accept(final Boolean result, final Throwable ex) {
+                    // a failed write has been logged, but still hand it on rather than lose the message
+                    queue.add(event);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Journal the messages of the events (when there is a journal store) as one batch write and hand the events on to
+     * the queue in one transfer, i.e. a committed transaction. As with a single event, the events are handed on
+     * straight away (PARALLEL), or once the batch has been journaled (BEFORE_SEND).
+     * @param  events        the events
+     * @param  queue         the queue the events are handed on to
+     * @return               return the future completed once the messages have been journaled
+     * @throws ZmqException  throws exception when the messages cannot be journaled
+     */
+    protected CompletableFuture<Boolean> journalAll(final Collection<ZmqSendEvent> events, final Queue<ZmqSendEvent> queue) throws ZmqException {
+        final List<ZmqSendEvent> batch = new ArrayList<ZmqSendEvent>(events);
+
+        if (journalStore == null) {
+            queue.addAll(batch);
+
+            return CompletableFuture.completedFuture(true);
+        }
+
+        final Map<Object, ZmqMessage> messages = new LinkedHashMap<Object, ZmqMessage>();
+
+        for (ZmqSendEvent event : batch) {
+            messages.put(event.getMessageId(), event.getMessage());
+        }
+
+        final CompletableFuture<Boolean> future;
+
+        if (journalWriter != null) {
+            future = journalWriter.createAll(messages);
+        } else {
+            journalStore.createAll(messages);
+            future = CompletableFuture.completedFuture(true);
+        }
+
+        if (journalWriter == null || journalPolicy == ZmqJournalPolicy.PARALLEL) {
+            queue.addAll(batch);
+        } else {
+            future.whenComplete(new BiConsumer<Boolean, Throwable>() {
+
+                @Override
+                public void accept(final Boolean result, final Throwable ex) {
+                    // a failed write has been logged, but still hand them on rather than lose the messages
+                    queue.addAll(batch);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Hand on an event received outside of the gateway sockets (i.e. replayed) to the incoming queue, journaling its
+     * message when there is a journal store.
+     * @param  event         the event
+     * @throws ZmqException  throws exception when the message cannot be journaled
+     */
+    protected void deliver(final ZmqSendEvent event) throws ZmqException {
+        if (discardExpired(event, false)) {
+            return;
+        }
+
+        journal(event, incomingQueue);
+    }
+
+    /**
+     * Return true when the message of the event has expired (JMS expiration) and so is to be discarded, counting it,
+     * deleting any journal entry of an outgoing message and failing any asynchronous send of it. Only the header
+     * is checked, so the properties and body are never touched.
+     * @param  event     the event
+     * @param  outgoing  the outgoing (send) indicator, otherwise incoming (receive)
+     * @return           return true when expired
+     */
+    private boolean discardExpired(final ZmqSendEvent event, final boolean outgoing) {
+        final ZmqMessage message = event.getMessage();
+
+        if (message == null || !message.isExpired(System.currentTimeMillis())) {
+            return false;
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Gateway [" + name + "] discarded expired message: " + event);
+        }
+
+        if (outgoing) {
+            expiredSendCount.incrementAndGet();
 
             if (journalStore != null) {
-                journalStore.create(event.getMessageId(), event.getMessage());
+                try {
+                    journalDelete(event.getMessageId());
+                } catch (ZmqException ex) {
+                    LOGGER.log(Level.WARNING, "Gateway [" + name + "] unable to delete journal entry of expired message: " + event, ex);
+                }
+            }
+
+            if (!completions.isEmpty()) {
+                completions.complete(event.getMessageId(), new ZmqException("Message expired before it was sent: " + event));
             }
+        } else {
+            expiredReceiveCount.incrementAndGet();
+        }
+
+        return true;
+    }
+
+    /**
+     * Create the journal entry of the message, on the calling thread or by the journal writer.
+     * @param  messageId     the message identifier
+     * @param  message       the message
+     * @return               return the future completed once the message has been journaled
+     * @throws ZmqException  throws exception when the message cannot be journaled
+     */
+    private CompletableFuture<Boolean> journalCreate(final Object messageId, final ZmqMessage message) throws ZmqException {
+        if (journalWriter != null) {
+            return journalWriter.create(messageId, message);
+        }
+
+        journalStore.create(messageId, message);
+
+        return CompletableFuture.completedFuture(true);
+    }
+
+    /**
+     * Delete the journal entry of the message, on the calling thread or by the journal writer (after any pending
+     * create of the entry).
+     * @param  messageId     the message identifier
+     * @throws ZmqException  throws exception when the entry cannot be deleted
+     */
+    private void journalDelete(final Object messageId) throws ZmqException {
+        if (journalWriter != null) {
+            journalWriter.delete(messageId);
+        } else {
+            journalStore.delete(messageId);
+        }
+    }
+
+    /**
+     * Delete the journal entries of the messages as one batch, on the calling thread or by the journal writer.
+     * @param  messageIds    the message identifiers
+     * @throws ZmqException  throws exception when the entries cannot be deleted
+     */
+    private void journalDeleteAll(final List<Object> messageIds) throws ZmqException {
+        if (journalWriter != null) {
+            journalWriter.deleteAll(messageIds);
+        } else {
+            journalStore.deleteAll(messageIds);
         }
     }
 
@@ -846,6 +1554,23 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
 
     @Override
     public ZmqMessage receive(final int timeout) throws ZmqException {
+        final ZmqSendEvent event = receiveEvent(timeout);
+
+        if (event == null) {
+            return null;
+        }
+
+        return event.getMessage();
+    }
+
+    /**
+     * Attempt to receive the next message event from the re-delivery, journal or incoming queues, waiting for the
+     * specified time before return NULL for nothing retrieved.
+     * @param  timeout        the wait time out
+     * @return                return the event containing the message
+     * @throws ZmqException   throws I/O exception on an underlying error
+     */
+    protected ZmqSendEvent receiveEvent(final int timeout) throws ZmqException {
         Stopwatch stopwatch = null;
 
         if (LOGGER.isLoggable(Level.FINER)) {
@@ -861,8 +1586,6 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
             final ZmqSendEvent event = redelivery.getNextRedeliver();
 
             if (event != null) {
-                final ZmqMessage message = event.getMessage();
-
                 if (transacted) {
                     synchronized (incomingSnapshot) {
                         incomingSnapshot.add(event);
@@ -873,27 +1596,37 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
                     LOGGER.log(Level.FINER, "Receive re-delivery message: " + stopwatch.lapsedTime() + " (msec) :" + toString());
                 }
 
-                return message;
+                return event;
             }
         }
 
         // check the journal store for any messages.
         if (journalStore != null) {
             ZmqJournalEntry journalEntry = journalStore.read();
+            ZmqSendEvent event = null;
+
+            // purge the expired (i.e. recovered) messages, rather than deliver them
+            while (journalEntry != null) {
+                event = eventHandler.createSendEvent(journalEntry.getMessageId(), journalEntry.getMessage());
+
+                if (!discardExpired(event, false)) {
+                    break;
+                }
+
+                journalDelete(journalEntry.getMessageId());
+                journalEntry = journalStore.read();
+            }
 
             if (journalEntry != null) {
                 if (transacted) {
-                    final ZmqSendEvent event =
-                        eventHandler.createSendEvent(journalEntry.getMessageId(), journalEntry.getMessage());
-
                     synchronized (outgoingSnapshot) {
                         outgoingSnapshot.add(event);
                     }
                 } else {
-                    journalStore.delete(journalEntry.getMessageId());
+                    journalDelete(journalEntry.getMessageId());
                 }
 
-                return journalEntry.getMessage();
+                return event;
             }
         }
 
@@ -901,11 +1634,13 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         final long startTime = System.currentTimeMillis();
 
         try {
-            final ZmqSendEvent event = incomingQueue.poll(timeout, TimeUnit.MILLISECONDS);
+            // wake up to check for delayed re-deliveries falling due
+            final long pollTimeout = (redelivery == null) ? timeout : Math.min(timeout, REDELIVERY_WAIT_MILLI_SECOND);
+            final ZmqSendEvent event = incomingQueue.poll(pollTimeout, TimeUnit.MILLISECONDS);
 
             if (event != null) {
                 ZmqMessage message = event.getMessage();
-                if (isValidMessage(message)) {
+                if (!discardExpired(event, false) && isValidMessage(message)) {
                     // when transacted kept track of messages for roll-back
                     if (transacted) {
                         synchronized (incomingSnapshot) {
@@ -913,7 +1648,7 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
                         }
                     } else {
                         if (journalStore != null) {
-                            journalStore.create(event.getMessageId(), message);
+                            journalCreate(event.getMessageId(), message);
                         }
                     }
 
@@ -921,7 +1656,12 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
                         LOGGER.log(Level.FINER, "Gateway [" + name + "] receive incoming message: " + stopwatch.lapsedTime() + " (msec)");
                     }
 
-                    return message;
+                    return event;
+                }
+
+                // expired or rejected by the selector, so nothing else references the message
+                if (messagePool != null) {
+                    messagePool.release(event);
                 }
             }
         } catch (InterruptedException ex) {
@@ -934,30 +1674,170 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         if (lapsedTime < timeout) {
             final int remainingTimeout = (int) (timeout - lapsedTime);
 
-            final ZmqMessage message = receive(remainingTimeout);
+            final ZmqSendEvent event = receiveEvent(remainingTimeout);
 
             if (stopwatch != null) {
-                if (message == null) {
+                if (event == null) {
                     LOGGER.log(Level.FINER, "Gateway  [" + name + "] receive incoming message (Wait): " + stopwatch.lapsedTime() + " (msec)");
                 } else {
                     LOGGER.log(Level.FINER, "Gatewau  [" + name + "] receive no message (Timeout): " + stopwatch.lapsedTime() + " (msec)");
                 }
             }
 
-            return message;
+            return event;
         }
 
         return null;
     }
 
+    @Override
+    public void setDeadLetterGateway(final ZmqGateway deadLetterGateway) {
+        this.deadLetterGateway = deadLetterGateway;
+    }
+
     @Override
     public void setListener(final ZmqGatewayListener listener) {
-        if (listener != null && this.listener == null) {
+        final boolean startListener = (listener != null && this.listener == null);
+
+        // set before the thread starts, since it stops as soon as it finds no listener
+        this.listener = listener;
+
+        if (startListener) {
             ListenerThread listenerThread = new ListenerThread();
             listenerExecutor.execute(listenerThread);
         }
+    }
 
-        this.listener = listener;
+    /**
+     * Enable the "flyweight" receive mode, where messages delivered to a MessageListener are recycled once
+     * onMessage() returns. Messages MUST NOT escape the call-back in this mode. Ignored for transacted gateways.
+     * @param flyweight  the flyweight receive mode indicator
+     */
+    @ZmqUriParameter("gateway.flyweight")
+    public void setFlyweight(final boolean flyweight) {
+        this.flyweight = flyweight;
+    }
+
+    /**
+     * @return  return true when the "flyweight" receive mode has been requested
+     */
+    public boolean isFlyweight() {
+        return flyweight;
+    }
+
+    /**
+     * Set the maximum number of idle messages held for re-use in "flyweight" receive mode.
+     * @param flyweightPoolSize  the pool size
+     */
+    @ZmqUriParameter("gateway.flyweightPoolSize")
+    public void setFlyweightPoolSize(final int flyweightPoolSize) {
+        this.flyweightPoolSize = flyweightPoolSize;
+    }
+
+    /**
+     * Set how messages are journaled relative to handing them on, i.e. SYNC (default) on the calling thread,
+     * or asynchronously by a journal writer thread either BEFORE_SEND or in PARALLEL.
+     * @param journalPolicy  the journal policy
+     */
+    @ZmqUriParameter("gateway.journalPolicy")
+    public void setJournalPolicy(final ZmqJournalPolicy journalPolicy) {
+        this.journalPolicy = journalPolicy;
+    }
+
+    /**
+     * @return  return the journal policy
+     */
+    public ZmqJournalPolicy getJournalPolicy() {
+        return journalPolicy;
+    }
+
+    /**
+     * Set the maximum number of writes pending on the journal writer thread, before the callers are blocked.
+     * @param journalQueueSize  the queue size
+     */
+    @ZmqUriParameter("gateway.journalQueueSize")
+    public void setJournalQueueSize(final int journalQueueSize) {
+        this.journalQueueSize = journalQueueSize;
+    }
+
+    /**
+     * Enable credit based flow control. Incoming (acknowledging) gateways advertise the room left within this
+     * incoming backlog on each ACK, while outgoing gateways use it as the initial credit of each peer, only sending
+     * to peers with credit and preferring the least loaded. Zero (default) disables flow control.
+     * @param credit  the credit
+     */
+    @ZmqUriParameter("gateway.credit")
+    public void setCredit(final int credit) {
+        this.credit = credit;
+    }
+
+    /**
+     * Partition the outgoing messages across the socket addresses by the value of the message property, i.e.
+     * JMSXGroupID, so messages with the same key are always sent in order through the same socket. Messages without
+     * the property are sent through any socket. Not set (default) sends each message through any socket.
+     * @param partitionKey  the message property name
+     */
+    @ZmqUriParameter("gateway.partitionKey")
+    public void setPartitionKey(final String partitionKey) {
+        this.partitionKey = partitionKey;
+    }
+
+    /**
+     * Set the maximum number of outgoing messages held in memory, before the overflow is spilled to a local file
+     * (while the socket is paused or the peer is down). Zero (default) holds all outgoing messages in memory.
+     * @param spillThreshold  the in memory threshold
+     */
+    @ZmqUriParameter("gateway.spillThreshold")
+    public void setSpillThreshold(final int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Set the directory of the outgoing message spill file, defaulting to the temporary directory.
+     * @param spillDirectory  the spill directory
+     */
+    @ZmqUriParameter("gateway.spillDirectory")
+    public void setSpillDirectory(final String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Queue the outgoing and incoming messages by JMS priority, collapsing the 10 priorities into this number of
+     * bands (up to 10), i.e. 3 bands hold priorities 0-3, 4-6 and 7-9. Zero (default) queues the messages in the order
+     * sent or received. Ignored for outgoing messages when partitioned by key.
+     * @param priorityBands  the number of priority bands
+     */
+    @ZmqUriParameter("gateway.priorityBands")
+    public void setPriorityBands(final int priorityBands) {
+        this.priorityBands = Math.max(0, Math.min(PRIORITY_BAND_LIMIT, priorityBands));
+    }
+
+    /**
+     * Set the number of times a waiting priority band can be passed over by the higher bands, before it is taken
+     * ahead of them, so lower priority messages are never held back forever. Zero always takes the highest band.
+     * @param priorityStarvationLimit  the starvation limit, defaulting to 10
+     */
+    @ZmqUriParameter("gateway.priorityStarvationLimit")
+    public void setPriorityStarvationLimit(final int priorityStarvationLimit) {
+        this.priorityStarvationLimit = priorityStarvationLimit;
+    }
+
+    /**
+     * Set an extra socket address dedicated to the top priority band, so those messages never queue behind the
+     * other bands within the ZMQ socket buffers, while the other bands use the remaining addresses. Requires at
+     * least 2 priority bands, and both peers to set the same address.
+     * @param priorityAddr  the priority socket address
+     */
+    @ZmqUriParameter("gateway.priorityAddr")
+    public void setPriorityAddr(final String priorityAddr) {
+        this.priorityAddr = priorityAddr;
+    }
+
+    /**
+     * @return  return the number of outgoing messages waiting to be sent
+     */
+    public int getOutgoingCount() {
+        return outgoingQueue.size();
     }
 
     /**
@@ -967,6 +1847,25 @@ public abstract class AbstractZmqGateway implements ZmqGateway {
         return metrics;
     }
 
+    @Override
+    public long getExpiredSendCount() {
+        return expiredSendCount.get();
+    }
+
+    @Override
+    public long getExpiredReceiveCount() {
+        return expiredReceiveCount.get();
+    }
+
+    @Override
+    public long getExpiredJournalCount() {
+        if (journalStore == null) {
+            return 0;
+        }
+
+        return journalStore.getExpiredCount();
+    }
+
     @Override
     public String getName() {
         return name;
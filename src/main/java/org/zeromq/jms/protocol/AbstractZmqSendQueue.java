@@ -0,0 +1,224 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Abstract event queue made up of several (unbounded) queues, i.e. a queue per partition or per priority band. An
+ * event is offered to the queue chosen by the sub-class, and waiting polls are woken on every offer, since a wait can
+ * be for any of the queues.
+ */
+public abstract class AbstractZmqSendQueue extends AbstractQueue<ZmqSendEvent> implements BlockingQueue<ZmqSendEvent> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * @return  return all the queues
+     */
+    public abstract List<BlockingQueue<ZmqSendEvent>> getQueues();
+
+    /**
+     * Return the queue the event is offered to.
+     * @param  event  the event
+     * @return        return the queue
+     */
+    protected abstract BlockingQueue<ZmqSendEvent> getQueue(ZmqSendEvent event);
+
+    /**
+     * @return  return the lock held while polling, and to wait on an offer
+     */
+    protected ReentrantLock getLock() {
+        return lock;
+    }
+
+    @Override
+    public boolean offer(final ZmqSendEvent event) {
+        getQueue(event).offer(event);
+        signalAll();
+
+        return true;
+    }
+
+    @Override
+    public void put(final ZmqSendEvent event) {
+        offer(event);
+    }
+
+    @Override
+    public boolean offer(final ZmqSendEvent event, final long timeout, final TimeUnit unit) {
+        return offer(event);
+    }
+
+    /**
+     * Put the event back at the head of its queue, i.e. an event that failed to send, so it is sent before the
+     * events queued behind it.
+     * @param event  the event
+     */
+    public void offerFirst(final ZmqSendEvent event) {
+        offerFirst(getQueue(event), event);
+        signalAll();
+    }
+
+    /**
+     * Put the event back at the head of the queue when the queue supports it, otherwise at the tail.
+     * @param queue  the queue
+     * @param event  the event
+     */
+    public static void offerFirst(final BlockingQueue<ZmqSendEvent> queue, final ZmqSendEvent event) {
+        if (queue instanceof AbstractZmqSendQueue) {
+            ((AbstractZmqSendQueue) queue).offerFirst(event);
+        } else if (queue instanceof BlockingDeque) {
+            ((BlockingDeque<ZmqSendEvent>) queue).offerFirst(event);
+        } else if (queue instanceof ZmqSpillQueue) {
+            ((ZmqSpillQueue) queue).offerFirst(event);
+        } else {
+            queue.offer(event);
+        }
+    }
+
+    @Override
+    public ZmqSendEvent poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return poll(new Supplier<ZmqSendEvent>() {
+
+            @Override
+            public ZmqSendEvent get() {
+                return poll();
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Return the next event of the poll, waiting up to the timeout for an offer.
+     * @param  eventPoll             the poll of one or more of the queues
+     * @param  timeout               the time to wait
+     * @param  unit                  the time unit
+     * @return                       return the event, or null on timeout
+     * @throws InterruptedException  throws exception when interrupted while waiting
+     */
+    protected ZmqSendEvent poll(final Supplier<ZmqSendEvent> eventPoll, final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        lock.lockInterruptibly();
+
+        try {
+            ZmqSendEvent event = eventPoll.get();
+
+            while (event == null && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+                event = eventPoll.get();
+            }
+
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ZmqSendEvent take() throws InterruptedException {
+        ZmqSendEvent event = null;
+
+        while (event == null) {
+            event = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        return event;
+    }
+
+    @Override
+    public ZmqSendEvent peek() {
+        for (BlockingQueue<ZmqSendEvent> queue : getQueues()) {
+            final ZmqSendEvent event = queue.peek();
+
+            if (event != null) {
+                return event;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (BlockingQueue<ZmqSendEvent> queue : getQueues()) {
+            size = size + queue.size();
+        }
+
+        return size;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(final Collection<? super ZmqSendEvent> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super ZmqSendEvent> collection, final int maxElements) {
+        int count = 0;
+
+        while (count < maxElements) {
+            final ZmqSendEvent event = poll();
+
+            if (event == null) {
+                break;
+            }
+
+            collection.add(event);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Return an iterator over a snapshot of the events of all the queues.
+     * @return  return the iterator
+     */
+    @Override
+    public Iterator<ZmqSendEvent> iterator() {
+        final List<ZmqSendEvent> events = new ArrayList<ZmqSendEvent>();
+
+        for (BlockingQueue<ZmqSendEvent> queue : getQueues()) {
+            events.addAll(queue);
+        }
+
+        return events.iterator();
+    }
+
+    /**
+     * Wake the waiting polls.
+     */
+    private void signalAll() {
+        lock.lock();
+
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -13,4 +13,15 @@ package org.zeromq.jms.protocol;
  */
 public interface ZmqAckEvent extends ZmqEvent {
 
+    /**
+     * @return  return the flow control credit advertised by the receiver, i.e. the number of further messages it
+     *          will accept, or -1 when not advertised
+     */
+    int getCredit();
+
+    /**
+     * Set the flow control credit advertised to the sender.
+     * @param credit  the number of further messages accepted, or -1 for not advertised
+     */
+    void setCredit(int credit);
 }
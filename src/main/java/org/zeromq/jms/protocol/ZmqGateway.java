@@ -10,6 +10,8 @@ package org.zeromq.jms.protocol;
 import java.util.Date;
 import java.util.List;
 
+import javax.jms.CompletionListener;
+
 import org.zeromq.jms.ZmqException;
 import org.zeromq.jms.ZmqMessage;
 
@@ -77,6 +79,16 @@ public interface ZmqGateway {
      */
     void send(ZmqMessage message) throws ZmqException;
 
+    /**
+     * Send the message asynchronously, notifying the listener once the send has completed. That is when the
+     * message has been acknowledged (acknowledged gateways), journaled (with a journal store), or otherwise
+     * handed to the ZMQ socket.
+     * @param message             the message to be sent
+     * @param completionListener  the listener notified on completion, or failure, of the send
+     * @throws ZmqException       throws I/O exception on an underlying error
+     */
+    void send(ZmqMessage message, CompletionListener completionListener) throws ZmqException;
+
     /**
      * Attempt to receive a message from the underlying queue, waiting for the specified time before
      * return NULL for nothing retrieved.
@@ -99,6 +111,13 @@ public interface ZmqGateway {
      */
     void setListener(ZmqGatewayListener listener);
 
+    /**
+     * Register the (producer) gateway of the dead-letter destination, receiving the messages backed out by the
+     * re-delivery policy. The gateway is opened and closed with this gateway.
+     * @param deadLetterGateway  the dead-letter gateway
+     */
+    void setDeadLetterGateway(ZmqGateway deadLetterGateway);
+
     /**
      * @return  return the unique protocol name
      */
@@ -153,4 +172,19 @@ public interface ZmqGateway {
      * @return  return the metric socket(s) data
      */
     List<ZmqSocketMetrics> getMetrics();
+
+    /**
+     * @return  return the number of expired messages discarded rather than sent
+     */
+    long getExpiredSendCount();
+
+    /**
+     * @return  return the number of expired messages discarded rather than received (journaled and delivered)
+     */
+    long getExpiredReceiveCount();
+
+    /**
+     * @return  return the number of expired messages purged from the journal store by its sweep
+     */
+    long getExpiredJournalCount();
 }
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -22,15 +23,17 @@ import javax.jms.Queue;
 import org.zeromq.jms.AbstractZmqDestination;
 import org.zeromq.jms.ZmqException;
 import org.zeromq.jms.ZmqExtendedURI;
+import org.zeromq.jms.ZmqQueue;
 import org.zeromq.jms.ZmqSession;
 import org.zeromq.jms.ZmqURI;
 import org.zeromq.jms.annotation.ZmqComponent;
 import org.zeromq.jms.protocol.event.ZmqEventHandler;
 import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
 import org.zeromq.jms.protocol.filter.ZmqFilterPolicy;
+import org.zeromq.jms.protocol.filter.ZmqJmsPropertyFilterPolicy;
 import org.zeromq.jms.protocol.redelivery.ZmqRedeliveryPolicy;
-import org.zeromq.jms.protocol.redelivery.ZmqRetryRedeliveryPolicy;
 import org.zeromq.jms.protocol.store.ZmqJournalStore;
+import org.zeromq.jms.selector.ZmqCompiledMessageSelector;
 import org.zeromq.jms.selector.ZmqMessageSelector;
 import org.zeromq.jms.selector.ZmqMessageSelectorFactory;
 import org.zeromq.jms.util.ClassUtils;
@@ -45,7 +48,6 @@ public class ZmqGatewayFactory {
     private final ZmqMessageSelectorFactory defaultSelectorFactory = new ZmqMessageSelectorFactory();
     private final ZmqEventHandler defaultEventHandler = new ZmqStompEventHandler();
     private final ZmqFilterPolicy defaultFilterPolicy = null;
-    private final ZmqRedeliveryPolicy defaultRedeliveryPolicy = new ZmqRetryRedeliveryPolicy(3);
 
     private final Map<String, ZmqURI> destinationSchema;
 
@@ -190,11 +192,14 @@ public class ZmqGatewayFactory {
         final ZmqURI destinationUri = destination.getURI();
 
         final ZmqMessageSelector selector = getZmqMessageSelector(destination, messageSelector);
-        final ZmqRedeliveryPolicy redelivery = null;
+        // only a rolled back transaction re-delivers
+        final ZmqRedeliveryPolicy redelivery = (transacted) ? getRedeliveryPolicy(destination) : null;
         final ZmqEventHandler eventHandler = getZmqEventHandler(destination);
         final ZmqFilterPolicy filter = getZmqFilterPolicy(destination);
         final ZmqJournalStore store = getZmqJournalStore(destination, ZmqGateway.Direction.INCOMING);
 
+        pushdownMessageSelector(destination, filter, selector);
+
         try {
             final ZmqURI uri = (destinationUri == null) ? getUril(destinationName) : destinationUri;
 
@@ -236,6 +241,14 @@ public class ZmqGatewayFactory {
                 ClassUtils.setMethods(parameters, protocol);
             }
 
+            final String deadLetter = uri.getOptionValue("redelivery.deadLetter", null);
+
+            if (redelivery != null && deadLetter != null) {
+                final ZmqQueue deadLetterQueue = new ZmqQueue(deadLetter);
+
+                protocol.setDeadLetterGateway(newProducerGateway(namePrefix + "-dlq", deadLetterQueue, ZmqSocketType.PUSH, false, false));
+            }
+
             return protocol;
         } catch (IllegalArgumentException | ReflectiveOperationException ex) {
             LOGGER.log(Level.SEVERE, "Unable to construct consumer based on URI: " + destinationUri, ex);
@@ -363,6 +376,38 @@ public class ZmqGatewayFactory {
         }
     }
 
+    /**
+     * Push the message selector down into the ZMQ subscription when possible. When the filter policy publishes
+     * using a JMS property (see ZmqJmsPropertyFilterPolicy), has no explicit subscription tags, and the selector
+     * restricts that property to string values ("=" or "IN" within the top level AND conditions), then those
+     * values become the subscription tags. Non-matching messages are then dropped by ZMQ (at the publisher for
+     * TCP) and never cross the network. The selector is still evaluated on receipt, since ZMQ filters on prefixes.
+     * @param destination  the destination
+     * @param filter       the filter policy
+     * @param selector     the message selector
+     */
+    protected void pushdownMessageSelector(final AbstractZmqDestination destination, final ZmqFilterPolicy filter,
+        final ZmqMessageSelector selector) {
+
+        if (!(filter instanceof ZmqJmsPropertyFilterPolicy) || !(selector instanceof ZmqCompiledMessageSelector)) {
+            return;
+        }
+
+        final ZmqJmsPropertyFilterPolicy propertyFilter = (ZmqJmsPropertyFilterPolicy) filter;
+
+        if (propertyFilter.getSubscirbeTags() != null || propertyFilter.getPublishTag() == null) {
+            return;
+        }
+
+        final String[] tags = ((ZmqCompiledMessageSelector) selector).getStringValues(propertyFilter.getPublishTag());
+
+        if (tags != null) {
+            propertyFilter.setSubscribeTags(tags);
+
+            LOGGER.info("Using selector subscription tags " + Arrays.toString(tags) + " for destination: " + destination);
+        }
+    }
+
     /**
      * Return the event handler for this destination. When no specific event handler is found
      * then the default handler is used.
@@ -562,10 +607,7 @@ public class ZmqGatewayFactory {
             }
 
             if (redeliveryPolicy == null) {
-                redeliveryPolicy = defaultRedeliveryPolicy;
-
-                LOGGER.info("Using default re-delivery policy (" + redeliveryPolicy.getClass().getCanonicalName() + ") for destination: "
-                        + destination);
+                LOGGER.info("Using NO re-delivery policy for destination: " + destination);
             }
 
             if (destinationSchema.containsKey(name) && (redeliveryPolicy != null)) {
@@ -0,0 +1,464 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.annotation.ZmqComponent;
+import org.zeromq.jms.annotation.ZmqUriParameter;
+import org.zeromq.jms.protocol.event.ZmqEventHandler;
+import org.zeromq.jms.protocol.filter.ZmqFilterPolicy;
+import org.zeromq.jms.protocol.redelivery.ZmqRedeliveryPolicy;
+import org.zeromq.jms.protocol.store.ZmqJournalStore;
+import org.zeromq.jms.selector.ZmqMessageSelector;
+
+/**
+ * In-VM Gateway. Hands the sent message (object) straight on to the incoming queues of the receiving gateways of
+ * the same address within the JVM, so nothing is serialized and no ZMQ sockets are opened. Since the messages pass
+ * through the same journal, transaction, selector and listener handling as any other gateway, only the transport
+ * differs.
+ *
+ * A PUB gateway (topic) fans the message out to every subscriber whose filter tags it matches, or drops it when
+ * there are none. Any other gateway (queue) hands the messages in turn to its receivers, holding them back until
+ * the first receiver opens, up to the backlog size after which sends fail. Each receiver is handed a copy of the
+ * message (see ZmqMessage.copy), so neither the sender nor another receiver sees its changes. An address is
+ * forgotten once it has neither receivers nor messages held back.
+ */
+@ZmqComponent("invm")
+@ZmqUriParameter("gateway")
+public class ZmqInVmGateway extends AbstractZmqGateway {
+    private static final Logger LOGGER = Logger.getLogger(ZmqInVmGateway.class.getCanonicalName());
+
+    private static final int SOCKET_METRIC_BUCKET_COUNT = 360;
+    private static final int SOCKET_METRIC_BUCKET_INTERVAL_MILLI_SECOND = 10000;
+    private static final int DEFAULT_BACKLOG_SIZE = 10000;
+
+    private static final Map<String, Endpoint> ENDPOINTS = new HashMap<String, Endpoint>();
+
+    private final Queue<ZmqSendEvent> dispatchQueue = new DispatchQueue();
+
+    private int backlogSize = DEFAULT_BACKLOG_SIZE;
+    private ZmqSocketMetrics inVmMetrics = null;
+
+    /**
+     * Endpoint of an address, with the receiving gateways and the messages held back until the first receiver.
+     */
+    private static final class Endpoint {
+        private final List<ZmqInVmGateway> receivers = new ArrayList<ZmqInVmGateway>();
+        private final Queue<ZmqSendEvent> backlog = new LinkedList<ZmqSendEvent>();
+        private int reserved = 0;
+        private int turn = 0;
+        private boolean removed = false;
+    }
+
+    /**
+     * Outgoing queue handing the events on to the endpoint rather than holding them for a socket.
+     */
+    private final class DispatchQueue extends AbstractQueue<ZmqSendEvent> {
+
+        @Override
+        public boolean offer(final ZmqSendEvent event) {
+            dispatch(event);
+
+            return true;
+        }
+
+        @Override
+        public ZmqSendEvent poll() {
+            return null;
+        }
+
+        @Override
+        public ZmqSendEvent peek() {
+            return null;
+        }
+
+        @Override
+        public Iterator<ZmqSendEvent> iterator() {
+            return Collections.<ZmqSendEvent>emptyList().iterator();
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+    }
+
+    /**
+     * Construct the in-VM gateway.
+     * @param name              the name of display the gateway
+     * @param socketContext     the socket context, only the address and type are used
+     * @param filter            the message filter policy
+     * @param handler           the message event handler functionality
+     * @param listener          the listener instance
+     * @param store             the (optional) message store
+     * @param selector          the (optional) message selection policy
+     * @param redelivery        the (optional) message re-delivery policy
+     * @param transacted        the transaction indicator
+     * @param direction         the direction, i.e. Incoming, Outgoing, etc..
+     */
+    public ZmqInVmGateway(final String name, final ZmqSocketContext socketContext,
+        final ZmqFilterPolicy filter, final ZmqEventHandler handler, final ZmqGatewayListener listener,
+        final ZmqJournalStore store, final ZmqMessageSelector selector, final ZmqRedeliveryPolicy redelivery,
+        final boolean transacted, final Direction direction) {
+
+        super(name, socketContext, filter, handler, listener, store, selector, redelivery, transacted, false, false, direction);
+    }
+
+    @Override
+    protected String[] getSocketAddrs() {
+        return new String[0];
+    }
+
+    @Override
+    @ZmqUriParameter("gateway.flyweight")
+    public void setFlyweight(final boolean flyweight) {
+        if (flyweight) {
+            // pooled messages are recycled, but an in-VM message is still referenced by the sender
+            LOGGER.warning("Gateway [" + getName() + "] ignoring flyweight receive mode, since messages are shared in-VM: " + this);
+        }
+    }
+
+    /**
+     * Set the maximum number of messages of a queue held back until its first receiver opens, after which sends
+     * fail. The default is 10000.
+     * @param backlogSize  the backlog size
+     */
+    @ZmqUriParameter("gateway.backlogSize")
+    public void setBacklogSize(final int backlogSize) {
+        this.backlogSize = Math.max(0, backlogSize);
+    }
+
+    @Override
+    public void open(final int timeout) {
+        if (isActive()) {
+            return;
+        }
+
+        synchronized (getMetrics()) {
+            if (inVmMetrics == null) {
+                inVmMetrics = new ZmqSocketMetrics("invm(" + getAddr() + ")", SOCKET_METRIC_BUCKET_COUNT,
+                    SOCKET_METRIC_BUCKET_INTERVAL_MILLI_SECOND, getDirection() == Direction.OUTGOING, getDirection() == Direction.INCOMING);
+                getMetrics().add(inVmMetrics);
+            }
+        }
+
+        super.open(timeout);
+
+        inVmMetrics.setStatus(ZmqSocketStatus.RUNNING);
+
+        if (getDirection() == Direction.INCOMING) {
+            register(this);
+        }
+    }
+
+    @Override
+    public void close(final int timeout) {
+        if (getDirection() == Direction.INCOMING) {
+            unregister(this);
+        } else {
+            release(getAddr());
+        }
+
+        super.close(timeout);
+
+        if (inVmMetrics != null) {
+            inVmMetrics.setStatus(ZmqSocketStatus.STOPPED);
+        }
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> journal(final ZmqSendEvent event, final Queue<ZmqSendEvent> queue) throws ZmqException {
+        if (getDirection() == Direction.OUTGOING) {
+            reserve(1);
+
+            try {
+                return super.journal(event, dispatchQueue);
+            } catch (ZmqException | RuntimeException ex) {
+                unreserve(1);
+
+                throw ex;
+            }
+        }
+
+        return super.journal(event, queue);
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> journalAll(final Collection<ZmqSendEvent> events, final Queue<ZmqSendEvent> queue)
+        throws ZmqException {
+
+        if (getDirection() == Direction.OUTGOING) {
+            reserve(events.size());
+
+            try {
+                return super.journalAll(events, dispatchQueue);
+            } catch (ZmqException | RuntimeException ex) {
+                unreserve(events.size());
+
+                throw ex;
+            }
+        }
+
+        return super.journalAll(events, queue);
+    }
+
+    /**
+     * Reserve room within the backlog of the (queue) address for the events being sent, so a full backlog fails the
+     * send straight away, rather than once the event is handed on (i.e. after being journaled). Each event dispatched
+     * takes up its reservation.
+     * @param  count         the number of events
+     * @throws ZmqException  throws exception when the backlog is full
+     */
+    private void reserve(final int count) throws ZmqException {
+        if (getType() == ZmqSocketType.PUB) {
+            return;
+        }
+
+        while (true) {
+            final Endpoint endpoint = getEndpoint(getAddr());
+
+            synchronized (endpoint) {
+                if (endpoint.removed) {
+                    continue;
+                }
+
+                if (endpoint.receivers.isEmpty() && endpoint.backlog.size() + endpoint.reserved + count > backlogSize) {
+                    LOGGER.warning("Gateway [" + getName() + "] backlog full (" + backlogSize + ") waiting on a receiver of: " + getAddr());
+
+                    throw new ZmqException("Backlog full (" + backlogSize + ") waiting on a receiver of: " + getAddr());
+                }
+
+                endpoint.reserved += count;
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Give back the reservation of the events that were not sent.
+     * @param count  the number of events
+     */
+    private void unreserve(final int count) {
+        if (getType() == ZmqSocketType.PUB) {
+            return;
+        }
+
+        final Endpoint endpoint = findEndpoint(getAddr());
+
+        if (endpoint != null) {
+            synchronized (endpoint) {
+                endpoint.reserved = Math.max(0, endpoint.reserved - count);
+            }
+
+            release(getAddr());
+        }
+    }
+
+    /**
+     * Hand the sent event on to the receiver(s) of the address, completing any asynchronous send.
+     * @param  event  the event
+     */
+    private void dispatch(final ZmqSendEvent event) {
+        while (true) {
+            // a topic without subscribers drops the message, so it never leaves an endpoint behind
+            final Endpoint endpoint = (getType() == ZmqSocketType.PUB) ? findEndpoint(getAddr()) : getEndpoint(getAddr());
+
+            if (endpoint == null) {
+                break;
+            }
+
+            synchronized (endpoint) {
+                if (endpoint.removed) {
+                    continue;
+                }
+
+                if (getType() == ZmqSocketType.PUB) {
+                    final String tag = (getFilterPolicy() == null) ? "" : getFilterPolicy().resolve(event.getMessage());
+
+                    for (ZmqInVmGateway receiver : endpoint.receivers) {
+                        if (receiver.isSubscribed(tag)) {
+                            receiver.accept(event);
+                        }
+                    }
+                } else {
+                    // room within the backlog was reserved by the send
+                    endpoint.reserved = Math.max(0, endpoint.reserved - 1);
+
+                    if (!endpoint.receivers.isEmpty()) {
+                        endpoint.turn = (endpoint.turn + 1) % endpoint.receivers.size();
+                        endpoint.receivers.get(endpoint.turn).accept(event);
+                    } else {
+                        endpoint.backlog.add(event);
+                    }
+                }
+            }
+
+            break;
+        }
+
+        if (inVmMetrics != null) {
+            inVmMetrics.incrementSend();
+        }
+
+        socketSent(null, event);
+    }
+
+    /**
+     * Return true when the subscriber filter tags (if any) match the publishing tag, i.e. as a ZMQ SUB socket would.
+     * @param  tag  the publishing tag
+     * @return      return true when subscribed
+     */
+    private boolean isSubscribed(final String tag) {
+        final ZmqFilterPolicy filterPolicy = getFilterPolicy();
+        final String[] filters = (filterPolicy == null) ? null : filterPolicy.getSubscirbeTags();
+
+        if (filters == null) {
+            return true;
+        }
+
+        for (String filter : filters) {
+            if (tag != null && tag.startsWith(filter)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Hand on an event sent in-VM to the incoming queue, as a new event of this gateway with a copy of the message.
+     * @param event  the sent event
+     */
+    private void accept(final ZmqSendEvent event) {
+        try {
+            final ZmqSendEvent incomingEvent = getEventHandler().createSendEvent(event.getMessageId(), event.getMessage().copy());
+
+            deliver(incomingEvent);
+
+            if (inVmMetrics != null) {
+                inVmMetrics.incrementReceive();
+            }
+        } catch (ZmqException ex) {
+            LOGGER.log(Level.SEVERE, "Gateway [" + getName() + "] unable to receive in-VM message: " + event, ex);
+        }
+    }
+
+    /**
+     * Return the endpoint of the address, creating it when missing.
+     * @param  addr  the address
+     * @return       return the endpoint
+     */
+    private static Endpoint getEndpoint(final String addr) {
+        synchronized (ENDPOINTS) {
+            Endpoint endpoint = ENDPOINTS.get(addr);
+
+            if (endpoint == null) {
+                endpoint = new Endpoint();
+                ENDPOINTS.put(addr, endpoint);
+            }
+
+            return endpoint;
+        }
+    }
+
+    /**
+     * Return the endpoint of the address, or null when missing.
+     * @param  addr  the address
+     * @return       return the endpoint, or null
+     */
+    private static Endpoint findEndpoint(final String addr) {
+        synchronized (ENDPOINTS) {
+            return ENDPOINTS.get(addr);
+        }
+    }
+
+    /**
+     * Add the receiver to the endpoint of its address, handing it any messages held back.
+     * @param receiver  the receiving gateway
+     */
+    private static void register(final ZmqInVmGateway receiver) {
+        while (true) {
+            final Endpoint endpoint = getEndpoint(receiver.getAddr());
+
+            synchronized (endpoint) {
+                if (endpoint.removed) {
+                    continue;
+                }
+
+                endpoint.receivers.add(receiver);
+
+                ZmqSendEvent event = endpoint.backlog.poll();
+
+                while (event != null) {
+                    receiver.accept(event);
+                    event = endpoint.backlog.poll();
+                }
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the receiver from the endpoint of its address, forgetting the address when nothing is left on it.
+     * @param receiver  the receiving gateway
+     */
+    private static void unregister(final ZmqInVmGateway receiver) {
+        final Endpoint endpoint = findEndpoint(receiver.getAddr());
+
+        if (endpoint != null) {
+            synchronized (endpoint) {
+                endpoint.receivers.remove(receiver);
+            }
+
+            release(receiver.getAddr());
+        }
+    }
+
+    /**
+     * Forget the endpoint of the address when it has neither receivers, messages held back, nor room reserved.
+     * @param addr  the address
+     */
+    private static void release(final String addr) {
+        synchronized (ENDPOINTS) {
+            final Endpoint endpoint = ENDPOINTS.get(addr);
+
+            if (endpoint != null) {
+                synchronized (endpoint) {
+                    if (endpoint.receivers.isEmpty() && endpoint.backlog.isEmpty() && endpoint.reserved == 0) {
+                        endpoint.removed = true;
+                        ENDPOINTS.remove(addr);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param  addr  the address
+     * @return       return true when the address has an endpoint, i.e. receivers or messages held back
+     */
+    static boolean isEndpoint(final String addr) {
+        return findEndpoint(addr) != null;
+    }
+}
@@ -0,0 +1,66 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of received SEND events (and the messages they wrap) used by the "flyweight" receive mode
+ * of a gateway. The socket thread acquires an event for decoding, and the listener thread releases it back
+ * once MessageListener.onMessage() has returned.
+ *
+ * NOTE: Messages delivered in this mode MUST NOT escape the onMessage() call-back, since the same
+ * instance will be overwritten by a later message. Copy any values required after the call-back returns.
+ */
+public class ZmqMessagePool {
+
+    private final BlockingQueue<ZmqSendEvent> pool;
+
+    /**
+     * Construct the pool.
+     * @param capacity  the maximum number of idle events held by the pool
+     */
+    public ZmqMessagePool(final int capacity) {
+        this.pool = new ArrayBlockingQueue<ZmqSendEvent>(capacity);
+    }
+
+    /**
+     * Return an idle event for re-use, or null when the pool is empty. The event handler is responsible
+     * for checking the event is one it can re-populate.
+     * @return  return the idle event, or null
+     */
+    public ZmqSendEvent acquire() {
+        return pool.poll();
+    }
+
+    /**
+     * Reset and return the event (and its message) to the pool. Events are discarded when the pool is full.
+     * @param event  the event that is no longer referenced
+     */
+    public void release(final ZmqSendEvent event) {
+        if (event == null || event.getMessage() == null) {
+            return;
+        }
+
+        event.getMessage().recycle();
+        pool.offer(event);
+    }
+
+    /**
+     * @return  return the number of idle events held
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqMessagePool [size=" + pool.size() + ", remainingCapacity=" + pool.remainingCapacity() + "]";
+    }
+}
@@ -0,0 +1,144 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.zeromq.jms.util.Fnv64;
+
+/**
+ * Outgoing event queue partitioned by socket address, so all messages with the same key (the value of a message
+ * property, i.e. JMSXGroupID) travel in order through the same socket, while different keys are spread across the
+ * sockets. Keys are mapped to addresses by consistent hashing (with virtual nodes), so adding or removing an address
+ * only moves the keys of that address. Messages without a key are held on a shared queue polled by every socket.
+ */
+public class ZmqPartitionedQueue extends AbstractZmqSendQueue {
+
+    private static final int VIRTUAL_NODE_COUNT = 64;
+
+    private final String partitionKey;
+    private final BlockingQueue<ZmqSendEvent> sharedQueue;
+    private final Map<String, BlockingQueue<ZmqSendEvent>> partitionQueues;
+    private final SortedMap<Long, String> ring = new TreeMap<Long, String>();
+
+    private int pollIndex = 0;
+
+    /**
+     * Construct the partitioned queue.
+     * @param partitionKey     the message property holding the partition key, i.e. JMSXGroupID
+     * @param sharedQueue      the queue for messages without a key
+     * @param partitionQueues  the queue of each socket address
+     */
+    public ZmqPartitionedQueue(final String partitionKey, final BlockingQueue<ZmqSendEvent> sharedQueue,
+        final Map<String, BlockingQueue<ZmqSendEvent>> partitionQueues) {
+
+        this.partitionKey = partitionKey;
+        this.sharedQueue = sharedQueue;
+        this.partitionQueues = Collections.unmodifiableMap(new LinkedHashMap<String, BlockingQueue<ZmqSendEvent>>(partitionQueues));
+
+        for (String addr : partitionQueues.keySet()) {
+            for (int i = 0; i < VIRTUAL_NODE_COUNT; i++) {
+                ring.put(Fnv64.hash(addr + "#" + i), addr);
+            }
+        }
+    }
+
+    /**
+     * Return the socket address of the key.
+     * @param  key  the partition key
+     * @return      return the socket address
+     */
+    public String getAddr(final Object key) {
+        final SortedMap<Long, String> tailRing = ring.tailMap(Fnv64.hash(key.toString()));
+
+        return (tailRing.isEmpty()) ? ring.get(ring.firstKey()) : tailRing.get(tailRing.firstKey());
+    }
+
+    /**
+     * @return  return the queues of each socket address, and the shared queue
+     */
+    @Override
+    public List<BlockingQueue<ZmqSendEvent>> getQueues() {
+        final List<BlockingQueue<ZmqSendEvent>> queues = new ArrayList<BlockingQueue<ZmqSendEvent>>(partitionQueues.values());
+
+        queues.add(sharedQueue);
+
+        return queues;
+    }
+
+    @Override
+    protected BlockingQueue<ZmqSendEvent> getQueue(final ZmqSendEvent event) {
+        final Object key = (event.getMessage() == null) ? null : event.getMessage().getProperties().get(partitionKey);
+
+        return (key == null) ? sharedQueue : partitionQueues.get(getAddr(key));
+    }
+
+    /**
+     * Return the next event for the socket address, i.e. from its own queue, before the shared queue, waiting up to
+     * the timeout.
+     * @param  addr                  the socket address
+     * @param  timeout               the time to wait
+     * @param  unit                  the time unit
+     * @return                       return the event, or null on timeout
+     * @throws InterruptedException  throws exception when interrupted while waiting
+     */
+    public ZmqSendEvent poll(final String addr, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final BlockingQueue<ZmqSendEvent> partitionQueue = partitionQueues.get(addr);
+
+        return poll(new Supplier<ZmqSendEvent>() {
+
+            @Override
+            public ZmqSendEvent get() {
+                final ZmqSendEvent event = (partitionQueue == null) ? null : partitionQueue.poll();
+
+                return (event == null) ? sharedQueue.poll() : event;
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Return the next event from any queue, taking from each queue in turn.
+     * @return  return the event, or null when all the queues are empty
+     */
+    @Override
+    public ZmqSendEvent poll() {
+        final List<BlockingQueue<ZmqSendEvent>> queues = getQueues();
+
+        getLock().lock();
+
+        try {
+            for (int i = 0; i < queues.size(); i++) {
+                pollIndex = (pollIndex + 1) % queues.size();
+
+                final ZmqSendEvent event = queues.get(pollIndex).poll();
+
+                if (event != null) {
+                    return event;
+                }
+            }
+
+            return null;
+        } finally {
+            getLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqPartitionedQueue [partitionKey=" + partitionKey + ", partitions=" + partitionQueues.keySet() + ", size=" + size() + "]";
+    }
+}
@@ -0,0 +1,205 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+
+import org.zeromq.jms.ZmqMessage;
+
+/**
+ * Event queue by message priority, where the 10 JMS priorities (0 to 9) are collapsed into a few bands each held on
+ * its own FIFO queue, i.e. 3 bands hold priorities 0-3, 4-6 and 7-9. The highest band waiting is always taken first,
+ * unless a lower band has been passed over (starvation limit) times in a row, when the lower band is taken instead,
+ * so a steady flow of high priority messages cannot hold back the others forever.
+ *
+ * A range of bands can be polled on its own, i.e. for a socket dedicated to the top band.
+ */
+public class ZmqPriorityQueue extends AbstractZmqSendQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqPriorityQueue.class.getCanonicalName());
+
+    private static final int PRIORITY_COUNT = 10;
+
+    private final List<BlockingQueue<ZmqSendEvent>> bandQueues;
+    private final int starvationLimit;
+    private final int[] skipCounts;
+
+    /**
+     * Construct the priority queue.
+     * @param bandQueues       the queue of each band, lowest priority first
+     * @param starvationLimit  the number of times a waiting band can be passed over before it is taken, or zero to
+     *                         always take the highest band
+     */
+    public ZmqPriorityQueue(final List<BlockingQueue<ZmqSendEvent>> bandQueues, final int starvationLimit) {
+        if (bandQueues.isEmpty() || bandQueues.size() > PRIORITY_COUNT) {
+            throw new IllegalArgumentException("Priority bands must be between 1 and " + PRIORITY_COUNT + ": " + bandQueues.size());
+        }
+
+        this.bandQueues = Collections.unmodifiableList(new ArrayList<BlockingQueue<ZmqSendEvent>>(bandQueues));
+        this.starvationLimit = starvationLimit;
+        this.skipCounts = new int[bandQueues.size()];
+    }
+
+    /**
+     * @return  return the queue of each band, lowest priority first
+     */
+    @Override
+    public List<BlockingQueue<ZmqSendEvent>> getQueues() {
+        return bandQueues;
+    }
+
+    /**
+     * Return the band of the JMS priority, i.e. 0 (lowest) to the number of bands less one.
+     * @param  priority  the JMS priority
+     * @return           return the band
+     */
+    public int getBand(final int priority) {
+        final int boundPriority = Math.max(0, Math.min(PRIORITY_COUNT - 1, priority));
+
+        return boundPriority * bandQueues.size() / PRIORITY_COUNT;
+    }
+
+    /**
+     * @return  return the top (highest priority) band
+     */
+    public int getTopBand() {
+        return bandQueues.size() - 1;
+    }
+
+    @Override
+    protected BlockingQueue<ZmqSendEvent> getQueue(final ZmqSendEvent event) {
+        final ZmqMessage message = event.getMessage();
+        int priority = 0;
+
+        if (message != null) {
+            try {
+                priority = message.getJMSPriority();
+            } catch (JMSException ex) {
+                LOGGER.log(Level.WARNING, "Using lowest priority, unable to get the priority of message: " + message, ex);
+            }
+        }
+
+        return bandQueues.get(getBand(priority));
+    }
+
+    /**
+     * Return the next event of the bands within the range, waiting up to the timeout.
+     * @param  lowBand               the lowest band polled
+     * @param  highBand              the highest band polled
+     * @param  timeout               the time to wait
+     * @param  unit                  the time unit
+     * @return                       return the event, or null on timeout
+     * @throws InterruptedException  throws exception when interrupted while waiting
+     */
+    public ZmqSendEvent poll(final int lowBand, final int highBand, final long timeout, final TimeUnit unit) throws InterruptedException {
+        return poll(new Supplier<ZmqSendEvent>() {
+
+            @Override
+            public ZmqSendEvent get() {
+                return poll(lowBand, highBand);
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Return the next event of any band, the highest band first unless a lower band has reached the starvation limit.
+     * @return  return the event, or null when all the bands are empty
+     */
+    @Override
+    public ZmqSendEvent poll() {
+        return poll(0, getTopBand());
+    }
+
+    @Override
+    public ZmqSendEvent peek() {
+        for (int band = getTopBand(); band >= 0; band--) {
+            final ZmqSendEvent event = bandQueues.get(band).peek();
+
+            if (event != null) {
+                return event;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return an iterator over a snapshot of the events of all the bands, highest band first.
+     * @return  return the iterator
+     */
+    @Override
+    public Iterator<ZmqSendEvent> iterator() {
+        final List<ZmqSendEvent> events = new ArrayList<ZmqSendEvent>();
+
+        for (int band = getTopBand(); band >= 0; band--) {
+            events.addAll(bandQueues.get(band));
+        }
+
+        return events.iterator();
+    }
+
+    /**
+     * Poll the bands within the range, counting each waiting band passed over by a higher band.
+     * @param  lowBand   the lowest band polled
+     * @param  highBand  the highest band polled
+     * @return           return the event, or null when the bands are empty
+     */
+    private ZmqSendEvent poll(final int lowBand, final int highBand) {
+        getLock().lock();
+
+        try {
+            int pollBand = -1;
+
+            // a starved band is taken first, lowest first
+            if (starvationLimit > 0) {
+                for (int band = lowBand; band <= highBand && pollBand < 0; band++) {
+                    if (skipCounts[band] >= starvationLimit && !bandQueues.get(band).isEmpty()) {
+                        pollBand = band;
+                    }
+                }
+            }
+
+            for (int band = highBand; band >= lowBand && pollBand < 0; band--) {
+                if (!bandQueues.get(band).isEmpty()) {
+                    pollBand = band;
+                }
+            }
+
+            if (pollBand < 0) {
+                return null;
+            }
+
+            for (int band = lowBand; band < pollBand; band++) {
+                if (!bandQueues.get(band).isEmpty()) {
+                    skipCounts[band]++;
+                }
+            }
+
+            skipCounts[pollBand] = 0;
+
+            return bandQueues.get(pollBand).poll();
+        } finally {
+            getLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqPriorityQueue [bands=" + bandQueues.size() + ", starvationLimit=" + starvationLimit + ", size=" + size() + "]";
+    }
+}
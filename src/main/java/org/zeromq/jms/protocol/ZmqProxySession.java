@@ -7,25 +7,38 @@ package org.zeromq.jms.protocol;
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
 
 import zmq.ZError;
 
 /**
  * This is the session class for the ZMQ PROXY. It has it's own thread, and is not
  * thread safe.
+ *
+ * Messages from the front socket are routed to the least loaded back socket, i.e. the fewest messages without a
+ * reply (for DEALER and ROUTER back sockets), otherwise in turn, skipping back sockets that cannot take the message
+ * (no peer or high water mark reached). Replies from the back sockets are returned through the front socket.
+ * Traffic is counted (messages and bytes) per socket within the metrics, and can be sampled through an optional
+ * capture (PUB) socket.
  */
 public class ZmqProxySession implements Runnable {
     private static final Logger LOGGER = Logger.getLogger(ZmqProxySession.class.getCanonicalName());
 
     private volatile ZmqSocketStatus status = ZmqSocketStatus.STOPPED;
 
-    private static final int SOCKET_RETRY_MILLI_SECOND = 10000;
+    private static final int SOCKET_RETRY_MIN_MILLI_SECOND = 50;
+    private static final int SOCKET_RETRY_MAX_MILLI_SECOND = 1000;
+    private static final int POLL_WAIT_MILLI_SECOND = 100;
+    private static final int BLOCKED_WAIT_MILLI_SECOND = 10;
 
     private final AtomicBoolean active;
     private final String name;
@@ -35,10 +48,22 @@ public class ZmqProxySession implements Runnable {
     private final String frontSocketAddr;
     private final boolean frontSocketBound;
 
-    private final ZMQ.Socket backSocket;
+    private final ZMQ.Socket[] backSockets;
     private final ZmqSocketType backSocketType;
-    private final String backSocketAddr;
+    private final String[] backSocketAddrs;
     private final boolean backSocketBound;
+    private final long[] backLoads;
+    private final boolean backReplies;
+
+    private ZmqSocketMetrics frontMetrics = null;
+    private ZmqSocketMetrics[] backMetrics = null;
+
+    private ZMQ.Socket captureSocket = null;
+    private String captureSocketAddr = null;
+    private int captureSample = 1;
+    private long captureCount = 0;
+
+    private int nextBackIndex = 0;
 
     /**
      * Construct the proxy session instance for the specified sockets.
@@ -57,6 +82,31 @@ public class ZmqProxySession implements Runnable {
         final ZMQ.Socket frontSocket, final ZmqSocketType frontSocketType, final String frontSocketAddr, final boolean frontSocketBound,
         final ZMQ.Socket backSocket, final ZmqSocketType backSocketType, final String backSocketAddr, final boolean backSocketBound) {
 
+        this(name, active, frontSocket, frontSocketType, frontSocketAddr, frontSocketBound,
+            new ZMQ.Socket[] { backSocket }, backSocketType, new String[] { backSocketAddr }, backSocketBound);
+    }
+
+    /**
+     * Construct the proxy session instance for the specified sockets, with multiple back sockets.
+     * @param name              the name of the proxy
+     * @param active            the active status flag of the gateway
+     * @param frontSocket       the front socket
+     * @param frontSocketType   the front socket type
+     * @param frontSocketAddr   the front socket address
+     * @param frontSocketBound  the front socket "bind" indicator
+     * @param backSockets       the back sockets
+     * @param backSocketType    the back socket type
+     * @param backSocketAddrs   the back socket addresses (one per back socket)
+     * @param backSocketBound   the back socket "bind" indicator
+     */
+    public ZmqProxySession(final String name, final AtomicBoolean active,
+        final ZMQ.Socket frontSocket, final ZmqSocketType frontSocketType, final String frontSocketAddr, final boolean frontSocketBound,
+        final ZMQ.Socket[] backSockets, final ZmqSocketType backSocketType, final String[] backSocketAddrs, final boolean backSocketBound) {
+
+        if (backSockets.length == 0 || backSockets.length != backSocketAddrs.length) {
+            throw new IllegalArgumentException("Proxy requires a back socket per address: " + Arrays.toString(backSocketAddrs));
+        }
+
         this.active = active;
         this.name = name;
 
@@ -65,10 +115,34 @@ public class ZmqProxySession implements Runnable {
         this.frontSocketAddr = frontSocketAddr;
         this.frontSocketBound = frontSocketBound;
 
-        this.backSocket = backSocket;
+        this.backSockets = backSockets;
         this.backSocketType = backSocketType;
-        this.backSocketAddr = backSocketAddr;
+        this.backSocketAddrs = backSocketAddrs;
         this.backSocketBound = backSocketBound;
+        this.backLoads = new long[backSockets.length];
+        this.backReplies = (backSocketType == ZmqSocketType.DEALER || backSocketType == ZmqSocketType.ROUTER);
+    }
+
+    /**
+     * Set the metrics to count the traffic through the sockets.
+     * @param frontMetrics  the front socket metrics
+     * @param backMetrics   the back socket metrics (one per back socket)
+     */
+    public void setMetrics(final ZmqSocketMetrics frontMetrics, final ZmqSocketMetrics[] backMetrics) {
+        this.frontMetrics = frontMetrics;
+        this.backMetrics = backMetrics;
+    }
+
+    /**
+     * Set the (bound) capture socket to publish a sample of the messages passing through the proxy.
+     * @param captureSocket      the capture socket, i.e. PUB
+     * @param captureSocketAddr  the capture socket address
+     * @param captureSample      the sample, i.e. 1 in every N messages
+     */
+    public void setCapture(final ZMQ.Socket captureSocket, final String captureSocketAddr, final int captureSample) {
+        this.captureSocket = captureSocket;
+        this.captureSocketAddr = captureSocketAddr;
+        this.captureSample = Math.max(1, captureSample);
     }
 
     /**
@@ -79,8 +153,16 @@ public class ZmqProxySession implements Runnable {
         if (this.status != status) {
             this.status = status;
 
+            if (frontMetrics != null) {
+                frontMetrics.setStatus(status);
+
+                for (ZmqSocketMetrics metrics : backMetrics) {
+                    metrics.setStatus(status);
+                }
+            }
+
             LOGGER.log(Level.INFO, "Proxy [" + name + "@" + frontSocketAddr + ">"
-                + backSocketAddr + "] changed status: " + status);
+                + Arrays.toString(backSocketAddrs) + "] changed status: " + status);
         }
     }
 
@@ -90,67 +172,258 @@ public class ZmqProxySession implements Runnable {
 
         // NOTE: Open sockets "Back to Front" to ensure message start flowing
         //       only when the backend is active.
+        boolean running = true;
 
-        // Retry loop is for for the bind, a connection will come successful
-        do {
-            // Only one of the sockets can be "bind", the others were come back pending
-            final ZmqSocketStatus status = openSocket(backSocket, backSocketAddr, backSocketBound);
+        for (int i = 0; i < backSockets.length && running; i++) {
+            running = openSocketWithRetry(backSockets[i], backSocketAddrs[i], backSocketBound);
+        }
+
+        if (running) {
+            running = openSocketWithRetry(frontSocket, frontSocketAddr, frontSocketBound);
+        }
+
+        if (running && captureSocket != null) {
+            running = openSocketWithRetry(captureSocket, captureSocketAddr, true);
+        }
 
-            if (status == (ZmqSocketStatus.RUNNING) || !active.get()) {
-                break;
+        // Keep running until told to stop
+        if (running) {
+            try {
+                proxy();
+            } catch (ZMQException | ZError.CtxTerminatedException | ZError.IOException ex) {
+                if (active.get()) {
+                    LOGGER.log(Level.SEVERE, "Proxy failure: " + this, ex);
+                }
+            }
+        }
+
+        closeSocket(frontSocket, frontSocketAddr, frontSocketBound);
+
+        for (int i = 0; i < backSockets.length; i++) {
+            closeSocket(backSockets[i], backSocketAddrs[i], backSocketBound);
+        }
+
+        if (captureSocket != null) {
+            closeSocket(captureSocket, captureSocketAddr, true);
+        }
+
+        setStatus(ZmqSocketStatus.STOPPED);
+    }
+
+    /**
+     * Open the socket, retrying (with a short back-off) while another proxy holds the "bind", until opened or the
+     * gateway is closed.
+     * @param socket          the socket to open
+     * @param socketAddr      the address to connect/bind to
+     * @param socketBound     the "bind" indicator flag
+     * @return                return true when opened
+     */
+    protected boolean openSocketWithRetry(final ZMQ.Socket socket, final String socketAddr, final boolean socketBound) {
+        int retryWait = SOCKET_RETRY_MIN_MILLI_SECOND;
+
+        while (active.get()) {
+            final ZmqSocketStatus status = openSocket(socket, socketAddr, socketBound);
+
+            if (status == ZmqSocketStatus.RUNNING) {
+                return true;
+            }
+
+            if (status != ZmqSocketStatus.PAUSED) {
+                return false;
             }
 
             // Sleep and retry to bind again
             try {
-                Thread.sleep(SOCKET_RETRY_MILLI_SECOND);
+                Thread.sleep(retryWait);
             } catch (InterruptedException ex) {
-                LOGGER.warning("Opening of back socket hibernation interrupted: " + this);
+                LOGGER.warning("Opening of socket [" + socketAddr + "] hibernation interrupted: " + this);
             }
-        } while (status == ZmqSocketStatus.PAUSED && active.get());
 
-        if (status == ZmqSocketStatus.RUNNING) {
-            if (active.get()) {
-                do {
-                    // Only one of the sockets can be "bind", the others were come back pending
-                    final ZmqSocketStatus status = openSocket(frontSocket, frontSocketAddr, frontSocketBound);
+            retryWait = Math.min(retryWait * 2, SOCKET_RETRY_MAX_MILLI_SECOND);
+        }
 
-                    if (status == (ZmqSocketStatus.RUNNING) || !active.get()) {
-                        break;
-                    }
+        return false;
+    }
+
+    /**
+     * Forward messages between the front and back sockets until the gateway is closed. A message the back sockets
+     * cannot take is held (stopping the front socket being read) until one of them can.
+     */
+    protected void proxy() {
+        final ZMQ.PollItem[] pollItems = new ZMQ.PollItem[backSockets.length + 1];
+
+        pollItems[0] = new ZMQ.PollItem(frontSocket, ZMQ.Poller.POLLIN);
+
+        for (int i = 0; i < backSockets.length; i++) {
+            pollItems[i + 1] = new ZMQ.PollItem(backSockets[i], ZMQ.Poller.POLLIN);
+        }
+
+        Selector selector = null;
+
+        try {
+            selector = Selector.open();
+
+            ZMsg blockedMsg = null;
+
+            while (active.get()) {
+                ZMQ.poll(selector, pollItems, (blockedMsg == null) ? POLL_WAIT_MILLI_SECOND : BLOCKED_WAIT_MILLI_SECOND);
 
-                    // Sleep and retry to bind again
-                    try {
-                        Thread.sleep(SOCKET_RETRY_MILLI_SECOND);
-                    } catch (InterruptedException ex) {
-                        LOGGER.warning("Opening of front socket hibernation interrupted: " + this);
+                for (int i = 0; i < backSockets.length; i++) {
+                    if (pollItems[i + 1].isReadable()) {
+                        returnMsgs(i);
                     }
-                } while (status == ZmqSocketStatus.PAUSED && active.get());
-
-                // Keep running until told to stop
-                if (status == ZmqSocketStatus.RUNNING) {
-                    if (active.get()) {
-                        // Run the proxy until the user interrupts us
-                        ZMQ.proxy(frontSocket, backSocket, null);
-
-                        while (active.get()) {
-                            // Sleep and retry to bind again
-                            try {
-                                Thread.sleep(SOCKET_RETRY_MILLI_SECOND);
-                            } catch (InterruptedException ex) {
-                                LOGGER.warning("Proxy hibernate for failover interrupted: " + this);
-                            }
+                }
+
+                if (blockedMsg != null) {
+                    blockedMsg = forwardMsg(blockedMsg);
+                }
+
+                if (blockedMsg == null && pollItems[0].isReadable()) {
+                    ZMsg msg = ZMsg.recvMsg(frontSocket, ZMQ.DONTWAIT);
+
+                    while (msg != null && active.get()) {
+                        if (frontMetrics != null) {
+                            frontMetrics.incrementReceive(msg.contentSize());
                         }
+
+                        capture(msg);
+
+                        blockedMsg = forwardMsg(msg);
+
+                        if (blockedMsg != null) {
+                            break;
+                        }
+
+                        msg = ZMsg.recvMsg(frontSocket, ZMQ.DONTWAIT);
                     }
+                }
+            }
 
+            if (blockedMsg != null) {
+                LOGGER.warning("Proxy closed with a message no back socket could take (LOST): " + this);
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "Proxy unable to open poll selector: " + this, ex);
+        } finally {
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "Proxy unable to close poll selector: " + this, ex);
                 }
             }
+        }
+    }
+
+    /**
+     * Forward the message to the least loaded back socket, or when it cannot take the message the next in turn.
+     * @param  msg  the message
+     * @return      return the message when no back socket could take it, otherwise null
+     */
+    protected ZMsg forwardMsg(final ZMsg msg) {
+        final int leastLoadedIndex = getLeastLoadedIndex();
 
+        for (int i = 0; i < backSockets.length; i++) {
+            if (forwardMsg(msg, (leastLoadedIndex + i) % backSockets.length)) {
+                return null;
+            }
         }
 
-        closeSocket(frontSocket, frontSocketAddr, frontSocketBound);
-        closeSocket(backSocket, backSocketAddr, backSocketBound);
+        return msg;
+    }
 
-        setStatus(ZmqSocketStatus.STOPPED);
+    /**
+     * Forward the message to the back socket, keeping the message when the socket cannot take it. The socket is
+     * checked (POLLOUT) before the first frame is sent, so a multipart message is never left part sent on one socket
+     * and then sent whole on the next.
+     * @param  msg    the message
+     * @param  index  the back socket index
+     * @return        return true when sent
+     */
+    private boolean forwardMsg(final ZMsg msg, final int index) {
+        final long msgSize = msg.contentSize();
+
+        if ((backSockets[index].getEvents() & ZMQ.Poller.POLLOUT) == 0) {
+            return false;
+        }
+
+        if (!msg.send(backSockets[index], false)) {
+            return false;
+        }
+
+        msg.destroy();
+
+        if (backReplies) {
+            backLoads[index]++;
+        }
+
+        nextBackIndex = (index + 1) % backSockets.length;
+
+        if (backMetrics != null) {
+            backMetrics[index].incrementSend(msgSize);
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the index of the back socket with the least load, breaking ties in turn (round robin).
+     * @return  return the back socket index
+     */
+    protected int getLeastLoadedIndex() {
+        int leastLoadedIndex = nextBackIndex;
+
+        for (int i = 1; i < backSockets.length; i++) {
+            final int index = (nextBackIndex + i) % backSockets.length;
+
+            if (backLoads[index] < backLoads[leastLoadedIndex]) {
+                leastLoadedIndex = index;
+            }
+        }
+
+        return leastLoadedIndex;
+    }
+
+    /**
+     * Return the messages (replies) received on the back socket through the front socket.
+     * @param index  the back socket index
+     */
+    protected void returnMsgs(final int index) {
+        ZMsg msg = ZMsg.recvMsg(backSockets[index], ZMQ.DONTWAIT);
+
+        while (msg != null) {
+            final long msgSize = msg.contentSize();
+
+            if (backLoads[index] > 0) {
+                backLoads[index]--;
+            }
+
+            if (backMetrics != null) {
+                backMetrics[index].incrementReceive(msgSize);
+            }
+
+            capture(msg);
+
+            if (msg.send(frontSocket, true)) {
+                if (frontMetrics != null) {
+                    frontMetrics.incrementSend(msgSize);
+                }
+            } else {
+                LOGGER.warning("Proxy unable to return message from back socket [" + backSocketAddrs[index] + "]: " + this);
+            }
+
+            msg = ZMsg.recvMsg(backSockets[index], ZMQ.DONTWAIT);
+        }
+    }
+
+    /**
+     * Publish a copy of the sampled message through the capture socket (when one has been set).
+     * @param msg  the message
+     */
+    protected void capture(final ZMsg msg) {
+        if (captureSocket != null && (captureCount++ % captureSample) == 0) {
+            msg.duplicate().send(captureSocket, true);
+        }
     }
 
     /**
@@ -255,11 +528,18 @@ public class ZmqProxySession implements Runnable {
         return getStatus();
     }
 
+    /**
+     * @return  return the number of messages forwarded to each back socket without a reply
+     */
+    public long[] getBackLoads() {
+        return Arrays.copyOf(backLoads, backLoads.length);
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((backSocketAddr == null) ? 0 : backSocketAddr.hashCode());
+        result = prime * result + Arrays.hashCode(backSocketAddrs);
         result = prime * result + ((frontSocketAddr == null) ? 0 : frontSocketAddr.hashCode());
         result = prime * result + ((name == null) ? 0 : name.hashCode());
         return result;
@@ -277,11 +557,7 @@ public class ZmqProxySession implements Runnable {
             return false;
         }
         ZmqProxySession other = (ZmqProxySession) obj;
-        if (backSocketAddr == null) {
-            if (other.backSocketAddr != null) {
-                return false;
-            }
-        } else if (!backSocketAddr.equals(other.backSocketAddr)) {
+        if (!Arrays.equals(backSocketAddrs, other.backSocketAddrs)) {
             return false;
         }
         if (frontSocketAddr == null) {
@@ -305,7 +581,7 @@ public class ZmqProxySession implements Runnable {
     public String toString() {
         return "ZmqProxySession [active=" + active + ", name=" + name + ", frontSocketType=" + frontSocketType
                 + ", frontSocketAddr=" + frontSocketAddr + ", frontSocketBound=" + frontSocketBound
-                + ", backSocketType=" + backSocketType + ", backSocketAddr=" + backSocketAddr + ", backSocketBound="
-                + backSocketBound + "]";
+                + ", backSocketType=" + backSocketType + ", backSocketAddrs=" + Arrays.toString(backSocketAddrs) + ", backSocketBound="
+                + backSocketBound + ", captureSocketAddr=" + captureSocketAddr + "]";
     }
 }
@@ -0,0 +1,951 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.annotation.ZmqComponent;
+import org.zeromq.jms.annotation.ZmqUriParameter;
+import org.zeromq.jms.protocol.event.ZmqEventHandler;
+import org.zeromq.jms.protocol.filter.ZmqFilterPolicy;
+import org.zeromq.jms.protocol.redelivery.ZmqRedeliveryPolicy;
+import org.zeromq.jms.protocol.store.ZmqJournalStore;
+import org.zeromq.jms.protocol.store.ZmqOffsetJournal;
+import org.zeromq.jms.selector.ZmqMessageSelector;
+
+/**
+ * Replay Gateway. A fire and forget gateway where the publisher (outgoing) journals every message within an offset
+ * journal, stamping the message with its offset, and serves the journal over a (bound) ROUTER replay socket.
+ *
+ * The subscriber (incoming) starts from its last committed offset (durable subscription), or from the start of the
+ * journal, and catches up over a DEALER replay socket in batches read sequentially from the journal, while holding
+ * back the live messages received meanwhile. Once caught up, the held back messages are handed on in offset order
+ * and duplicates (already replayed) are dropped. A gap within the live messages, i.e. dropped by the PUB socket, puts
+ * the subscriber back into replay until the gap is filled.
+ *
+ * Offsets are global to the publisher, while a subscriber only receives the messages of its subscription tags, so
+ * each message is also stamped with its tag and the offset of the previous message of the same tag. A gap is then a
+ * missing previous message of the tag, and the offsets of the other tags are never mistaken for loss. The replay
+ * socket filters the journal by the subscription tags of the request, returning the matching records and the offset
+ * scanned up to.
+ *
+ * The journal keeps its messages within the retention size and time (when set), so a replay from an offset no longer
+ * kept starts from the oldest message kept.
+ */
+@ZmqComponent("replay")
+@ZmqUriParameter("gateway")
+public class ZmqReplayGateway extends AbstractZmqGateway {
+    private static final Logger LOGGER = Logger.getLogger(ZmqReplayGateway.class.getCanonicalName());
+
+    /**
+     * The (string) message property holding the offset of the message within the publisher journal.
+     */
+    public static final String OFFSET_PROPERTY = "JMS_ZMQOffset";
+
+    /**
+     * The (string) message property holding the offset of the previous message of the same tag, or -1 when none.
+     */
+    public static final String PREVIOUS_OFFSET_PROPERTY = "JMS_ZMQPreviousOffset";
+
+    /**
+     * The (string) message property holding the tag the message was published with (see ZmqFilterPolicy).
+     */
+    public static final String TAG_PROPERTY = "JMS_ZMQTag";
+
+    private static final int DEFAULT_REPLAY_BATCH_SIZE = 1000;
+    private static final int DEFAULT_REPLAY_HOLD_SIZE = 10000;
+    private static final int REPLAY_BATCH_BYTES = 4 * 1024 * 1024;
+    private static final int REPLAY_WAIT_MILLI_SECOND = 100;
+    private static final int REPLAY_RECEIVE_TIMEOUT_MILLI_SECOND = 3000;
+    private static final long DEFAULT_COMMIT_INTERVAL_MILLI_SECOND = 1000;
+    private static final int OFFSET_SIZE = 8;
+
+    private final Object replayLock = new Object();
+    private final List<ZmqSendEvent> heldEvents = new ArrayList<ZmqSendEvent>();
+    private final Map<String, Long> tagOffsets = new HashMap<String, Long>();
+
+    private String replayAddr = null;
+    private String replayDirectory = System.getProperty("java.io.tmpdir");
+    private String replayName = null;
+    private int replayBatchSize = DEFAULT_REPLAY_BATCH_SIZE;
+    private int replayHoldSize = DEFAULT_REPLAY_HOLD_SIZE;
+    private boolean replayFromLatest = false;
+    private long commitInterval = DEFAULT_COMMIT_INTERVAL_MILLI_SECOND;
+    private String subscriptionName = null;
+    private long segmentSize = 0;
+    private long retentionSize = 0;
+    private long retentionTime = 0;
+
+    private ZmqOffsetJournal offsetJournal = null;
+    private ExecutorService replayExecutor = null;
+
+    private boolean replaying = false;
+    private long nextOffset = -1;
+    private long droppedOffset = -1;
+    private long replayedCount = 0;
+
+    private volatile long consumedOffset = -1;
+    private long committedOffset = -1;
+    private long lastCommitTime = 0;
+
+    /**
+     * Construct the replay gateway.
+     * @param name              the name of display the gateway
+     * @param socketContext     the socket context for the ZMQ socket
+     * @param filter            the message filter policy
+     * @param handler           the message event handler functionality
+     * @param listener          the listener instance
+     * @param store             the (optional) message store
+     * @param selector          the (optional) message selection policy
+     * @param redelivery        the (optional) message re-delivery policy
+     * @param transacted        the transaction indicator
+     * @param direction         the direction, i.e. Incoming (subscriber), Outgoing (publisher)
+     */
+    public ZmqReplayGateway(final String name, final ZmqSocketContext socketContext,
+        final ZmqFilterPolicy filter, final ZmqEventHandler handler, final ZmqGatewayListener listener,
+        final ZmqJournalStore store, final ZmqMessageSelector selector, final ZmqRedeliveryPolicy redelivery,
+        final boolean transacted, final Direction direction) {
+
+        super(name, socketContext, filter, handler, listener, store, selector, redelivery, transacted, false, false, direction);
+    }
+
+    /**
+     * Set the address of the replay socket, bound by the publisher and connected to by the subscribers. Without it
+     * the gateway behaves as fire and forget.
+     * @param replayAddr  the replay socket address
+     */
+    @ZmqUriParameter("gateway.replayAddr")
+    public void setReplayAddr(final String replayAddr) {
+        this.replayAddr = replayAddr;
+    }
+
+    /**
+     * Set the directory of the publisher journal and subscriber offsets, defaulting to the temporary directory.
+     * @param replayDirectory  the replay directory
+     */
+    @ZmqUriParameter("gateway.replayDirectory")
+    public void setReplayDirectory(final String replayDirectory) {
+        this.replayDirectory = replayDirectory;
+    }
+
+    /**
+     * Set the name of the publisher journal (and prefix of the subscriber offset files), defaulting to the socket
+     * address stripped of punctuation.
+     * @param replayName  the replay name
+     */
+    @ZmqUriParameter("gateway.replayName")
+    public void setReplayName(final String replayName) {
+        this.replayName = replayName;
+    }
+
+    /**
+     * Set the maximum number of messages returned per replay batch. The default is 1000.
+     * @param replayBatchSize  the replay batch size
+     */
+    @ZmqUriParameter("gateway.replayBatchSize")
+    public void setReplayBatchSize(final int replayBatchSize) {
+        this.replayBatchSize = Math.max(1, replayBatchSize);
+    }
+
+    /**
+     * Set the maximum number of live messages held back while the subscriber replays. Beyond it live messages are
+     * dropped, and replay carries on until it has read past them. The default is 10000.
+     * @param replayHoldSize  the replay hold size
+     */
+    @ZmqUriParameter("gateway.replayHoldSize")
+    public void setReplayHoldSize(final int replayHoldSize) {
+        this.replayHoldSize = Math.max(1, replayHoldSize);
+    }
+
+    /**
+     * Set where a subscriber without a committed offset starts, i.e. "earliest" (default) replays the whole journal,
+     * and "latest" only receives live messages.
+     * @param replayFrom  the replay start, "earliest" or "latest"
+     */
+    @ZmqUriParameter("gateway.replayFrom")
+    public void setReplayFrom(final String replayFrom) {
+        this.replayFromLatest = "latest".equalsIgnoreCase(replayFrom);
+    }
+
+    /**
+     * Set the minimum time (milliseconds) between writes of the consumed offset of a durable subscription. The offset
+     * is always written on close. The default is 1 second.
+     * @param commitInterval  the commit interval
+     */
+    @ZmqUriParameter("gateway.replayCommitInterval")
+    public void setCommitInterval(final long commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * Set the size (bytes) the publisher journal segments are rolled over at, i.e. the granularity messages are
+     * deleted by on retention. The default is 64MB.
+     * @param segmentSize  the segment size
+     */
+    @ZmqUriParameter("gateway.replaySegmentSize")
+    public void setReplaySegmentSize(final long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Set the size (bytes) of the publisher journal beyond which its oldest segments are deleted, so subscribers
+     * replay from the oldest message kept. Zero (default) for unlimited.
+     * @param retentionSize  the retention size
+     */
+    @ZmqUriParameter("gateway.replayRetentionSize")
+    public void setReplayRetentionSize(final long retentionSize) {
+        this.retentionSize = retentionSize;
+    }
+
+    /**
+     * Set the time (milliseconds) the publisher journal keeps its messages for, after which their segment is deleted.
+     * Zero (default) for unlimited.
+     * @param retentionTime  the retention time
+     */
+    @ZmqUriParameter("gateway.replayRetentionTime")
+    public void setReplayRetentionTime(final long retentionTime) {
+        this.retentionTime = retentionTime;
+    }
+
+    /**
+     * Set the name of the durable subscription, so the consumed offset is committed and replay restarts from it.
+     * @param subscriptionName  the durable subscription name
+     */
+    public void setSubscriptionName(final String subscriptionName) {
+        this.subscriptionName = subscriptionName;
+    }
+
+    /**
+     * @return  return the name of the durable subscription, or null
+     */
+    public String getSubscriptionName() {
+        return subscriptionName;
+    }
+
+    /**
+     * @return  return the offset the subscriber has received every message of its tags before, or the offset of the
+     *          next message journaled by the publisher
+     */
+    public long getNextOffset() {
+        if (offsetJournal != null) {
+            return offsetJournal.getNextOffset();
+        }
+
+        synchronized (replayLock) {
+            return nextOffset;
+        }
+    }
+
+    /**
+     * @return  return the number of messages the subscriber received through replay
+     */
+    public long getReplayedCount() {
+        synchronized (replayLock) {
+            return replayedCount;
+        }
+    }
+
+    /**
+     * @return  return true while the subscriber is catching up through replay
+     */
+    public boolean isReplaying() {
+        synchronized (replayLock) {
+            return replaying;
+        }
+    }
+
+    /**
+     * @return  return the replay name, defaulting to the socket address stripped of punctuation
+     */
+    protected String getReplayName() {
+        return (replayName != null) ? replayName : getAddr().replaceAll("[^A-Za-z0-9_.-]", "");
+    }
+
+    /**
+     * @return  return the file of the committed offset of the durable subscription
+     */
+    protected Path getOffsetFile() {
+        return Paths.get(replayDirectory, getReplayName() + "-" + subscriptionName + ".offset");
+    }
+
+    @Override
+    public void open(final int timeout) {
+        if (isActive()) {
+            return;
+        }
+
+        if (replayAddr != null && getDirection() == Direction.OUTGOING) {
+            tagOffsets.clear();
+            offsetJournal = new ZmqOffsetJournal(Paths.get(replayDirectory, getReplayName() + ".journal"));
+
+            if (segmentSize > 0) {
+                offsetJournal.setSegmentSize(segmentSize);
+            }
+
+            offsetJournal.setRetentionSize(retentionSize);
+            offsetJournal.setRetentionTime(retentionTime);
+
+            try {
+                offsetJournal.open();
+            } catch (ZmqException ex) {
+                LOGGER.log(Level.SEVERE, "Gateway [" + getName() + "] unable to open offset journal: " + offsetJournal, ex);
+
+                offsetJournal = null;
+            }
+        } else if (replayAddr != null && getDirection() == Direction.INCOMING) {
+            final long startOffset = readCommittedOffset();
+
+            synchronized (replayLock) {
+                heldEvents.clear();
+                tagOffsets.clear();
+                droppedOffset = -1;
+                committedOffset = startOffset;
+                consumedOffset = startOffset;
+
+                if (startOffset >= 0) {
+                    nextOffset = startOffset;
+                    replaying = true;
+                } else if (replayFromLatest) {
+                    nextOffset = -1;
+                    replaying = false;
+                } else {
+                    nextOffset = 0;
+                    replaying = true;
+                }
+            }
+        }
+
+        super.open(timeout);
+
+        if (replayAddr != null && (offsetJournal != null || getDirection() == Direction.INCOMING)) {
+            replayExecutor = Executors.newSingleThreadExecutor();
+            replayExecutor.execute((offsetJournal != null) ? new ReplayServer() : new ReplayClient());
+        }
+    }
+
+    @Override
+    public void close(final int timeout) {
+        super.close(timeout);
+
+        if (replayExecutor != null) {
+            try {
+                replayExecutor.shutdown();
+                final boolean success = replayExecutor.awaitTermination(3, TimeUnit.SECONDS);
+
+                if (!success) {
+                    LOGGER.severe("Gateway [" + getName() + "] replay thread failed to stop: " + toString());
+                }
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.SEVERE, "Gateway [" + getName() + "] replay thread failed to stop: " + toString(), ex);
+            }
+
+            replayExecutor = null;
+        }
+
+        if (offsetJournal != null) {
+            try {
+                offsetJournal.close();
+            } catch (ZmqException ex) {
+                LOGGER.log(Level.SEVERE, "Gateway [" + getName() + "] unable to close offset journal: " + offsetJournal, ex);
+            }
+
+            offsetJournal = null;
+        }
+
+        commitOffset(true);
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> journal(final ZmqSendEvent event, final Queue<ZmqSendEvent> queue) throws ZmqException {
+        if (offsetJournal != null && getDirection() == Direction.OUTGOING) {
+            append(event);
+        }
+
+        return super.journal(event, queue);
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> journalAll(final Collection<ZmqSendEvent> events, final Queue<ZmqSendEvent> queue)
+        throws ZmqException {
+
+        if (offsetJournal != null && getDirection() == Direction.OUTGOING) {
+            for (ZmqSendEvent event : events) {
+                append(event);
+            }
+        }
+
+        return super.journalAll(events, queue);
+    }
+
+    /**
+     * Stamp the message of the event with its offset, tag and the offset of the previous message of the tag, and append
+     * it (as sent on the wire) to the offset journal.
+     * @param  event         the event
+     * @throws ZmqException  throws exception when the message cannot be journaled
+     */
+    private void append(final ZmqSendEvent event) throws ZmqException {
+        synchronized (offsetJournal) {
+            final long offset = offsetJournal.getNextOffset();
+            final ZmqFilterPolicy filterPolicy = getFilterPolicy();
+            final String resolvedTag = (filterPolicy == null) ? null : filterPolicy.resolve(event.getMessage());
+            final String tag = (resolvedTag == null) ? "" : resolvedTag;
+            final Long previousOffset = tagOffsets.get(tag);
+
+            try {
+                event.getMessage().setStringProperty(OFFSET_PROPERTY, Long.toString(offset));
+                event.getMessage().setStringProperty(PREVIOUS_OFFSET_PROPERTY, (previousOffset == null) ? "-1" : previousOffset.toString());
+                event.getMessage().setStringProperty(TAG_PROPERTY, tag);
+            } catch (JMSException ex) {
+                throw new ZmqException("Unable to stamp message with offset: " + event, ex);
+            }
+
+            final ZMsg msg = getEventHandler().createMsg(getType(), getFilterPolicy(), event);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            if (!ZMsg.save(msg, new DataOutputStream(bytes))) {
+                throw new ZmqException("Unable to serialize message for the offset journal: " + event);
+            }
+
+            msg.destroy();
+            offsetJournal.append(bytes.toByteArray());
+            tagOffsets.put(tag, offset);
+        }
+    }
+
+    @Override
+    public ZmqEvent socketReceive(final ZmqSocketSession source, final ZmqEvent event) {
+        if (replayAddr == null || getDirection() != Direction.INCOMING || !(event instanceof ZmqSendEvent)) {
+            return super.socketReceive(source, event);
+        }
+
+        final ZmqSendEvent sendEvent = (ZmqSendEvent) event;
+        final long offset = getOffset(sendEvent);
+
+        if (offset < 0) {
+            // not journaled by the publisher
+            return super.socketReceive(source, event);
+        }
+
+        synchronized (replayLock) {
+            if (replaying) {
+                hold(sendEvent, offset);
+
+                return null;
+            }
+
+            if (nextOffset < 0) {
+                nextOffset = offset;
+            }
+
+            final String tag = getTag(sendEvent);
+
+            if (isDuplicate(offset, tag)) {
+                LOGGER.fine("Gateway [" + getName() + "] dropped duplicate message (offset=" + offset + "): " + event);
+
+                return null;
+            }
+
+            if (!isContiguous(getPreviousOffset(sendEvent), tag)) {
+                LOGGER.warning("Gateway [" + getName() + "] missed message(s) of tag \"" + tag + "\" before offset " + offset
+                    + ", replaying the gap from offset " + nextOffset);
+
+                replaying = true;
+                hold(sendEvent, offset);
+                replayLock.notifyAll();
+
+                return null;
+            }
+
+            delivered(offset, tag);
+
+            // hand on within the lock, so a gap replay cannot overtake it
+            return super.socketReceive(source, event);
+        }
+    }
+
+    /**
+     * Hold back the live event while replaying, or drop it when the held events are full. A dropped event is still
+     * within the publisher journal, so replay carries on until it has read past it. Called with the replay lock held.
+     * @param event   the event
+     * @param offset  the offset of the event
+     */
+    private void hold(final ZmqSendEvent event, final long offset) {
+        if (heldEvents.size() < replayHoldSize) {
+            heldEvents.add(event);
+        } else {
+            LOGGER.fine("Gateway [" + getName() + "] dropped live message while replaying (offset=" + offset + "): " + event);
+
+            droppedOffset = Math.max(droppedOffset, offset);
+        }
+    }
+
+    /**
+     * Return true when the message of the offset and tag has already been handed on, i.e. it is before the offset
+     * every message has been received before, or not after the last message handed on for the tag. Called with the
+     * replay lock held.
+     * @param  offset  the offset
+     * @param  tag     the tag
+     * @return         return true when a duplicate
+     */
+    private boolean isDuplicate(final long offset, final String tag) {
+        final Long tagOffset = tagOffsets.get(tag);
+
+        return offset < nextOffset || (tagOffset != null && offset <= tagOffset);
+    }
+
+    /**
+     * Return true when the previous message of the tag has already been handed on, or is before the offset every
+     * message has been received before (so filtered out, or handed on). Called with the replay lock held.
+     * @param  previousOffset  the offset of the previous message of the tag, or -1 when none
+     * @param  tag             the tag
+     * @return                 return true when no message of the tag is missing
+     */
+    private boolean isContiguous(final long previousOffset, final String tag) {
+        final Long tagOffset = tagOffsets.get(tag);
+
+        return previousOffset < nextOffset || (tagOffset != null && previousOffset == tagOffset);
+    }
+
+    /**
+     * Record the message of the offset and tag as handed on. Called with the replay lock held.
+     * @param offset  the offset
+     * @param tag     the tag
+     */
+    private void delivered(final long offset, final String tag) {
+        tagOffsets.put(tag, offset);
+
+        if (offset == nextOffset) {
+            nextOffset++;
+        }
+    }
+
+    @Override
+    protected ZmqSendEvent receiveEvent(final int timeout) throws ZmqException {
+        final ZmqSendEvent event = super.receiveEvent(timeout);
+
+        if (event != null && subscriptionName != null) {
+            final long offset = getOffset(event);
+
+            if (offset >= consumedOffset) {
+                consumedOffset = offset + 1;
+                commitOffset(false);
+            }
+        }
+
+        return event;
+    }
+
+    /**
+     * Return the offset the message of the event was journaled at by the publisher.
+     * @param  event  the event
+     * @return        return the offset, or -1 when not journaled
+     */
+    protected static long getOffset(final ZmqSendEvent event) {
+        return getOffset(event, OFFSET_PROPERTY);
+    }
+
+    /**
+     * Return the offset of the previous message of the same tag as the message of the event.
+     * @param  event  the event
+     * @return        return the offset, or -1 when none
+     */
+    protected static long getPreviousOffset(final ZmqSendEvent event) {
+        return getOffset(event, PREVIOUS_OFFSET_PROPERTY);
+    }
+
+    /**
+     * Return the offset held by the message property of the event.
+     * @param  event         the event
+     * @param  propertyName  the property name
+     * @return               return the offset, or -1 when none
+     */
+    private static long getOffset(final ZmqSendEvent event, final String propertyName) {
+        try {
+            final String value = event.getMessage().getStringProperty(propertyName);
+
+            return (value == null) ? -1 : Long.parseLong(value);
+        } catch (JMSException | NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return the tag the message of the event was published with.
+     * @param  event  the event
+     * @return        return the tag, or an empty tag when none
+     */
+    protected static String getTag(final ZmqSendEvent event) {
+        try {
+            final String value = event.getMessage().getStringProperty(TAG_PROPERTY);
+
+            return (value == null) ? "" : value;
+        } catch (JMSException ex) {
+            return "";
+        }
+    }
+
+    /**
+     * Hand on the replayed batch of records matching the subscription tags, from the offset the subscriber has
+     * received every message before, and once caught up with the journal hand on the held back live messages. Called
+     * by the replay client with the replay lock held.
+     * @param  firstOffset    the offset the journal was read from
+     * @param  headOffset     the next offset of the publisher journal when read
+     * @param  scannedOffset  the offset the journal was read up to, i.e. the first offset when nothing was read
+     * @param  records        the records matching the subscription tags
+     * @return                return true when caught up, i.e. no longer replaying
+     * @throws ZmqException   throws exception when a record cannot be decoded
+     */
+    private boolean replayed(final long firstOffset, final long headOffset, final long scannedOffset, final List<byte[]> records)
+        throws ZmqException {
+
+        if (firstOffset != nextOffset) {
+            // a late reply to an earlier request
+            return false;
+        }
+
+        for (byte[] record : records) {
+            final ZMsg msg = ZMsg.load(new DataInputStream(new ByteArrayInputStream(record)));
+            final ZmqEvent event = getEventHandler().createEvent(getType(), msg);
+
+            if (event instanceof ZmqSendEvent) {
+                final ZmqSendEvent sendEvent = (ZmqSendEvent) event;
+                final long offset = getOffset(sendEvent);
+                final String tag = getTag(sendEvent);
+
+                // handed on live before the gap was found
+                if (!isDuplicate(offset, tag)) {
+                    deliver(sendEvent);
+                    tagOffsets.put(tag, offset);
+                    replayedCount++;
+                }
+            }
+        }
+
+        if (scannedOffset > firstOffset) {
+            nextOffset = scannedOffset;
+
+            return false;
+        }
+
+        if (nextOffset > headOffset) {
+            LOGGER.warning("Gateway [" + getName() + "] offset " + nextOffset + " is beyond the publisher journal ("
+                + headOffset + "), restarting from it");
+
+            nextOffset = headOffset;
+        }
+
+        if (droppedOffset >= nextOffset) {
+            // live messages were dropped that were published after the journal was read
+            return false;
+        }
+
+        final Iterator<ZmqSendEvent> iterator = heldEvents.iterator();
+
+        while (iterator.hasNext()) {
+            final ZmqSendEvent event = iterator.next();
+            final long offset = getOffset(event);
+            final String tag = getTag(event);
+
+            if (!isDuplicate(offset, tag)) {
+                if (!isContiguous(getPreviousOffset(event), tag)) {
+                    // published after the journal was read, so replay the gap
+                    return false;
+                }
+
+                deliver(event);
+                delivered(offset, tag);
+            }
+
+            iterator.remove();
+        }
+
+        droppedOffset = -1;
+
+        replaying = false;
+
+        LOGGER.info("Gateway [" + getName() + "] caught up through replay (nextOffset=" + nextOffset + ", replayed="
+            + replayedCount + ")");
+
+        return true;
+    }
+
+    /**
+     * Read the committed offset of the durable subscription.
+     * @return  return the committed offset, or -1 when none
+     */
+    private long readCommittedOffset() {
+        if (subscriptionName == null) {
+            return -1;
+        }
+
+        final Path offsetFile = getOffsetFile();
+
+        try {
+            if (!Files.exists(offsetFile)) {
+                return -1;
+            }
+
+            final byte[] bytes = Files.readAllBytes(offsetFile);
+
+            return (bytes.length == OFFSET_SIZE) ? ByteBuffer.wrap(bytes).getLong() : -1;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Gateway [" + getName() + "] unable to read committed offset: " + offsetFile, ex);
+
+            return -1;
+        }
+    }
+
+    /**
+     * Write the consumed offset of the durable subscription, at most once per commit interval unless forced.
+     * @param force  the force (ignore the commit interval) indicator
+     */
+    private synchronized void commitOffset(final boolean force) {
+        final long offset = consumedOffset;
+
+        if (subscriptionName == null || offset < 0 || offset == committedOffset) {
+            return;
+        }
+
+        final long currentTime = System.currentTimeMillis();
+
+        if (!force && currentTime - lastCommitTime < commitInterval) {
+            return;
+        }
+
+        final Path offsetFile = getOffsetFile();
+
+        try {
+            Files.createDirectories(offsetFile.getParent());
+            Files.write(offsetFile, ByteBuffer.allocate(OFFSET_SIZE).putLong(offset).array());
+
+            committedOffset = offset;
+            lastCommitTime = currentTime;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Gateway [" + getName() + "] unable to commit offset: " + offsetFile, ex);
+        }
+    }
+
+    /**
+     * Return the subscription tags of the subscriber, as subscribed to by its SUB sockets.
+     * @return  return the tags, or none to replay every message
+     */
+    private String[] getSubscribeTags() {
+        final ZmqFilterPolicy filterPolicy = getFilterPolicy();
+        final String[] tags = (filterPolicy == null) ? null : filterPolicy.getSubscirbeTags();
+
+        return (tags == null) ? new String[0] : tags;
+    }
+
+    /**
+     * Return the 8 byte frame of the offset.
+     * @param  offset  the offset
+     * @return         return the frame
+     */
+    private static byte[] toBytes(final long offset) {
+        return ByteBuffer.allocate(OFFSET_SIZE).putLong(offset).array();
+    }
+
+    /**
+     * Publisher replay thread, answering each request [offset][subscription tags...] with a batch [offset][head offset]
+     * [scanned offset][records...] read from the offset journal, holding only the records matching the tags.
+     */
+    private class ReplayServer implements Runnable {
+
+        @Override
+        public void run() {
+            final ZMQ.Socket socket = getContext().socket(ZMQ.ROUTER);
+
+            try {
+                socket.setReceiveTimeOut(REPLAY_WAIT_MILLI_SECOND);
+                socket.bind(replayAddr);
+
+                while (isActive()) {
+                    final ZMsg request = ZMsg.recvMsg(socket);
+
+                    if (request == null || request.size() < 2) {
+                        continue;
+                    }
+
+                    final ZFrame identity = request.pop();
+                    final long fromOffset = ByteBuffer.wrap(request.pop().getData()).getLong();
+                    final List<byte[]> tags = new ArrayList<byte[]>(request.size());
+
+                    for (ZFrame frame : request) {
+                        tags.add(frame.getData());
+                    }
+
+                    final long headOffset = offsetJournal.getNextOffset();
+                    final long firstOffset = offsetJournal.getFirstOffset();
+                    final long startOffset = Math.max(fromOffset, firstOffset);
+
+                    if (fromOffset < firstOffset && fromOffset < headOffset) {
+                        LOGGER.warning("Gateway [" + getName() + "] replay from offset " + fromOffset + " is before the oldest offset kept ("
+                            + firstOffset + "), so starts from it");
+                    }
+
+                    final List<byte[]> records = offsetJournal.read(startOffset, replayBatchSize, REPLAY_BATCH_BYTES);
+                    final ZMsg reply = new ZMsg();
+
+                    // scanned from the oldest offset kept, so the subscriber skips the messages no longer kept
+                    reply.add(identity);
+                    reply.add(toBytes(fromOffset));
+                    reply.add(toBytes(headOffset));
+                    reply.add(toBytes(startOffset + records.size()));
+
+                    for (byte[] record : records) {
+                        if (matches(record, tags)) {
+                            reply.add(record);
+                        }
+                    }
+
+                    reply.send(socket);
+                    request.destroy();
+                }
+            } catch (ZMQException | ZmqException ex) {
+                if (isActive()) {
+                    LOGGER.log(Level.SEVERE, "Gateway [" + getName() + "] replay socket failure: " + replayAddr, ex);
+                }
+            } finally {
+                socket.close();
+            }
+        }
+
+        /**
+         * Return true when the key (first) frame of the record starts with one of the tags, as matched by a SUB socket.
+         * @param  record  the record
+         * @param  tags    the subscription tags, or none to match every record
+         * @return         return true when matched
+         */
+        private boolean matches(final byte[] record, final List<byte[]> tags) {
+            if (tags.isEmpty()) {
+                return true;
+            }
+
+            final ZMsg msg = ZMsg.load(new DataInputStream(new ByteArrayInputStream(record)));
+            final byte[] key = (msg != null && msg.size() > 1) ? msg.getFirst().getData() : new byte[0];
+
+            if (msg != null) {
+                msg.destroy();
+            }
+
+            for (byte[] tag : tags) {
+                if (tag.length <= key.length && Arrays.equals(tag, Arrays.copyOf(key, tag.length))) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Subscriber replay thread, requesting batches from the offset expected next while replaying.
+     */
+    private class ReplayClient implements Runnable {
+
+        @Override
+        public void run() {
+            final ZMQ.Socket socket = getContext().socket(ZMQ.DEALER);
+
+            try {
+                socket.setReceiveTimeOut(REPLAY_RECEIVE_TIMEOUT_MILLI_SECOND);
+                socket.connect(replayAddr);
+
+                while (isActive()) {
+                    long fromOffset;
+
+                    synchronized (replayLock) {
+                        while (!replaying && isActive()) {
+                            replayLock.wait(REPLAY_WAIT_MILLI_SECOND);
+                        }
+
+                        fromOffset = nextOffset;
+                    }
+
+                    if (!isActive()) {
+                        break;
+                    }
+
+                    final ZMsg request = new ZMsg();
+
+                    request.add(toBytes(fromOffset));
+
+                    for (String tag : getSubscribeTags()) {
+                        request.add(tag.getBytes());
+                    }
+
+                    request.send(socket);
+
+                    final ZMsg reply = ZMsg.recvMsg(socket);
+
+                    if (reply == null) {
+                        LOGGER.warning("Gateway [" + getName() + "] no reply from replay socket (will retry): " + replayAddr);
+                        continue;
+                    }
+
+                    final long firstOffset = ByteBuffer.wrap(reply.pop().getData()).getLong();
+                    final long headOffset = ByteBuffer.wrap(reply.pop().getData()).getLong();
+                    final long scannedOffset = ByteBuffer.wrap(reply.pop().getData()).getLong();
+                    final List<byte[]> records = new ArrayList<byte[]>(reply.size());
+
+                    for (ZFrame frame : reply) {
+                        records.add(frame.getData());
+                    }
+
+                    synchronized (replayLock) {
+                        replayed(firstOffset, headOffset, scannedOffset, records);
+                    }
+
+                    reply.destroy();
+                }
+            } catch (ZMQException | ZmqException ex) {
+                if (isActive()) {
+                    LOGGER.log(Level.SEVERE, "Gateway [" + getName() + "] replay socket failure: " + replayAddr, ex);
+                }
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.WARNING, "Gateway [" + getName() + "] replay interrupted: " + replayAddr, ex);
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqReplayGateway [" + super.toString() + ", replayAddr=" + replayAddr + ", subscriptionName=" + subscriptionName + "]";
+    }
+}
@@ -0,0 +1,338 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqMessage;
+import org.zeromq.jms.ZmqReplyQueue;
+import org.zeromq.jms.ZmqTemporaryQueue;
+import org.zeromq.jms.annotation.ZmqComponent;
+import org.zeromq.jms.annotation.ZmqUriParameter;
+import org.zeromq.jms.protocol.event.ZmqEventHandler;
+import org.zeromq.jms.protocol.event.ZmqReplyEventHandler;
+import org.zeromq.jms.protocol.filter.ZmqFilterPolicy;
+import org.zeromq.jms.protocol.redelivery.ZmqRedeliveryPolicy;
+import org.zeromq.jms.protocol.store.ZmqJournalStore;
+import org.zeromq.jms.selector.ZmqMessageSelector;
+
+/**
+ * Request/Reply Gateway. The requester (outgoing) sends over a DEALER socket, and the replier (incoming) receives
+ * over a ROUTER socket, so each reply is routed back to the requesting peer by its identity frame.
+ *
+ * A request sent with a temporary queue as its JMSReplyTo is correlated by its message identifier, i.e. the replier
+ * sees it as the JMSMessageID of the request, and the reply is delivered to the temporary queue with it as the
+ * JMSCorrelationID. Such a request is flagged (by the JMS_ZMQ_ReplyRequested property) so the replier only waits on
+ * a reply to it, while other (one-way) messages are received as is. Requests (and replies) outstanding for longer
+ * than the reply timeout are dropped by a periodic sweep.
+ */
+@ZmqComponent("reqrep")
+@ZmqUriParameter("gateway")
+public class ZmqReqRepGateway extends AbstractZmqGateway {
+    private static final Logger LOGGER = Logger.getLogger(ZmqReqRepGateway.class.getCanonicalName());
+
+    private static final long DEFAULT_REPLY_TIMEOUT_MILLI_SECOND = 30000;
+    private static final long DEFAULT_POLL_WAIT_MILLI_SECOND = 1;
+    private static final long SWEEP_PERIOD_MILLI_SECOND = 1000;
+
+    /**
+     * The (vendor specific) property flagging a request waiting on a reply.
+     */
+    public static final String PROPERTY_REPLY_REQUESTED = "JMS_ZMQ_ReplyRequested";
+
+    private final Map<Object, PendingExchange> exchanges = new ConcurrentHashMap<Object, PendingExchange>();
+
+    private long replyTimeout = DEFAULT_REPLY_TIMEOUT_MILLI_SECOND;
+    private long pollWait = DEFAULT_POLL_WAIT_MILLI_SECOND;
+
+    private ScheduledExecutorService sweepExecutor = null;
+
+    /**
+     * Outstanding exchange, i.e. the request waiting on a reply from the replier, or the temporary queue waiting on
+     * the reply at the requester.
+     */
+    private static final class PendingExchange {
+        private final ZmqSendEvent request;
+        private final ZmqTemporaryQueue replyQueue;
+        private final long startTime = System.currentTimeMillis();
+
+        /**
+         * Construct the pending exchange.
+         * @param request     the request received (replier), or null
+         * @param replyQueue  the temporary queue for the reply (requester), or null
+         */
+        private PendingExchange(final ZmqSendEvent request, final ZmqTemporaryQueue replyQueue) {
+            this.request = request;
+            this.replyQueue = replyQueue;
+        }
+    }
+
+    /**
+     * Construct the request/reply gateway.
+     * @param name              the name of display the gateway
+     * @param socketContext     the socket context for the ZMQ socket
+     * @param filter            the message filter policy
+     * @param handler           the message event handler functionality (able to route replies)
+     * @param listener          the listener instance
+     * @param store             the (optional) message store
+     * @param selector          the (optional) message selection policy
+     * @param redelivery        the (optional) message re-delivery policy
+     * @param transacted        the transaction indicator
+     * @param direction         the direction, i.e. Incoming (replier), Outgoing (requester)
+     */
+    public ZmqReqRepGateway(final String name, final ZmqSocketContext socketContext,
+        final ZmqFilterPolicy filter, final ZmqEventHandler handler, final ZmqGatewayListener listener,
+        final ZmqJournalStore store, final ZmqMessageSelector selector, final ZmqRedeliveryPolicy redelivery,
+        final boolean transacted, final Direction direction) {
+
+        super(name, getSocketContext(socketContext, direction), filter, handler, listener,
+            store, selector, redelivery, transacted, false, false, direction);
+
+        if (!(handler instanceof ZmqReplyEventHandler)) {
+            throw new IllegalArgumentException("Request/reply requires an event handler able to route replies (i.e. stomp): " + handler);
+        }
+    }
+
+    /**
+     * Return a copy of the socket context with the socket type given for this direction.
+     * @param socketContext  the socket context
+     * @param direction      the direction
+     * @return               return the socket context
+     */
+    protected static ZmqSocketContext getSocketContext(final ZmqSocketContext socketContext, final Direction direction) {
+        final ZmqSocketContext replyContext = new ZmqSocketContext(socketContext);
+
+        replyContext.setType((direction == Direction.OUTGOING) ? ZmqSocketType.DEALER : ZmqSocketType.ROUTER);
+
+        return replyContext;
+    }
+
+    /**
+     * Set the time (milliseconds) a request waits on its reply before being dropped. The default is 30 seconds.
+     * @param replyTimeout  the reply time out
+     */
+    @ZmqUriParameter("gateway.replyTimeout")
+    public void setReplyTimeout(final long replyTimeout) {
+        this.replyTimeout = replyTimeout;
+    }
+
+    /**
+     * Set the time (milliseconds) the sockets wait on outgoing messages before checking for incoming ones, bounding
+     * the reply latency. The default is 1 millisecond.
+     * @param pollWait  the poll wait time
+     */
+    @ZmqUriParameter("gateway.pollWait")
+    public void setPollWait(final long pollWait) {
+        this.pollWait = pollWait;
+    }
+
+    /**
+     * Ignore the "flyweight" receive mode, since requests are retained until replied to.
+     * @param flyweight  the flyweight receive mode indicator
+     */
+    @Override
+    @ZmqUriParameter("gateway.flyweight")
+    public void setFlyweight(final boolean flyweight) {
+        if (flyweight) {
+            LOGGER.warning("Gateway [" + getName() + "] ignoring flyweight receive mode, since requests are retained until replied to");
+        }
+    }
+
+    /**
+     * @return  return the number of requests waiting on a reply
+     */
+    public int getPendingCount() {
+        return exchanges.size();
+    }
+
+    @Override
+    protected boolean isSocketOutgoing() {
+        return true;
+    }
+
+    @Override
+    protected boolean isSocketIncoming() {
+        return true;
+    }
+
+    @Override
+    protected long getOutgoingWaitTime() {
+        return pollWait;
+    }
+
+    @Override
+    public void open(final int timeout) {
+        super.open(timeout);
+
+        synchronized (exchanges) {
+            if (sweepExecutor == null && replyTimeout > 0) {
+                sweepExecutor = Executors.newSingleThreadScheduledExecutor();
+                sweepExecutor.scheduleAtFixedRate(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        sweep();
+                    }
+                }, SWEEP_PERIOD_MILLI_SECOND, SWEEP_PERIOD_MILLI_SECOND, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    protected ZmqSendEvent createSendEvent(final ZmqMessage message) throws ZmqException {
+        if (getDirection() == Direction.INCOMING) {
+            return createReplyEvent(message);
+        }
+
+        final ZmqSendEvent event = getEventHandler().createSendEvent(message);
+
+        try {
+            final Destination replyTo = message.getJMSReplyTo();
+
+            if (replyTo instanceof ZmqTemporaryQueue) {
+                message.setJMSMessageID(event.getMessageId().toString());
+                message.setStringProperty(PROPERTY_REPLY_REQUESTED, Boolean.TRUE.toString());
+                exchanges.put(event.getMessageId(), new PendingExchange(null, (ZmqTemporaryQueue) replyTo));
+            } else {
+                // a message re-sent without a reply queue is one-way
+                message.getProperties().remove(PROPERTY_REPLY_REQUESTED);
+            }
+        } catch (JMSException ex) {
+            throw new ZmqException("Unable to correlate request: " + message, ex);
+        }
+
+        return event;
+    }
+
+    /**
+     * Return the event routing the reply message to the peer of the request it correlates to, i.e. its JMSCorrelationID.
+     * @param  message       the reply message
+     * @return               return the reply event
+     * @throws ZmqException  throws exception when there is no outstanding request for the reply
+     */
+    private ZmqSendEvent createReplyEvent(final ZmqMessage message) throws ZmqException {
+        String correlationId = null;
+
+        try {
+            correlationId = message.getJMSCorrelationID();
+        } catch (JMSException ex) {
+            throw new ZmqException("Unable to correlate reply: " + message, ex);
+        }
+
+        final PendingExchange exchange = (correlationId == null) ? null : exchanges.remove(correlationId);
+
+        if (exchange == null) {
+            throw new ZmqException("No outstanding request (timed out or already replied to) for reply (correlationId="
+                + correlationId + "): " + toString());
+        }
+
+        return ((ZmqReplyEventHandler) getEventHandler()).createReplyEvent(exchange.request, message);
+    }
+
+    @Override
+    public ZmqEvent socketReceive(final ZmqSocketSession source, final ZmqEvent event) {
+        if (!(event instanceof ZmqSendEvent)) {
+            return super.socketReceive(source, event);
+        }
+
+        final ZmqSendEvent sendEvent = (ZmqSendEvent) event;
+        final Object messageId = sendEvent.getMessageId();
+        final ZmqMessage message = sendEvent.getMessage();
+
+        if (getDirection() == Direction.INCOMING) {
+            // only a request waiting on its reply is correlated, and never to the loss of a JMSReplyTo of the sender
+            if (message.getProperties().remove(PROPERTY_REPLY_REQUESTED) != null) {
+                try {
+                    if (message.getJMSReplyTo() == null) {
+                        if (message.getJMSMessageID() == null) {
+                            message.setJMSMessageID(messageId.toString());
+                        }
+
+                        message.setJMSReplyTo(new ZmqReplyQueue(this, message.getJMSMessageID()));
+                        exchanges.put(message.getJMSMessageID(), new PendingExchange(sendEvent, null));
+                    }
+                } catch (JMSException ex) {
+                    LOGGER.log(Level.SEVERE, "Gateway [" + getName() + "] unable to correlate request: " + event, ex);
+
+                    return null;
+                }
+            }
+
+            return super.socketReceive(source, event);
+        }
+
+        final PendingExchange exchange = exchanges.remove(messageId);
+
+        if (exchange == null) {
+            LOGGER.warning("Gateway [" + getName() + "] dropped reply to unknown (or timed out) request: " + event);
+
+            return null;
+        }
+
+        try {
+            message.setJMSCorrelationID(messageId.toString());
+        } catch (JMSException ex) {
+            LOGGER.log(Level.SEVERE, "Gateway [" + getName() + "] unable to correlate reply: " + event, ex);
+
+            return null;
+        }
+
+        if (!exchange.replyQueue.deliver(message)) {
+            LOGGER.warning("Gateway [" + getName() + "] dropped reply for deleted queue (" + exchange.replyQueue + "): " + event);
+        }
+
+        return null;
+    }
+
+    /**
+     * Drop the exchanges outstanding for longer than the reply timeout, run every sweep period.
+     */
+    private void sweep() {
+        final long currentTime = System.currentTimeMillis();
+        final Iterator<Map.Entry<Object, PendingExchange>> iterator = exchanges.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            final Map.Entry<Object, PendingExchange> entry = iterator.next();
+
+            if (currentTime - entry.getValue().startTime > replyTimeout) {
+                iterator.remove();
+
+                LOGGER.warning("Gateway [" + getName() + "] request timed out waiting on reply (messageId=" + entry.getKey() + ")");
+            }
+        }
+    }
+
+    @Override
+    public void close(final int timeout) {
+        super.close(timeout);
+
+        synchronized (exchanges) {
+            if (sweepExecutor != null) {
+                sweepExecutor.shutdownNow();
+                sweepExecutor = null;
+            }
+        }
+
+        if (!exchanges.isEmpty()) {
+            LOGGER.warning("Gateway [" + getName() + "] closed with request(s) waiting on reply: " + exchanges.size());
+
+            exchanges.clear();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.CompletionListener;
+
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqMessage;
+
+/**
+ * The asynchronous sends of a gateway waiting on their completion. Sends are matched by message identifier, or when
+ * the event has no identifier (i.e. the serialize event handler) by the event itself. The listeners are notified on a
+ * single completion thread, so call-backs are made in send order and never on the socket, or journal writer, threads.
+ * The thread is started on demand, so the completions can be re-used once the gateway has been closed and re-opened.
+ */
+public class ZmqSendCompletions {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqSendCompletions.class.getCanonicalName());
+
+    private final String name;
+
+    private final Map<Object, PendingCompletion> completions = new ConcurrentHashMap<Object, PendingCompletion>();
+    private final Map<ZmqSendEvent, PendingCompletion> eventCompletions = new IdentityHashMap<ZmqSendEvent, PendingCompletion>();
+
+    private ExecutorService executor = null;
+
+    /**
+     * Class to represent an asynchronous send waiting on its completion.
+     */
+    private static class PendingCompletion {
+        private final ZmqMessage message;
+        private final CompletionListener listener;
+
+        /**
+         * Construct the pending completion.
+         * @param message   the message sent
+         * @param listener  the listener to notify
+         */
+        PendingCompletion(final ZmqMessage message, final CompletionListener listener) {
+            this.message = message;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Construct the completions.
+     * @param name  the gateway name
+     */
+    public ZmqSendCompletions(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return  return true when no send, with a message identifier, is waiting on completion
+     */
+    public boolean isEmpty() {
+        return completions.isEmpty();
+    }
+
+    /**
+     * Register the send of the message identifier.
+     * @param messageId  the message identifier
+     * @param message    the message sent
+     * @param listener   the listener to notify
+     */
+    public void add(final Object messageId, final ZmqMessage message, final CompletionListener listener) {
+        completions.put(messageId, new PendingCompletion(message, listener));
+    }
+
+    /**
+     * Register the send of an event without a message identifier.
+     * @param event     the event sent
+     * @param listener  the listener to notify
+     */
+    public void add(final ZmqSendEvent event, final CompletionListener listener) {
+        synchronized (eventCompletions) {
+            eventCompletions.put(event, new PendingCompletion(event.getMessage(), listener));
+        }
+    }
+
+    /**
+     * Remove the send of the message identifier without notifying the listener.
+     * @param messageId  the message identifier
+     */
+    public void remove(final Object messageId) {
+        completions.remove(messageId);
+    }
+
+    /**
+     * Complete the send of the message identifier (if any).
+     * @param messageId  the message identifier, or null when the event has none
+     * @param ex         the failure, or null on success
+     */
+    public void complete(final Object messageId, final Throwable ex) {
+        if (messageId == null) {
+            return;
+        }
+
+        final PendingCompletion completion = completions.remove(messageId);
+
+        if (completion != null) {
+            notifyListener(completion, ex);
+        }
+    }
+
+    /**
+     * Complete the send of the event, by message identifier or when it has none by the event itself.
+     * @param event  the event
+     * @param ex     the failure, or null on success
+     */
+    public void complete(final ZmqSendEvent event, final Throwable ex) {
+        final PendingCompletion completion;
+
+        synchronized (eventCompletions) {
+            completion = eventCompletions.remove(event);
+        }
+
+        if (completion == null) {
+            complete(event.getMessageId(), ex);
+        } else {
+            notifyListener(completion, ex);
+        }
+    }
+
+    /**
+     * Complete the send of a message straight away.
+     * @param message   the message sent
+     * @param listener  the listener to notify
+     * @param ex        the failure, or null on success
+     */
+    public void complete(final ZmqMessage message, final CompletionListener listener, final Throwable ex) {
+        notifyListener(new PendingCompletion(message, listener), ex);
+    }
+
+    /**
+     * Fail all the sends still waiting on completion, and stop the completion thread once they have been notified.
+     * @param ex  the failure
+     */
+    public void close(final Throwable ex) {
+        final List<PendingCompletion> failedCompletions = new ArrayList<PendingCompletion>();
+
+        for (Object messageId : completions.keySet()) {
+            final PendingCompletion completion = completions.remove(messageId);
+
+            if (completion != null) {
+                failedCompletions.add(completion);
+            }
+        }
+
+        synchronized (eventCompletions) {
+            failedCompletions.addAll(eventCompletions.values());
+            eventCompletions.clear();
+        }
+
+        for (PendingCompletion completion : failedCompletions) {
+            notifyListener(completion, ex);
+        }
+
+        final ExecutorService stoppingExecutor;
+
+        synchronized (this) {
+            stoppingExecutor = executor;
+            executor = null;
+        }
+
+        if (stoppingExecutor != null) {
+            try {
+                stoppingExecutor.shutdown();
+                final boolean success = stoppingExecutor.awaitTermination(3, TimeUnit.SECONDS);
+
+                if (!success) {
+                    LOGGER.severe("Completion thread failed to stop: " + name);
+                }
+            } catch (InterruptedException interruptEx) {
+                LOGGER.log(Level.SEVERE, "Completion thread failed to stop: " + name, interruptEx);
+            }
+        }
+    }
+
+    /**
+     * Notify the completion listener on the completion thread, starting the thread when needed.
+     * @param completion  the completion
+     * @param ex          the failure, or null on success
+     */
+    private void notifyListener(final PendingCompletion completion, final Throwable ex) {
+        final ExecutorService completionExecutor;
+
+        synchronized (this) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor();
+            }
+
+            completionExecutor = executor;
+        }
+
+        completionExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    if (ex == null) {
+                        completion.listener.onCompletion(completion.message);
+                    } else if (ex instanceof Exception) {
+                        completion.listener.onException(completion.message, (Exception) ex);
+                    } else {
+                        completion.listener.onException(completion.message, new ZmqException("Send failed: " + ex));
+                    }
+                } catch (RuntimeException callbackEx) {
+                    LOGGER.log(Level.WARNING, "Gateway [" + name + "] completion listener failed: " + completion.listener, callbackEx);
+                }
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqSendCompletions [name=" + name + ", size=" + completions.size() + "]";
+    }
+}
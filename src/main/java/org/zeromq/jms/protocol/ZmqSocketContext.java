@@ -17,6 +17,8 @@ public class ZmqSocketContext {
     private String proxyAddr;
     private ZmqSocketType proxyType;
     private ZmqSocketType proxyOutType;
+    private String proxyCaptureAddr;
+    private int proxyCaptureSample = 1;
 
     private Long linger;
     private Long reconnectIVL;
@@ -87,6 +89,8 @@ public class ZmqSocketContext {
         this.proxyType = context.proxyType;
         this.proxyOutType = context.proxyOutType;
         this.proxyAddr = context.proxyAddr;
+        this.proxyCaptureAddr = context.proxyCaptureAddr;
+        this.proxyCaptureSample = context.proxyCaptureSample;
 
         this.linger = context.linger;
         this.reconnectIVL = context.reconnectIVL;
@@ -238,6 +242,39 @@ public class ZmqSocketContext {
         this.proxyOutType = proxyOutType;
     }
 
+    /**
+     * @return  return the proxy capture socket address, or NULL when no capture.
+     */
+    public String getProxyCaptureAddr() {
+        return proxyCaptureAddr;
+    }
+
+    /**
+     * Set the address of a (bound) PUB socket of the "ZMQ_PROXY", sampling the messages passing through it.
+     * @param proxyCaptureAddr  the optional proxy capture address
+     */
+    @ZmqUriParameter("proxy.proxyCaptureAddr")
+    public void setProxyCaptureAddr(final String proxyCaptureAddr) {
+        this.proxyCaptureAddr = proxyCaptureAddr;
+    }
+
+    /**
+     * @return  return the proxy capture sample, i.e. 1 in every N messages captured
+     */
+    public int getProxyCaptureSample() {
+        return proxyCaptureSample;
+    }
+
+    /**
+     * Set the sample of messages published to the proxy capture socket, i.e. 1 in every N messages (the default
+     * is 1, all messages).
+     * @param proxyCaptureSample  the capture sample
+     */
+    @ZmqUriParameter("proxy.proxyCaptureSample")
+    public void setProxyCaptureSample(final int proxyCaptureSample) {
+        this.proxyCaptureSample = proxyCaptureSample;
+    }
+
     /**
      * @return  Return the wait time (milliseconds) between rebind attempts
      */
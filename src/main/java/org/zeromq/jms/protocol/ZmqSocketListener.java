@@ -36,6 +36,13 @@ public interface ZmqSocketListener {
      */
     ZmqEvent send(ZmqSocketSession source);
 
+    /**
+     * This function is called once the event has been handed to the ZMQ socket.
+     * @param  source  the socket session involved
+     * @param  event   the event sent
+     */
+    void sent(ZmqSocketSession source, ZmqEvent event);
+
     /**
      * This function is called when a messaged is POLLED from the incoming queue. An optional return
      * Response Event can be returned to be sent back to the sending address.
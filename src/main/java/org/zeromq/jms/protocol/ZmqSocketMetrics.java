@@ -35,6 +35,15 @@ public class ZmqSocketMetrics implements Serializable {
     private final long[] sendBucketCounts;
     private final long[] receiveBucketCounts;
 
+    private long sendBytes = 0;
+    private long receiveBytes = 0;
+
+    private int sendByteBucketIndex = 0;
+    private int receiveByteBucketIndex = 0;
+
+    private final long[] sendByteBucketCounts;
+    private final long[] receiveByteBucketCounts;
+
     /**
      * Construct the metric based on what is going to be logged.
      * @param addr            the address
@@ -50,6 +59,8 @@ public class ZmqSocketMetrics implements Serializable {
         this.bucketInterval = bucketInterval;
         this.sendBucketCounts = (logSend) ? new long[bucketCount] : null;
         this.receiveBucketCounts = (logReceive) ? new long[bucketCount] : null;
+        this.sendByteBucketCounts = (logSend) ? new long[bucketCount] : null;
+        this.receiveByteBucketCounts = (logReceive) ? new long[bucketCount] : null;
     }
 
     /**
@@ -80,6 +91,18 @@ public class ZmqSocketMetrics implements Serializable {
      * @return              return the new bucket index (can be the same and previous depending on interval size).
      */
     protected int increment(final long currentTime, final int bucketIndex, final long[] bucketCounts) {
+        return increment(currentTime, bucketIndex, bucketCounts, 1);
+    }
+
+    /**
+     * Add the amount to the bucker counter based on time, and previous index.
+     * @param currentTime   the current time
+     * @param bucketIndex   the previous bucket index
+     * @param bucketCounts  the bucket counts
+     * @param amount        the amount, i.e. 1 message, or the byte size of a message
+     * @return              return the new bucket index (can be the same and previous depending on interval size).
+     */
+    protected int increment(final long currentTime, final int bucketIndex, final long[] bucketCounts, final long amount) {
         final int index = (int) ((currentTime / bucketInterval) % bucketCount);
 
         // New index so reset bucket counter(s)
@@ -87,7 +110,7 @@ public class ZmqSocketMetrics implements Serializable {
             resetBuckets(index, bucketIndex, bucketCounts);
         }
 
-        bucketCounts[index]++;
+        bucketCounts[index] += amount;
 
         return index;
     }
@@ -151,6 +174,27 @@ public class ZmqSocketMetrics implements Serializable {
         }
     }
 
+    /**
+     * @return  return the total bytes sent
+     */
+    public long getSendBytes() {
+        return sendBytes;
+    }
+
+    /**
+     * Increment the message sent count, and add the message size to the bytes sent.
+     * @param bytes  the message size (bytes)
+     */
+    public void incrementSend(final long bytes) {
+        incrementSend();
+
+        sendBytes = sendBytes + bytes;
+
+        synchronized (sendByteBucketCounts) {
+            sendByteBucketIndex = increment(sendTime, sendByteBucketIndex, sendByteBucketCounts, bytes);
+        }
+    }
+
     /**
      * @return  return the message received count
      */
@@ -181,6 +225,27 @@ public class ZmqSocketMetrics implements Serializable {
         }
     }
 
+    /**
+     * @return  return the total bytes received
+     */
+    public long getReceiveBytes() {
+        return receiveBytes;
+    }
+
+    /**
+     * Increment the message received count, and add the message size to the bytes received.
+     * @param bytes  the message size (bytes)
+     */
+    public synchronized void incrementReceive(final long bytes) {
+        incrementReceive();
+
+        receiveBytes = receiveBytes + bytes;
+
+        synchronized (receiveByteBucketCounts) {
+            receiveByteBucketIndex = increment(receiveTime, receiveByteBucketIndex, receiveByteBucketCounts, bytes);
+        }
+    }
+
     /**
      * @return  return the bucket interval (milliseconds)
      */
@@ -242,9 +307,36 @@ public class ZmqSocketMetrics implements Serializable {
         }
     }
 
+    /**
+     * @return  return a temporal ascending order of sent byte counts (starting from the current time bucket)
+     */
+    public long[] getSendByteBucketCounts() {
+        if (sendByteBucketCounts == null) {
+            return null;
+        }
+
+        synchronized (sendByteBucketCounts) {
+            return getBucketCounts(sendByteBucketIndex, sendByteBucketCounts);
+        }
+    }
+
+    /**
+     * @return  return a temporal ascending order of received byte counts (starting from the current time bucket)
+     */
+    public long[] getReceiveByteBucketCounts() {
+        if (receiveByteBucketCounts == null) {
+            return null;
+        }
+
+        synchronized (receiveByteBucketCounts) {
+            return getBucketCounts(receiveByteBucketIndex, receiveByteBucketCounts);
+        }
+    }
+
     @Override
     public String toString() {
         return "ZmqSocketMetrics [addr=" + addr + ", status=" + status + ", sendCount=" + sendCount + ", receiveCount="
-                + receiveCount + ", sendTime=" + sendTime + ", receiveTime=" + receiveTime + "]";
+                + receiveCount + ", sendBytes=" + sendBytes + ", receiveBytes=" + receiveBytes + ", sendTime=" + sendTime
+                + ", receiveTime=" + receiveTime + "]";
     }
 }
@@ -8,6 +8,8 @@ package org.zeromq.jms.protocol;
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
 
+import java.io.IOException;
+import java.nio.channels.Selector;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -21,6 +23,7 @@ import org.zeromq.ZMQException;
 import org.zeromq.ZMsg;
 import org.zeromq.jms.ZmqException;
 import org.zeromq.jms.protocol.event.ZmqEventHandler;
+import org.zeromq.jms.protocol.event.ZmqFlyweightEventHandler;
 import org.zeromq.jms.protocol.filter.ZmqFilterPolicy;
 
 /**
@@ -57,6 +60,12 @@ public class ZmqSocketSession implements Runnable {
     private final ZmqEventHandler handler;
     private final ZmqFilterPolicy filter;
 
+    private ZmqMessagePool messagePool = null;
+
+    private volatile int credit = -1;
+
+    private Selector pollSelector = null;
+
     /**
      * Message tacking class.
      */
@@ -156,6 +165,14 @@ public class ZmqSocketSession implements Runnable {
         return metrics;
     }
 
+    /**
+     * Set the (optional) pool of idle events re-used when decoding incoming messages (flyweight mode).
+     * @param messagePool  the pool, or null for none
+     */
+    public void setMessagePool(final ZmqMessagePool messagePool) {
+        this.messagePool = messagePool;
+    }
+
     /**
      * @return  return the socket bound indicator
      */
@@ -236,6 +253,58 @@ public class ZmqSocketSession implements Runnable {
         return trackEventMap.size();
     }
 
+    /**
+     * Set the flow control credit of the peer, i.e. the number of further messages it will accept.
+     * @param credit  the credit, or -1 for unlimited
+     */
+    public void setCredit(final int credit) {
+        this.credit = credit;
+    }
+
+    /**
+     * @return  return the flow control credit of the peer, or -1 for unlimited
+     */
+    public int getCredit() {
+        return credit;
+    }
+
+    /**
+     * Return the number of further events that can be sent to the peer, i.e. the credit less the events waiting
+     * on acknowledgement. This is approximate when called from outside the session thread.
+     * @return  return the available credit, or Integer.MAX_VALUE when unlimited
+     */
+    public int getAvailableCredit() {
+        final int currentCredit = credit;
+
+        if (currentCredit < 0) {
+            return Integer.MAX_VALUE;
+        }
+
+        return currentCredit - trackEventMap.size();
+    }
+
+    /**
+     * Wait until the socket has an incoming message (i.e. the ACK returning credit), or the timeout lapses. Only
+     * to be called from the session thread.
+     * @param  timeout  the maximum time to wait (milli-seconds)
+     * @return          return true when there is an incoming message
+     */
+    public boolean awaitIncoming(final long timeout) {
+        try {
+            if (pollSelector == null) {
+                pollSelector = Selector.open();
+            }
+
+            final ZMQ.PollItem[] pollItems = new ZMQ.PollItem[] { new ZMQ.PollItem(socket, ZMQ.Poller.POLLIN) };
+
+            return ZMQ.poll(pollSelector, pollItems, timeout) > 0;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Socket [" + name + "@" + socketAddr + "] unable to poll for incoming", ex);
+        }
+
+        return false;
+    }
+
     /**
      * Return true when the event is being tracked.
      * @param  messageId  the message id of the event
@@ -337,6 +406,16 @@ public class ZmqSocketSession implements Runnable {
 
         closeSocket(this);
         setStatus(ZmqSocketStatus.STOPPED);
+
+        if (pollSelector != null) {
+            try {
+                pollSelector.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Socket [" + name + "@" + socketAddr + "] unable to close poll selector", ex);
+            }
+
+            pollSelector = null;
+        }
     }
 
     /**
@@ -444,12 +523,14 @@ public class ZmqSocketSession implements Runnable {
                     // NOTE: "socketEvent" can be set to NULL by the listener
                     if (socketEvent != null) {
                         final ZMsg msg = handler.createMsg(socketType, filter, socketEvent);
+                        final long msgSize = msg.contentSize();
                         final boolean success = msg.send(socket, true);
 
                         if (success) {
-                            metrics.incrementSend();
+                            metrics.incrementSend(msgSize);
 
                             lastSendTime = System.nanoTime();
+                            socketListener.sent(this, socketEvent);
 
                             if (LOGGER.isLoggable(Level.FINEST)) {
                                 LOGGER.log(Level.FINEST, "Socket [" + name + "@" + socketAddr + "] sent message: " + socketEvent);
@@ -499,11 +580,13 @@ public class ZmqSocketSession implements Runnable {
             ZMsg msg = ZMsg.recvMsg(socket, socketFlags);
 
             while (msg != null) {
-                metrics.incrementReceive();
+                metrics.incrementReceive(msg.contentSize());
                 lastReceiveTime = System.nanoTime();
 
                 try {
-                    ZmqEvent event = handler.createEvent(socketType, msg);
+                    ZmqEvent event = (messagePool != null && handler instanceof ZmqFlyweightEventHandler)
+                        ? ((ZmqFlyweightEventHandler) handler).createEvent(socketType, msg, messagePool)
+                        : handler.createEvent(socketType, msg);
 
                     if (LOGGER.isLoggable(Level.FINEST)) {
                         LOGGER.log(Level.FINEST, "Socket [" + name + "@" + socketAddr + "] recieved message: " + event);
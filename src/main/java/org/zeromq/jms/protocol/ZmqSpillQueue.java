@@ -0,0 +1,493 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.ZMsg;
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.protocol.event.ZmqEventHandler;
+
+/**
+ * Queue of outgoing SEND events held in memory up to a threshold, with the overflow spilled sequentially to a local
+ * file while the socket is paused or the peer is down. Spilled events are read back in order as the memory buffer
+ * drains, and once a spill has been fully read back the file is truncated.
+ *
+ * Events are spilled in the wire format of the event handler, so the whole message (headers, properties and body) is
+ * read back as it would have been received.
+ *
+ * While any events are spilled, new events are also spilled so the queue stays FIFO. Should a spill fail, the offer
+ * waits for the spilled events to be read back before holding the event in memory. The spill file is a temporary
+ * overflow and not a journal, i.e. it is deleted on close and not recovered after a restart.
+ */
+public class ZmqSpillQueue extends AbstractQueue<ZmqSendEvent> implements BlockingQueue<ZmqSendEvent> {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqSpillQueue.class.getCanonicalName());
+
+    private static final int RECORD_HEADER_SIZE = 4;
+
+    private final int threshold;
+    private final Path directory;
+    private final ZmqEventHandler eventHandler;
+
+    private final ArrayDeque<ZmqSendEvent> memory = new ArrayDeque<ZmqSendEvent>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notSpilled = lock.newCondition();
+
+    private Path spillFile = null;
+    private FileChannel spillChannel = null;
+    private long readPosition = 0;
+    private long writePosition = 0;
+    private int spilledCount = 0;
+    private long spillTotal = 0;
+
+    /**
+     * Construct the spill queue.
+     * @param threshold     the maximum number of events held in memory before spilling to file
+     * @param directory     the directory of the spill file
+     * @param eventHandler  the event handler to re-create the events read back from file
+     */
+    public ZmqSpillQueue(final int threshold, final Path directory, final ZmqEventHandler eventHandler) {
+        this.threshold = threshold;
+        this.directory = directory;
+        this.eventHandler = eventHandler;
+    }
+
+    /**
+     * Add the event to the queue, waiting (should the spill fail) for the spilled events to be read back.
+     * @param  event  the event
+     * @return        return true when added, or false when interrupted while waiting
+     */
+    @Override
+    public boolean offer(final ZmqSendEvent event) {
+        try {
+            return offer(event, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+    }
+
+    @Override
+    public void put(final ZmqSendEvent event) throws InterruptedException {
+        offer(event, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean offer(final ZmqSendEvent event, final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (event == null) {
+            throw new NullPointerException("Event cannot be null");
+        }
+
+        long nanos = unit.toNanos(timeout);
+
+        lock.lockInterruptibly();
+
+        try {
+            if (spilledCount > 0 || memory.size() >= threshold) {
+                if (spill(event)) {
+                    notEmpty.signal();
+
+                    return true;
+                }
+
+                // never lose the event, nor overtake the spilled events, so hold it in memory once they are read back
+                while (spilledCount > 0) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+
+                    nanos = notSpilled.awaitNanos(nanos);
+                }
+            }
+
+            memory.add(event);
+            notEmpty.signal();
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Put the event back at the head of the queue, i.e. an event that failed to send, held in memory whatever the
+     * threshold since it is ahead of any spilled events.
+     * @param event  the event
+     */
+    public void offerFirst(final ZmqSendEvent event) {
+        lock.lock();
+
+        try {
+            memory.addFirst(event);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ZmqSendEvent poll() {
+        lock.lock();
+
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ZmqSendEvent poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        lock.lockInterruptibly();
+
+        try {
+            ZmqSendEvent event = dequeue();
+
+            while (event == null && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+                event = dequeue();
+            }
+
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ZmqSendEvent take() throws InterruptedException {
+        lock.lockInterruptibly();
+
+        try {
+            ZmqSendEvent event = dequeue();
+
+            while (event == null) {
+                notEmpty.await();
+                event = dequeue();
+            }
+
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ZmqSendEvent peek() {
+        lock.lock();
+
+        try {
+            if (memory.isEmpty()) {
+                readBack();
+            }
+
+            return memory.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+
+        try {
+            return memory.size() + spilledCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(final Collection<? super ZmqSendEvent> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super ZmqSendEvent> collection, final int maxElements) {
+        lock.lock();
+
+        try {
+            int count = 0;
+
+            while (count < maxElements) {
+                final ZmqSendEvent event = dequeue();
+
+                if (event == null) {
+                    break;
+                }
+
+                collection.add(event);
+                count++;
+            }
+
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return an iterator over a snapshot of the events held in memory, i.e. excluding the spilled events.
+     * @return  return the iterator
+     */
+    @Override
+    public Iterator<ZmqSendEvent> iterator() {
+        lock.lock();
+
+        try {
+            return new ArrayList<ZmqSendEvent>(memory).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return  return the number of events currently spilled to file
+     */
+    public int getSpilledCount() {
+        lock.lock();
+
+        try {
+            return spilledCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return  return the total number of events spilled to file since construction
+     */
+    public long getSpillTotal() {
+        lock.lock();
+
+        try {
+            return spillTotal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close and delete the spill file, warning of any spilled events that have not been sent.
+     */
+    public void close() {
+        lock.lock();
+
+        try {
+            if (spilledCount > 0) {
+                LOGGER.warning("Spill queue closed with un-sent spilled message(s) (LOST): " + spilledCount);
+            }
+
+            closeSpillFile();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the next event, reading back the spilled events once the memory buffer is empty. Called holding the lock.
+     * @return  return the next event, or null when empty
+     */
+    private ZmqSendEvent dequeue() {
+        if (memory.isEmpty()) {
+            readBack();
+        }
+
+        return memory.poll();
+    }
+
+    /**
+     * Append the event to the spill file, opening the file on the first spill. Called holding the lock.
+     * @param  event  the event
+     * @return        return true when spilled, or false on an I/O failure
+     */
+    private boolean spill(final ZmqSendEvent event) {
+        try {
+            if (spillChannel == null) {
+                Files.createDirectories(directory);
+                spillFile = Files.createTempFile(directory, "zmq-spill-", ".spill");
+                spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+                LOGGER.info("Spilling outgoing message(s) (memory=" + memory.size() + ") to file: " + spillFile);
+            }
+
+            final ZMsg msg = eventHandler.createMsg(ZmqSocketType.ROUTER, null, event);
+            final ByteArrayOutputStream byteArrayOutput = new ByteArrayOutputStream();
+
+            try (DataOutputStream out = new DataOutputStream(byteArrayOutput)) {
+                if (!ZMsg.save(msg, out)) {
+                    throw new IOException("Unable to encode message: " + event);
+                }
+            }
+
+            final byte[] recordBytes = byteArrayOutput.toByteArray();
+            final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + recordBytes.length);
+
+            buffer.putInt(recordBytes.length).put(recordBytes).flip();
+
+            while (buffer.hasRemaining()) {
+                writePosition += spillChannel.write(buffer, writePosition);
+            }
+
+            spilledCount++;
+            spillTotal++;
+
+            return true;
+        } catch (IOException | ZmqException ex) {
+            LOGGER.log(Level.SEVERE, "Unable to spill message (messageId=" + event.getMessageId() + ") to file: " + spillFile, ex);
+
+            return false;
+        }
+    }
+
+    /**
+     * Read back the spilled events, in order, up to the memory threshold. The file is truncated once all the spilled
+     * events have been read back. Called holding the lock.
+     */
+    private void readBack() {
+        while (spilledCount > 0 && memory.size() < threshold) {
+            final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+            try {
+                readFully(header, readPosition);
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, "Unable to read back spilled message(s) (LOST=" + spilledCount + ") from file: " + spillFile, ex);
+
+                spilledCount = 0;
+                break;
+            }
+
+            final int recordLength = header.getInt(0);
+
+            try {
+                final ByteBuffer record = ByteBuffer.allocate(recordLength);
+
+                readFully(record, readPosition + RECORD_HEADER_SIZE);
+
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array()))) {
+                    final ZMsg msg = ZMsg.load(in);
+
+                    if (msg == null) {
+                        throw new IOException("Unable to decode message");
+                    }
+
+                    memory.add((ZmqSendEvent) eventHandler.createEvent(ZmqSocketType.ROUTER, msg));
+                }
+            } catch (IOException | ClassCastException | ZmqException ex) {
+                LOGGER.log(Level.SEVERE, "Unable to read back spilled message (position=" + readPosition + ") from file: " + spillFile, ex);
+            }
+
+            readPosition = readPosition + RECORD_HEADER_SIZE + recordLength;
+            spilledCount--;
+        }
+
+        if (spilledCount == 0) {
+            notSpilled.signalAll();
+        }
+
+        if (spilledCount == 0 && writePosition > 0) {
+            try {
+                spillChannel.truncate(0);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to truncate spill file: " + spillFile, ex);
+            }
+
+            readPosition = 0;
+            writePosition = 0;
+
+            LOGGER.info("Spilled outgoing message(s) read back from file: " + spillFile);
+        }
+    }
+
+    /**
+     * Fill the buffer from the spill file at the specified position.
+     * @param  buffer        the buffer
+     * @param  position      the file position
+     * @throws IOException   throws exception on a read failure, or the end of the file
+     */
+    private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+        long filePosition = position;
+
+        while (buffer.hasRemaining()) {
+            final int count = spillChannel.read(buffer, filePosition);
+
+            if (count < 0) {
+                throw new IOException("Unexpected end of spill file (position=" + position + "): " + spillFile);
+            }
+
+            filePosition += count;
+        }
+    }
+
+    /**
+     * Close and delete the spill file. Called holding the lock.
+     */
+    private void closeSpillFile() {
+        if (spillChannel == null) {
+            return;
+        }
+
+        try {
+            spillChannel.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to delete spill file: " + spillFile, ex);
+        }
+
+        spillChannel = null;
+        spillFile = null;
+        readPosition = 0;
+        writePosition = 0;
+        spilledCount = 0;
+
+        notSpilled.signalAll();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+
+        try {
+            return "ZmqSpillQueue [threshold=" + threshold + ", memory=" + memory.size() + ", spilled=" + spilledCount
+                + ", spillFile=" + spillFile + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.zeromq.jms.protocol.event;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import org.zeromq.ZMsg;
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.protocol.ZmqEvent;
+import org.zeromq.jms.protocol.ZmqMessagePool;
+import org.zeromq.jms.protocol.ZmqSocketType;
+
+/**
+ * Optional interface for ZMQ event handlers able to re-populate pooled SEND events (flyweight receive mode).
+ * Handlers that do not implement it simply allocate a new event per message.
+ */
+public interface ZmqFlyweightEventHandler extends ZmqEventHandler {
+
+    /**
+     * Return a event based on the ZERO MQ message and socket type, re-using an idle SEND event (and its message)
+     * from the pool when possible.
+     * @param socketType      the socket type, i.e. PUB, REQ, etc...
+     * @param msg             the ZERO MQ message
+     * @param pool            the pool of idle events, or null for none
+     * @return                return the event
+     * @throws ZmqException   throw JMS exception on failure
+     */
+    ZmqEvent createEvent(ZmqSocketType socketType, ZMsg msg, ZmqMessagePool pool) throws ZmqException;
+}
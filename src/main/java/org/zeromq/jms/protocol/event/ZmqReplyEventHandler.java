@@ -0,0 +1,30 @@
+package org.zeromq.jms.protocol.event;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqMessage;
+import org.zeromq.jms.protocol.ZmqEvent;
+import org.zeromq.jms.protocol.ZmqSendEvent;
+
+/**
+ * Optional interface for ZMQ event handlers able to route a reply back to the sender of a request, i.e. over a
+ * ROUTER socket. Required by the request/reply gateway.
+ */
+public interface ZmqReplyEventHandler extends ZmqEventHandler {
+
+    /**
+     * Return a SEND event for the reply message, addressed to the peer of the request and carrying the identifier
+     * of the request, so the requester can correlate it.
+     * @param request         the request event received
+     * @param reply           the reply message
+     * @return                return the reply event
+     * @throws ZmqException   throw JMS exception when the request cannot be replied to
+     */
+    ZmqSendEvent createReplyEvent(ZmqEvent request, ZmqMessage reply) throws ZmqException;
+}
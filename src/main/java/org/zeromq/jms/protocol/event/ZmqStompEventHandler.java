@@ -30,6 +30,7 @@ import org.zeromq.jms.annotation.ZmqUriParameter;
 import org.zeromq.jms.protocol.ZmqAckEvent;
 import org.zeromq.jms.protocol.ZmqEvent;
 import org.zeromq.jms.protocol.ZmqHeartbeatEvent;
+import org.zeromq.jms.protocol.ZmqMessagePool;
 import org.zeromq.jms.protocol.ZmqSendEvent;
 import org.zeromq.jms.protocol.ZmqSocketType;
 import org.zeromq.jms.protocol.filter.ZmqFilterPolicy;
@@ -41,7 +42,7 @@ import org.zeromq.jms.stomp.StompMessage;
  */
 @ZmqComponent("stomp")
 @ZmqUriParameter("event")
-public class ZmqStompEventHandler implements ZmqEventHandler {
+public class ZmqStompEventHandler implements ZmqFlyweightEventHandler, ZmqReplyEventHandler {
     private static final Logger LOGGER = Logger.getLogger(ZmqStompEventHandler.class.getCanonicalName());
 
     private String charset = "UTF-8";
@@ -69,8 +70,8 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
      */
     private abstract class AnstractStompEvent implements ZmqEvent {
 
-        private final ZFrame address;
-        private final Object messageId;
+        private ZFrame address;
+        private Object messageId;
 
         /**
          * Base abstract event.
@@ -82,6 +83,16 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
             this.messageId = messageId;
         }
 
+        /**
+         * Re-populate a recycled (flyweight) event.
+         * @param address    the address
+         * @param messageId  the message ID
+         */
+        protected void reset(final ZFrame address, final Object messageId) {
+            this.address = address;
+            this.messageId = messageId;
+        }
+
         /**
          * @return  return the ZERO MQ socket address
          */
@@ -185,6 +196,8 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
      */
     private class StompAckEvent extends AnstractStompEvent implements ZmqAckEvent {
 
+        private int credit = -1;
+
         /**
          * Construct a ACK event.
          * @param address    the ZMQ address
@@ -195,9 +208,19 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
 
         }
 
+        @Override
+        public int getCredit() {
+            return credit;
+        }
+
+        @Override
+        public void setCredit(final int credit) {
+            this.credit = credit;
+        }
+
         @Override
         public String toString() {
-            return "StompAckEvent [address=" + super.address + ", messageId=" + super.messageId + "]";
+            return "StompAckEvent [address=" + super.address + ", messageId=" + super.messageId + ", credit=" + credit + "]";
         }
     }
 
@@ -244,6 +267,14 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
                 headers.put(StompMessage.HeaderKey.HEADER_ID.getValue(), messageId);
             }
 
+            if (message.getJMSExpiration() > 0) {
+                headers.put(StompMessage.HeaderKey.HEADER_EXPIRATION.getValue(), Long.toString(message.getJMSExpiration()));
+            }
+
+            if (message.getJMSPriority() > 0) {
+                headers.put(StompMessage.HeaderKey.HEADER_PRIORITY.getValue(), Integer.toString(message.getJMSPriority()));
+            }
+
             final StompMessage stompMessage = new StompMessage(StompMessage.FrameType.SEND, headers, body);
 
             return stompMessage;
@@ -259,7 +290,17 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
      * @throws ZmqException  throw JMS exception
      */
     protected ZmqMessage convert(final StompMessage messsage) throws ZmqException {
-        final ZmqTextMessage zmqMessage = new ZmqTextMessage();
+        return convert(messsage, new ZmqTextMessage());
+    }
+
+    /**
+     * Populate the (new or recycled) JMS message from a STOMP message.
+     * @param messsage       the STOMP message
+     * @param zmqMessage     the JMS message to populate
+     * @return               return the JMS message
+     * @throws ZmqException  throw JMS exception
+     */
+    protected ZmqMessage convert(final StompMessage messsage, final ZmqTextMessage zmqMessage) throws ZmqException {
         final String text = messsage.getBody();
         final Map<String, String> headers = messsage.getHeaders();
 
@@ -269,7 +310,19 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
             for (String name : headers.keySet()) {
                 final String value = headers.get(name);
 
-                if (value != null && headerFormats != null) {
+                if (StompMessage.HeaderKey.HEADER_EXPIRATION.getValue().equals(name)) {
+                    final Long expiration = getExpiration(messsage);
+
+                    if (expiration != null) {
+                        zmqMessage.setJMSExpiration(expiration);
+                    }
+                } else if (StompMessage.HeaderKey.HEADER_PRIORITY.getValue().equals(name)) {
+                    final Integer priority = getPriority(messsage);
+
+                    if (priority != null) {
+                        zmqMessage.setJMSPriority(priority);
+                    }
+                } else if (value != null && headerFormats != null) {
                     synchronized (headerFormats) {
                         final Format format = headerFormats.get(name);
 
@@ -321,6 +374,17 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
 
     }
 
+    @Override
+    public ZmqSendEvent createReplyEvent(final ZmqEvent request, final ZmqMessage reply) throws ZmqException {
+        if (request instanceof StompSendEvent) {
+            final StompSendEvent requestEvent = (StompSendEvent) request;
+
+            return new StompSendEvent(requestEvent.getAddress(), requestEvent.getMessageId(), reply);
+        }
+
+        throw new ZmqException("Unable to reply to event: " + request);
+    }
+
     @Override
     public ZmqHeartbeatEvent createHeartbeatEvent() {
         final String messageId = UUID.randomUUID().toString();
@@ -345,12 +409,18 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
                 msg.add(address);
             }
 
-            stompMessage = StompMessage.defineAckMessage(messageId);
+            stompMessage = StompMessage.defineAckMessage(messageId, ackEvent.getCredit());
         } else if (event instanceof ZmqSendEvent) {
             final StompSendEvent sendEvent = (StompSendEvent) event;
             final ZmqMessage message = sendEvent.getMessage();
             final String messageFilter = (filter == null) ? null : filter.resolve(message);
             final byte[] key = (messageFilter == null) ? null : messageFilter.getBytes();
+            final ZFrame address = sendEvent.getAddress();
+
+            if (address != null && socketType == ZmqSocketType.ROUTER) {
+                // reply routed back to the requesting peer (sending destroys the frame, so send a copy)
+                msg.add(address.duplicate());
+            }
 
             if (key != null) {
                 msg.add(key);
@@ -376,6 +446,72 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
 
     @Override
     public ZmqEvent createEvent(final ZmqSocketType socketType, final ZMsg msg) throws ZmqException {
+        return createEvent(socketType, msg, null);
+    }
+
+    /**
+     * Return the expiration of the STOMP message, ignoring a header value that is not a number.
+     * @param  stompMessage  the STOMP message
+     * @return               return the expiration, or null when there is none
+     */
+    protected Long getExpiration(final StompMessage stompMessage) {
+        try {
+            return stompMessage.getHeaderValueAsLong(StompMessage.HeaderKey.HEADER_EXPIRATION);
+        } catch (NumberFormatException ex) {
+            LOGGER.warning("Ignoring invalid expiration ("
+                + stompMessage.getHeaderValue(StompMessage.HeaderKey.HEADER_EXPIRATION.getValue()) + ") of message: " + stompMessage);
+
+            return null;
+        }
+    }
+
+    /**
+     * Return the JMS priority of the STOMP message, ignoring a header value that is not a number.
+     * @param  stompMessage  the STOMP message
+     * @return               return the priority, or null when there is none
+     */
+    protected Integer getPriority(final StompMessage stompMessage) {
+        try {
+            return stompMessage.getHeaderValueAsInteger(StompMessage.HeaderKey.HEADER_PRIORITY);
+        } catch (NumberFormatException ex) {
+            LOGGER.warning("Ignoring invalid priority ("
+                + stompMessage.getHeaderValue(StompMessage.HeaderKey.HEADER_PRIORITY.getValue()) + ") of message: " + stompMessage);
+
+            return null;
+        }
+    }
+
+    /**
+     * Return true when the STOMP message has an expiration header that has passed, checking the header alone.
+     * @param  stompMessage  the STOMP message
+     * @return               return true when expired
+     */
+    protected boolean isExpired(final StompMessage stompMessage) {
+        final Long expiration = getExpiration(stompMessage);
+
+        return expiration != null && expiration > 0 && expiration <= System.currentTimeMillis();
+    }
+
+    /**
+     * Return an empty JMS message carrying only the expiration of the (expired) STOMP message.
+     * @param  stompMessage  the STOMP message
+     * @return               return the JMS message
+     * @throws ZmqException  throw JMS exception
+     */
+    protected ZmqMessage createExpiredMessage(final StompMessage stompMessage) throws ZmqException {
+        final ZmqMessage message = new ZmqTextMessage();
+
+        try {
+            message.setJMSExpiration(getExpiration(stompMessage));
+        } catch (JMSException ex) {
+            throw new ZmqException("Cannot convert expired STOMP message to JMS: " + stompMessage, ex);
+        }
+
+        return message;
+    }
+
+    @Override
+    public ZmqEvent createEvent(final ZmqSocketType socketType, final ZMsg msg, final ZmqMessagePool pool) throws ZmqException {
         if (msg.contentSize() == 0) {
             return null;
         }
@@ -413,23 +549,44 @@ public class ZmqStompEventHandler implements ZmqEventHandler {
                     if (messageBody == null || messageBody.length() == 0) {
                         // heart-beat, and not message content
                         event = new StompHeartbeatEvent(address, messageId);
+                    } else if (isExpired(stompMessage)) {
+                        // stale, so skip converting the body and properties, leaving the gateway to discard it
+                        event = new StompSendEvent(address, messageId, createExpiredMessage(stompMessage));
                     } else {
-                        final ZmqMessage message = convert(stompMessage);
+                        final ZmqSendEvent idleEvent = (pool == null) ? null : pool.acquire();
+
+                        if (idleEvent instanceof StompSendEvent && idleEvent.getMessage() instanceof ZmqTextMessage) {
+                            final StompSendEvent sendEvent = (StompSendEvent) idleEvent;
+
+                            sendEvent.reset(address, messageId);
+                            convert(stompMessage, (ZmqTextMessage) sendEvent.getMessage());
 
-                        event = new StompSendEvent(address, messageId, message);
+                            event = sendEvent;
+                        } else {
+                            final ZmqMessage message = convert(stompMessage);
+
+                            event = new StompSendEvent(address, messageId, message);
+                        }
                     }
 
                     break;
 
                 case ACK:
-                    event = new StompAckEvent(address, messageId);
+                    final StompAckEvent ackEvent = new StompAckEvent(address, messageId);
+                    final Integer credit = stompMessage.getHeaderValueAsInteger(StompMessage.HeaderKey.HEADER_CREDIT);
+
+                    if (credit != null) {
+                        ackEvent.setCredit(credit);
+                    }
+
+                    event = ackEvent;
 
                     break;
 
                 default:
                     LOGGER.log(Level.WARNING, "Received unknown message: " + frameType);
                 }
-            } catch (ZmqException | StompException | UnsupportedEncodingException ex) {
+            } catch (ZmqException | StompException | UnsupportedEncodingException | NumberFormatException ex) {
                 throw new ZmqException("Unable to pass ZMQ message", ex);
             }
         }
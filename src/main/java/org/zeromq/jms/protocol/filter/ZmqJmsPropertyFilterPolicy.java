@@ -8,10 +8,6 @@ package org.zeromq.jms.protocol.filter;
  */
 
 import java.util.Arrays;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import javax.jms.JMSException;
 
 import org.zeromq.jms.ZmqMessage;
 import org.zeromq.jms.annotation.ZmqComponent;
@@ -25,8 +21,6 @@ import org.zeromq.jms.annotation.ZmqUriParameter;
 @ZmqUriParameter("filter")
 public class ZmqJmsPropertyFilterPolicy implements ZmqFilterPolicy {
 
-    private static final Logger LOGGER = Logger.getLogger(ZmqJmsPropertyFilterPolicy.class.getCanonicalName());
-
     private String[] consumerTags = null;
     private String propertyName = null;
 
@@ -39,6 +33,13 @@ public class ZmqJmsPropertyFilterPolicy implements ZmqFilterPolicy {
         this.propertyName = propertyName;
     }
 
+    /**
+     * @return  return the property name that contains the TAG value to publish with ZMQ message
+     */
+    public String getPublishTag() {
+        return propertyName;
+    }
+
     /**
      * Set the subscription TAGs values for the ZMQ socket to filter against.
      * @param consumerTags  the list of tags
@@ -50,18 +51,7 @@ public class ZmqJmsPropertyFilterPolicy implements ZmqFilterPolicy {
 
     @Override
     public String resolve(final ZmqMessage message) {
-        try {
-            final Object value = message.getObjectProperty(propertyName);
-
-            if (value == null) {
-               return null;
-            }
-
-           return value.toString();
-        } catch (JMSException ex) {
-            LOGGER.log(Level.WARNING, "Messgae property [" + propertyName + "] lookup failed.", ex);
-            return null;
-        }
+        return message.getTypedProperties().getAsString(propertyName);
     }
 
     @Override
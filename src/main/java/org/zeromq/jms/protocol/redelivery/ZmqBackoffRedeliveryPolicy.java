@@ -0,0 +1,233 @@
+package org.zeromq.jms.protocol.redelivery;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+
+import org.zeromq.jms.ZmqMessage;
+import org.zeromq.jms.annotation.ZmqComponent;
+import org.zeromq.jms.annotation.ZmqUriParameter;
+import org.zeromq.jms.protocol.ZmqSendEvent;
+
+/**
+ * Delayed re-delivery strategy with exponential back-off. A rolled back message is held on a delay queue (timer)
+ * until due, so a failing message is not handed straight back in a loop, starving the healthy messages behind it.
+ * The delay of each attempt is the initial delay multiplied by the multiplier for every previous attempt, capped at
+ * the maximum delay.
+ *
+ * The delivery count is carried by the message (JMSXDeliveryCount), set with JMSRedelivered on each re-delivery, so
+ * nothing is tracked for delivered messages. Once the retries are exhausted the message is backed out, i.e. handed
+ * on to the dead-letter destination (redelivery.deadLetter) by the gateway.
+ */
+@ZmqComponent("backoff")
+@ZmqUriParameter("redelivery")
+public class ZmqBackoffRedeliveryPolicy implements ZmqBackoutRedeliveryPolicy {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqBackoffRedeliveryPolicy.class.getCanonicalName());
+
+    /**
+     * The (int) message property holding the number of delivery attempts, i.e. 2 for the first re-delivery.
+     */
+    public static final String DELIVERY_COUNT_PROPERTY = "JMSXDeliveryCount";
+
+    private static final int DEFAULT_RETRY_COUNT = 3;
+    private static final long DEFAULT_DELAY_MILLI_SECOND = 1000;
+    private static final double DEFAULT_MULTIPLIER = 2.0;
+    private static final long DEFAULT_MAX_DELAY_MILLI_SECOND = 60000;
+
+    private final DelayQueue<Redelivery> redeliverQueue = new DelayQueue<Redelivery>();
+
+    private int retryCount = DEFAULT_RETRY_COUNT;
+    private long delay = DEFAULT_DELAY_MILLI_SECOND;
+    private double multiplier = DEFAULT_MULTIPLIER;
+    private long maxDelay = DEFAULT_MAX_DELAY_MILLI_SECOND;
+
+    /**
+     * Class to represent a re-delivery due at a point in time.
+     */
+    private static final class Redelivery implements Delayed {
+        private final ZmqSendEvent event;
+        private final int deliveryCount;
+        private final long dueTime;
+
+        /**
+         * Construct the re-delivery.
+         * @param event          the event
+         * @param deliveryCount  the delivery count of the re-delivery
+         * @param delay          the delay (milliseconds)
+         */
+        Redelivery(final ZmqSendEvent event, final int deliveryCount, final long delay) {
+            this.event = event;
+            this.deliveryCount = deliveryCount;
+            this.dueTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(dueTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    /**
+     * @return  return the number of re-deliveries before the message is backed out
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Set the number of re-deliveries before the message is backed out.
+     * @param retryCount  the retry count
+     */
+    @ZmqUriParameter("redelivery.retry")
+    public void setRetryCount(final int retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    /**
+     * Set the delay of the first re-delivery.
+     * @param delay  the delay (milliseconds)
+     */
+    @ZmqUriParameter("redelivery.delay")
+    public void setDelay(final long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Set the multiplier of the delay for each further re-delivery.
+     * @param multiplier  the multiplier, i.e. 2.0 to double the delay
+     */
+    @ZmqUriParameter("redelivery.multiplier")
+    public void setMultiplier(final double multiplier) {
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Set the maximum delay of a re-delivery.
+     * @param maxDelay  the maximum delay (milliseconds)
+     */
+    @ZmqUriParameter("redelivery.maxDelay")
+    public void setMaxDelay(final long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Return the delay before the re-delivery following the specified number of deliveries.
+     * @param  deliveryCount  the number of deliveries so far
+     * @return                return the delay (milliseconds)
+     */
+    public long getDelay(final int deliveryCount) {
+        final double backoffDelay = delay * Math.pow(multiplier, deliveryCount - 1);
+
+        return (long) Math.min(backoffDelay, maxDelay);
+    }
+
+    /**
+     * @return  return the number of messages waiting on re-delivery
+     */
+    public int getPendingCount() {
+        return redeliverQueue.size();
+    }
+
+    @Override
+    public void redeliver(final Collection<ZmqSendEvent> events) {
+        for (ZmqSendEvent event : redeliverOrBackout(events)) {
+            onBackout(event);
+        }
+    }
+
+    @Override
+    public List<ZmqSendEvent> redeliverOrBackout(final Collection<ZmqSendEvent> events) {
+        final List<ZmqSendEvent> failedRedeliveryMessages = new ArrayList<ZmqSendEvent>();
+
+        for (ZmqSendEvent event : events) {
+            final int deliveryCount = getDeliveryCount(event.getMessage());
+
+            if (deliveryCount > retryCount) {
+                failedRedeliveryMessages.add(event);
+            } else {
+                redeliverQueue.add(new Redelivery(event, deliveryCount + 1, getDelay(deliveryCount)));
+            }
+        }
+
+        return failedRedeliveryMessages;
+    }
+
+    @Override
+    public void delivered(final Collection<ZmqSendEvent> events) {
+        // the delivery count is carried by the message, so nothing to forget
+    }
+
+    @Override
+    public ZmqSendEvent getNextRedeliver() {
+        final Redelivery redelivery = redeliverQueue.poll();
+
+        if (redelivery == null) {
+            return null;
+        }
+
+        final ZmqMessage message = redelivery.event.getMessage();
+
+        try {
+            message.setIntProperty(DELIVERY_COUNT_PROPERTY, redelivery.deliveryCount);
+            message.setJMSRedelivered(true);
+        } catch (JMSException ex) {
+            LOGGER.log(Level.WARNING, "Unable to set the delivery count of message: " + message, ex);
+        }
+
+        return redelivery.event;
+    }
+
+    @Override
+    public void onBackout(final ZmqSendEvent event) {
+        LOGGER.warning("Event backed-out (deliveryCount=" + getDeliveryCount(event.getMessage()) + "): " + event);
+    }
+
+    /**
+     * Return the number of delivery attempts of the message, i.e. 1 before any re-delivery.
+     * @param  message  the message
+     * @return          return the delivery count
+     */
+    private static int getDeliveryCount(final ZmqMessage message) {
+        final Object value = message.getProperties().get(DELIVERY_COUNT_PROPERTY);
+
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.toString());
+            } catch (NumberFormatException ex) {
+                LOGGER.warning("Ignoring invalid delivery count (" + value + ") of message: " + message);
+            }
+        }
+
+        return 1;
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqBackoffRedeliveryPolicy [retryCount=" + retryCount + ", delay=" + delay + ", multiplier=" + multiplier
+            + ", maxDelay=" + maxDelay + ", pending=" + redeliverQueue.size() + "]";
+    }
+}
@@ -0,0 +1,28 @@
+package org.zeromq.jms.protocol.redelivery;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.Collection;
+import java.util.List;
+
+import org.zeromq.jms.protocol.ZmqSendEvent;
+
+/**
+ * Re-deliver policy handing the events that have exhausted their re-deliveries back to the gateway, which backs them
+ * out, i.e. sends them on to the dead-letter gateway (when there is one) and deletes them from the journal. A policy
+ * implementing only ZmqRedeliveryPolicy is still supported, but backs out events itself.
+ */
+public interface ZmqBackoutRedeliveryPolicy extends ZmqRedeliveryPolicy {
+
+    /**
+     * Mark the following messages for re-deliver or further deliver, returning those to be backed out.
+     * @param  events  the list of events that failed to be delivered
+     * @return         return the events that have exhausted their re-deliveries, to be backed out
+     */
+    List<ZmqSendEvent> redeliverOrBackout(Collection<ZmqSendEvent> events);
+}
@@ -12,7 +12,8 @@ import java.util.Collection;
 import org.zeromq.jms.protocol.ZmqSendEvent;
 
 /**
- * Re-deliver policy interface to be implemented for specific delivery policies.
+ * Re-deliver policy interface to be implemented for specific delivery policies. A policy backing out events through
+ * the gateway, i.e. to the dead-letter gateway, implements ZmqBackoutRedeliveryPolicy.
  */
 public interface ZmqRedeliveryPolicy {
 
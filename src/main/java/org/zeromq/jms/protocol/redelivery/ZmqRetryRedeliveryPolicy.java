@@ -25,15 +25,24 @@ import org.zeromq.jms.protocol.ZmqSendEvent;
  */
 @ZmqComponent("retry")
 @ZmqUriParameter("redelivery")
-public class ZmqRetryRedeliveryPolicy implements ZmqRedeliveryPolicy {
+public class ZmqRetryRedeliveryPolicy implements ZmqBackoutRedeliveryPolicy {
 
     private static final Logger LOGGER = Logger.getLogger(ZmqRetryRedeliveryPolicy.class.getCanonicalName());
 
+    private static final int DEFAULT_RETRY_COUNT = 3;
+
     private final Queue<ZmqSendEvent> redeliverQueue = new LinkedList<ZmqSendEvent>();
     private final Map<ZmqSendEvent, Integer> redeliveryMap = new HashMap<ZmqSendEvent, Integer>();
 
     private int retryCount;
 
+    /**
+     * Construct retry re-delivery policy, with the default retry count.
+     */
+    public ZmqRetryRedeliveryPolicy() {
+        this(DEFAULT_RETRY_COUNT);
+    }
+
     /**
      * Construct retry re-delivery policy.
      * @param retryCount  the retry count before failure
@@ -60,6 +69,13 @@ public class ZmqRetryRedeliveryPolicy implements ZmqRedeliveryPolicy {
 
     @Override
     public void redeliver(final Collection<ZmqSendEvent> events) {
+        for (ZmqSendEvent event : redeliverOrBackout(events)) {
+            onBackout(event);
+        }
+    }
+
+    @Override
+    public List<ZmqSendEvent> redeliverOrBackout(final Collection<ZmqSendEvent> events) {
         final List<ZmqSendEvent> failedRedeliveryMessages = new ArrayList<ZmqSendEvent>();
 
         synchronized (redeliveryMap) {
@@ -80,6 +96,8 @@ public class ZmqRetryRedeliveryPolicy implements ZmqRedeliveryPolicy {
                 }
             }
         }
+
+        return failedRedeliveryMessages;
     }
 
     @Override
@@ -32,9 +32,12 @@ import java.nio.file.attribute.FileTime;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +49,8 @@ import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TransferQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,6 +62,9 @@ import org.zeromq.jms.util.ByteBufferBackedInputStream;
 
 /**
  * This class implements a file based journal store.
+ *
+ * The live messages are tracked by a primitive index (ZmqJournalLocationIndex) holding a hash of the message identifier
+ * and the journal file number and position, so journal files are limited to 4GB.
  */
 @ZmqComponent("file")
 @ZmqUriParameter("journal")
@@ -93,7 +101,17 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
     private long sweepPeriod = JOUNRAL_SWEEP_PERIOD_MILLISECONDS;
 
     private final Map<String, Path> pathCache = new HashMap<String, Path>();
-    private final Map<Object, MessageLocation> messageLocationMap = new ConcurrentHashMap<Object, MessageLocation>();
+    private final Map<Path, Integer> journalNumbers = new ConcurrentHashMap<Path, Integer>();
+    private final Map<Integer, Path> journalFiles = new ConcurrentHashMap<Integer, Path>();
+    private final AtomicInteger journalCounter = new AtomicInteger();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final ZmqJournalLocationIndex locationIndex = new ZmqJournalLocationIndex(new ZmqJournalLocationIndex.KeyMatcher() {
+
+        @Override
+        public boolean matches(final Object key, final int segment, final int position) {
+            return isMessageId(key, journalFiles.get(segment), position & 0xFFFFFFFFL);
+        }
+    });
 
     private final TransferQueue<ZmqJournalEntry> messageQueue = new LinkedTransferQueue<ZmqJournalEntry>();
 
@@ -110,102 +128,6 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
         return format;
     }
 
-    /**
-     * Class to represent the location of a message on the file system.
-     */
-    private class MessageLocation {
-        private final Object messageId;
-        private final Path journalFile;
-        private final long position;
-
-        /**
-         * Construct a message location pointer.
-         * @param messageId    the message identifier
-         * @param journalFile  the journal file
-         * @param position      the position in the journal file
-         */
-        private MessageLocation(final Object messageId, final Path journalFile, final long position) {
-            this.messageId = messageId;
-            this.journalFile = journalFile;
-            this.position = position;
-        }
-
-        /**
-         * @return the path
-         */
-        public Object getMessageId() {
-            return messageId;
-        }
-
-        /**
-         * @return the path
-         */
-        public Path getJournalFile() {
-            return journalFile;
-        }
-
-        /**
-         * @return the position
-         */
-        public long getPosition() {
-            return position;
-        }
-
-        /*
-         * (non-Javadoc)
-         *
-         * @see java.lang.Object#hashCode()
-         */
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-
-            result = prime * result + ((messageId == null) ? 0 : messageId.hashCode());
-
-            return result;
-        }
-
-        /*
-         * (non-Javadoc)
-         *
-         * @see java.lang.Object#equals(java.lang.Object)
-         */
-        @Override
-        public boolean equals(final Object obj) {
-            if (this == obj) {
-                return true;
-            } else if (obj == null) {
-                return false;
-            } else if (getClass() != obj.getClass()) {
-                return false;
-            }
-
-            final MessageLocation other = (MessageLocation) obj;
-
-            if (messageId == null) {
-                if (other.messageId != null) {
-                    return false;
-                }
-            } else if (!messageId.equals(other.messageId)) {
-                return false;
-            }
-
-            return true;
-        }
-
-        /*
-         * (non-Javadoc)
-         *
-         * @see java.lang.Object#toString()
-         */
-        @Override
-        public String toString() {
-            return "MessageLocation [messageId=" + messageId + ", journalFile=" + journalFile + ", position=" + position
-                    + "]";
-        }
-    }
-
     /**
      * Construct file journal with default values, that need to be modified by setter
      * parameters. Used for the URI queue definition.
@@ -524,72 +446,224 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
 
     @Override
     public boolean delete(final Object messageId) throws ZmqException {
-        final MessageLocation location = messageLocationMap.get(messageId);
+        return deleteAll(Collections.singletonList(messageId)) == 1;
+    }
 
-        if (location != null) {
-            assert (messageId.equals(location.getMessageId()));
+    /**
+     * Flag the entries of the batch as deleted, opening each journal file once. Every entry of the batch is read
+     * before any is flagged, so a batch failing to read flags none of its entries, and the flags of each journal
+     * file are then written in position order.
+     * @param  messageIds    the message identifiers
+     * @return               return the number of entries found and flagged
+     * @throws ZmqException  throws exception when an entry cannot be read, or flagged
+     */
+    @Override
+    public int deleteAll(final Collection<Object> messageIds) throws ZmqException {
+        final Map<Path, TreeMap<Long, Object>> fileEntries = new HashMap<Path, TreeMap<Long, Object>>();
 
-            try {
-                final Path journalFile = location.getJournalFile();
-                final long position = location.getPosition();
-                final SeekableByteChannel channel =
-                    Files.newByteChannel(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        for (Object messageId : messageIds) {
+            final long location = locationIndex.get(messageId);
 
-                channel.position(position);
-                final ByteBuffer peekBuffer = ByteBuffer.allocateDirect(PEEK_SIZE);
+            if (location < 0) {
+                LOGGER.warning("Unknown event marked for deletion with reference (messageId=" + messageId + "): " + this);
+                continue;
+            }
 
-                channel.read(peekBuffer);
+            final Path journalFile = journalFiles.get(ZmqJournalLocationIndex.getSegment(location));
+            TreeMap<Long, Object> entries = fileEntries.get(journalFile);
 
-                final long entryPosition = channel.position();
+            if (entries == null) {
+                entries = new TreeMap<Long, Object>();
+                fileEntries.put(journalFile, entries);
+            }
 
-                peekBuffer.rewind();
+            entries.put(ZmqJournalLocationIndex.getPosition(location) & 0xFFFFFFFFL, messageId);
+        }
 
-                //final int segmentOffset = peekBuffer.getInt();
-                final int messageOffset = peekBuffer.getInt();
+        final Map<Path, SeekableByteChannel> channels = new HashMap<Path, SeekableByteChannel>();
+        final Map<Path, TreeMap<Long, byte[]>> fileFlags = new HashMap<Path, TreeMap<Long, byte[]>>();
+        final List<Object> deletedMessageIds = new ArrayList<Object>();
 
-                final ByteBuffer entryBuffer = ByteBuffer.allocateDirect(messageOffset - PEEK_SIZE);
+        try {
+            for (Map.Entry<Path, TreeMap<Long, Object>> entries : fileEntries.entrySet()) {
+                final Path journalFile = entries.getKey();
+                final SeekableByteChannel channel = Files.newByteChannel(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                final TreeMap<Long, byte[]> flags = new TreeMap<Long, byte[]>();
+
+                channels.put(journalFile, channel);
+                fileFlags.put(journalFile, flags);
+
+                for (Map.Entry<Long, Object> entry : entries.getValue().entrySet()) {
+                    if (readDeleteFlag(channel, journalFile, entry.getKey(), entry.getValue(), flags)) {
+                        deletedMessageIds.add(entry.getValue());
+                    } else {
+                        LOGGER.warning("Unknown event marked for deletion with reference (messageId=" + entry.getValue() + "): " + this);
+                    }
+                }
+            }
 
-                channel.read(entryBuffer);
-                entryBuffer.rewind();
+            for (Map.Entry<Path, TreeMap<Long, byte[]>> flags : fileFlags.entrySet()) {
+                final SeekableByteChannel channel = channels.get(flags.getKey());
 
-                try (ObjectInput inEntry = new ObjectInputStream(new ByteBufferBackedInputStream(entryBuffer))) {
-                    final String entryDate = (String) inEntry.readObject();
-                    final boolean deleteFlag = inEntry.readBoolean();
-                    final Object actualMessageId = inEntry.readObject();
+                for (Map.Entry<Long, byte[]> flag : flags.getValue().entrySet()) {
+                    channel.position(flag.getKey());
+                    channel.write(ByteBuffer.wrap(flag.getValue()));
+                }
+            }
+        } catch (IOException ex) {
+            throw new ZmqException("Cannot delete messages (messageIds=" + messageIds + ", files=" + fileEntries.keySet() + "): " + this, ex);
+        } finally {
+            for (Map.Entry<Path, SeekableByteChannel> channel : channels.entrySet()) {
+                try {
+                    channel.getValue().close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "Unable to close journal file (file=" + channel.getKey() + "): " + this, ex);
+                }
+            }
+        }
 
-                    assert (messageId.equals(actualMessageId));
+        for (Object messageId : deletedMessageIds) {
+            locationIndex.remove(messageId);
+        }
 
-                    if (!deleteFlag) {
-                        final ByteArrayOutputStream byteArrayOutput = new ByteArrayOutputStream();
-                        final ObjectOutput out = new ObjectOutputStream(byteArrayOutput);
+        return deletedMessageIds.size();
+    }
 
-                        out.writeObject(entryDate);
-                        out.writeBoolean(true);
-                        out.writeObject(messageId);
+    /**
+     * Read the entry of the message, adding the entry header flagged as deleted (by its position) to the flags,
+     * unless the entry has already been deleted, or cannot be read.
+     * @param  channel      the channel of the journal file
+     * @param  journalFile  the journal file
+     * @param  position     the position of the entry
+     * @param  messageId    the message identifier
+     * @param  flags        the entry headers flagged as deleted by position, to populate
+     * @return              return true when the entry is to be flagged
+     * @throws IOException  throws I/O exception when the entry cannot be read
+     */
+    private boolean readDeleteFlag(final SeekableByteChannel channel, final Path journalFile, final long position, final Object messageId,
+        final Map<Long, byte[]> flags) throws IOException {
 
-                        channel.position(entryPosition);
-                        channel.write(ByteBuffer.wrap(byteArrayOutput.toByteArray()));
+        channel.position(position);
+        final ByteBuffer peekBuffer = ByteBuffer.allocateDirect(PEEK_SIZE);
 
-                        messageLocationMap.remove(messageId);
+        channel.read(peekBuffer);
 
-                        // set as deleted, so return
-                        return true;
-                    }
-                } catch (ClassNotFoundException ex) {
-                    LOGGER.log(Level.SEVERE, "Unable to read message (pos=" + position + ", file=" + journalFile + "): " + this, ex);
-                }
-            } catch (IOException ex) {
-                throw new ZmqException("Cannot delete message (messageId=" + messageId + ", file=" + location.getJournalFile() + "): " + this, ex);
+        final long entryPosition = channel.position();
+
+        peekBuffer.rewind();
+
+        //final int segmentOffset = peekBuffer.getInt();
+        final int messageOffset = peekBuffer.getInt();
+
+        final ByteBuffer entryBuffer = ByteBuffer.allocateDirect(messageOffset - PEEK_SIZE);
+
+        channel.read(entryBuffer);
+        entryBuffer.rewind();
+
+        try (ObjectInput inEntry = new ObjectInputStream(new ByteBufferBackedInputStream(entryBuffer))) {
+            final String entryDate = (String) inEntry.readObject();
+            final boolean deleteFlag = inEntry.readBoolean();
+            final Object actualMessageId = inEntry.readObject();
+
+            assert (messageId.equals(actualMessageId));
+
+            if (deleteFlag) {
+                return false;
             }
-        }
 
-        LOGGER.warning("Unknown event marked for deletion with reference (messageId=" + messageId + "): " + this);
+            final ByteArrayOutputStream byteArrayOutput = new ByteArrayOutputStream();
+            final ObjectOutput out = new ObjectOutputStream(byteArrayOutput);
 
-        return false;
+            out.writeObject(entryDate);
+            out.writeBoolean(true);
+            out.writeObject(messageId);
+            out.flush();
+
+            flags.put(entryPosition, byteArrayOutput.toByteArray());
+
+            return true;
+        } catch (ClassNotFoundException ex) {
+            LOGGER.log(Level.SEVERE, "Unable to read message (pos=" + position + ", file=" + journalFile + "): " + this, ex);
+
+            return false;
+        }
     }
 
     @Override
     public void create(final Object messageId, final ZmqMessage message) throws ZmqException {
+        createSerialized(messageId, ZmqJournalEntry.serialize(message));
+    }
+
+    @Override
+    public void createSerialized(final Object messageId, final byte[] messageBytes) throws ZmqException {
+        createAllSerialized(Collections.singletonMap(messageId, messageBytes));
+    }
+
+    @Override
+    public void createAll(final Map<Object, ZmqMessage> messages) throws ZmqException {
+        final Map<Object, byte[]> serializedMessages = new LinkedHashMap<Object, byte[]>();
+
+        for (Map.Entry<Object, ZmqMessage> entry : messages.entrySet()) {
+            serializedMessages.put(entry.getKey(), ZmqJournalEntry.serialize(entry.getValue()));
+        }
+
+        createAllSerialized(serializedMessages);
+    }
+
+    /**
+     * Append the entries of the batch, from the messages already serialized, to the current journal file as one write.
+     * @param  messages      the serialized messages by message identifier, in order
+     * @throws ZmqException  throws exception when an entry cannot be converted, or written
+     */
+    @Override
+    public void createAllSerialized(final Map<Object, byte[]> messages) throws ZmqException {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        final ByteArrayOutputStream byteArrayOutput = new ByteArrayOutputStream();
+        final int[] entryPositions = new int[messages.size()];
+        int entryCount = 0;
+
+        for (Map.Entry<Object, byte[]> entry : messages.entrySet()) {
+            final byte[] entryBytes = toEntryBytes(entry.getKey(), entry.getValue());
+
+            entryPositions[entryCount++] = byteArrayOutput.size();
+            byteArrayOutput.write(entryBytes, 0, entryBytes.length);
+        }
+
+        final byte[] bytes = byteArrayOutput.toByteArray();
+        final Path currentJournalFile = getCurrentJournalFle(uniqueId);
+
+        try {
+            Files.write(currentJournalFile, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+            final long size = Files.size(currentJournalFile);
+            final long batchPosition = size - bytes.length;
+            final int journalNumber = getJournalNumber(currentJournalFile);
+
+            entryCount = 0;
+
+            for (Object messageId : messages.keySet()) {
+                locationIndex.put(messageId, journalNumber, 0, (int) (batchPosition + entryPositions[entryCount++]), 0);
+            }
+
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("Messages stored and tracked: " + messages.keySet());
+            }
+        } catch (IOException ex) {
+            throw new ZmqException("Cannot create messages (" + messages.keySet() + ") : " + this, ex);
+        }
+    }
+
+    /**
+     * Return the journal entry of the message, i.e. its offsets, date, delete flag, identifier and message.
+     * @param  messageId     the message identifier
+     * @param  messageBytes  the serialized message
+     * @return               return the entry bytes
+     * @throws ZmqException  throws exception when the message identifier cannot be converted
+     */
+    private byte[] toEntryBytes(final Object messageId, final byte[] messageBytes) throws ZmqException {
         final ByteArrayOutputStream byteArrayOutput = new ByteArrayOutputStream();
 
         int messageOffset = 0;
@@ -608,11 +682,9 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
 
             messageOffset = byteArrayOutput.size();
 
-            final ObjectOutput out2 = new ObjectOutputStream(byteArrayOutput);
-            out2.writeObject(message);
-            out2.flush();
+            byteArrayOutput.write(messageBytes);
         } catch (IOException ex) {
-            throw new ZmqException("Cannot convert message to and array of bytes (message=" + message + "): " + this, ex);
+            throw new ZmqException("Cannot convert message to and array of bytes (messageId=" + messageId + "): " + this, ex);
         }
 
         byteArrayOutput.write(EOLN);
@@ -626,24 +698,7 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
         System.arraycopy(ByteBuffer.allocate(4).putInt(segmentOffset).array(), 0, bytes, 0, 4);
         System.arraycopy(ByteBuffer.allocate(4).putInt(messageOffset).array(), 0, bytes, 4, 4);
 
-        final Path currentJournalFile = getCurrentJournalFle(uniqueId);
-
-        try {
-            Files.write(currentJournalFile, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-
-            final long size = Files.size(currentJournalFile);
-            final long position = size - bytes.length;
-
-            final MessageLocation location = new MessageLocation(messageId, currentJournalFile, position);
-
-            messageLocationMap.put(messageId, location);
-
-            if (LOGGER.isLoggable(Level.FINEST)) {
-                LOGGER.finest("Message stored and tracked: " + message);
-            }
-        } catch (IOException ex) {
-            throw new ZmqException("Cannot create message (" + messageId + ") : " + this, ex);
-        }
+        return bytes;
     }
 
     /**
@@ -830,13 +885,15 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
         try (SeekableByteChannel channel = Files.newByteChannel(journalFile, StandardOpenOption.READ)) {
             final ByteBuffer peekBuffer = ByteBuffer.allocateDirect(PEEK_SIZE);
 
-            final Date republishAfterDate = new Date(System.currentTimeMillis() + republishAfterMsec);
+            final long currentTime = System.currentTimeMillis();
+            final Date republishAfterDate = new Date(currentTime + republishAfterMsec);
 
             long position = channel.position();
             int peekSize = channel.read(peekBuffer);
             int count = 0;
 
             final List<ZmqJournalEntry> lostMessages = new LinkedList<ZmqJournalEntry>();
+            final List<Object> expiredMessageIds = new LinkedList<Object>();
 
             while (peekSize > 0) {
                 peekBuffer.rewind();
@@ -854,9 +911,9 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
                     final boolean deleteFlag = inEntry.readBoolean();
                     final Object messageId = inEntry.readObject();
 
-                    if (deleteFlag && messageLocationMap.containsKey(messageId)) {
+                    if (deleteFlag) {
                         // someone delete the entry, so remove from checking
-                        messageLocationMap.remove(messageId);
+                        locationIndex.remove(messageId);
                     }
 
                     if (!deleteFlag && republishAfterDate.after(entryDate)) {
@@ -874,14 +931,18 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
                         try (ObjectInput inMessage = new ObjectInputStream(inputStream)) {
                             final ZmqMessage message = (ZmqMessage) inMessage.readObject();
 
-                            ZmqJournalEntry entry = new ZmqJournalEntry(messageId, entryDate, deleteFlag, message);
-                            lostMessages.add(entry);
+                            locationIndex.put(messageId, getJournalNumber(journalFile), 0, (int) position, 0);
 
-                            final MessageLocation location = new MessageLocation(messageId, journalFile, position);
-                            messageLocationMap.put(messageId, location);
+                            if (message.isExpired(currentTime)) {
+                                // nobody wants it any more, so purge rather than republish
+                                expiredMessageIds.add(messageId);
+                            } else {
+                                ZmqJournalEntry entry = new ZmqJournalEntry(messageId, entryDate, deleteFlag, message);
+                                lostMessages.add(entry);
 
-                            if (LOGGER.isLoggable(Level.FINEST)) {
-                                LOGGER.finest("Republished message[messageId=" + messageId + "]: " + this);
+                                if (LOGGER.isLoggable(Level.FINEST)) {
+                                    LOGGER.finest("Republished message[messageId=" + messageId + "]: " + this);
+                                }
                             }
                         }
                     }
@@ -901,6 +962,13 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
                 peekSize = channel.read(peekBuffer);
             }
 
+            for (Object messageId : expiredMessageIds) {
+                if (delete(messageId)) {
+                    expiredCount.incrementAndGet();
+                    count--;
+                }
+            }
+
             messageQueue.addAll(lostMessages);
             return count;
         } catch (IOException ex) {
@@ -913,6 +981,74 @@ public class ZmqFileJounralStore implements ZmqJournalStore {
         return messageQueue.poll();
     }
 
+    @Override
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Return the number of the journal file, as referenced by the location index.
+     * @param  journalFile  the journal file
+     * @return              return the number
+     */
+    private int getJournalNumber(final Path journalFile) {
+        Integer number = journalNumbers.get(journalFile);
+
+        if (number == null) {
+            synchronized (journalNumbers) {
+                number = journalNumbers.get(journalFile);
+
+                if (number == null) {
+                    number = journalCounter.incrementAndGet();
+                    journalFiles.put(number, journalFile);
+                    journalNumbers.put(journalFile, number);
+                }
+            }
+        }
+
+        return number;
+    }
+
+    /**
+     * Return true when the journal entry at the position has the message identifier, used by the location index to
+     * resolve message identifiers with the same hash.
+     * @param  messageId    the message identifier
+     * @param  journalFile  the journal file
+     * @param  position     the position in the journal file
+     * @return              return true when matched
+     */
+    private boolean isMessageId(final Object messageId, final Path journalFile, final long position) {
+        if (journalFile == null) {
+            return false;
+        }
+
+        try (SeekableByteChannel channel = Files.newByteChannel(journalFile, StandardOpenOption.READ)) {
+            final ByteBuffer peekBuffer = ByteBuffer.allocate(PEEK_SIZE);
+
+            channel.position(position);
+            channel.read(peekBuffer);
+            peekBuffer.rewind();
+            peekBuffer.getInt();
+
+            final ByteBuffer entryBuffer = ByteBuffer.allocate(peekBuffer.getInt() - PEEK_SIZE);
+
+            channel.read(entryBuffer);
+            entryBuffer.rewind();
+
+            try (ObjectInput inEntry = new ObjectInputStream(new ByteBufferBackedInputStream(entryBuffer))) {
+                // skip the entry date and delete flag
+                inEntry.readObject();
+                inEntry.readBoolean();
+
+                return messageId.equals(inEntry.readObject());
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Unable to read message identifier (pos=" + position + ", file=" + journalFile + "): " + this, ex);
+        }
+
+        return false;
+    }
+
     @Override
     public String toString() {
         return "ZmqFileMessageStore [location=" + location  + ", groupId=" + groupId + ", uniqueId=" + uniqueId + "]";
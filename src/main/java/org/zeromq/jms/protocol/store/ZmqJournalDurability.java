@@ -0,0 +1,26 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+/**
+ * Define enumerations for when journal writes are forced (fsync) to the storage device.
+ */
+public enum ZmqJournalDurability {
+    /* Left to the operating system page cache, only forced on close */
+    NONE,
+
+    /* Forced by a background thread at a fixed period */
+    PERIODIC,
+
+    /* Concurrent writes are coalesced and forced once per batch */
+    GROUP,
+
+    /* Every write is forced before it returns */
+    MESSAGE
+}
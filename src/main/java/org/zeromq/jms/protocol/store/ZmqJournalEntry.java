@@ -6,8 +6,13 @@ package org.zeromq.jms.protocol.store;
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
 import java.util.Date;
 
+import org.zeromq.jms.ZmqException;
 import org.zeromq.jms.ZmqMessage;
 
 /**
@@ -34,6 +39,25 @@ public class ZmqJournalEntry {
         this.message = message;
     }
 
+    /**
+     * Return the message serialized as held by a journal entry, so it can be serialized on the sending thread and
+     * the message re-used (or recycled) before the entry is written.
+     * @param  message       the message
+     * @return               return the serialized message
+     * @throws ZmqException  throws exception when the message cannot be serialized
+     */
+    public static byte[] serialize(final ZmqMessage message) throws ZmqException {
+        final ByteArrayOutputStream byteArrayOutput = new ByteArrayOutputStream();
+
+        try (ObjectOutput out = new ObjectOutputStream(byteArrayOutput)) {
+            out.writeObject(message);
+        } catch (IOException ex) {
+            throw new ZmqException("Cannot convert message to and array of bytes (message=" + message + ")", ex);
+        }
+
+        return byteArrayOutput.toByteArray();
+    }
+
     /**
      * @return  return the unique message identifier
      */
@@ -0,0 +1,372 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.UUID;
+
+import org.zeromq.jms.util.Fnv64;
+
+/**
+ * Primitive (open addressing) index of the journal message locations, to avoid an object per live message. Each
+ * entry is held in parallel arrays as a 64 bit hash of the message identifier, the segment number and position
+ * packed in a long, the record index and the timestamp.
+ *
+ * The message identifier itself is not held. A lookup matching a hash held by one entry alone takes the 64 bit hash as
+ * the identity, so only entries sharing their hash (flagged when added) are resolved by the key matcher, which reads
+ * the identifier back from the record at the location.
+ */
+public class ZmqJournalLocationIndex {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+
+    /**
+     * Interface to resolve the message identifier of an entry from its location.
+     */
+    public interface KeyMatcher {
+
+        /**
+         * Return true when the record at the location has the message identifier.
+         * @param  key       the message identifier
+         * @param  segment   the segment number
+         * @param  position  the record position
+         * @return           return true when matched
+         */
+        boolean matches(Object key, int segment, int position);
+    }
+
+    /**
+     * Interface to visit each entry of the index.
+     */
+    public interface LocationVisitor {
+
+        /**
+         * Visit the entry, returning its (possibly changed) timestamp.
+         * @param  segment    the segment number
+         * @param  index      the record index
+         * @param  position   the record position
+         * @param  timestamp  the timestamp
+         * @return            return the timestamp of the entry
+         */
+        long visit(int segment, int index, int position, long timestamp);
+    }
+
+    private final KeyMatcher matcher;
+    private final int initialCapacity;
+
+    private long[] hashes;
+    private long[] locations;
+    private int[] indexes;
+    private long[] timestamps;
+    private boolean[] shared;
+    private int size;
+
+    /**
+     * Construct the index with the default initial capacity.
+     * @param matcher  the key matcher to resolve entries with the same hash
+     */
+    public ZmqJournalLocationIndex(final KeyMatcher matcher) {
+        this(matcher, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct the index.
+     * @param matcher   the key matcher to resolve entries with the same hash
+     * @param capacity  the initial capacity
+     */
+    public ZmqJournalLocationIndex(final KeyMatcher matcher, final int capacity) {
+        int tableSize = 2;
+
+        while (tableSize < capacity && tableSize < MAX_CAPACITY) {
+            tableSize = tableSize << 1;
+        }
+
+        this.matcher = matcher;
+        this.initialCapacity = tableSize;
+
+        allocate(tableSize);
+    }
+
+    /**
+     * Add, or replace, the location of a message.
+     * @param key        the message identifier
+     * @param segment    the segment number
+     * @param index      the record index
+     * @param position   the record position
+     * @param timestamp  the timestamp
+     */
+    public synchronized void put(final Object key, final int segment, final int index, final int position, final long timestamp) {
+        final long hash = hash(key);
+        int slot = find(key, hash, true);
+
+        if (slot < 0) {
+            if ((size + 1) * 4L > hashes.length * 3L) {
+                resize(hashes.length << 1);
+            }
+
+            boolean sharedHash = false;
+
+            slot = (int) hash & (hashes.length - 1);
+
+            // entries with the same hash share the probe sequence, so flag them all on the way
+            while (hashes[slot] != 0) {
+                if (hashes[slot] == hash) {
+                    shared[slot] = true;
+                    sharedHash = true;
+                }
+
+                slot = (slot + 1) & (hashes.length - 1);
+            }
+
+            hashes[slot] = hash;
+            shared[slot] = sharedHash;
+            size++;
+        }
+
+        locations[slot] = getLocation(segment, position);
+        indexes[slot] = index;
+        timestamps[slot] = timestamp;
+    }
+
+    /**
+     * @param  key  the message identifier
+     * @return      return the segment number and position (see getSegment() and getPosition()), or -1 when unknown
+     */
+    public synchronized long get(final Object key) {
+        final int slot = find(key, hash(key), false);
+
+        return (slot < 0) ? -1 : locations[slot];
+    }
+
+    /**
+     * @param  key  the message identifier
+     * @return      return true when the index holds the message
+     */
+    public synchronized boolean contains(final Object key) {
+        return find(key, hash(key), false) >= 0;
+    }
+
+    /**
+     * Remove the location of a message.
+     * @param  key  the message identifier
+     * @return      return the segment number and record index (see getSegment() and getIndex()), or -1 when unknown
+     */
+    public synchronized long remove(final Object key) {
+        final int slot = find(key, hash(key), false);
+
+        if (slot < 0) {
+            return -1;
+        }
+
+        final long result = ((long) getSegment(locations[slot]) << 32) | (indexes[slot] & 0xFFFFFFFFL);
+
+        delete(slot);
+        size--;
+
+        return result;
+    }
+
+    /**
+     * Visit each entry of the index, holding the lock so the visitor should be quick.
+     * @param visitor  the visitor
+     */
+    public synchronized void forEach(final LocationVisitor visitor) {
+        for (int slot = 0; slot < hashes.length; slot++) {
+            if (hashes[slot] != 0) {
+                final long location = locations[slot];
+
+                timestamps[slot] = visitor.visit(getSegment(location), indexes[slot], getPosition(location), timestamps[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return  return the number of entries
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Remove all the entries, releasing the memory of the index.
+     */
+    public synchronized void clear() {
+        allocate(initialCapacity);
+    }
+
+    /**
+     * @param  reference  the segment number and index, or segment number and position
+     * @return            return the segment number
+     */
+    public static int getSegment(final long reference) {
+        return (int) (reference >>> 32);
+    }
+
+    /**
+     * @param  reference  the segment number and index returned on removal
+     * @return            return the record index
+     */
+    public static int getIndex(final long reference) {
+        return (int) reference;
+    }
+
+    /**
+     * @param  location  the segment number and position returned by get
+     * @return           return the record position
+     */
+    public static int getPosition(final long location) {
+        return (int) location;
+    }
+
+    /**
+     * Return the compact (64 bit) hash of the message identifier, never zero since zero marks an empty slot.
+     * @param  key  the message identifier
+     * @return      return the hash
+     */
+    public static long hash(final Object key) {
+        final long hash;
+
+        if (key instanceof String) {
+            hash = Fnv64.hash((String) key);
+        } else if (key instanceof UUID) {
+            final UUID value = (UUID) key;
+
+            hash = Fnv64.mix(value.getMostSignificantBits() ^ Long.rotateLeft(value.getLeastSignificantBits(), 32));
+        } else {
+            hash = Fnv64.mix(key.hashCode());
+        }
+
+        return (hash == 0) ? 1 : hash;
+    }
+
+    /**
+     * @param  segment   the segment number
+     * @param  position  the record position
+     * @return           return the segment number and position packed in a long
+     */
+    private static long getLocation(final int segment, final int position) {
+        return ((long) segment << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Find the slot of the message, checking the entries sharing the hash against the key matcher.
+     * @param  key     the message identifier
+     * @param  hash    the hash of the message identifier
+     * @param  verify  check every entry with the hash against the key matcher, i.e. before adding a new key
+     * @return         return the slot, or -1 when not found
+     */
+    private int find(final Object key, final long hash, final boolean verify) {
+        final int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+
+        while (hashes[slot] != 0) {
+            if (hashes[slot] == hash
+                && ((!verify && !shared[slot]) || matcher.matches(key, getSegment(locations[slot]), getPosition(locations[slot])))) {
+
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Empty the slot, shifting back the following entries of the probe sequence so no tombstones are required.
+     * @param slot  the slot
+     */
+    private void delete(final int slot) {
+        final int mask = hashes.length - 1;
+        int emptySlot = slot;
+        int nextSlot = slot;
+
+        while (true) {
+            nextSlot = (nextSlot + 1) & mask;
+
+            if (hashes[nextSlot] == 0) {
+                break;
+            }
+
+            final int homeSlot = (int) hashes[nextSlot] & mask;
+
+            // leave the entry when its home slot is cyclically within (emptySlot, nextSlot]
+            final boolean inPlace = (emptySlot <= nextSlot) ? (emptySlot < homeSlot && homeSlot <= nextSlot)
+                : (emptySlot < homeSlot || homeSlot <= nextSlot);
+
+            if (!inPlace) {
+                hashes[emptySlot] = hashes[nextSlot];
+                locations[emptySlot] = locations[nextSlot];
+                indexes[emptySlot] = indexes[nextSlot];
+                timestamps[emptySlot] = timestamps[nextSlot];
+                shared[emptySlot] = shared[nextSlot];
+                emptySlot = nextSlot;
+            }
+        }
+
+        hashes[emptySlot] = 0;
+    }
+
+    /**
+     * Re-hash all the entries into tables of the specified size.
+     * @param tableSize  the new table size
+     */
+    private void resize(final int tableSize) {
+        if (hashes.length >= MAX_CAPACITY) {
+            throw new IllegalStateException("Journal location index is full (size=" + size + ")");
+        }
+
+        final long[] oldHashes = hashes;
+        final long[] oldLocations = locations;
+        final int[] oldIndexes = indexes;
+        final long[] oldTimestamps = timestamps;
+        final boolean[] oldShared = shared;
+        final int oldSize = size;
+
+        allocate(tableSize);
+
+        final int mask = tableSize - 1;
+
+        for (int oldSlot = 0; oldSlot < oldHashes.length; oldSlot++) {
+            if (oldHashes[oldSlot] != 0) {
+                int slot = (int) oldHashes[oldSlot] & mask;
+
+                while (hashes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+
+                hashes[slot] = oldHashes[oldSlot];
+                locations[slot] = oldLocations[oldSlot];
+                indexes[slot] = oldIndexes[oldSlot];
+                timestamps[slot] = oldTimestamps[oldSlot];
+                shared[slot] = oldShared[oldSlot];
+            }
+        }
+
+        size = oldSize;
+    }
+
+    /**
+     * Allocate empty tables of the specified size.
+     * @param tableSize  the table size
+     */
+    private void allocate(final int tableSize) {
+        hashes = new long[tableSize];
+        locations = new long[tableSize];
+        indexes = new int[tableSize];
+        timestamps = new long[tableSize];
+        shared = new boolean[tableSize];
+        size = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ZmqJournalLocationIndex [size=" + size + ", capacity=" + hashes.length + "]";
+    }
+}
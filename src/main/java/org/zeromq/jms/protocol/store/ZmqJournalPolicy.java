@@ -0,0 +1,24 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+/**
+ * Define enumerations for how a gateway journals its messages relative to handing them on to the socket (outgoing)
+ * or the consumer (incoming).
+ */
+public enum ZmqJournalPolicy {
+    /* Journaled on the calling (producer or socket) thread */
+    SYNC,
+
+    /* Journaled by the journal writer thread, and only handed on once written */
+    BEFORE_SEND,
+
+    /* Journaled by the journal writer thread, while handed on straight away */
+    PARALLEL
+}
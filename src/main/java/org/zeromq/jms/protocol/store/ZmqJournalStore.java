@@ -6,6 +6,9 @@ package org.zeromq.jms.protocol.store;
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
+import java.util.Collection;
+import java.util.Map;
+
 import org.zeromq.jms.ZmqException;
 import org.zeromq.jms.ZmqMessage;
 
@@ -22,6 +25,31 @@ public interface ZmqJournalStore {
      */
     void create(Object messageId, ZmqMessage message) throws ZmqException;
 
+    /**
+     * Create the journal entries of a batch (i.e. a transaction) of messages within the store, as one write so
+     * either all or none of the entries are recovered.
+     * @param  messages      the ZMQ messages to store by their unique identifier, in order
+     * @throws ZmqException  throws I/O based ZMQ exception
+     */
+    void createAll(Map<Object, ZmqMessage> messages) throws ZmqException;
+
+    /**
+     * Create a new message journal entry within the store, from the message already serialized (see
+     * ZmqJournalEntry.serialize), i.e. on the sending thread rather than the journal writer thread.
+     * @param  messageId     the unique ZMQ message identifier
+     * @param  messageBytes  the serialized ZMQ message to store
+     * @throws ZmqException  throws I/O based ZMQ exception
+     */
+    void createSerialized(Object messageId, byte[] messageBytes) throws ZmqException;
+
+    /**
+     * Create the journal entries of a batch of messages within the store, from the messages already serialized, as
+     * one write so either all or none of the entries are recovered.
+     * @param  messages      the serialized ZMQ messages to store by their unique identifier, in order
+     * @throws ZmqException  throws I/O based ZMQ exception
+     */
+    void createAllSerialized(Map<Object, byte[]> messages) throws ZmqException;
+
     /**
      * Delete the specified journal entry from the store.
      * @param  messageId     the unique ZMQ message identifier
@@ -30,6 +58,14 @@ public interface ZmqJournalStore {
      */
     boolean delete(Object messageId) throws ZmqException;
 
+    /**
+     * Delete the journal entries of a batch (i.e. a transaction) of messages from the store.
+     * @param  messageIds    the unique ZMQ message identifiers
+     * @throws ZmqException  throws I/O based ZMQ exception
+     * @return               return the number of entries found and deleted
+     */
+    int deleteAll(Collection<Object> messageIds) throws ZmqException;
+
     /**
      * Ready a journal entry from the store.
      * @return               the journal entry
@@ -37,6 +73,11 @@ public interface ZmqJournalStore {
      */
     ZmqJournalEntry read() throws ZmqException;
 
+    /**
+     * @return  return the number of expired (JMS expiration) messages purged by the sweep, rather than republished
+     */
+    long getExpiredCount();
+
     /**
      * Open the message store, create root directory location when missing.
      * @throws ZmqException  throws I/O based ZMQ exception when root directory is not valid
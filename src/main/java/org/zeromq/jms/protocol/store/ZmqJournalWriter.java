@@ -0,0 +1,279 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqMessage;
+
+/**
+ * Asynchronous writer of a journal store, so callers are not stalled by the storage device. Creates and deletes are
+ * handed to a single writer thread through a bounded (array based ring) buffer, which blocks the callers when full,
+ * and are applied in order. Each returns a future completed once it has been applied to the store.
+ *
+ * Messages are serialized on the calling thread, so the journal holds the message as sent even when the caller
+ * re-uses (or recycles) the message before the entry is written.
+ */
+public class ZmqJournalWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqJournalWriter.class.getCanonicalName());
+
+    private static final int WRITER_WAIT_MILLI_SECOND = 100;
+    private static final int WRITER_BATCH_SIZE = 256;
+
+    private final ZmqJournalStore store;
+    private final BlockingQueue<Write> writeQueue;
+    private final AtomicBoolean active = new AtomicBoolean(false);
+
+    private ExecutorService writerExecutor = null;
+
+    /**
+     * Class to represent a pending create, or delete, of a journal entry, or of a batch of entries.
+     */
+    private static class Write {
+        private final Object messageId;
+        private final byte[] messageBytes;
+        private final Map<Object, byte[]> messages;
+        private final Collection<Object> messageIds;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+
+        /**
+         * Construct the pending write.
+         * @param messageId     the message identifier
+         * @param messageBytes  the serialized message to create, or null to delete
+         */
+        Write(final Object messageId, final byte[] messageBytes) {
+            this.messageId = messageId;
+            this.messageBytes = messageBytes;
+            this.messages = null;
+            this.messageIds = null;
+        }
+
+        /**
+         * Construct the pending write of a batch.
+         * @param messages    the serialized messages to create by message identifier, or null to delete
+         * @param messageIds  the message identifiers to delete, or null to create
+         */
+        Write(final Map<Object, byte[]> messages, final Collection<Object> messageIds) {
+            this.messageId = null;
+            this.messageBytes = null;
+            this.messages = messages;
+            this.messageIds = messageIds;
+        }
+
+        @Override
+        public String toString() {
+            if (messages != null) {
+                return "messageIds=" + messages.keySet();
+            }
+
+            return "messageId=" + ((messageIds == null) ? messageId : messageIds);
+        }
+    }
+
+    /**
+     * Inner class for the writer thread, applying the writes in batches.
+     */
+    private class WriterThread implements Runnable {
+
+        @Override
+        public void run() {
+            final List<Write> batch = new ArrayList<Write>(WRITER_BATCH_SIZE);
+
+            while (active.get() || !writeQueue.isEmpty()) {
+                try {
+                    final Write write = writeQueue.poll(WRITER_WAIT_MILLI_SECOND, TimeUnit.MILLISECONDS);
+
+                    if (write == null) {
+                        continue;
+                    }
+
+                    batch.add(write);
+                    writeQueue.drainTo(batch, WRITER_BATCH_SIZE - 1);
+
+                    for (Write pendingWrite : batch) {
+                        apply(pendingWrite);
+                    }
+                } catch (InterruptedException ex) {
+                    LOGGER.log(Level.WARNING, "Journal writer interrupted: " + ZmqJournalWriter.this, ex);
+
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Construct the journal writer.
+     * @param store     the journal store
+     * @param capacity  the maximum number of pending writes before the callers are blocked
+     */
+    public ZmqJournalWriter(final ZmqJournalStore store, final int capacity) {
+        this.store = store;
+        this.writeQueue = new ArrayBlockingQueue<Write>(capacity);
+    }
+
+    /**
+     * Start the writer thread.
+     */
+    public void start() {
+        if (active.getAndSet(true)) {
+            return;
+        }
+
+        writerExecutor = Executors.newSingleThreadExecutor();
+        writerExecutor.execute(new WriterThread());
+    }
+
+    /**
+     * Stop the writer thread, once all the pending writes have been applied.
+     * @param timeout  the milliseconds to wait on the pending writes
+     */
+    public void stop(final int timeout) {
+        if (!active.getAndSet(false)) {
+            return;
+        }
+
+        try {
+            writerExecutor.shutdown();
+            final boolean success = writerExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+
+            if (!success) {
+                LOGGER.severe("Journal writer failed to stop (pending=" + writeQueue.size() + "): " + this);
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.SEVERE, "Journal writer failed to stop: " + this, ex);
+        }
+
+        writerExecutor = null;
+    }
+
+    /**
+     * Queue the creation of a journal entry, blocking while the buffer is full. The message is serialized before
+     * returning, so it can be re-used straight away.
+     * @param  messageId     the message identifier
+     * @param  message       the message
+     * @return               return the future completed once the entry has been created
+     * @throws ZmqException  throws exception when the message cannot be serialized, the writer is not active, or
+     *                       interrupted
+     */
+    public CompletableFuture<Boolean> create(final Object messageId, final ZmqMessage message) throws ZmqException {
+        return queue(new Write(messageId, ZmqJournalEntry.serialize(message)));
+    }
+
+    /**
+     * Queue the deletion of a journal entry, after any pending create of it, blocking while the buffer is full.
+     * @param  messageId     the message identifier
+     * @return               return the future completed with the result of the store deletion
+     * @throws ZmqException  throws exception when the writer is not active, or interrupted
+     */
+    public CompletableFuture<Boolean> delete(final Object messageId) throws ZmqException {
+        return queue(new Write(messageId, (byte[]) null));
+    }
+
+    /**
+     * Queue the creation of the journal entries of a batch as one write, blocking while the buffer is full. The
+     * messages are serialized before returning, so they can be re-used straight away.
+     * @param  messages      the messages by message identifier, in order
+     * @return               return the future completed once the entries have been created
+     * @throws ZmqException  throws exception when a message cannot be serialized, the writer is not active, or
+     *                       interrupted
+     */
+    public CompletableFuture<Boolean> createAll(final Map<Object, ZmqMessage> messages) throws ZmqException {
+        final Map<Object, byte[]> serializedMessages = new LinkedHashMap<Object, byte[]>();
+
+        for (Map.Entry<Object, ZmqMessage> entry : messages.entrySet()) {
+            serializedMessages.put(entry.getKey(), ZmqJournalEntry.serialize(entry.getValue()));
+        }
+
+        return queue(new Write(serializedMessages, (Collection<Object>) null));
+    }
+
+    /**
+     * Queue the deletion of the journal entries of a batch, after any pending create of them, blocking while the
+     * buffer is full.
+     * @param  messageIds    the message identifiers
+     * @return               return the future completed with true when all the entries were found and deleted
+     * @throws ZmqException  throws exception when the writer is not active, or interrupted
+     */
+    public CompletableFuture<Boolean> deleteAll(final Collection<Object> messageIds) throws ZmqException {
+        return queue(new Write(null, messageIds));
+    }
+
+    /**
+     * @return  return the number of writes waiting on the writer thread
+     */
+    public int getPendingCount() {
+        return writeQueue.size();
+    }
+
+    /**
+     * Queue the write, blocking while the buffer is full.
+     * @param  write         the write
+     * @return               return the future of the write
+     * @throws ZmqException  throws exception when the writer is not active, or interrupted
+     */
+    private CompletableFuture<Boolean> queue(final Write write) throws ZmqException {
+        if (!active.get()) {
+            throw new ZmqException("Journal writer is not active: " + this);
+        }
+
+        try {
+            writeQueue.put(write);
+        } catch (InterruptedException ex) {
+            throw new ZmqException("Interrupted waiting on the journal writer: " + this, ex);
+        }
+
+        return write.future;
+    }
+
+    /**
+     * Apply the write to the store, completing its future.
+     * @param write  the write
+     */
+    private void apply(final Write write) {
+        try {
+            if (write.messages != null) {
+                store.createAllSerialized(write.messages);
+                write.future.complete(true);
+            } else if (write.messageIds != null) {
+                write.future.complete(store.deleteAll(write.messageIds) == write.messageIds.size());
+            } else if (write.messageBytes == null) {
+                write.future.complete(store.delete(write.messageId));
+            } else {
+                store.createSerialized(write.messageId, write.messageBytes);
+                write.future.complete(true);
+            }
+        } catch (ZmqException | RuntimeException ex) {
+            LOGGER.log(Level.SEVERE, "Unable to write journal entry (" + write + "): " + this, ex);
+
+            write.future.completeExceptionally(ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqJournalWriter [store=" + store + ", pending=" + writeQueue.size() + "]";
+    }
+}
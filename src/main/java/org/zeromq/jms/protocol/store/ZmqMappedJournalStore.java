@@ -0,0 +1,1916 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TransferQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqMessage;
+import org.zeromq.jms.annotation.ZmqComponent;
+import org.zeromq.jms.annotation.ZmqUriParameter;
+import org.zeromq.jms.util.ByteBufferBackedInputStream;
+import org.zeromq.jms.util.Crc32c;
+
+/**
+ * This class implements a journal store that appends into fixed size memory-mapped segment files.
+ *
+ * Unlike the file journal store, the current segment is mapped once and kept open, so a create is a copy
+ * into the mapped buffer (no open/append/close and size lookup per message). A new segment is started when
+ * the current one is full rather than by time.
+ *
+ * Records are never re-written on delete. Each segment tracks a watermark (all records before it have been
+ * deleted) and a bitmap of the deleted records after it, so a delete is a bit flip in memory. The watermark
+ * and bitmap are persisted to an ".ack" file next to the segment by the sweep (and on close), so a crash
+ * can only republish messages deleted since the last sweep. Once the watermark reaches the end of a segment
+ * which is no longer written to, the segment is archived.
+ *
+ * Segment file layout (big endian):
+ *
+ *      [int magic][int version] { record }* [int 0]
+ *
+ *      record: [int length][int crc32c][byte flags][long timestamp][byte idType][int idLength][messageId][message]
+ *
+ * The CRC-32C covers the record after the checksum, so a torn (partially written) or corrupt record is detected
+ * on recovery, which stops at that record. String and UUID message identifiers are written as UTF-8 and 16 bytes,
+ * other types and the message are Java serialized. Segments are sized up-front, so the end of the written records is marked by a zero length.
+ *
+ * The records of a batch (createAll, i.e. a committed transaction) are written contiguously within one segment, and
+ * the length of the first record is written last, so recovery finds either the whole batch or none of it.
+ *
+ * Segments left by a previous run (same unique identifier) are recovered on open, and segments of other (orphaned)
+ * stores in the same group are adopted by the sweep. The sweep (and close) also writes a checkpoint of the live
+ * records of each segment and how far it had been written, so recovery only has to scan the records written after
+ * the checkpoint. The segments are recovered in parallel (journal.recoveryThreads), and the recovered messages are
+ * only de-serialized when read for republishing.
+ *
+ * When the writes are forced to the device is configured by the durability (journal.durability):
+ *
+ *      - NONE, left to the page cache (forced on close),
+ *      - PERIODIC, forced by a background thread every sync period,
+ *      - GROUP, concurrent creates are coalesced, one waiting caller forces the segment for all the records
+ *        written so far while the others wait on it (group commit),
+ *      - MESSAGE, every create is forced before it returns.
+ *
+ * With GROUP and journal.syncWait=false callers do not wait, the batch is forced by the sync thread, or on
+ * an explicit commit().
+ *
+ * The live messages are tracked by a primitive index (ZmqJournalLocationIndex) holding a hash of the message
+ * identifier and the packed segment number and position, rather than a map entry and location object per message.
+ */
+@ZmqComponent("mmap")
+@ZmqUriParameter("journal")
+public class ZmqMappedJournalStore implements ZmqJournalStore {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqMappedJournalStore.class.getCanonicalName());
+
+    public static final int JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long JOURNAL_SWEEP_PERIOD_MILLISECONDS = 3000;
+    public static final long JOURNAL_MESSAGE_REPUBLISH_MILLSECONDS = 6000;
+    public static final long JOURNAL_SYNC_PERIOD_MILLISECONDS = 1000;
+
+    private static final int SEGMENT_MAGIC = 0x5A4D514A;
+    private static final int SEGMENT_VERSION = 2;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 22;
+    private static final int RECORD_CRC_OFFSET = 8;
+    private static final byte RECORD_ACTIVE = 0;
+    private static final byte MESSAGE_ID_OBJECT = 0;
+    private static final byte MESSAGE_ID_STRING = 1;
+    private static final byte MESSAGE_ID_UUID = 2;
+
+    private static final String JOURNAL_FILE_PREFIX = "journal_";
+    private static final String JOURNAL_FILE_SUFFIX = ".seg";
+    private static final String JOURNAL_ACK_SUFFIX = ".ack";
+    private static final int ACK_MAGIC = 0x5A4D5141;
+    private static final String JOURNAL_ARCHIVE_DIR = "archive";
+    private static final String JOURNAL_CHECKPOINT_PREFIX = "checkpoint_";
+    private static final String JOURNAL_CHECKPOINT_SUFFIX = ".chk";
+    private static final int CHECKPOINT_MAGIC = 0x5A4D5143;
+
+    private Path location;
+    private String groupId;
+    private String uniqueId;
+    private int segmentSize = JOURNAL_SEGMENT_SIZE;
+
+    private ScheduledExecutorService sweepScheduler = null;
+    private long republishAfterMsec = JOURNAL_MESSAGE_REPUBLISH_MILLSECONDS;
+    private long sweepPeriod = JOURNAL_SWEEP_PERIOD_MILLISECONDS;
+
+    private ScheduledExecutorService syncScheduler = null;
+    private ZmqJournalDurability durability = ZmqJournalDurability.PERIODIC;
+    private long syncPeriod = JOURNAL_SYNC_PERIOD_MILLISECONDS;
+    private boolean syncWait = true;
+
+    private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private final Object deleteLock = new Object();
+    private final Map<Path, Segment> segments = new ConcurrentHashMap<Path, Segment>();
+    private final Map<Integer, Segment> segmentNumbers = new ConcurrentHashMap<Integer, Segment>();
+    private final AtomicInteger segmentCounter = new AtomicInteger();
+    private final ZmqJournalLocationIndex locationIndex = new ZmqJournalLocationIndex(new ZmqJournalLocationIndex.KeyMatcher() {
+
+        @Override
+        public boolean matches(final Object key, final int segment, final int position) {
+            return isMessageId(key, segment, position);
+        }
+    });
+    private final TransferQueue<ZmqJournalEntry> messageQueue = new LinkedTransferQueue<ZmqJournalEntry>();
+
+    private Segment currentSegment = null;
+    private long sequence = 0;
+    private long writeSequence = 0;
+
+    private long syncedSequence = 0;
+    private boolean syncing = false;
+    private final AtomicLong syncCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * Class to represent a memory-mapped segment file.
+     */
+    private static class Segment {
+        private final int number;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final Path ackFile;
+        private final BitSet acks = new BitSet();
+
+        private int writePosition;
+        private int recordCount;
+        private int watermark;
+        private boolean ackDirty;
+
+        /**
+         * Map the segment file of the specified size, creating it when it does not exist.
+         * @param number        the segment number, referenced by the location index
+         * @param file          the segment file
+         * @param ackFile       the acknowledgement file of the segment
+         * @param size          the size of the segment
+         * @throws IOException  throws I/O exception when the segment cannot be mapped
+         */
+        Segment(final int number, final Path file, final Path ackFile, final int size) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            final long mapSize = Math.max(size, channel.size());
+
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+            this.writePosition = SEGMENT_HEADER_SIZE;
+            this.ackFile = ackFile;
+        }
+
+        /**
+         * @return  return the index of the next record appended to the segment
+         */
+        synchronized int append() {
+            return recordCount++;
+        }
+
+        /**
+         * @param count  the number of records already in the segment, when recovered from a checkpoint
+         */
+        synchronized void setRecordCount(final int count) {
+            recordCount = count;
+        }
+
+        /**
+         * @return  return the number of records appended to the segment
+         */
+        synchronized int getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * Mark the record as deleted, moving up the watermark when it is the next record.
+         * @param  index  the record index
+         * @return        return false when the record was already deleted
+         */
+        synchronized boolean acknowledge(final int index) {
+            if (index < watermark || acks.get(index)) {
+                return false;
+            }
+
+            acks.set(index);
+
+            if (index == watermark) {
+                final int nextWatermark = acks.nextClearBit(watermark);
+
+                acks.clear(watermark, nextWatermark);
+                watermark = nextWatermark;
+            }
+
+            ackDirty = true;
+
+            return true;
+        }
+
+        /**
+         * @param  index  the record index
+         * @return        return true when the record has been deleted
+         */
+        synchronized boolean isAcknowledged(final int index) {
+            return index < watermark || acks.get(index);
+        }
+
+        /**
+         * @return  return true when all records of the segment have been deleted
+         */
+        synchronized boolean isComplete() {
+            return watermark >= recordCount;
+        }
+
+        /**
+         * Load the watermark and bitmap of the deleted records, when the segment has an acknowledgement file.
+         * @throws IOException  throws I/O exception when the file cannot be read
+         */
+        synchronized void loadAcks() throws IOException {
+            if (!Files.exists(ackFile)) {
+                return;
+            }
+
+            final ByteBuffer ackBuffer = ByteBuffer.wrap(Files.readAllBytes(ackFile));
+
+            if (ackBuffer.remaining() < 16 || ackBuffer.getInt() != ACK_MAGIC) {
+                LOGGER.warning("Ignoring invalid acknowledgement file: " + ackFile);
+
+                return;
+            }
+
+            // the record count, as a reference only
+            ackBuffer.getInt();
+
+            final int ackWatermark = ackBuffer.getInt();
+            final byte[] bits = new byte[ackBuffer.getInt()];
+
+            ackBuffer.get(bits);
+
+            final BitSet ackBits = BitSet.valueOf(bits);
+
+            for (int i = ackBits.nextSetBit(0); i >= 0; i = ackBits.nextSetBit(i + 1)) {
+                acks.set(ackWatermark + i);
+            }
+
+            watermark = ackWatermark;
+        }
+
+        /**
+         * Return the acknowledgement file content, i.e. the watermark and bitmap of the deleted records (after the
+         * watermark), when changed since the last snapshot.
+         * @return  return the file content, or null when unchanged
+         */
+        synchronized byte[] snapshotAcks() {
+            if (!ackDirty) {
+                return null;
+            }
+
+            final byte[] bits = acks.get(watermark, Math.max(watermark, recordCount)).toByteArray();
+            final ByteBuffer ackBuffer = ByteBuffer.allocate(16 + bits.length);
+
+            ackBuffer.putInt(ACK_MAGIC);
+            ackBuffer.putInt(recordCount);
+            ackBuffer.putInt(watermark);
+            ackBuffer.putInt(bits.length);
+            ackBuffer.put(bits);
+
+            ackDirty = false;
+
+            return ackBuffer.array();
+        }
+
+        /**
+         * Mark the acknowledgements as changed, i.e. when a snapshot could not be written.
+         */
+        synchronized void markAcksDirty() {
+            ackDirty = true;
+        }
+
+        /**
+         * Write the snapshot of the acknowledgements, replacing the acknowledgement file.
+         * @param  ackBytes     the acknowledgement file content
+         * @throws IOException  throws I/O exception when the file cannot be written
+         */
+        void writeAcks(final byte[] ackBytes) throws IOException {
+            final Path tempFile = ackFile.resolveSibling(ackFile.getFileName() + ".tmp");
+
+            try {
+                Files.write(tempFile, ackBytes);
+                Files.move(tempFile, ackFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                markAcksDirty();
+
+                throw ex;
+            }
+        }
+
+        /**
+         * @return  return the remaining bytes (keeping space for the end marker)
+         */
+        int remaining() {
+            return buffer.capacity() - writePosition - 4;
+        }
+
+        /**
+         * Close the channel of the segment. The mapping stays valid until it is garbage collected.
+         */
+        void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to close segment: " + file, ex);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Segment [file=" + file + ", writePosition=" + writePosition + ", recordCount=" + recordCount
+                + ", watermark=" + watermark + "]";
+        }
+    }
+
+    /**
+     * Class to represent a journal entry, which only de-serializes its message when first requested.
+     */
+    private class MappedJournalEntry extends ZmqJournalEntry {
+        private final Segment segment;
+        private final int position;
+
+        private volatile ZmqMessage message;
+
+        /**
+         * Construct the journal entry for a record.
+         * @param messageId   the message identifier
+         * @param createDate  the entry creation date
+         * @param segment     the segment
+         * @param position    the position of the record in the segment
+         */
+        MappedJournalEntry(final Object messageId, final Date createDate, final Segment segment, final int position) {
+            super(messageId, createDate, false, null);
+
+            this.segment = segment;
+            this.position = position;
+        }
+
+        @Override
+        public ZmqMessage getMessage() {
+            if (message == null) {
+                message = readMessage(segment, position);
+            }
+
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "MappedJournalEntry [messageId=" + getMessageId() + ", createDate=" + getCreateDate() + ", segment=" + segment.file
+                + ", position=" + position + "]";
+        }
+    }
+
+    /**
+     * Class to represent the checkpoint of a segment, the live records and how far it had been written.
+     */
+    private static class SegmentCheckpoint {
+        private final int version;
+        private final int recordCount;
+        private final int endPosition;
+        private final int[] indexes;
+        private final int[] positions;
+
+        /**
+         * Construct the segment checkpoint.
+         * @param version      the segment version
+         * @param recordCount  the number of records at the checkpoint
+         * @param endPosition  the position after the last record at the checkpoint
+         * @param indexes      the ordered indexes of the live records
+         * @param positions    the positions of the live records
+         */
+        SegmentCheckpoint(final int version, final int recordCount, final int endPosition, final int[] indexes, final int[] positions) {
+            this.version = version;
+            this.recordCount = recordCount;
+            this.endPosition = endPosition;
+            this.indexes = indexes;
+            this.positions = positions;
+        }
+    }
+
+    /**
+     * Construct memory-mapped journal with default values, that need to be modified by setter
+     * parameters. Used for the URI queue definition.
+     */
+    public ZmqMappedJournalStore() {
+    }
+
+    /**
+     * Construct memory-mapped journal with the important parameters.
+     * @param location  the location of the file store
+     * @param groupId   the grouping identifier to group same journals together
+     * @param uniqueId  the unique identifier of the journal files
+     */
+    public ZmqMappedJournalStore(final Path location, final String groupId, final String uniqueId) {
+        this.location = location;
+        this.groupId = groupId;
+        this.uniqueId = uniqueId;
+    }
+
+    /**
+     * Setter for the location of the journal files (i.e. c:\temp, /var/user/temp, etc..)
+     * @param location  the location of the root directory
+     */
+    @ZmqUriParameter("journal.location")
+    public void setLocation(final String location) {
+        this.location = Paths.get(URI.create(location));
+    }
+
+    /**
+     * Setter for the location of the journal files based on a URI (i.e. file:///path/temp).
+     * @param location  the location URI
+     */
+    @ZmqUriParameter("journal.locationURI")
+    public void setLocationURI(final String location) {
+        this.location = Paths.get(URI.create(location));
+    }
+
+    /**
+     * Set the unique identifier.
+     * @param uniqueId  the identifier
+     */
+    @ZmqUriParameter("journal.uniqueId")
+    public void setUniqueId(final String uniqueId) {
+        this.uniqueId = uniqueId;
+    }
+
+    /**
+     * Set the unique file grouping identifier.
+     * @param groupId  the group identifier
+     */
+    @ZmqUriParameter("journal.groupId")
+    public void setGroupId(final String groupId) {
+        this.groupId = groupId;
+    }
+
+    /**
+     * Setter for the size of each segment file in bytes. A message larger than the segment gets its own segment.
+     * @param size  the segment size
+     */
+    @ZmqUriParameter("journal.segmentSize")
+    public void setSegmentSize(final int size) {
+        this.segmentSize = size;
+    }
+
+    /**
+     * Setter for the period between sweeping of the journal.
+     * @param period  the period in milliseconds between scheduled sweeps
+     */
+    @ZmqUriParameter("journal.sweepPeriod")
+    public void setSweepPeriod(final long period) {
+        sweepPeriod = period;
+    }
+
+    /**
+     * Setter for the message re-publishing time limit.
+     * @param time  the time in milliseconds to lapse before republishing
+     */
+    @ZmqUriParameter("journal.republishAfter")
+    public void setPublishAfter(final long time) {
+        republishAfterMsec = time;
+    }
+
+    /**
+     * Setter for when the journal writes are forced to the storage device.
+     * @param durability  the durability, i.e. NONE, PERIODIC, GROUP or MESSAGE
+     */
+    @ZmqUriParameter("journal.durability")
+    public void setDurability(final ZmqJournalDurability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * Setter for the period between forcing the journal writes, used by the PERIODIC durability and by GROUP
+     * when callers do not wait.
+     * @param period  the period in milliseconds
+     */
+    @ZmqUriParameter("journal.syncPeriod")
+    public void setSyncPeriod(final long period) {
+        syncPeriod = period;
+    }
+
+    /**
+     * Setter to indicate whether create waits on the group commit of its write (GROUP durability only).
+     * @param wait  true to wait on the commit
+     */
+    @ZmqUriParameter("journal.syncWait")
+    public void setSyncWait(final boolean wait) {
+        syncWait = wait;
+    }
+
+    /**
+     * Setter for the number of threads used to recover the segments on open.
+     * @param threads  the number of threads
+     */
+    @ZmqUriParameter("journal.recoveryThreads")
+    public void setRecoveryThreads(final int threads) {
+        recoveryThreads = threads;
+    }
+
+    /**
+     * @return  return the number of times the journal writes have been forced to the storage device
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return  create human readable unique id
+     */
+    protected String generateUniqueId() {
+        final String name = ManagementFactory.getRuntimeMXBean().getName();
+
+        return name.replaceAll("\\W+", "-");
+    }
+
+    /**
+     * @return  return the journal directory
+     */
+    public Path getJournalDir() {
+        final Path journalDir = location.resolve(groupId);
+
+        return journalDir;
+    }
+
+    /**
+     * @return  return the path to the archive directory
+     */
+    public Path getAchiveJournalDir() {
+        final Path archiveDir = location.resolve(groupId).resolve(JOURNAL_ARCHIVE_DIR);
+
+        return archiveDir;
+    }
+
+    /**
+     * @return  return the segment file currently being written to, or null when not open
+     */
+    public Path getCurrentSegmentFile() {
+        synchronized (writeLock) {
+            return (currentSegment == null) ? null : currentSegment.file;
+        }
+    }
+
+    /**
+     * @return  return the segment files held open by this store
+     */
+    public List<Path> getSegmentFiles() {
+        return new ArrayList<Path>(segments.keySet());
+    }
+
+    /**
+     * Return the segment file name for the specified unique identifier and sequence.
+     * @param uniqueId  the unique identifier
+     * @param sequence  the segment sequence
+     * @return          return the file name
+     */
+    protected String getSegmentFileName(final String uniqueId, final long sequence) {
+        return JOURNAL_FILE_PREFIX + uniqueId + "_" + String.format("%012d", sequence) + JOURNAL_FILE_SUFFIX;
+    }
+
+    /**
+     * @return  return the checkpoint file of this store
+     */
+    public Path getCheckpointFile() {
+        return getJournalDir().resolve(JOURNAL_CHECKPOINT_PREFIX + uniqueId + JOURNAL_CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Return the acknowledgement file, holding the watermark and bitmap of deleted records, of a segment file.
+     * @param segmentFile  the segment file
+     * @return             return the acknowledgement file
+     */
+    public Path getAckFile(final Path segmentFile) {
+        final String fileName = segmentFile.getFileName().toString();
+
+        return segmentFile.resolveSibling(fileName.substring(0, fileName.length() - JOURNAL_FILE_SUFFIX.length()) + JOURNAL_ACK_SUFFIX);
+    }
+
+    /**
+     * Return the unique identifier of a segment file.
+     * @param segmentFile  the segment file
+     * @return             return the unique identifier
+     */
+    protected String getUniqueId(final Path segmentFile) {
+        final String fileName = segmentFile.getFileName().toString();
+        final int endPos = fileName.lastIndexOf('_');
+
+        return fileName.substring(JOURNAL_FILE_PREFIX.length(), endPos);
+    }
+
+    /**
+     * Return the sequence of a segment file.
+     * @param segmentFile  the segment file
+     * @return             return the sequence
+     */
+    protected long getSequence(final Path segmentFile) {
+        final String fileName = segmentFile.getFileName().toString();
+        final int startPos = fileName.lastIndexOf('_') + 1;
+        final int endPos = fileName.length() - JOURNAL_FILE_SUFFIX.length();
+
+        return Long.parseLong(fileName.substring(startPos, endPos));
+    }
+
+    @Override
+    public void open() throws ZmqException {
+        if (location == null) {
+            final String tempDir = System.getProperty("java.io.tmpdir");
+            LOGGER.warning("No location path specified, defaulting to temp: " + tempDir);
+            location = Paths.get(tempDir);
+        }
+
+        if (groupId == null) {
+            throw new ZmqException("Missing groupId to open store, i.e. 'queue_1-incoming'");
+        }
+
+        if (uniqueId == null) {
+            uniqueId = generateUniqueId();
+            LOGGER.info("Defaulting to process identifier: " + uniqueId);
+        }
+
+        final Path journalDir = getJournalDir();
+
+        try {
+            Files.createDirectories(journalDir);
+        } catch (IOException ex) {
+            throw new ZmqException("Unable to open store (dir=" + journalDir + "): " + this, ex);
+        }
+
+        synchronized (writeLock) {
+            // recover segments left by a previous run of this store
+            final Map<Long, Path> segmentFiles = new TreeMap<Long, Path>();
+
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(journalDir, "*" + JOURNAL_FILE_SUFFIX)) {
+                for (Path segmentFile : directoryStream) {
+                    if (uniqueId.equals(getUniqueId(segmentFile))) {
+                        segmentFiles.put(getSequence(segmentFile), segmentFile);
+                    }
+                }
+            } catch (IOException ex) {
+                throw new ZmqException("Unable to open store (dir=" + journalDir + "): " + this, ex);
+            }
+
+            for (Long segmentSequence : segmentFiles.keySet()) {
+                sequence = Math.max(sequence, segmentSequence);
+            }
+
+            recoverSegments(new ArrayList<Path>(segmentFiles.values()));
+
+            currentSegment = newSegment(segmentSize);
+        }
+
+        if (sweepPeriod > 0) {
+            sweepScheduler = Executors.newScheduledThreadPool(1);
+
+            final Runnable sweepCommand = new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        sweepSegments(republishAfterMsec);
+                    } catch (ZmqException ex) {
+                        LOGGER.log(Level.SEVERE, "Sweep process failure: " + this, ex);
+                    }
+                }
+            };
+
+            sweepScheduler.scheduleAtFixedRate(sweepCommand, sweepPeriod, sweepPeriod, TimeUnit.MILLISECONDS);
+        }
+
+        final boolean syncBackground = (durability == ZmqJournalDurability.PERIODIC)
+            || (durability == ZmqJournalDurability.GROUP && !syncWait);
+
+        if (syncBackground && syncPeriod > 0) {
+            syncScheduler = Executors.newScheduledThreadPool(1);
+
+            final Runnable syncCommand = new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        commit();
+                    } catch (ZmqException ex) {
+                        LOGGER.log(Level.SEVERE, "Sync process failure: " + this, ex);
+                    }
+                }
+            };
+
+            syncScheduler.scheduleAtFixedRate(syncCommand, syncPeriod, syncPeriod, TimeUnit.MILLISECONDS);
+        }
+
+        LOGGER.info("Sucessfully openned: " + this);
+    }
+
+    @Override
+    public void close() throws ZmqException {
+        if (sweepScheduler != null) {
+            try {
+                sweepScheduler.shutdown();
+                final boolean success = sweepScheduler.awaitTermination(3, TimeUnit.SECONDS);
+
+                if (!success) {
+                    LOGGER.severe("Sweep scheduler failed to stop: " + this);
+                }
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.SEVERE, "Sweep scheduler failed to stop: " + this, ex);
+            }
+
+            sweepScheduler = null;
+        }
+
+        if (syncScheduler != null) {
+            try {
+                syncScheduler.shutdown();
+                final boolean success = syncScheduler.awaitTermination(3, TimeUnit.SECONDS);
+
+                if (!success) {
+                    LOGGER.severe("Sync scheduler failed to stop: " + this);
+                }
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.SEVERE, "Sync scheduler failed to stop: " + this, ex);
+            }
+
+            syncScheduler = null;
+        }
+
+        if (currentSegment != null) {
+            try {
+                persistDeletes();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to persist acknowledgements and checkpoint: " + this, ex);
+            }
+        }
+
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+
+            segments.clear();
+            segmentNumbers.clear();
+            locationIndex.clear();
+            currentSegment = null;
+        }
+
+        LOGGER.info("Sucessfully closed: " + this);
+    }
+
+    @Override
+    public void reset() throws ZmqException {
+        final Path journalDir = getJournalDir();
+
+        if (Files.exists(journalDir)) {
+            try {
+                Files.walkFileTree(journalDir, new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                        Files.delete(file);
+
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                        Files.delete(dir);
+
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException ex) {
+                throw new ZmqException("Unable to reset store (dir=" + journalDir + "): " + this, ex);
+            }
+
+            LOGGER.info("Sucessfully reset: " + this);
+        } else {
+            LOGGER.info("Nothing to reset: " + this);
+        }
+    }
+
+    @Override
+    public void create(final Object messageId, final ZmqMessage message) throws ZmqException {
+        createSerialized(messageId, ZmqJournalEntry.serialize(message));
+    }
+
+    @Override
+    public void createSerialized(final Object messageId, final byte[] messageBytes) throws ZmqException {
+        final long timestamp = System.currentTimeMillis();
+        final ByteBuffer record;
+
+        try {
+            record = encodeRecord(messageId, messageBytes, timestamp);
+        } catch (IOException ex) {
+            throw new ZmqException("Cannot convert message identifier to and array of bytes (messageId=" + messageId + "): " + this, ex);
+        }
+
+        final int length = record.remaining();
+        final long recordSequence;
+
+        synchronized (writeLock) {
+            if (currentSegment == null) {
+                throw new ZmqException("Cannot create message (" + messageId + ") on a closed store: " + this);
+            }
+
+            if (currentSegment.remaining() < length) {
+                rollover(length);
+            }
+
+            final Segment segment = currentSegment;
+            final int position = segment.writePosition;
+            final ByteBuffer buffer = segment.buffer.duplicate();
+
+            buffer.position(position);
+            buffer.put(record);
+
+            segment.writePosition = position + length;
+
+            locationIndex.put(messageId, segment.number, segment.append(), position, timestamp);
+
+            recordSequence = ++writeSequence;
+
+            if (durability == ZmqJournalDurability.MESSAGE) {
+                segment.buffer.force();
+                syncCount.incrementAndGet();
+            }
+        }
+
+        if (durability == ZmqJournalDurability.GROUP && syncWait) {
+            commit(recordSequence);
+        }
+
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("Message stored and tracked: " + messageId);
+        }
+    }
+
+    /**
+     * Create the records of the batch contiguously within one segment, as one write with at most one wait on a
+     * forced sync. The length of the first record is written last, so recovery (stopping at a zero length) either
+     * finds the whole batch or none of it.
+     * @param  messages      the messages by message identifier, in order
+     * @throws ZmqException  throw exception when a message cannot be serialized, or the store is closed
+     */
+    @Override
+    public void createAll(final Map<Object, ZmqMessage> messages) throws ZmqException {
+        final Map<Object, byte[]> serializedMessages = new LinkedHashMap<Object, byte[]>();
+
+        for (Map.Entry<Object, ZmqMessage> entry : messages.entrySet()) {
+            serializedMessages.put(entry.getKey(), ZmqJournalEntry.serialize(entry.getValue()));
+        }
+
+        createAllSerialized(serializedMessages);
+    }
+
+    /**
+     * Create the records of the batch, from the messages already serialized, contiguously within one segment (see
+     * createAll).
+     * @param  messages      the serialized messages by message identifier, in order
+     * @throws ZmqException  throw exception when a message identifier cannot be serialized, or the store is closed
+     */
+    @Override
+    public void createAllSerialized(final Map<Object, byte[]> messages) throws ZmqException {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        final long timestamp = System.currentTimeMillis();
+        final List<Object> messageIds = new ArrayList<Object>(messages.keySet());
+        final List<ByteBuffer> records = new ArrayList<ByteBuffer>(messages.size());
+        int batchLength = 0;
+
+        for (Map.Entry<Object, byte[]> entry : messages.entrySet()) {
+            try {
+                final ByteBuffer record = encodeRecord(entry.getKey(), entry.getValue(), timestamp);
+
+                batchLength = batchLength + record.remaining();
+                records.add(record);
+            } catch (IOException ex) {
+                throw new ZmqException("Cannot convert message identifier to and array of bytes (messageId=" + entry.getKey() + "): " + this, ex);
+            }
+        }
+
+        final long recordSequence;
+
+        synchronized (writeLock) {
+            if (currentSegment == null) {
+                throw new ZmqException("Cannot create messages (count=" + messages.size() + ") on a closed store: " + this);
+            }
+
+            if (currentSegment.remaining() < batchLength) {
+                rollover(batchLength);
+            }
+
+            final Segment segment = currentSegment;
+            final int batchPosition = segment.writePosition;
+            final ByteBuffer buffer = segment.buffer.duplicate();
+            final int firstLength = records.get(0).getInt(0);
+
+            // copy the batch, holding back the length of the first record
+            records.get(0).position(4);
+            buffer.position(batchPosition + 4);
+
+            int position = batchPosition;
+
+            for (int i = 0; i < records.size(); i++) {
+                final ByteBuffer record = records.get(i);
+
+                buffer.put(record);
+                locationIndex.put(messageIds.get(i), segment.number, segment.append(), position, timestamp);
+                position = position + record.limit();
+            }
+
+            if (durability == ZmqJournalDurability.MESSAGE) {
+                // the batch must be on the device before the length making it visible
+                segment.buffer.force();
+                syncCount.incrementAndGet();
+            }
+
+            segment.buffer.putInt(batchPosition, firstLength);
+            segment.writePosition = position;
+
+            recordSequence = ++writeSequence;
+
+            if (durability == ZmqJournalDurability.MESSAGE) {
+                segment.buffer.force();
+                syncCount.incrementAndGet();
+            }
+        }
+
+        if (durability == ZmqJournalDurability.GROUP && syncWait) {
+            commit(recordSequence);
+        }
+
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("Messages stored and tracked (count=" + messages.size() + "): " + this);
+        }
+    }
+
+    /**
+     * Force all the records written so far to the storage device, waiting on the commit.
+     * @throws ZmqException  throw exception when interrupted waiting on the commit
+     */
+    public void commit() throws ZmqException {
+        final long recordSequence;
+
+        synchronized (writeLock) {
+            recordSequence = writeSequence;
+        }
+
+        commit(recordSequence);
+    }
+
+    /**
+     * Wait until the record of the specified write sequence has been forced to the storage device. When no
+     * other caller is forcing the segment, this caller forces it for all records written so far (including the
+     * writes of other callers since), otherwise it waits on that commit.
+     * @param  recordSequence  the write sequence of the record
+     * @throws ZmqException    throw exception when interrupted waiting on the commit
+     */
+    private void commit(final long recordSequence) throws ZmqException {
+        synchronized (syncLock) {
+            while (syncing && syncedSequence < recordSequence) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+
+                    throw new ZmqException("Interrupted waiting on commit (sequence=" + recordSequence + "): " + this, ex);
+                }
+            }
+
+            if (syncedSequence >= recordSequence) {
+                return;
+            }
+
+            syncing = true;
+        }
+
+        long forcedSequence = 0;
+
+        try {
+            final Segment segment;
+
+            synchronized (writeLock) {
+                segment = currentSegment;
+                forcedSequence = writeSequence;
+            }
+
+            if (segment != null) {
+                segment.buffer.force();
+                syncCount.incrementAndGet();
+            }
+        } finally {
+            synchronized (syncLock) {
+                syncedSequence = Math.max(syncedSequence, forcedSequence);
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(final Object messageId) throws ZmqException {
+        return deleteAll(Collections.singletonList(messageId)) == 1;
+    }
+
+    /**
+     * Delete the records of the batch as one unit, i.e. the bits of all the records are flipped under the delete
+     * lock, so the acknowledgements and checkpoint persisted by the sweep (or close) hold either all the deletes of
+     * the batch or none of them.
+     * @param  messageIds    the message identifiers
+     * @return               return the number of records found and deleted
+     * @throws ZmqException  throw exception on failure
+     */
+    @Override
+    public int deleteAll(final Collection<Object> messageIds) throws ZmqException {
+        int count = 0;
+
+        synchronized (deleteLock) {
+            for (Object messageId : messageIds) {
+                final long reference = locationIndex.remove(messageId);
+
+                if (reference < 0) {
+                    LOGGER.warning("Unknown event marked for deletion with reference (messageId=" + messageId + "): " + this);
+                    continue;
+                }
+
+                final Segment segment = segmentNumbers.get(ZmqJournalLocationIndex.getSegment(reference));
+
+                if (segment != null && segment.acknowledge(ZmqJournalLocationIndex.getIndex(reference))) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public ZmqJournalEntry read() throws ZmqException {
+        ZmqJournalEntry entry = messageQueue.poll();
+
+        // de-serialize the (lazy) message, dropping the entry when it cannot be read
+        while (entry != null && entry.getMessage() == null) {
+            locationIndex.remove(entry.getMessageId());
+            entry = messageQueue.poll();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Run the house keeping sweep process to republish messages of older segments that have not been deleted, adopt
+     * segments of orphaned stores within the group, and archive segments with all their messages deleted.
+     * @param  republishAfterMsec  the milliseconds time when entry is considered expired
+     * @throws ZmqException        throw I/O exception on sweep failure
+     */
+    public void sweepSegments(final long republishAfterMsec) throws ZmqException {
+        final Path journalDir = getJournalDir();
+        final long currentTime = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(journalDir, "*" + JOURNAL_FILE_SUFFIX)) {
+            for (Path segmentFile : directoryStream) {
+                if (segments.containsKey(segmentFile)) {
+                    // mapped writes do not always update the modified time, so show other stores we are still active
+                    Files.setLastModifiedTime(segmentFile, FileTime.fromMillis(currentTime));
+                } else if (republishAfterMsec >= 0) {
+                    final FileTime lastModified = Files.getLastModifiedTime(segmentFile, LinkOption.NOFOLLOW_LINKS);
+
+                    if (lastModified.toMillis() < (currentTime - republishAfterMsec)) {
+                        adoptSegment(segmentFile);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new ZmqException("Unable to sweep segment file(s): " + this, ex);
+        }
+
+        final List<Segment> candidates = new ArrayList<Segment>();
+
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                if (segment != currentSegment) {
+                    candidates.add(segment);
+                }
+            }
+        }
+
+        try {
+            persistDeletes();
+        } catch (IOException ex) {
+            throw new ZmqException("Unable to persist acknowledgements and checkpoint: " + this, ex);
+        }
+
+        for (Segment segment : candidates) {
+            sweepSegment(segment, republishAfterMsec);
+        }
+    }
+
+    /**
+     * Sweep a segment, which is no longer written to, republishing the messages not yet deleted, or archive it when
+     * all its messages have been deleted.
+     * @param  segmentFile         the segment file
+     * @param  republishAfterMsec  the milliseconds time when entry is considered expired
+     * @return                     return the number of messages republished
+     * @throws ZmqException        throw I/O exception on sweep failure
+     */
+    public int sweepSegment(final Path segmentFile, final long republishAfterMsec) throws ZmqException {
+        final Segment segment = segments.get(segmentFile);
+
+        if (segment == null) {
+            return 0;
+        }
+
+        return sweepSegment(segment, republishAfterMsec);
+    }
+
+    /**
+     * Sweep a segment, which is no longer written to, republishing the messages not yet deleted, or archive it when
+     * all its messages have been deleted.
+     * @param  segment             the segment
+     * @param  republishAfterMsec  the milliseconds time when entry is considered expired
+     * @return                     return the number of messages republished
+     * @throws ZmqException        throw I/O exception on sweep failure
+     */
+    private int sweepSegment(final Segment segment, final long republishAfterMsec) throws ZmqException {
+        if (segment.isComplete()) {
+            archiveSegment(segment);
+
+            return 0;
+        }
+
+        if (republishAfterMsec < 0) {
+            return 0;
+        }
+
+        final long currentTime = System.currentTimeMillis();
+        final long republishBefore = currentTime - republishAfterMsec;
+        final TreeMap<Integer, Integer> records = new TreeMap<Integer, Integer>();
+        int count = 0;
+
+        locationIndex.forEach(new ZmqJournalLocationIndex.LocationVisitor() {
+
+            @Override
+            public long visit(final int segmentNumber, final int index, final int position, final long timestamp) {
+                if (segmentNumber != segment.number || timestamp > republishBefore) {
+                    return timestamp;
+                }
+
+                records.put(index, position);
+
+                // restart the clock, so it is not republished again by the next sweep
+                return currentTime;
+            }
+        });
+
+        // republish in the order written
+        for (Map.Entry<Integer, Integer> record : records.entrySet()) {
+            if (!segment.isAcknowledged(record.getKey())) {
+                final ZmqJournalEntry journalEntry = readEntry(segment, record.getValue());
+
+                if (journalEntry != null) {
+                    final ZmqMessage message = journalEntry.getMessage();
+
+                    if (message != null && message.isExpired(currentTime)) {
+                        // nobody wants it any more, so purge rather than republish
+                        delete(journalEntry.getMessageId());
+                        expiredCount.incrementAndGet();
+                    } else {
+                        messageQueue.add(journalEntry);
+                        count++;
+                    }
+                }
+            }
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Republished [count=" + count + ", segment=" + segment + "] message: " + this);
+        }
+
+        return count;
+    }
+
+    /**
+     * Take over the segment of an orphaned store by renaming it into this store, so only one store can adopt it.
+     * @param segmentFile  the segment file of the other store
+     */
+    private void adoptSegment(final Path segmentFile) {
+        final Path adoptedFile;
+
+        synchronized (writeLock) {
+            adoptedFile = segmentFile.resolveSibling(getSegmentFileName(uniqueId, ++sequence));
+        }
+
+        try {
+            Files.move(segmentFile, adoptedFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Segment adopted by another store: " + segmentFile, ex);
+            }
+
+            return;
+        }
+
+        final Path ackFile = getAckFile(segmentFile);
+
+        try {
+            if (Files.exists(ackFile)) {
+                Files.move(ackFile, getAckFile(adoptedFile), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to adopt acknowledgements, so all messages will be republished: " + ackFile, ex);
+        }
+
+        try {
+            final List<ZmqJournalEntry> entries = recoverSegment(adoptedFile, null);
+
+            messageQueue.addAll(entries);
+
+            LOGGER.info("Adopted orphaned segment (file=" + segmentFile + ", messages=" + entries.size() + "): " + this);
+        } catch (ZmqException ex) {
+            LOGGER.log(Level.SEVERE, "Unable to adopt orphaned segment: " + segmentFile, ex);
+        }
+    }
+
+    /**
+     * Recover the segments in parallel, queuing their messages that have not been deleted in segment order.
+     * @param  segmentFiles  the ordered segment files
+     * @throws ZmqException  throw I/O exception on recovery failure
+     */
+    private void recoverSegments(final List<Path> segmentFiles) throws ZmqException {
+        if (segmentFiles.isEmpty()) {
+            return;
+        }
+
+        final Map<String, SegmentCheckpoint> checkpoints = readCheckpoint();
+        final int threads = Math.max(1, Math.min(recoveryThreads, segmentFiles.size()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long startTime = System.currentTimeMillis();
+        int count = 0;
+
+        try {
+            final List<Future<List<ZmqJournalEntry>>> futures = new ArrayList<Future<List<ZmqJournalEntry>>>();
+
+            for (final Path segmentFile : segmentFiles) {
+                final SegmentCheckpoint checkpoint = checkpoints.get(segmentFile.getFileName().toString());
+
+                futures.add(executor.submit(new Callable<List<ZmqJournalEntry>>() {
+
+                    @Override
+                    public List<ZmqJournalEntry> call() throws ZmqException {
+                        return recoverSegment(segmentFile, checkpoint);
+                    }
+                }));
+            }
+
+            for (Future<List<ZmqJournalEntry>> future : futures) {
+                final List<ZmqJournalEntry> entries = future.get();
+
+                messageQueue.addAll(entries);
+                count = count + entries.size();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            throw new ZmqException("Interrupted recovering segments: " + this, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ZmqException) {
+                throw (ZmqException) ex.getCause();
+            }
+
+            throw new ZmqException("Unable to recover segments: " + this, ex);
+        } finally {
+            executor.shutdown();
+        }
+
+        LOGGER.info("Recovered " + count + " message(s) from " + segmentFiles.size() + " segment(s) in "
+            + (System.currentTimeMillis() - startTime) + " (msec): " + this);
+    }
+
+    /**
+     * Map an existing segment, tracking all its messages that have not been deleted. The records within the checkpoint
+     * are taken from it, so only the records written since are scanned (and checked).
+     * @param  segmentFile   the segment file
+     * @param  checkpoint    the segment checkpoint, or null to scan the whole segment
+     * @return               return the entries of the messages recovered
+     * @throws ZmqException  throw I/O exception on recovery failure
+     */
+    private List<ZmqJournalEntry> recoverSegment(final Path segmentFile, final SegmentCheckpoint checkpoint) throws ZmqException {
+        final Segment segment;
+
+        try {
+            segment = new Segment(segmentCounter.incrementAndGet(), segmentFile, getAckFile(segmentFile), 0);
+            segment.loadAcks();
+        } catch (IOException ex) {
+            throw new ZmqException("Unable to map segment (file=" + segmentFile + "): " + this, ex);
+        }
+
+        segmentNumbers.put(segment.number, segment);
+
+        final List<ZmqJournalEntry> entries = new ArrayList<ZmqJournalEntry>();
+        final ByteBuffer buffer = segment.buffer.duplicate();
+
+        if (buffer.capacity() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != SEGMENT_MAGIC
+            || buffer.getInt(4) != SEGMENT_VERSION) {
+
+            LOGGER.warning("Ignoring unknown segment file: " + segmentFile);
+            segmentNumbers.remove(segment.number);
+            segment.close();
+
+            return entries;
+        }
+
+        final long currentTime = System.currentTimeMillis();
+        int position = SEGMENT_HEADER_SIZE;
+
+        if (checkpoint != null && checkpoint.version == SEGMENT_VERSION && checkpoint.endPosition <= buffer.capacity()) {
+            segment.setRecordCount(checkpoint.recordCount);
+
+            int liveIndex = 0;
+
+            for (int index = 0; index < checkpoint.recordCount; index++) {
+                if (liveIndex < checkpoint.indexes.length && checkpoint.indexes[liveIndex] == index) {
+                    final int livePosition = checkpoint.positions[liveIndex++];
+
+                    if (!segment.isAcknowledged(index)) {
+                        recoverEntry(segment, index, livePosition, currentTime, entries);
+                    }
+                } else {
+                    // deleted before the checkpoint, but possibly after the acknowledgements were persisted
+                    segment.acknowledge(index);
+                }
+            }
+
+            position = checkpoint.endPosition;
+        }
+
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            final int length = buffer.getInt(position);
+
+            if (length == 0) {
+                break;
+            }
+
+            if (length < RECORD_HEADER_SIZE || position + length > buffer.capacity() || !isValidRecord(segment, position, length)) {
+
+                LOGGER.warning("Torn or corrupt record, ignoring the rest of the segment (pos=" + position + ", file=" + segmentFile + "): "
+                    + this);
+                break;
+            }
+
+            final int index = segment.append();
+
+            if (!segment.isAcknowledged(index)) {
+                recoverEntry(segment, index, position, currentTime, entries);
+            }
+
+            position = position + length;
+        }
+
+        segment.writePosition = position;
+        segments.put(segmentFile, segment);
+
+        if (segment.isComplete()) {
+            archiveSegment(segment);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Track the recovered record, unless it cannot be read.
+     * @param segment      the segment
+     * @param index        the record index
+     * @param position     the record position
+     * @param currentTime  the recovery time
+     * @param entries      the list of recovered entries to populate
+     */
+    private void recoverEntry(final Segment segment, final int index, final int position, final long currentTime,
+        final List<ZmqJournalEntry> entries) {
+
+        final ZmqJournalEntry journalEntry = readEntry(segment, position);
+
+        if (journalEntry != null) {
+            locationIndex.put(journalEntry.getMessageId(), segment.number, index, position, currentTime);
+            entries.add(journalEntry);
+        } else {
+            segment.acknowledge(index);
+        }
+    }
+
+    /**
+     * Persist the checkpoint and the acknowledgements of the segments, both taken between batches of deletes. The
+     * checkpoint (a single file) is written first, so an acknowledgement file never holds a delete the checkpoint
+     * does not, and a crash part way through still recovers whole batches of deletes.
+     * @throws IOException  throws I/O exception when the checkpoint, or an acknowledgement file, cannot be written
+     */
+    private void persistDeletes() throws IOException {
+        final Map<Segment, byte[]> segmentAcks = new HashMap<Segment, byte[]>();
+        final byte[] checkpointBytes;
+
+        synchronized (deleteLock) {
+            checkpointBytes = snapshotCheckpoint();
+
+            for (Segment segment : segments.values()) {
+                final byte[] ackBytes = segment.snapshotAcks();
+
+                if (ackBytes != null) {
+                    segmentAcks.put(segment, ackBytes);
+                }
+            }
+        }
+
+        try {
+            writeCheckpoint(checkpointBytes);
+        } catch (IOException ex) {
+            for (Segment segment : segmentAcks.keySet()) {
+                segment.markAcksDirty();
+            }
+
+            throw ex;
+        }
+
+        for (Map.Entry<Segment, byte[]> segmentAck : segmentAcks.entrySet()) {
+            segmentAck.getKey().writeAcks(segmentAck.getValue());
+        }
+    }
+
+    /**
+     * Return the checkpoint of the live records of each segment, and how far each segment has been written.
+     * @return              return the checkpoint file content
+     * @throws IOException  throws I/O exception when the checkpoint cannot be converted
+     */
+    private byte[] snapshotCheckpoint() throws IOException {
+        final Map<Segment, int[]> marks = new HashMap<Segment, int[]>();
+
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                marks.put(segment, new int[] { segment.getRecordCount(), segment.writePosition });
+            }
+        }
+
+        final Map<Integer, int[]> segmentMarks = new HashMap<Integer, int[]>();
+        final Map<Integer, TreeMap<Integer, Integer>> liveRecords = new HashMap<Integer, TreeMap<Integer, Integer>>();
+
+        for (Map.Entry<Segment, int[]> mark : marks.entrySet()) {
+            segmentMarks.put(mark.getKey().number, mark.getValue());
+            liveRecords.put(mark.getKey().number, new TreeMap<Integer, Integer>());
+        }
+
+        locationIndex.forEach(new ZmqJournalLocationIndex.LocationVisitor() {
+
+            @Override
+            public long visit(final int segmentNumber, final int index, final int position, final long timestamp) {
+                final int[] mark = segmentMarks.get(segmentNumber);
+
+                if (mark != null && index < mark[0]) {
+                    liveRecords.get(segmentNumber).put(index, position);
+                }
+
+                return timestamp;
+            }
+        });
+
+        final ByteArrayOutputStream byteArrayOutput = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(byteArrayOutput);
+
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeInt(marks.size());
+
+        for (Map.Entry<Segment, int[]> mark : marks.entrySet()) {
+            final Segment segment = mark.getKey();
+            final TreeMap<Integer, Integer> records = liveRecords.get(segment.number);
+
+            out.writeUTF(segment.file.getFileName().toString());
+            out.writeInt(SEGMENT_VERSION);
+            out.writeInt(mark.getValue()[0]);
+            out.writeInt(mark.getValue()[1]);
+            out.writeInt(records.size());
+
+            for (Map.Entry<Integer, Integer> record : records.entrySet()) {
+                out.writeInt(record.getKey());
+                out.writeInt(record.getValue());
+            }
+        }
+
+        final byte[] bytes = byteArrayOutput.toByteArray();
+        final Crc32c crc = new Crc32c();
+
+        crc.update(bytes, 0, bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        return byteArrayOutput.toByteArray();
+    }
+
+    /**
+     * Write the checkpoint, replacing the checkpoint file. The segments are forced first, so the checkpoint never
+     * refers to records which are not on the storage device.
+     * @param  checkpointBytes  the checkpoint file content
+     * @throws IOException      throws I/O exception when the checkpoint cannot be written
+     */
+    private void writeCheckpoint(final byte[] checkpointBytes) throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+
+        final Path checkpointFile = getCheckpointFile();
+        final Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+
+        Files.write(tempFile, checkpointBytes);
+        Files.move(tempFile, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read the checkpoint of this store.
+     * @return  return the segment checkpoints by segment file name, empty when missing or invalid
+     */
+    private Map<String, SegmentCheckpoint> readCheckpoint() {
+        final Map<String, SegmentCheckpoint> checkpoints = new HashMap<String, SegmentCheckpoint>();
+        final Path checkpointFile = getCheckpointFile();
+
+        if (!Files.exists(checkpointFile)) {
+            return checkpoints;
+        }
+
+        try {
+            final byte[] bytes = Files.readAllBytes(checkpointFile);
+            final Crc32c crc = new Crc32c();
+
+            crc.update(bytes, 0, Math.max(0, bytes.length - 4));
+
+            if (bytes.length < 12 || (int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+                LOGGER.warning("Ignoring invalid checkpoint file: " + checkpointFile);
+
+                return checkpoints;
+            }
+
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                LOGGER.warning("Ignoring unknown checkpoint file: " + checkpointFile);
+
+                return checkpoints;
+            }
+
+            final int segmentCount = in.readInt();
+
+            for (int i = 0; i < segmentCount; i++) {
+                final String fileName = in.readUTF();
+                final int version = in.readInt();
+                final int recordCount = in.readInt();
+                final int endPosition = in.readInt();
+                final int[] indexes = new int[in.readInt()];
+                final int[] positions = new int[indexes.length];
+
+                for (int j = 0; j < indexes.length; j++) {
+                    indexes[j] = in.readInt();
+                    positions[j] = in.readInt();
+                }
+
+                checkpoints.put(fileName, new SegmentCheckpoint(version, recordCount, endPosition, indexes, positions));
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable checkpoint file: " + checkpointFile, ex);
+
+            checkpoints.clear();
+        }
+
+        return checkpoints;
+    }
+
+    /**
+     * Return true when the record at the location has the message identifier, used by the location index to resolve
+     * message identifiers with the same hash.
+     * @param  messageId      the message identifier
+     * @param  segmentNumber  the segment number
+     * @param  position       the record position
+     * @return                return true when matched
+     */
+    private boolean isMessageId(final Object messageId, final int segmentNumber, final int position) {
+        final Segment segment = segmentNumbers.get(segmentNumber);
+
+        if (segment == null) {
+            return false;
+        }
+
+        final ZmqJournalEntry journalEntry = readEntry(segment, position);
+
+        return journalEntry != null && messageId.equals(journalEntry.getMessageId());
+    }
+
+    /**
+     * Read the journal entry at the specified position of a segment. Only the header and message identifier
+     * are read, the message is de-serialized when requested from the entry.
+     * @param  segment   the segment
+     * @param  position  the record position
+     * @return           return the entry, or null when it cannot be read
+     */
+    private ZmqJournalEntry readEntry(final Segment segment, final int position) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+
+        // skip the length, checksum and flags
+        buffer.position(position + RECORD_CRC_OFFSET + 1);
+
+        final long timestamp = buffer.getLong();
+        final byte messageIdType = buffer.get();
+        final int messageIdLength = buffer.getInt();
+
+        try {
+            buffer.limit(buffer.position() + messageIdLength);
+            final Object messageId = decodeMessageId(messageIdType, buffer);
+
+            return new MappedJournalEntry(messageId, new Date(timestamp), segment, position);
+        } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+            LOGGER.log(Level.SEVERE, "Unable to read message (pos=" + position + ", file=" + segment.file + "): " + this, ex);
+        }
+
+        return null;
+    }
+
+    /**
+     * Read, and check, the message of the record at the specified position of a segment.
+     * @param  segment   the segment
+     * @param  position  the record position
+     * @return           return the message, or null when it cannot be read
+     */
+    private ZmqMessage readMessage(final Segment segment, final int position) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        final int length = buffer.getInt(position);
+
+        if (!isValidRecord(segment, position, length)) {
+            LOGGER.severe("Corrupt record, unable to read message (pos=" + position + ", file=" + segment.file + "): " + this);
+
+            return null;
+        }
+
+        final int messageIdLength = buffer.getInt(position + RECORD_HEADER_SIZE - 4);
+
+        buffer.limit(position + length);
+        buffer.position(position + RECORD_HEADER_SIZE + messageIdLength);
+
+        try {
+            return (ZmqMessage) deserialize(buffer);
+        } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+            LOGGER.log(Level.SEVERE, "Unable to read message (pos=" + position + ", file=" + segment.file + "): " + this, ex);
+        }
+
+        return null;
+    }
+
+    /**
+     * Start a new current segment, large enough for the specified record.
+     * @param  length        the length of the record to be written
+     * @throws ZmqException  throw I/O exception when the segment cannot be created
+     */
+    private void rollover(final int length) throws ZmqException {
+        final Segment previousSegment = currentSegment;
+        final int size = Math.max(segmentSize, SEGMENT_HEADER_SIZE + length + 4);
+
+        if (previousSegment != null && durability != ZmqJournalDurability.NONE) {
+            // commits only force the current segment, so complete the previous one
+            previousSegment.buffer.force();
+            syncCount.incrementAndGet();
+        }
+
+        currentSegment = newSegment(size);
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Rolled over segment (previous=" + previousSegment + ", current=" + currentSegment + "): " + this);
+        }
+    }
+
+    /**
+     * Create, map and register the next segment of this store.
+     * @param  size          the segment size
+     * @return               return the segment
+     * @throws ZmqException  throw I/O exception when the segment cannot be created
+     */
+    private Segment newSegment(final int size) throws ZmqException {
+        final Path segmentFile = getJournalDir().resolve(getSegmentFileName(uniqueId, ++sequence));
+
+        try {
+            final Segment segment = new Segment(segmentCounter.incrementAndGet(), segmentFile, getAckFile(segmentFile), size);
+
+            segment.buffer.putInt(0, SEGMENT_MAGIC);
+            segment.buffer.putInt(4, SEGMENT_VERSION);
+            segments.put(segmentFile, segment);
+            segmentNumbers.put(segment.number, segment);
+
+            return segment;
+        } catch (IOException ex) {
+            throw new ZmqException("Unable to create segment (file=" + segmentFile + "): " + this, ex);
+        }
+    }
+
+    /**
+     * Close and move the segment to the archive directory.
+     * @param  segment       the segment
+     * @throws ZmqException  throw I/O exception when the segment cannot be archived
+     */
+    private void archiveSegment(final Segment segment) throws ZmqException {
+        segments.remove(segment.file);
+        segmentNumbers.remove(segment.number);
+        segment.close();
+
+        final Path archiveDir = getAchiveJournalDir();
+        final Path archiveFile = archiveDir.resolve(segment.file.getFileName());
+
+        try {
+            Files.createDirectories(archiveDir);
+            Files.move(segment.file, archiveFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(segment.ackFile);
+        } catch (IOException ex) {
+            throw new ZmqException("Cannot archieve segment (file=" + segment.file + "): " + this, ex);
+        }
+    }
+
+    /**
+     * Return true when the checksum of the record matches its content.
+     * @param  segment   the segment
+     * @param  position  the record position
+     * @param  length    the record length
+     * @return           return true when valid
+     */
+    private boolean isValidRecord(final Segment segment, final int position, final int length) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        final Crc32c crc = new Crc32c();
+
+        buffer.limit(position + length);
+        buffer.position(position + RECORD_CRC_OFFSET);
+        crc.update(buffer);
+
+        return (int) crc.getValue() == segment.buffer.getInt(position + 4);
+    }
+
+    /**
+     * Encode the record of the message.
+     * @param  messageId     the message identifier
+     * @param  messageBytes  the serialized message
+     * @param  timestamp     the creation time
+     * @return               return the record, ready to be copied
+     * @throws IOException   throws I/O exception on serialization failure
+     */
+    private static ByteBuffer encodeRecord(final Object messageId, final byte[] messageBytes, final long timestamp) throws IOException {
+        final byte messageIdType;
+        final byte[] messageIdBytes;
+
+        if (messageId instanceof String) {
+            messageIdType = MESSAGE_ID_STRING;
+            messageIdBytes = ((String) messageId).getBytes(StandardCharsets.UTF_8);
+        } else if (messageId instanceof UUID) {
+            messageIdType = MESSAGE_ID_UUID;
+            messageIdBytes = ByteBuffer.allocate(16).putLong(((UUID) messageId).getMostSignificantBits())
+                .putLong(((UUID) messageId).getLeastSignificantBits()).array();
+        } else {
+            messageIdType = MESSAGE_ID_OBJECT;
+            messageIdBytes = serialize(messageId);
+        }
+
+        final int length = RECORD_HEADER_SIZE + messageIdBytes.length + messageBytes.length;
+        final ByteBuffer record = ByteBuffer.allocate(length);
+
+        record.putInt(length);
+        record.putInt(0);
+        record.put(RECORD_ACTIVE);
+        record.putLong(timestamp);
+        record.put(messageIdType);
+        record.putInt(messageIdBytes.length);
+        record.put(messageIdBytes);
+        record.put(messageBytes);
+
+        final Crc32c crc = new Crc32c();
+
+        crc.update(record.array(), RECORD_CRC_OFFSET, length - RECORD_CRC_OFFSET);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+
+        return record;
+    }
+
+    /**
+     * Decode the message identifier from the remaining bytes of the buffer.
+     * @param  messageIdType           the identifier type
+     * @param  buffer                  the buffer
+     * @return                         return the message identifier
+     * @throws IOException             throws I/O exception on de-serialization failure
+     * @throws ClassNotFoundException  throws class not found exception on de-serialization failure
+     */
+    private static Object decodeMessageId(final byte messageIdType, final ByteBuffer buffer) throws IOException, ClassNotFoundException {
+        if (messageIdType == MESSAGE_ID_STRING) {
+            final byte[] bytes = new byte[buffer.remaining()];
+
+            buffer.get(bytes);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        } else if (messageIdType == MESSAGE_ID_UUID) {
+            return new UUID(buffer.getLong(), buffer.getLong());
+        }
+
+        return deserialize(buffer);
+    }
+
+    /**
+     * Java serialize the object.
+     * @param  value        the object
+     * @return              return the serialized bytes
+     * @throws IOException  throws I/O exception on serialization failure
+     */
+    private static byte[] serialize(final Object value) throws IOException {
+        final ByteArrayOutputStream byteArrayOutput = new ByteArrayOutputStream();
+
+        try (ObjectOutput out = new ObjectOutputStream(byteArrayOutput)) {
+            out.writeObject(value);
+        }
+
+        return byteArrayOutput.toByteArray();
+    }
+
+    /**
+     * Java de-serialize the object from the remaining bytes of the buffer.
+     * @param  buffer                  the buffer
+     * @return                         return the object
+     * @throws IOException             throws I/O exception on de-serialization failure
+     * @throws ClassNotFoundException  throws class not found exception on de-serialization failure
+     */
+    private static Object deserialize(final ByteBuffer buffer) throws IOException, ClassNotFoundException {
+        try (ObjectInput in = new ObjectInputStream(new ByteBufferBackedInputStream(buffer))) {
+            return in.readObject();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqMappedJournalStore [location=" + location + ", groupId=" + groupId + ", uniqueId=" + uniqueId
+            + ", segmentSize=" + segmentSize + ", durability=" + durability + "]";
+    }
+}
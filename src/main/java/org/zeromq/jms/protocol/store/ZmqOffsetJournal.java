@@ -0,0 +1,503 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.zeromq.jms.ZmqException;
+
+/**
+ * Append only journal of records addressed by their offset, i.e. the first record appended is offset 0, the next
+ * offset 1, etc... Unlike the message journal stores, records are never deleted on acknowledgement, so a reader can
+ * (re-)read the journal from any offset still kept, i.e. to replay a topic to a late or re-connecting subscriber.
+ *
+ * The journal is written as segment files named by the offset of their first record (i.e. "prices.journal.0",
+ * "prices.journal.1000"), rolling over to a new segment once the current one reaches the segment size. The oldest
+ * segments are deleted (never the one being appended to) once the journal is beyond the retention size, or their
+ * last record is older than the retention time, so the first offset kept moves forward.
+ *
+ * Each record is written as [length][checksum][bytes], and the file position of every offset is held in memory, so a
+ * read from an offset is a single sequential read of its segment. The index is rebuilt by scanning the segments on
+ * open, where a torn (partially written) record at the tail is truncated.
+ */
+public class ZmqOffsetJournal {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqOffsetJournal.class.getCanonicalName());
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INITIAL_INDEX_SIZE = 1024;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private final Path file;
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private long retentionSize = 0;
+    private long retentionTime = 0;
+    private long totalSize = 0;
+
+    /**
+     * Segment file of the journal, holding the records from its base offset.
+     */
+    private static final class Segment {
+        private final long baseOffset;
+        private final Path file;
+        private final FileChannel channel;
+
+        private long[] positions = new long[INITIAL_INDEX_SIZE];
+        private int count = 0;
+        private long writePosition = 0;
+        private long lastAppendTime;
+
+        /**
+         * Construct the segment, opening (or creating) its file.
+         * @param  baseOffset   the offset of the first record
+         * @param  file         the segment file
+         * @throws IOException  throws I/O exception when the file cannot be opened
+         */
+        private Segment(final long baseOffset, final Path file) throws IOException {
+            this.baseOffset = baseOffset;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.lastAppendTime = Files.getLastModifiedTime(file).toMillis();
+        }
+
+        /**
+         * Add the file position of the next offset to the index.
+         * @param position  the record file position
+         */
+        private void index(final long position) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+
+            positions[count++] = position;
+        }
+
+        /**
+         * @return  return the offset the next record of the segment would be appended at
+         */
+        private long getNextOffset() {
+            return baseOffset + count;
+        }
+    }
+
+    /**
+     * Construct the offset journal.
+     * @param file  the journal file, i.e. the prefix of its segment files
+     */
+    public ZmqOffsetJournal(final Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Set the size (bytes) a segment is rolled over at, which is also the granularity records are deleted by. The
+     * default is 64MB.
+     * @param segmentSize  the segment size
+     */
+    public synchronized void setSegmentSize(final long segmentSize) {
+        this.segmentSize = Math.max(RECORD_HEADER_SIZE, segmentSize);
+    }
+
+    /**
+     * Set the size (bytes) of the journal beyond which the oldest segments are deleted. Zero (default) for unlimited.
+     * @param retentionSize  the retention size
+     */
+    public synchronized void setRetentionSize(final long retentionSize) {
+        this.retentionSize = Math.max(0, retentionSize);
+    }
+
+    /**
+     * Set the time (milliseconds) since its last record beyond which a segment is deleted. Zero (default) for
+     * unlimited.
+     * @param retentionTime  the retention time
+     */
+    public synchronized void setRetentionTime(final long retentionTime) {
+        this.retentionTime = Math.max(0, retentionTime);
+    }
+
+    /**
+     * Open the journal, creating the first segment when missing, and rebuild the offset index from the records of
+     * the segments on file.
+     * @throws ZmqException  throws I/O based ZMQ exception
+     */
+    public synchronized void open() throws ZmqException {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+
+            segments.clear();
+            totalSize = 0;
+
+            for (long baseOffset : getSegmentOffsets()) {
+                final Segment segment = new Segment(baseOffset, getSegmentFile(baseOffset));
+                final Segment previous = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+                if (previous != null && previous.getNextOffset() != baseOffset) {
+                    // the older segments can no longer be read through to this one
+                    LOGGER.warning("Deleting segment(s) of journal (" + file + ") before missing offset(s): " + previous.getNextOffset()
+                        + " to " + baseOffset);
+
+                    for (Segment olderSegment : segments) {
+                        olderSegment.channel.close();
+                        Files.deleteIfExists(olderSegment.file);
+                    }
+
+                    segments.clear();
+                    totalSize = 0;
+                }
+
+                segment.writePosition = scan(segment);
+
+                if (segment.writePosition < segment.channel.size()) {
+                    LOGGER.warning("Truncating torn record(s) from journal (" + segment.file + ") at position: " + segment.writePosition);
+
+                    segment.channel.truncate(segment.writePosition);
+                }
+
+                segments.add(segment);
+                totalSize += segment.writePosition;
+            }
+
+            if (segments.isEmpty()) {
+                segments.add(new Segment(0, getSegmentFile(0)));
+            }
+
+            retain(System.currentTimeMillis());
+        } catch (IOException ex) {
+            close(segments);
+            segments.clear();
+
+            throw new ZmqException("Unable to open offset journal: " + file, ex);
+        }
+    }
+
+    /**
+     * Return the base offsets of the segment files of the journal, in order.
+     * @return              return the base offsets
+     * @throws IOException  throws I/O exception on directory read failure
+     */
+    private List<Long> getSegmentOffsets() throws IOException {
+        final Path directory = (file.getParent() == null) ? file.toAbsolutePath().getParent() : file.getParent();
+        final String prefix = file.getFileName().toString() + ".";
+        final List<Long> baseOffsets = new ArrayList<Long>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path segmentFile : stream) {
+                final String fileName = segmentFile.getFileName().toString();
+
+                if (fileName.startsWith(prefix) && fileName.substring(prefix.length()).matches("[0-9]+")) {
+                    baseOffsets.add(Long.parseLong(fileName.substring(prefix.length())));
+                }
+            }
+        }
+
+        Collections.sort(baseOffsets);
+
+        return baseOffsets;
+    }
+
+    /**
+     * Return the file of the segment starting at the offset.
+     * @param  baseOffset  the offset of the first record of the segment
+     * @return             return the segment file
+     */
+    private Path getSegmentFile(final long baseOffset) {
+        return file.resolveSibling(file.getFileName().toString() + "." + baseOffset);
+    }
+
+    /**
+     * Scan the records of the segment file into its offset index.
+     * @param  segment      the segment
+     * @return              return the position after the last valid record
+     * @throws IOException  throws I/O exception on read failure
+     */
+    private long scan(final Segment segment) throws IOException {
+        final FileChannel channel = segment.channel;
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        final long size = channel.size();
+        final CRC32 crc = new CRC32();
+
+        ByteBuffer body = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = 0;
+
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+
+            final int length = header.getInt();
+            final int checksum = header.getInt();
+
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+
+            if (body.capacity() < length) {
+                body = ByteBuffer.allocate(length);
+            }
+
+            body.clear();
+            body.limit(length);
+            channel.read(body, position + RECORD_HEADER_SIZE);
+
+            crc.reset();
+            crc.update(body.array(), 0, length);
+
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            segment.index(position);
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        return position;
+    }
+
+    /**
+     * Append the record to the end of the journal, rolling over to a new segment when the current one is full.
+     * @param  record        the record bytes
+     * @return               return the offset of the record
+     * @throws ZmqException  throws I/O based ZMQ exception
+     */
+    public synchronized long append(final byte[] record) throws ZmqException {
+        if (segments.isEmpty()) {
+            throw new ZmqException("Offset journal has not been opened: " + file);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + record.length);
+        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        buffer.flip();
+
+        final long currentTime = System.currentTimeMillis();
+        Segment segment = segments.get(segments.size() - 1);
+
+        try {
+            if (segment.writePosition > 0 && segment.writePosition + buffer.remaining() > segmentSize) {
+                segment.channel.force(false);
+                segment = new Segment(segment.getNextOffset(), getSegmentFile(segment.getNextOffset()));
+                segments.add(segment);
+            }
+
+            long position = segment.writePosition;
+
+            while (buffer.hasRemaining()) {
+                position += segment.channel.write(buffer, position);
+            }
+        } catch (IOException ex) {
+            throw new ZmqException("Unable to append to offset journal: " + file, ex);
+        }
+
+        final long offset = segment.getNextOffset();
+
+        segment.index(segment.writePosition);
+        segment.writePosition += RECORD_HEADER_SIZE + record.length;
+        segment.lastAppendTime = currentTime;
+        totalSize += RECORD_HEADER_SIZE + record.length;
+
+        retain(currentTime);
+
+        return offset;
+    }
+
+    /**
+     * Delete the oldest segments (never the one appended to) beyond the retention size or time.
+     * @param  currentTime   the current time (milliseconds)
+     * @throws ZmqException  throws I/O based ZMQ exception
+     */
+    private void retain(final long currentTime) throws ZmqException {
+        while (segments.size() > 1) {
+            final Segment segment = segments.get(0);
+            final boolean oversized = retentionSize > 0 && totalSize > retentionSize;
+            final boolean expired = retentionTime > 0 && currentTime - segment.lastAppendTime > retentionTime;
+
+            if (!oversized && !expired) {
+                return;
+            }
+
+            segments.remove(0);
+            totalSize -= segment.writePosition;
+
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.file);
+            } catch (IOException ex) {
+                throw new ZmqException("Unable to delete offset journal segment: " + segment.file, ex);
+            }
+
+            LOGGER.info("Deleted segment (" + segment.file + ") of journal " + (oversized ? "beyond retention size" : "beyond retention time")
+                + ", first offset now: " + segments.get(0).baseOffset);
+        }
+    }
+
+    /**
+     * Read the records from the offset with a single sequential read of its segment, up to the maximum number of
+     * records and bytes (at least one record is read when available). A read stops at the end of the segment.
+     * @param  fromOffset    the offset of the first record to read
+     * @param  maxRecords    the maximum number of records
+     * @param  maxBytes      the maximum number of bytes
+     * @return               return the records (empty when the offset is at the end of the journal, or no longer kept)
+     * @throws ZmqException  throws I/O based ZMQ exception
+     */
+    public synchronized List<byte[]> read(final long fromOffset, final int maxRecords, final int maxBytes) throws ZmqException {
+        if (segments.isEmpty()) {
+            throw new ZmqException("Offset journal has not been opened: " + file);
+        }
+
+        Segment segment = null;
+
+        for (int i = segments.size() - 1; i >= 0 && segment == null; i--) {
+            if (segments.get(i).baseOffset <= fromOffset) {
+                segment = segments.get(i);
+            }
+        }
+
+        if (segment == null || fromOffset >= segment.getNextOffset()) {
+            return new ArrayList<byte[]>(0);
+        }
+
+        final int from = (int) (fromOffset - segment.baseOffset);
+        int to = (int) Math.min(segment.count, (long) from + maxRecords);
+
+        final long startPosition = segment.positions[from];
+        long endPosition = (to == segment.count) ? segment.writePosition : segment.positions[to];
+
+        while (to > from + 1 && endPosition - startPosition > maxBytes) {
+            to--;
+            endPosition = segment.positions[to];
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (endPosition - startPosition));
+
+        try {
+            while (buffer.hasRemaining()) {
+                if (segment.channel.read(buffer, startPosition + buffer.position()) < 0) {
+                    throw new ZmqException("Unexpected end of offset journal: " + segment.file);
+                }
+            }
+        } catch (IOException ex) {
+            throw new ZmqException("Unable to read offset journal: " + segment.file, ex);
+        }
+
+        buffer.flip();
+
+        final List<byte[]> records = new ArrayList<byte[]>();
+
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            final int length = buffer.getInt();
+            buffer.getInt();
+
+            final byte[] record = new byte[length];
+            buffer.get(record);
+            records.add(record);
+        }
+
+        return records;
+    }
+
+    /**
+     * @return  return the offset the next record will be appended at, i.e. the number of records ever appended
+     */
+    public synchronized long getNextOffset() {
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getNextOffset();
+    }
+
+    /**
+     * @return  return the offset of the oldest record kept, i.e. the next offset when nothing is kept
+     */
+    public synchronized long getFirstOffset() {
+        return segments.isEmpty() ? 0 : segments.get(0).baseOffset;
+    }
+
+    /**
+     * @return  return the size (bytes) of the records kept
+     */
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return  return the journal file, i.e. the prefix of its segment files
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Force any written records to disk.
+     * @throws ZmqException  throws I/O based ZMQ exception
+     */
+    public synchronized void flush() throws ZmqException {
+        if (segments.isEmpty()) {
+            return;
+        }
+
+        try {
+            segments.get(segments.size() - 1).channel.force(false);
+        } catch (IOException ex) {
+            throw new ZmqException("Unable to flush offset journal: " + file, ex);
+        }
+    }
+
+    /**
+     * Close the journal.
+     * @throws ZmqException  throws I/O based ZMQ exception
+     */
+    public synchronized void close() throws ZmqException {
+        if (segments.isEmpty()) {
+            return;
+        }
+
+        try {
+            segments.get(segments.size() - 1).channel.force(false);
+        } catch (IOException ex) {
+            throw new ZmqException("Unable to close offset journal: " + file, ex);
+        } finally {
+            close(segments);
+            segments.clear();
+        }
+    }
+
+    /**
+     * Close the files of the segments, logging (rather than throwing) any failure.
+     * @param segmentsToClose  the segments
+     */
+    private void close(final List<Segment> segmentsToClose) {
+        for (Segment segment : segmentsToClose) {
+            try {
+                segment.channel.close();
+            } catch (IOException ex) {
+                LOGGER.warning("Unable to close offset journal segment (" + segment.file + "): " + ex.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ZmqOffsetJournal [file=" + file + ", firstOffset=" + getFirstOffset() + ", nextOffset=" + getNextOffset()
+            + ", segments=" + segments.size() + ", size=" + totalSize + "]";
+    }
+}
@@ -0,0 +1,1223 @@
+package org.zeromq.jms.selector;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.zeromq.jms.ZmqMessageProperties;
+import org.zeromq.jms.selector.ZmqSimpleMessageSelector.CompoundTerm;
+import org.zeromq.jms.selector.ZmqSimpleMessageSelector.ExpressionTerm;
+import org.zeromq.jms.selector.ZmqSimpleMessageSelector.FunctionTerm;
+import org.zeromq.jms.selector.ZmqSimpleMessageSelector.ListTerm;
+import org.zeromq.jms.selector.ZmqSimpleMessageSelector.LiteralTerm;
+import org.zeromq.jms.selector.ZmqSimpleMessageSelector.Operator;
+import org.zeromq.jms.selector.ZmqSimpleMessageSelector.VariableTerm;
+
+/**
+ *  Compiled version of the simple SQL selector. The expression is parsed by ZmqSimpleMessageSelector and the resulting
+ *  tree of terms is then compiled once into specialised evaluation nodes, so no "instanceof" walking is done per message.
+ *
+ *  The compilation performs the following:
+ *
+ *      - constant folding of any sub-expression not dependent on a variable (except NOW),
+ *      - short-circuit evaluation of AND/OR,
+ *      - numeric comparison/arithmetic on primitive doubles, reading numeric message properties directly from the
+ *        ZmqMessageProperties primitive slots,
+ *      - LIKE patterns are pre-compiled (simple prefix/suffix/contains patterns avoid regular expressions completely),
+ *      - IN lists of literals are pre-built into a hash set of strings and a sorted array of numbers.
+ *
+ *  Evaluation results match the interpreted selector. This evaluator is thread safe and immutable.
+ */
+public class ZmqCompiledMessageSelector implements ZmqMessageSelector {
+
+    private static final Map<String, Object> NO_VARIABLES = Collections.emptyMap();
+
+    /**
+     * Base class for all compiled evaluation nodes.
+     */
+    abstract static class Node {
+
+        /**
+         * Evaluate the node returning the result as an object, i.e. Boolean, Double, String, etc...
+         * @param variables  the map of variable values
+         * @return           return the result
+         */
+        abstract Object evaluate(Map<String, Object> variables);
+
+        /**
+         * Evaluate the node as a boolean condition.
+         * @param variables  the map of variable values
+         * @return           return the result
+         */
+        boolean test(final Map<String, Object> variables) {
+            final Object result = evaluate(variables);
+
+            if (result instanceof Boolean) {
+                return (Boolean) result;
+            }
+
+            throw new ArithmeticException("Expression does not evaulate to a boolean: " + this);
+        }
+
+        /**
+         * Evaluate the node as a number.
+         * @param variables  the map of variable values
+         * @return           return the result
+         */
+        double number(final Map<String, Object> variables) {
+            final Object result = evaluate(variables);
+
+            if (result instanceof Number) {
+                return ((Number) result).doubleValue();
+            }
+
+            throw new ArithmeticException("Expression does not evaulate to a number: " + this);
+        }
+
+        /**
+         * @return  return true when the node always evaluates to the same value
+         */
+        boolean isConstant() {
+            return false;
+        }
+
+        /**
+         * @return  return true when the node is known (at compile time) to evaluate to a number
+         */
+        boolean isNumeric() {
+            return false;
+        }
+    }
+
+    /**
+     * Constant (literal or folded) node.
+     */
+    static class ConstantNode extends Node {
+        private final Object value;
+
+        /**
+         * Construct constant node.
+         * @param value  the value
+         */
+        ConstantNode(final Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            return value;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        boolean isNumeric() {
+            return value instanceof Number;
+        }
+
+        @Override
+        public String toString() {
+            return (value instanceof String) ? "'" + value + "'" : String.valueOf(value);
+        }
+    }
+
+    /**
+     * Variable node resolved against the message properties.
+     */
+    static class VariableNode extends Node {
+        private final String name;
+
+        /**
+         * Construct variable node.
+         * @param name  the variable name
+         */
+        VariableNode(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            return ZmqSimpleMessageSelector.getValue(variables, name);
+        }
+
+        @Override
+        double number(final Map<String, Object> variables) {
+            if (variables instanceof ZmqMessageProperties) {
+                final ZmqMessageProperties properties = (ZmqMessageProperties) variables;
+
+                if (properties.isNumber(name)) {
+                    return properties.getDouble(name);
+                }
+            }
+
+            return super.number(variables);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Comma separated list node, evaluates to an Object[].
+     */
+    static class ListNode extends Node {
+        private final Node[] nodes;
+
+        /**
+         * Construct list node.
+         * @param nodes  the list items
+         */
+        ListNode(final Node[] nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            final Object[] results = new Object[nodes.length];
+
+            for (int i = 0; i < nodes.length; i++) {
+                results[i] = nodes[i].evaluate(variables);
+            }
+
+            return results;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(nodes);
+        }
+    }
+
+    /**
+     * Short-circuit AND/OR node.
+     */
+    static class LogicalNode extends Node {
+        private final boolean and;
+        private final Node left;
+        private final Node right;
+
+        /**
+         * Construct logical node.
+         * @param and    true for AND, false for OR
+         * @param left   the left node
+         * @param right  the right node
+         */
+        LogicalNode(final boolean and, final Node left, final Node right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            return test(variables);
+        }
+
+        @Override
+        boolean test(final Map<String, Object> variables) {
+            if (and) {
+                return left.test(variables) && right.test(variables);
+            }
+
+            return left.test(variables) || right.test(variables);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + ((and) ? " AND " : " OR ") + right + ")";
+        }
+    }
+
+    /**
+     * Numeric comparison node, i.e. "=", "<", etc... without boxing of either side.
+     */
+    static class NumericCompareNode extends Node {
+        private final Operator operator;
+        private final Node left;
+        private final Node right;
+
+        /**
+         * Construct numeric comparison node.
+         * @param operator  the comparison operator
+         * @param left      the left node
+         * @param right     the right node
+         */
+        NumericCompareNode(final Operator operator, final Node left, final Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            return test(variables);
+        }
+
+        @Override
+        boolean test(final Map<String, Object> variables) {
+            final double value1 = left.number(variables);
+            final double value2 = right.number(variables);
+
+            switch (operator) {
+            case EQUAL:
+                return (value1 == value2);
+            case GREATER:
+                return (value1 > value2);
+            case GREATER_EQUAL:
+                return (value1 >= value2);
+            case LESS:
+                return (value1 < value2);
+            case LESS_EQUAL:
+                return (value1 <= value2);
+            case NOT_EQUAL:
+                return (value1 != value2);
+            default:
+                throw new ArithmeticException("Unsupported compound operator: " + operator);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " " + operator + " " + right + ")";
+        }
+    }
+
+    /**
+     * Numeric arithmetic node, i.e. "+", "-", "*", etc... without boxing of either side.
+     */
+    static class ArithmeticNode extends Node {
+        private final Operator operator;
+        private final Node left;
+        private final Node right;
+
+        /**
+         * Construct numeric arithmetic node.
+         * @param operator  the arithmetic operator
+         * @param left      the left node
+         * @param right     the right node
+         */
+        ArithmeticNode(final Operator operator, final Node left, final Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            return number(variables);
+        }
+
+        @Override
+        double number(final Map<String, Object> variables) {
+            final double value1 = left.number(variables);
+            final double value2 = right.number(variables);
+
+            switch (operator) {
+            case ADDITION:
+                return value1 + value2;
+            case SUBSTRACT:
+                return value1 - value2;
+            case MULTIPLY:
+                return value1 * value2;
+            case DIVISION:
+                return value1 / value2;
+            case POW:
+                return Math.pow(value1, value2);
+            default:
+                throw new ArithmeticException("Unsupported compound operator: " + operator);
+            }
+        }
+
+        @Override
+        boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " " + operator + " " + right + ")";
+        }
+    }
+
+    /**
+     * Generic binary operator node where the operand types are only known at evaluation time.
+     */
+    static class BinaryNode extends Node {
+        private final Operator operator;
+        private final Node left;
+        private final Node right;
+
+        /**
+         * Construct generic binary node.
+         * @param operator  the operator
+         * @param left      the left node
+         * @param right     the right node
+         */
+        BinaryNode(final Operator operator, final Node left, final Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            final Object leftValue = left.evaluate(variables);
+            final Object rightValue = right.evaluate(variables);
+
+            try {
+                return ZmqSimpleMessageSelector.evaluate(leftValue, operator, rightValue);
+            } catch (RuntimeException ex) {
+                throw new ArithmeticException("Unable to evaulate: " + this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " " + operator + " " + right + ")";
+        }
+    }
+
+    /**
+     * BETWEEN node, using primitive comparison when the range is numeric.
+     */
+    static class BetweenNode extends Node {
+        private final Node value;
+        private final Node from;
+        private final Node to;
+        private final boolean numeric;
+
+        /**
+         * Construct between node.
+         * @param value  the value node
+         * @param from   the (inclusive) from node
+         * @param to     the (exclusive) to node
+         */
+        BetweenNode(final Node value, final Node from, final Node to) {
+            this.value = value;
+            this.from = from;
+            this.to = to;
+            this.numeric = value.isNumeric() || from.isNumeric() || to.isNumeric();
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            return test(variables);
+        }
+
+        @Override
+        boolean test(final Map<String, Object> variables) {
+            if (numeric) {
+                final double result = value.number(variables);
+
+                return result >= from.number(variables) && result < to.number(variables);
+            }
+
+            final Object result = value.evaluate(variables);
+
+            return (Boolean) ZmqSimpleMessageSelector.evaluate(result, Operator.GREATER_EQUAL, from.evaluate(variables))
+                    && (Boolean) ZmqSimpleMessageSelector.evaluate(result, Operator.LESS, to.evaluate(variables));
+        }
+
+        @Override
+        public String toString() {
+            return "(" + value + " BETWEEN " + from + " AND " + to + ")";
+        }
+    }
+
+    /**
+     * IS NULL/IS NOT NULL node.
+     */
+    static class NullNode extends Node {
+        private final Node value;
+        private final boolean isNull;
+
+        /**
+         * Construct null check node.
+         * @param value   the value node
+         * @param isNull  true for IS NULL, false for IS NOT NULL
+         */
+        NullNode(final Node value, final boolean isNull) {
+            this.value = value;
+            this.isNull = isNull;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            return test(variables);
+        }
+
+        @Override
+        boolean test(final Map<String, Object> variables) {
+            return (value.evaluate(variables) == null) == isNull;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + value + ((isNull) ? " IS NULL)" : " IS NOT NULL)");
+        }
+    }
+
+    /**
+     * LIKE node with a pre-compiled pattern.
+     */
+    static class LikeNode extends Node {
+        private static final int EQUALS = 0;
+        private static final int STARTS_WITH = 1;
+        private static final int ENDS_WITH = 2;
+        private static final int CONTAINS = 3;
+        private static final int REGEX = 4;
+
+        private final Node value;
+        private final int match;
+        private final String text;
+        private final Pattern regex;
+
+        /**
+         * Construct like node for a literal pattern, where "%" matches any sequence and "_" any single character.
+         * @param value    the value node
+         * @param pattern  the SQL like pattern
+         */
+        LikeNode(final Node value, final String pattern) {
+            this.value = value;
+
+            final int wildcard = pattern.indexOf('%');
+            final boolean anyChar = pattern.indexOf('_') >= 0;
+            final String inner = (pattern.length() > 1) ? pattern.substring(1, pattern.length() - 1) : "";
+
+            if (anyChar) {
+                match = REGEX;
+                text = pattern;
+            } else if (wildcard < 0) {
+                match = EQUALS;
+                text = pattern;
+            } else if (wildcard == pattern.length() - 1) {
+                match = STARTS_WITH;
+                text = pattern.substring(0, wildcard);
+            } else if (wildcard == 0 && pattern.lastIndexOf('%') == 0) {
+                match = ENDS_WITH;
+                text = pattern.substring(1);
+            } else if (pattern.length() > 1 && pattern.endsWith("%") && wildcard == 0 && inner.indexOf('%') < 0) {
+                match = CONTAINS;
+                text = inner;
+            } else {
+                match = REGEX;
+                text = pattern;
+            }
+
+            this.regex = (match == REGEX) ? Pattern.compile(ZmqSimpleMessageSelector.toRegex(pattern), Pattern.DOTALL) : null;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            return test(variables);
+        }
+
+        @Override
+        boolean test(final Map<String, Object> variables) {
+            final Object result = value.evaluate(variables);
+
+            if (result == null) {
+                return false;
+            }
+
+            if (!(result instanceof String)) {
+                throw new ArithmeticException("Unsupported LIKE value (" + result.getClass() + ") for: " + this);
+            }
+
+            final String string = (String) result;
+
+            switch (match) {
+            case EQUALS:
+                return string.equals(text);
+            case STARTS_WITH:
+                return string.startsWith(text);
+            case ENDS_WITH:
+                return string.endsWith(text);
+            case CONTAINS:
+                return string.contains(text);
+            default:
+                return regex.matcher(string).matches();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "(" + value + " LIKE '" + text + "')";
+        }
+    }
+
+    /**
+     * IN node with the literal list pre-built into a set of strings and a sorted array of numbers.
+     */
+    static class InNode extends Node {
+        private final Node value;
+        private final Set<String> strings = new HashSet<String>();
+        private final double[] numbers;
+        private final Object[] others;
+
+        /**
+         * Construct IN node for a list of constant values.
+         * @param value   the value node
+         * @param values  the list of constant values
+         */
+        InNode(final Node value, final Object[] values) {
+            this.value = value;
+
+            final List<Double> numberList = new ArrayList<Double>();
+            final List<Object> otherList = new ArrayList<Object>();
+
+            for (Object item : values) {
+                if (item instanceof String) {
+                    strings.add((String) item);
+                } else if (item instanceof Number) {
+                    // normalise -0.0 to 0.0 so the binary search matches "=" semantics
+                    numberList.add(((Number) item).doubleValue() + 0.0);
+                } else {
+                    otherList.add(item);
+                }
+            }
+
+            numbers = new double[numberList.size()];
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = numberList.get(i);
+            }
+            Arrays.sort(numbers);
+
+            others = otherList.toArray();
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            return test(variables);
+        }
+
+        @Override
+        boolean test(final Map<String, Object> variables) {
+            final Object result = value.evaluate(variables);
+
+            if (result == null) {
+                return false;
+            }
+
+            if (result instanceof String) {
+                return strings.contains(result);
+            }
+
+            if (result instanceof Number) {
+                return Arrays.binarySearch(numbers, ((Number) result).doubleValue() + 0.0) >= 0;
+            }
+
+            for (Object other : others) {
+                if ((Boolean) ZmqSimpleMessageSelector.evaluate(result, Operator.EQUAL, other)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + value + " IN " + strings + Arrays.toString(numbers) + Arrays.toString(others) + ")";
+        }
+    }
+
+    /**
+     * Generic function node, i.e. ROUND, LEN, FORMAT, IN (with variable list items), etc...
+     */
+    static class FunctionNode extends Node {
+        private final Operator operator;
+        private final Node[] parameters;
+
+        /**
+         * Construct function node.
+         * @param operator    the function operator
+         * @param parameters  the parameter nodes
+         */
+        FunctionNode(final Operator operator, final Node[] parameters) {
+            this.operator = operator;
+            this.parameters = parameters;
+        }
+
+        @Override
+        Object evaluate(final Map<String, Object> variables) {
+            final Object[] results = new Object[parameters.length];
+
+            for (int i = 0; i < parameters.length; i++) {
+                results[i] = parameters[i].evaluate(variables);
+            }
+
+            return ZmqSimpleMessageSelector.evaluate(operator, results);
+        }
+
+        @Override
+        boolean isNumeric() {
+            return operator == Operator.ROUND || operator == Operator.LEN;
+        }
+
+        @Override
+        public String toString() {
+            return operator + Arrays.toString(parameters);
+        }
+    }
+
+    /**
+     * Predicate on a single variable that can be used to index selectors, i.e. "var = 'x'", "var IN (1, 2)",
+     * "var > 10", "var BETWEEN 1 AND 5", etc... Equality predicates have values (String/Double), otherwise
+     * it is a numeric range.
+     */
+    static class IndexPredicate {
+        private final String name;
+        private final Object[] values;
+        private final double low;
+        private final boolean lowInclusive;
+        private final double high;
+        private final boolean highInclusive;
+        private final boolean exact;
+
+        /**
+         * Construct an equality predicate.
+         * @param name    the variable name
+         * @param values  the values (String or Double)
+         * @param exact   true when the predicate is the whole selector expression
+         */
+        IndexPredicate(final String name, final Object[] values, final boolean exact) {
+            this(name, values, Double.NEGATIVE_INFINITY, false, Double.POSITIVE_INFINITY, false, exact);
+        }
+
+        /**
+         * Construct a range predicate.
+         * @param name           the variable name
+         * @param low            the low bound
+         * @param lowInclusive   the low bound is inclusive
+         * @param high           the high bound
+         * @param highInclusive  the high bound is inclusive
+         * @param exact          true when the predicate is the whole selector expression
+         */
+        IndexPredicate(final String name, final double low, final boolean lowInclusive, final double high, final boolean highInclusive,
+            final boolean exact) {
+
+            this(name, null, low, lowInclusive, high, highInclusive, exact);
+        }
+
+        /**
+         * Construct the predicate.
+         * @param name           the variable name
+         * @param values         the equality values, or null for a range
+         * @param low            the low bound
+         * @param lowInclusive   the low bound is inclusive
+         * @param high           the high bound
+         * @param highInclusive  the high bound is inclusive
+         * @param exact          true when the predicate is the whole selector expression
+         */
+        private IndexPredicate(final String name, final Object[] values, final double low, final boolean lowInclusive, final double high,
+            final boolean highInclusive, final boolean exact) {
+
+            this.name = name;
+            this.values = values;
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.exact = exact;
+        }
+
+        /**
+         * @return  return the variable name
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return  return the equality values (String or Double), or null for a range
+         */
+        Object[] getValues() {
+            return values;
+        }
+
+        /**
+         * @return  return the low bound of the range
+         */
+        double getLow() {
+            return low;
+        }
+
+        /**
+         * Return true when the value is within the range.
+         * @param value  the value
+         * @return       return true when within range
+         */
+        boolean inRange(final double value) {
+            return ((lowInclusive) ? value >= low : value > low) && ((highInclusive) ? value <= high : value < high);
+        }
+
+        /**
+         * @return  return true when the predicate is the whole selector expression (no further evaluation needed)
+         */
+        boolean isExact() {
+            return exact;
+        }
+
+        @Override
+        public String toString() {
+            if (values != null) {
+                return "IndexPredicate [name=" + name + ", values=" + Arrays.toString(values) + ", exact=" + exact + "]";
+            }
+
+            return "IndexPredicate [name=" + name + ", range=" + ((lowInclusive) ? "[" : "(") + low + "," + high + ((highInclusive) ? "]" : ")")
+                + ", exact=" + exact + "]";
+        }
+    }
+
+    private final String expression;
+    private final Node rootNode;
+
+    /**
+     * Construct a compiled message selector.
+     * @param expression  the original expression
+     * @param rootNode    the compiled root node
+     */
+    ZmqCompiledMessageSelector(final String expression, final Node rootNode) {
+        this.expression = expression;
+        this.rootNode = rootNode;
+    }
+
+    /**
+     * Parse and compile the expression returning a newly constructed and immutable selector.
+     * @param expression       the string expression to parse
+     * @return                 return the selector ready to perform evaluations
+     * @throws ParseException  throws parse exception
+     */
+    public static ZmqMessageSelector compile(final String expression) throws ParseException {
+        final ExpressionTerm expressionTerm = ZmqSimpleMessageSelector.parseExpression(expression);
+        final Node rootNode = compile(expressionTerm);
+
+        return new ZmqCompiledMessageSelector(expression, rootNode);
+    }
+
+    /**
+     * Compile the term (and its children) into an evaluation node.
+     * @param term             the term
+     * @return                 return the node
+     * @throws ParseException  throws parse exception on an unsupported term
+     */
+    private static Node compile(final ExpressionTerm term) throws ParseException {
+        if (term instanceof LiteralTerm) {
+            return new ConstantNode(((LiteralTerm) term).getLiteral());
+        }
+
+        if (term instanceof VariableTerm) {
+            return new VariableNode(((VariableTerm) term).getName());
+        }
+
+        if (term instanceof ListTerm) {
+            final List<ExpressionTerm> terms = ((ListTerm) term).getTerms();
+
+            return fold(new ListNode(compile(terms.toArray(new ExpressionTerm[terms.size()]))));
+        }
+
+        if (term instanceof FunctionTerm) {
+            return compileFunction((FunctionTerm) term);
+        }
+
+        if (term instanceof CompoundTerm) {
+            return compileCompound((CompoundTerm) term);
+        }
+
+        throw new ParseException("Unable to compile term: " + term, -1);
+    }
+
+    /**
+     * Compile an array of terms.
+     * @param terms            the terms
+     * @return                 return the nodes
+     * @throws ParseException  throws parse exception on an unsupported term
+     */
+    private static Node[] compile(final ExpressionTerm[] terms) throws ParseException {
+        final Node[] nodes = new Node[terms.length];
+
+        for (int i = 0; i < terms.length; i++) {
+            nodes[i] = compile(terms[i]);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Compile a function term, i.e. LIKE, IN, BETWEEN, etc...
+     * @param function         the function term
+     * @return                 return the node
+     * @throws ParseException  throws parse exception on an unsupported term
+     */
+    private static Node compileFunction(final FunctionTerm function) throws ParseException {
+        final Node[] parameters = compile(function.getParameters());
+
+        switch (function.getOperator()) {
+        case BETWEEN:
+            return fold(new BetweenNode(parameters[0], parameters[1], parameters[2]));
+
+        case IS_NULL:
+        case IS_NOT_NULL:
+            return fold(new NullNode(parameters[0], function.getOperator() == Operator.IS_NULL));
+
+        case LIKE:
+            if (parameters[1].isConstant() && parameters[1].evaluate(NO_VARIABLES) instanceof String) {
+                return fold(new LikeNode(parameters[0], (String) parameters[1].evaluate(NO_VARIABLES)));
+            }
+            break;
+
+        case IN:
+            if (parameters[1].isConstant()) {
+                final Object values = parameters[1].evaluate(NO_VARIABLES);
+                final Object[] list = (values instanceof Object[]) ? (Object[]) values : new Object[] { values };
+
+                return fold(new InNode(parameters[0], list));
+            }
+            break;
+
+        case NOW:
+            return new FunctionNode(function.getOperator(), parameters);
+
+        default:
+            break;
+        }
+
+        return fold(new FunctionNode(function.getOperator(), parameters));
+    }
+
+    /**
+     * Compile a compound term, i.e. AND, OR, =, +, etc...
+     * @param compound         the compound term
+     * @return                 return the node
+     * @throws ParseException  throws parse exception on an unsupported term
+     */
+    private static Node compileCompound(final CompoundTerm compound) throws ParseException {
+        final Node left = compile(compound.getLeftTerm());
+        final Node right = compile(compound.getRightTerm());
+
+        switch (compound.getOperator()) {
+        case AND:
+        case OR:
+            final boolean and = (compound.getOperator() == Operator.AND);
+
+            if (left.isConstant() && left.evaluate(NO_VARIABLES) instanceof Boolean) {
+                final boolean result = (Boolean) left.evaluate(NO_VARIABLES);
+
+                // i.e. "false AND x" or "true OR x" never need the right side
+                if (result != and) {
+                    return left;
+                }
+            }
+
+            return fold(new LogicalNode(and, left, right));
+
+        case EQUAL:
+        case GREATER:
+        case GREATER_EQUAL:
+        case LESS:
+        case LESS_EQUAL:
+        case NOT_EQUAL:
+            if (left.isNumeric() || right.isNumeric()) {
+                return fold(new NumericCompareNode(compound.getOperator(), left, right));
+            }
+            break;
+
+        case ADDITION:
+            // only numeric when both sides are known, otherwise it may be a string concatenation
+            if (left.isNumeric() && right.isNumeric()) {
+                return fold(new ArithmeticNode(compound.getOperator(), left, right));
+            }
+            break;
+
+        case SUBSTRACT:
+        case MULTIPLY:
+        case DIVISION:
+        case POW:
+            return fold(new ArithmeticNode(compound.getOperator(), left, right));
+
+        default:
+            break;
+        }
+
+        return fold(new BinaryNode(compound.getOperator(), left, right));
+    }
+
+    /**
+     * Replace the node with a constant when all its children are constants (constant folding). Nodes that fail
+     * evaluation are kept so the failure is reported at evaluation time as per the interpreter.
+     * @param node  the node
+     * @return      return the constant node, or the original node
+     */
+    private static Node fold(final Node node) {
+        for (Node child : getChildren(node)) {
+            if (!child.isConstant()) {
+                return node;
+            }
+        }
+
+        try {
+            return new ConstantNode(node.evaluate(NO_VARIABLES));
+        } catch (RuntimeException ex) {
+            return node;
+        }
+    }
+
+    /**
+     * Return the child nodes of the specified node.
+     * @param node  the node
+     * @return      return the children
+     */
+    private static Node[] getChildren(final Node node) {
+        if (node instanceof ListNode) {
+            return ((ListNode) node).nodes;
+        } else if (node instanceof LogicalNode) {
+            return new Node[] { ((LogicalNode) node).left, ((LogicalNode) node).right };
+        } else if (node instanceof NumericCompareNode) {
+            return new Node[] { ((NumericCompareNode) node).left, ((NumericCompareNode) node).right };
+        } else if (node instanceof ArithmeticNode) {
+            return new Node[] { ((ArithmeticNode) node).left, ((ArithmeticNode) node).right };
+        } else if (node instanceof BinaryNode) {
+            return new Node[] { ((BinaryNode) node).left, ((BinaryNode) node).right };
+        } else if (node instanceof BetweenNode) {
+            return new Node[] { ((BetweenNode) node).value, ((BetweenNode) node).from, ((BetweenNode) node).to };
+        } else if (node instanceof NullNode) {
+            return new Node[] { ((NullNode) node).value };
+        } else if (node instanceof LikeNode) {
+            return new Node[] { ((LikeNode) node).value };
+        } else if (node instanceof InNode) {
+            return new Node[] { ((InNode) node).value };
+        } else if (node instanceof FunctionNode) {
+            return ((FunctionNode) node).parameters;
+        }
+
+        return new Node[0];
+    }
+
+    /**
+     * Return the predicate (from the top level AND conditions) best suited to index this selector, preferring
+     * equality predicates over ranges. Messages not matching the predicate can never match the selector.
+     * @return  return the index predicate, or null when the selector cannot be indexed
+     */
+    IndexPredicate getIndexPredicate() {
+        final List<Node> conditions = new ArrayList<Node>();
+        collectConditions(rootNode, conditions);
+
+        final boolean exact = (conditions.size() == 1);
+        IndexPredicate rangePredicate = null;
+
+        for (Node condition : conditions) {
+            final IndexPredicate predicate = getIndexPredicate(condition, exact);
+
+            if (predicate != null && predicate.getValues() != null) {
+                return predicate;
+            }
+
+            if (rangePredicate == null) {
+                rangePredicate = predicate;
+            }
+        }
+
+        return rangePredicate;
+    }
+
+    /**
+     * Return the string values a variable must equal for the selector to match, based on an "=" or "IN" condition
+     * within the top level AND conditions, i.e. "Region IN ('NASA', 'APAC') AND Price > 10" for "Region" returns
+     * NASA and APAC. This enables the values to be pushed down into transport level filters.
+     * @param name  the variable name
+     * @return      return the values, or null when the selector does not restrict the variable to strings values
+     */
+    public String[] getStringValues(final String name) {
+        final List<Node> conditions = new ArrayList<Node>();
+        collectConditions(rootNode, conditions);
+
+        for (Node condition : conditions) {
+            final IndexPredicate predicate = getIndexPredicate(condition, false);
+
+            if (predicate == null || predicate.getValues() == null || !predicate.getName().equals(name)) {
+                continue;
+            }
+
+            final Object[] values = predicate.getValues();
+            final String[] strings = new String[values.length];
+
+            for (int i = 0; i < values.length; i++) {
+                if (!(values[i] instanceof String)) {
+                    return null;
+                }
+
+                strings[i] = (String) values[i];
+            }
+
+            return strings;
+        }
+
+        return null;
+    }
+
+    /**
+     * Flatten the top level AND conditions.
+     * @param node        the node
+     * @param conditions  the list of conditions to populate
+     */
+    private static void collectConditions(final Node node, final List<Node> conditions) {
+        if (node instanceof LogicalNode && ((LogicalNode) node).and) {
+            collectConditions(((LogicalNode) node).left, conditions);
+            collectConditions(((LogicalNode) node).right, conditions);
+        } else {
+            conditions.add(node);
+        }
+    }
+
+    /**
+     * Return the index predicate for the condition node.
+     * @param node   the condition node
+     * @param exact  true when the condition is the whole selector expression
+     * @return       return the predicate, or null when not indexable
+     */
+    private static IndexPredicate getIndexPredicate(final Node node, final boolean exact) {
+        if (node instanceof BinaryNode) {
+            final BinaryNode binary = (BinaryNode) node;
+
+            if (binary.operator == Operator.EQUAL) {
+                final String name = getVariableName(binary.left, binary.right);
+                final Object value = getConstant(binary.left, binary.right);
+
+                if (name != null && value instanceof String) {
+                    return new IndexPredicate(name, new Object[] { value }, exact);
+                }
+            }
+        } else if (node instanceof NumericCompareNode) {
+            final NumericCompareNode compare = (NumericCompareNode) node;
+            final String name = getVariableName(compare.left, compare.right);
+            final Object value = getConstant(compare.left, compare.right);
+
+            if (name == null || !(value instanceof Number)) {
+                return null;
+            }
+
+            final double number = ((Number) value).doubleValue() + 0.0;
+            // normalise to "variable <operator> constant"
+            final boolean swap = (compare.right instanceof VariableNode);
+
+            switch (compare.operator) {
+            case EQUAL:
+                return new IndexPredicate(name, new Object[] { number }, exact);
+            case GREATER:
+                return (swap) ? new IndexPredicate(name, Double.NEGATIVE_INFINITY, false, number, false, exact)
+                    : new IndexPredicate(name, number, false, Double.POSITIVE_INFINITY, false, exact);
+            case GREATER_EQUAL:
+                return (swap) ? new IndexPredicate(name, Double.NEGATIVE_INFINITY, false, number, true, exact)
+                    : new IndexPredicate(name, number, true, Double.POSITIVE_INFINITY, false, exact);
+            case LESS:
+                return (swap) ? new IndexPredicate(name, number, false, Double.POSITIVE_INFINITY, false, exact)
+                    : new IndexPredicate(name, Double.NEGATIVE_INFINITY, false, number, false, exact);
+            case LESS_EQUAL:
+                return (swap) ? new IndexPredicate(name, number, true, Double.POSITIVE_INFINITY, false, exact)
+                    : new IndexPredicate(name, Double.NEGATIVE_INFINITY, false, number, true, exact);
+            default:
+                return null;
+            }
+        } else if (node instanceof InNode) {
+            final InNode in = (InNode) node;
+
+            if (in.value instanceof VariableNode && in.others.length == 0) {
+                final List<Object> values = new ArrayList<Object>(in.strings);
+
+                for (double number : in.numbers) {
+                    values.add(number);
+                }
+
+                return new IndexPredicate(((VariableNode) in.value).name, values.toArray(), exact);
+            }
+        } else if (node instanceof BetweenNode) {
+            final BetweenNode between = (BetweenNode) node;
+
+            if (between.value instanceof VariableNode && between.from.isConstant() && between.to.isConstant()
+                    && between.from.isNumeric() && between.to.isNumeric()) {
+
+                final double from = between.from.number(NO_VARIABLES);
+                final double to = between.to.number(NO_VARIABLES);
+
+                return new IndexPredicate(((VariableNode) between.value).name, from, true, to, false, exact);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return the variable name when one side is a variable and the other a constant.
+     * @param left   the left node
+     * @param right  the right node
+     * @return       return the variable name, or null
+     */
+    private static String getVariableName(final Node left, final Node right) {
+        if (left instanceof VariableNode && right.isConstant()) {
+            return ((VariableNode) left).name;
+        } else if (right instanceof VariableNode && left.isConstant()) {
+            return ((VariableNode) right).name;
+        }
+
+        return null;
+    }
+
+    /**
+     * Return the constant value when one side is a variable and the other a constant.
+     * @param left   the left node
+     * @param right  the right node
+     * @return       return the constant value, or null
+     */
+    private static Object getConstant(final Node left, final Node right) {
+        if (left instanceof VariableNode && right.isConstant()) {
+            return right.evaluate(NO_VARIABLES);
+        } else if (right instanceof VariableNode && left.isConstant()) {
+            return left.evaluate(NO_VARIABLES);
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean evaluate(final Map<String, Object> variables) {
+        return rootNode.test(variables);
+    }
+
+    /**
+     * @return  return the original expression
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return  return true when the expression was folded to a constant, i.e. "1 = 1"
+     */
+    public boolean isConstant() {
+        return rootNode.isConstant();
+    }
+
+    @Override
+    public String toString() {
+        return "ZmqCompiledMessageSelector [expression=" + expression + ", rootNode=" + rootNode + "]";
+    }
+}
@@ -8,6 +8,8 @@ package org.zeromq.jms.selector;
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
 import java.text.ParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.zeromq.jms.annotation.ZmqComponent;
 import org.zeromq.jms.annotation.ZmqUriParameter;
@@ -15,11 +17,19 @@ import org.zeromq.jms.annotation.ZmqUriParameter;
 /**
  * ZmqSelectory factory class used to construct ZmqMessageSelector. This class can be
  * sub-classed to implement specialized message selectors.
+ *
+ * The default implementation compiles the expression (see ZmqCompiledMessageSelector) and caches
+ * the result, since compiled selectors are immutable and can be shared by all consumers using the
+ * same expression.
  */
 @ZmqComponent("sql")
 @ZmqUriParameter("selector")
 public class ZmqMessageSelectorFactory {
 
+    private static final int MAX_CACHE_SIZE = 1024;
+
+    private static final ConcurrentMap<String, ZmqMessageSelector> CACHE = new ConcurrentHashMap<String, ZmqMessageSelector>();
+
     /**
      * Parse the expression return and newly construct and immutable .
      * @param expression       the string expression to parse
@@ -27,7 +37,23 @@ public class ZmqMessageSelectorFactory {
      * @throws ParseException  throws parse exception
      */
     public ZmqMessageSelector parse(final String expression) throws ParseException {
+        ZmqMessageSelector selector = CACHE.get(expression);
+
+        if (selector == null) {
+            selector = ZmqCompiledMessageSelector.compile(expression);
+
+            // simple bound on the cache, expressions are normally a small fixed set
+            if (CACHE.size() >= MAX_CACHE_SIZE) {
+                CACHE.clear();
+            }
+
+            final ZmqMessageSelector existingSelector = CACHE.putIfAbsent(expression, selector);
+
+            if (existingSelector != null) {
+                selector = existingSelector;
+            }
+        }
 
-        return ZmqSimpleMessageSelector.parse(expression);
+        return selector;
     }
 }
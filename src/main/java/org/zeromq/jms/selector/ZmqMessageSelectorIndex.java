@@ -0,0 +1,314 @@
+package org.zeromq.jms.selector;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.jms.selector.ZmqCompiledMessageSelector.IndexPredicate;
+
+/**
+ * Index of the message selectors for many consumers of the same destination, so a message can be matched
+ * against all of them in one pass instead of evaluating every selector.
+ *
+ * Each compiled selector is indexed on one of its top level AND conditions:
+ *
+ *      - equality and IN predicates on a property are grouped into hash lookups by value,
+ *      - numeric range predicates (>, >=, <, <=, BETWEEN) into a map sorted by the lower bound.
+ *
+ * Only the consumers found by the lookups have their full selector evaluated (not even that when the predicate
+ * is the whole expression). Selectors that cannot be indexed are evaluated for every message as before, and
+ * consumers without a selector always match.
+ *
+ * Registration re-builds an immutable snapshot of the index, so matching is lock free. It is assumed consumers
+ * are registered far less often than messages are matched.
+ *
+ * @param <T>  the consumer type
+ */
+public class ZmqMessageSelectorIndex<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(ZmqMessageSelectorIndex.class.getCanonicalName());
+
+    /**
+     * Consumer and its selector.
+     *
+     * @param <T>  the consumer type
+     */
+    private static class Entry<T> {
+        private final T consumer;
+        private final ZmqMessageSelector selector;
+        private final IndexPredicate predicate;
+
+        /**
+         * Construct the entry.
+         * @param consumer   the consumer
+         * @param selector   the selector
+         * @param predicate  the index predicate, or null when not indexed
+         */
+        Entry(final T consumer, final ZmqMessageSelector selector, final IndexPredicate predicate) {
+            this.consumer = consumer;
+            this.selector = selector;
+            this.predicate = predicate;
+        }
+
+        /**
+         * Return true when the full selector matches.
+         * @param variables  the message properties
+         * @return           return true on match
+         */
+        boolean evaluate(final Map<String, Object> variables) {
+            if (predicate != null && predicate.isExact()) {
+                return true;
+            }
+
+            try {
+                return selector.evaluate(variables);
+            } catch (ArithmeticException ex) {
+                if (LOGGER.isLoggable(Level.FINEST)) {
+                    LOGGER.log(Level.FINEST, "Selector evaluation failed for consumer: " + consumer, ex);
+                }
+
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Index of the selectors with a predicate on a single property.
+     *
+     * @param <T>  the consumer type
+     */
+    private static class PropertyIndex<T> {
+        private final Map<String, List<Entry<T>>> strings = new HashMap<String, List<Entry<T>>>();
+        private final Map<Double, List<Entry<T>>> numbers = new HashMap<Double, List<Entry<T>>>();
+        private final NavigableMap<Double, List<Entry<T>>> ranges = new TreeMap<Double, List<Entry<T>>>();
+
+        /**
+         * Add the entry to the index.
+         * @param entry  the entry
+         */
+        void add(final Entry<T> entry) {
+            final IndexPredicate predicate = entry.predicate;
+
+            if (predicate.getValues() == null) {
+                add(ranges, predicate.getLow(), entry);
+                return;
+            }
+
+            for (Object value : predicate.getValues()) {
+                if (value instanceof String) {
+                    add(strings, (String) value, entry);
+                } else {
+                    add(numbers, (Double) value, entry);
+                }
+            }
+        }
+
+        /**
+         * Add the entry to the map of lists.
+         * @param map    the map
+         * @param key    the key
+         * @param entry  the entry
+         * @param <K>    the key type
+         */
+        private <K> void add(final Map<K, List<Entry<T>>> map, final K key, final Entry<T> entry) {
+            List<Entry<T>> entries = map.get(key);
+
+            if (entries == null) {
+                entries = new ArrayList<Entry<T>>();
+                map.put(key, entries);
+            } else if (entries.get(entries.size() - 1) == entry) {
+                // duplicate value in the same IN list
+                return;
+            }
+
+            entries.add(entry);
+        }
+
+        /**
+         * Add the matching consumers for the property value.
+         * @param value      the property value
+         * @param variables  the message properties
+         * @param matches    the list of matching consumers to populate
+         */
+        void match(final Object value, final Map<String, Object> variables, final List<T> matches) {
+            if (value instanceof String) {
+                match(strings.get(value), variables, matches);
+            } else if (value instanceof Number) {
+                final double number = ((Number) value).doubleValue() + 0.0;
+
+                match(numbers.get(number), variables, matches);
+
+                for (List<Entry<T>> entries : ranges.headMap(number, true).values()) {
+                    for (Entry<T> entry : entries) {
+                        if (entry.predicate.inRange(number) && entry.evaluate(variables)) {
+                            matches.add(entry.consumer);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add the consumers of the entries whose full selector match.
+         * @param entries    the entries, or null
+         * @param variables  the message properties
+         * @param matches    the list of matching consumers to populate
+         */
+        private void match(final List<Entry<T>> entries, final Map<String, Object> variables, final List<T> matches) {
+            if (entries == null) {
+                return;
+            }
+
+            for (Entry<T> entry : entries) {
+                if (entry.evaluate(variables)) {
+                    matches.add(entry.consumer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Immutable snapshot of the index.
+     *
+     * @param <T>  the consumer type
+     */
+    private static class Snapshot<T> {
+        private final List<T> unconditional = new ArrayList<T>();
+        private final List<Entry<T>> unindexed = new ArrayList<Entry<T>>();
+        private final Map<String, PropertyIndex<T>> properties = new HashMap<String, PropertyIndex<T>>();
+
+        /**
+         * Construct the snapshot from the registered consumers.
+         * @param selectors  the consumers and their selectors
+         */
+        Snapshot(final Map<T, ZmqMessageSelector> selectors) {
+            for (Map.Entry<T, ZmqMessageSelector> selector : selectors.entrySet()) {
+                final T consumer = selector.getKey();
+                final ZmqMessageSelector messageSelector = selector.getValue();
+
+                if (messageSelector == null) {
+                    unconditional.add(consumer);
+                    continue;
+                }
+
+                final IndexPredicate predicate = (messageSelector instanceof ZmqCompiledMessageSelector)
+                    ? ((ZmqCompiledMessageSelector) messageSelector).getIndexPredicate() : null;
+
+                final Entry<T> entry = new Entry<T>(consumer, messageSelector, predicate);
+
+                if (predicate == null) {
+                    unindexed.add(entry);
+                    continue;
+                }
+
+                PropertyIndex<T> index = properties.get(predicate.getName());
+
+                if (index == null) {
+                    index = new PropertyIndex<T>();
+                    properties.put(predicate.getName(), index);
+                }
+
+                index.add(entry);
+            }
+        }
+
+        /**
+         * Return the consumers matching the message properties.
+         * @param variables  the message properties
+         * @return           return the matching consumers
+         */
+        List<T> match(final Map<String, Object> variables) {
+            final List<T> matches = new ArrayList<T>(unconditional);
+
+            for (Entry<T> entry : unindexed) {
+                if (entry.evaluate(variables)) {
+                    matches.add(entry.consumer);
+                }
+            }
+
+            for (Map.Entry<String, PropertyIndex<T>> property : properties.entrySet()) {
+                final Object value;
+
+                try {
+                    value = ZmqSimpleMessageSelector.getValue(variables, property.getKey());
+                } catch (ArithmeticException ex) {
+                    continue;
+                }
+
+                if (value != null) {
+                    property.getValue().match(value, variables, matches);
+                }
+            }
+
+            return matches;
+        }
+    }
+
+    private final Map<T, ZmqMessageSelector> selectors = new LinkedHashMap<T, ZmqMessageSelector>();
+
+    private volatile Snapshot<T> snapshot = new Snapshot<T>(Collections.<T, ZmqMessageSelector> emptyMap());
+
+    /**
+     * Register (or replace) the consumer with its selector.
+     * @param consumer  the consumer
+     * @param selector  the selector, or null to match all messages
+     */
+    public synchronized void register(final T consumer, final ZmqMessageSelector selector) {
+        selectors.put(consumer, selector);
+        snapshot = new Snapshot<T>(selectors);
+    }
+
+    /**
+     * Unregister the consumer.
+     * @param consumer  the consumer
+     * @return          return true when the consumer was registered
+     */
+    public synchronized boolean unregister(final T consumer) {
+        if (!selectors.containsKey(consumer)) {
+            return false;
+        }
+
+        selectors.remove(consumer);
+        snapshot = new Snapshot<T>(selectors);
+
+        return true;
+    }
+
+    /**
+     * @return  return the number of registered consumers
+     */
+    public synchronized int size() {
+        return selectors.size();
+    }
+
+    /**
+     * Return the consumers whose selector match the message properties. The order of the consumers is not defined.
+     * @param variables  the message properties
+     * @return           return the matching consumers
+     */
+    public List<T> match(final Map<String, Object> variables) {
+        return snapshot.match(variables);
+    }
+
+    @Override
+    public String toString() {
+        final Snapshot<T> current = snapshot;
+
+        return "ZmqMessageSelectorIndex [unconditional=" + current.unconditional.size() + ", unindexed=" + current.unindexed.size()
+            + ", properties=" + current.properties.keySet() + "]";
+    }
+}
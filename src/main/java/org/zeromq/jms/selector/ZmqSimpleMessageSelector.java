@@ -21,6 +21,8 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.zeromq.jms.ZmqMessageProperties;
+
 /**
  *  Selectors are defined using SQL 92 syntax and typically apply to JMS message headers.
  *
@@ -185,14 +187,14 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
     /**
      * The term interface for call terms generated.
      */
-    private interface ExpressionTerm {
+    interface ExpressionTerm {
 
     }
 
     /**
      * Literal term class, i.e. String ,number, date, etc...
      */
-    private static class LiteralTerm implements ExpressionTerm {
+    static class LiteralTerm implements ExpressionTerm {
         private final Object literal;
 
         /**
@@ -203,6 +205,13 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
             this.literal = literal;
         }
 
+        /**
+         * @return  return the literal
+         */
+        Object getLiteral() {
+            return literal;
+        }
+
         @Override
         public String toString() {
             return "LiteralTerm [literal=" + literal + "]";
@@ -212,7 +221,7 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
     /**
      * Variable term that will be resolved against a list of properties during evaluation.
      */
-    private static class VariableTerm implements ExpressionTerm {
+    static class VariableTerm implements ExpressionTerm {
         private final String name;
 
         /**
@@ -223,6 +232,13 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
             this.name = name;
         }
 
+        /**
+         * @return  return the variable name
+         */
+        String getName() {
+            return name;
+        }
+
         @Override
         public String toString() {
             return "VariableTerm [name=" + name + "]";
@@ -232,7 +248,7 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
     /**
      * List of terms determined by the use of the "," operator.
      */
-    private static class ListTerm implements ExpressionTerm {
+    static class ListTerm implements ExpressionTerm {
         private final List<ExpressionTerm> terms = new ArrayList<ExpressionTerm>();
 
         /**
@@ -243,6 +259,13 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
             this.terms.add(term);
         }
 
+        /**
+         * @return  return the terms
+         */
+        List<ExpressionTerm> getTerms() {
+            return terms;
+        }
+
         @Override
         public String toString() {
             return "ListTerm [terms=" + terms + "]";
@@ -252,7 +275,7 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
     /**
      * Function term that a executed on evaluation, i.e. FORMAT(..), LIKE, IN, etc...
      */
-    private static class FunctionTerm implements ExpressionTerm {
+    static class FunctionTerm implements ExpressionTerm {
         private final Operator operator;
         private final ExpressionTerm[] parameters;
 
@@ -266,6 +289,20 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
             this.parameters = parameter;
         }
 
+        /**
+         * @return  return the operator
+         */
+        Operator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return  return the parameters
+         */
+        ExpressionTerm[] getParameters() {
+            return parameters;
+        }
+
         @Override
         public String toString() {
             return "FunctionTerm [operator=" + operator + ", parameters=" + Arrays.toString(parameters) + "]";
@@ -275,7 +312,7 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
     /**
      * Compound term for a binary operation, i.e. AND, OR, +, *, etc...
      */
-    private static class CompoundTerm implements ExpressionTerm {
+    static class CompoundTerm implements ExpressionTerm {
         private final Operator operator;
         private final ExpressionTerm leftTerm;
         private final ExpressionTerm rightTerm;
@@ -292,6 +329,27 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
             this.rightTerm = rightTerm;
         }
 
+        /**
+         * @return  return the operator
+         */
+        Operator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return  return the left term
+         */
+        ExpressionTerm getLeftTerm() {
+            return leftTerm;
+        }
+
+        /**
+         * @return  return the right term
+         */
+        ExpressionTerm getRightTerm() {
+            return rightTerm;
+        }
+
         @Override
         public String toString() {
             return "CompoundTerm [operator=" + operator + ", leftTerm=" + leftTerm + ", rightTerm=" + rightTerm + "]";
@@ -318,6 +376,19 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
      * @throws ParseException  throws parse exception
      */
     public static ZmqMessageSelector parse(final String expression) throws ParseException {
+        final ExpressionTerm expressionTerm = parseExpression(expression);
+        final ZmqMessageSelector selector = new ZmqSimpleMessageSelector(expressionTerm);
+
+        return selector;
+    }
+
+    /**
+     * Parse the expression into a tree of terms, used by the interpreter and the compiler.
+     * @param expression       the string expression to parse
+     * @return                 return the root term expression
+     * @throws ParseException  throws parse exception
+     */
+    static ExpressionTerm parseExpression(final String expression) throws ParseException {
         final Pattern pattern = Pattern.compile(TOKENISE_REGX, Pattern.CASE_INSENSITIVE);
         final Matcher matcher = pattern.matcher(expression);
 
@@ -384,10 +455,7 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
             throw new IllegalArgumentException("Could not parse expression!");
         }
 
-        ExpressionTerm expressionTerm = parsePostFixExpr(postfixExpr);
-        ZmqMessageSelector selector = new ZmqSimpleMessageSelector(expressionTerm);
-
-        return selector;
+        return parsePostFixExpr(postfixExpr);
     }
 
     /**
@@ -523,7 +591,7 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
      * @param rightValue  the right value
      * @return            return the resulting value
      */
-    private Object evaluate(final Object leftValue, final Operator operator, final Object rightValue) {
+    static Object evaluate(final Object leftValue, final Operator operator, final Object rightValue) {
         switch (operator) {
         case EQUAL:
         case GREATER:
@@ -615,6 +683,126 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
 
     }
 
+    /**
+     * Evaluation of a function operator. The parameters have been resolved to physical values.
+     * @param operator  the operator, i.e. LIKE, IN, ROUND, etc....
+     * @param results   the parameter values
+     * @return          return the resulting value
+     */
+    static Object evaluate(final Operator operator, final Object[] results) {
+        switch (operator) {
+        case BETWEEN:
+            return (Boolean) evaluate(results[0], Operator.GREATER_EQUAL, results[1])
+                    && (Boolean) evaluate(results[0], Operator.LESS, results[2]);
+        case LIKE:
+            if (results[0] == null) {
+                return false;
+            } else {
+                return Pattern.matches(toRegex((String) results[1]), (String) results[0]);
+            }
+        case IS_NULL:
+            return (results[0] == null);
+        case IS_NOT_NULL:
+            return (results[0] != null);
+        case IN:
+            if (results[1] instanceof Object[]) {
+                for (Object result : (Object[]) results[1]) {
+                    if ((Boolean) evaluate(results[0], Operator.EQUAL, result)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            return (Boolean) evaluate(results[0], Operator.EQUAL, results[1]);
+
+        case NOW:
+            return new Date();
+
+        case ROUND:
+            final double roundValue = ((Number) results[0]).doubleValue();
+            return new Integer(new Long(Math.round(roundValue)).intValue());
+
+        case LEN:
+            final String lenValue = ((String) results[0]);
+            return new Integer(lenValue.length());
+
+        case FORMAT:
+            final Object[] formatParams = (Object[]) results[0];
+
+            final String formatPattern = ((String) formatParams[0]);
+            final Object formatValue = formatParams[1];
+
+            Format format;
+
+            if (formatValue instanceof Date) {
+                format = new SimpleDateFormat(formatPattern);
+            } else if (formatValue instanceof Number) {
+                format = new DecimalFormat(formatPattern);
+            } else {
+                throw new ArithmeticException("Unsupported function parameters: " + operator);
+            }
+
+            return format.format(formatValue);
+
+        case LCASE:
+            final String lcaseValue = ((String) results[0]);
+            return lcaseValue.toLowerCase();
+
+        case UCASE:
+            final String ucaseValue = ((String) results[0]);
+            return ucaseValue.toUpperCase();
+
+        case MID:
+            final Object[] midParams = (Object[]) results[0];
+
+            if (midParams.length < 3) {
+                final String midValue = ((String) midParams[1]);
+                final int midStart = ((Integer) midParams[0]) - 1;
+
+                return midValue.substring(midStart);
+            }
+
+            final String midValue = ((String) midParams[2]);
+            final int midStart = ((Integer) midParams[1]) - 1;
+            final int midLen = (Integer) midParams[0];
+
+            return midValue.substring(midStart, midStart + midLen);
+
+        default:
+            throw new ArithmeticException("Unsupported function operator: " + operator);
+        }
+    }
+
+    /**
+     * Convert the SQL LIKE pattern into a regular expression, where "%" matches any sequence and "_" any single
+     * character. All other characters are quoted, so are matched literally.
+     * @param pattern  the SQL like pattern
+     * @return         return the regular expression
+     */
+    static String toRegex(final String pattern) {
+        final StringBuilder builder = new StringBuilder();
+        int start = 0;
+
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+
+            if (c == '%' || c == '_') {
+                if (i > start) {
+                    builder.append(Pattern.quote(pattern.substring(start, i)));
+                }
+                builder.append((c == '%') ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+
+        if (start < pattern.length()) {
+            builder.append(Pattern.quote(pattern.substring(start)));
+        }
+
+        return builder.toString();
+    }
+
     /**
      * Attempt to retrieve the "valid" value from the variables. All numbers are converted to double to ensure
      * simple comparators work.
@@ -622,7 +810,16 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
      * @param name       the name of the variable
      * @return           return the variable value in the correct type
      */
-    private Object getValue(final Map<String, Object> variables, final String name) {
+    static Object getValue(final Map<String, Object> variables, final String name) {
+        if (variables instanceof ZmqMessageProperties) {
+            final ZmqMessageProperties properties = (ZmqMessageProperties) variables;
+
+            // resolve numbers directly from the primitive slots, skipping the boxed intermediate
+            if (properties.isNumber(name)) {
+                return properties.getDouble(name);
+            }
+        }
+
         final Object value = variables.get(name);
 
         if (value == null || value instanceof String || value instanceof Date) {
@@ -674,94 +871,20 @@ public class ZmqSimpleMessageSelector implements ZmqMessageSelector {
                 }
             }
 
-            switch (function.operator) {
-            case BETWEEN:
-                return (Boolean) evaluate(results[0], Operator.GREATER_EQUAL, results[1])
-                        && (Boolean) evaluate(results[0], Operator.LESS, results[2]);
-            case LIKE:
-                final String pattern = ((String) results[1]).replaceAll("_", ".").replaceAll("%", ".*");
-                if (results[0] == null) {
-                    return false;
-                } else {
-                    return Pattern.matches(pattern, (String) results[0]);
-                }
-            case IS_NULL:
-                return (results[0] == null);
-            case IS_NOT_NULL:
-                return (results[0] != null);
-            case IN:
-                if (results[1] instanceof Object[]) {
-                    for (Object result : (Object[]) results[1]) {
-                        if ((Boolean) evaluate(results[0], Operator.EQUAL, result)) {
-                            return true;
-                        }
-                    }
-                    return false;
-                }
-
-                return (Boolean) evaluate(results[0], Operator.EQUAL, results[1]);
-
-            case NOW:
-                return new Date();
-
-            case ROUND:
-                final double roundValue = ((Number) results[0]).doubleValue();
-                return new Integer(new Long(Math.round(roundValue)).intValue());
-
-            case LEN:
-                final String lenValue = ((String) results[0]);
-                return new Integer(lenValue.length());
-
-            case FORMAT:
-                final Object[] formatParams = (Object[]) results[0];
-
-                final String formatPattern = ((String) formatParams[0]);
-                final Object formatValue = formatParams[1];
-
-                Format format;
-
-                if (formatValue instanceof Date) {
-                    format = new SimpleDateFormat(formatPattern);
-                } else if (formatValue instanceof Number) {
-                    format = new DecimalFormat(formatPattern);
-                } else {
-                    throw new ArithmeticException("Unsupported function: " + term);
-                }
-
-                return format.format(formatValue);
-
-            case LCASE:
-                final String lcaseValue = ((String) results[0]);
-                return lcaseValue.toLowerCase();
-
-            case UCASE:
-                final String ucaseValue = ((String) results[0]);
-                return ucaseValue.toUpperCase();
-
-            case MID:
-                final Object[] midParams = (Object[]) results[0];
-
-                if (midParams.length < 3) {
-                    final String midValue = ((String) midParams[1]);
-                    final int midStart = ((Integer) midParams[0]) - 1;
-
-                    return midValue.substring(midStart);
-                }
-
-                final String midValue = ((String) midParams[2]);
-                final int midStart = ((Integer) midParams[1]) - 1;
-                final int midLen = (Integer) midParams[0];
-
-                return midValue.substring(midStart, midStart + midLen);
-
-            default:
-                throw new ArithmeticException("Unsupported function operator: " + term);
-            }
+            return evaluate(function.operator, results);
 
         } else if (term instanceof CompoundTerm) {
             CompoundTerm function = (CompoundTerm) term;
 
             Object leftResult = evaluate(variables, function.leftTerm);
+
+            // short-circuit the boolean operators
+            if (function.operator == Operator.AND && Boolean.FALSE.equals(leftResult)) {
+                return false;
+            } else if (function.operator == Operator.OR && Boolean.TRUE.equals(leftResult)) {
+                return true;
+            }
+
             Object rightResult = evaluate(variables, function.rightTerm);
 
             // CHECKSTYLE:OFF: Empty Block
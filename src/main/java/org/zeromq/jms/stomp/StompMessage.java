@@ -108,7 +108,24 @@ public class StompMessage implements Externalizable {
         /**
          * Contains the optional error short description for ERRO frames, i.e. mailformed frame received.
          */
-        HEADER_MESSAGE("messsage");
+        HEADER_MESSAGE("messsage"),
+
+        /**
+         * Contains the flow control credit advertised on an ACK frame, i.e. the number of further messages accepted.
+         */
+        HEADER_CREDIT("credit"),
+
+        /**
+         * Contains the expiration time (milliseconds since the epoch) of the message, after which it is discarded.
+         * The JMS header name is used, so it cannot clash with a message property.
+         */
+        HEADER_EXPIRATION("JMSExpiration"),
+
+        /**
+         * Contains the JMS priority (0 to 9) of the message, so the receiver can queue it by priority. The JMS header
+         * name is used, so it cannot clash with a message property.
+         */
+        HEADER_PRIORITY("JMSPriority");
 
         private String value;
 
@@ -241,6 +258,23 @@ public class StompMessage implements Externalizable {
         return valueAsInt;
     }
 
+    /**
+     * Return the header value for the specified key as a "Long". Return NULL if the header is not found.
+     * @param key  the key
+     * @return     return the "Long" value, or null
+     */
+    public Long getHeaderValueAsLong(final HeaderKey key) {
+        final String value = headers.get(key.getValue());
+
+        if (value == null || value.length() == 0) {
+            return null;
+        }
+
+        final long valueAsLong = Long.parseLong(value);
+
+        return valueAsLong;
+    }
+
     /**
      * Return the header value, or the specified default value when it does not exist.
      * @param key           the key
@@ -425,10 +459,24 @@ public class StompMessage implements Externalizable {
      * @return                  return a STOMP acknowledgement message
      */
     public static StompMessage defineAckMessage(final String receiptId) {
+        return defineAckMessage(receiptId, -1);
+    }
+
+    /**
+     * Define a STOMP acknowledgement message advertising the flow control credit of the receiver.
+     * @param receiptId         the message id of the message being acknowledged
+     * @param credit            the number of further messages accepted, or negative when not advertised
+     * @return                  return a STOMP acknowledgement message
+     */
+    public static StompMessage defineAckMessage(final String receiptId, final int credit) {
         Map<String, String> headers = new LinkedHashMap<String, String>();
 
         headers.put(HeaderKey.HEADER_ID.getValue(), receiptId);
 
+        if (credit >= 0) {
+            headers.put(HeaderKey.HEADER_CREDIT.getValue(), Integer.toString(credit));
+        }
+
         StompMessage stompMessage = new StompMessage(FrameType.ACK, headers, null);
 
         return stompMessage;
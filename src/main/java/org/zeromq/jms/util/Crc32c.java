@@ -0,0 +1,103 @@
+package org.zeromq.jms.util;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * Nothing in JDK 1.8 for the CRC-32C (Castagnoli) checksum, which only arrived as java.util.zip.CRC32C in JDK 9,
+ * so this is a table driven (slicing-by-8) implementation to ensure zero dependencies.
+ */
+public class Crc32c implements Checksum {
+
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int CHUNK_SIZE = 8192;
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int value = n;
+
+            for (int k = 0; k < 8; k++) {
+                value = ((value & 1) != 0) ? (value >>> 1) ^ POLYNOMIAL : value >>> 1;
+            }
+
+            TABLES[0][n] = value;
+        }
+
+        for (int n = 0; n < 256; n++) {
+            for (int t = 1; t < 8; t++) {
+                TABLES[t][n] = (TABLES[t - 1][n] >>> 8) ^ TABLES[0][TABLES[t - 1][n] & 0xFF];
+            }
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(final int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(final byte[] bytes, final int offset, final int length) {
+        int value = crc;
+        int index = offset;
+        final int end = offset + length;
+
+        for (; index + 8 <= end; index += 8) {
+            final int low = value ^ ((bytes[index] & 0xFF) | (bytes[index + 1] & 0xFF) << 8
+                | (bytes[index + 2] & 0xFF) << 16 | (bytes[index + 3] & 0xFF) << 24);
+
+            value = TABLES[7][low & 0xFF] ^ TABLES[6][(low >>> 8) & 0xFF]
+                ^ TABLES[5][(low >>> 16) & 0xFF] ^ TABLES[4][low >>> 24]
+                ^ TABLES[3][bytes[index + 4] & 0xFF] ^ TABLES[2][bytes[index + 5] & 0xFF]
+                ^ TABLES[1][bytes[index + 6] & 0xFF] ^ TABLES[0][bytes[index + 7] & 0xFF];
+        }
+
+        for (; index < end; index++) {
+            value = (value >>> 8) ^ TABLES[0][(value ^ bytes[index]) & 0xFF];
+        }
+
+        crc = value;
+    }
+
+    /**
+     * Update the checksum with the remaining bytes of the buffer, without changing the buffer position.
+     * @param buffer  the buffer
+     */
+    public void update(final ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+            return;
+        }
+
+        // copy direct (i.e. mapped) buffers in chunks to use the array slicing
+        final ByteBuffer source = buffer.duplicate();
+        final byte[] chunk = new byte[Math.min(CHUNK_SIZE, source.remaining())];
+
+        while (source.hasRemaining()) {
+            final int length = Math.min(chunk.length, source.remaining());
+
+            source.get(chunk, 0, length);
+            update(chunk, 0, length);
+        }
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
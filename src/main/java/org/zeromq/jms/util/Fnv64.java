@@ -0,0 +1,56 @@
+package org.zeromq.jms.util;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+/**
+ * The 64 bit FNV-1a hash, with a final mix (the MurmurHash3 finaliser) so similar values, i.e. "key-1" and "key-2",
+ * spread over all the bits rather than differing in the low bits alone.
+ */
+public class Fnv64 {
+
+    private static final long OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long PRIME = 0x100000001B3L;
+    private static final long MIX_1 = 0xFF51AFD7ED558CCDL;
+    private static final long MIX_2 = 0xC4CEB9FE1A85EC53L;
+
+    /**
+     * Stop construction of utility class.
+     */
+    private Fnv64() {
+    }
+
+    /**
+     * Return the mixed FNV-1a hash of the characters of the value.
+     * @param  value  the value
+     * @return        return the hash
+     */
+    public static long hash(final CharSequence value) {
+        long hash = OFFSET_BASIS;
+
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * PRIME;
+        }
+
+        return mix(hash);
+    }
+
+    /**
+     * Return the value with its bits mixed, i.e. to spread a Java hash code, or a hash that is not FNV-1a.
+     * @param  value  the value
+     * @return        return the mixed value
+     */
+    public static long mix(final long value) {
+        long hash = value;
+
+        hash = (hash ^ (hash >>> 33)) * MIX_1;
+        hash = (hash ^ (hash >>> 33)) * MIX_2;
+
+        return hash ^ (hash >>> 33);
+    }
+}
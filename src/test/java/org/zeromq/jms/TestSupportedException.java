@@ -47,8 +47,6 @@ public class TestSupportedException {
     public void testZmqSession() throws JMSException {
         final ZmqSession session = new ZmqSession(null, null, false, -1, null);
 
-        session.createDurableSubscriber(null, null);
-        session.createDurableSubscriber(null, null, null, false);
         session.createMapMessage();
         session.createMessage();
         session.createObjectMessage();
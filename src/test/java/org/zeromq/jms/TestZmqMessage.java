@@ -7,6 +7,8 @@ package org.zeromq.jms;
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
+import java.util.Enumeration;
+
 import javax.jms.JMSException;
 
 import org.junit.Assert;
@@ -72,6 +74,62 @@ public class TestZmqMessage {
         Assert.assertEquals("type", message.getJMSType());
     }
 
+    /**
+     * Test the compact message property bag, including re-sizing, removal and typed (un-boxed) access.
+     * @throws JMSException  throws JMS exceptions
+     */
+    @Test
+    public void testMessageProperties() throws JMSException {
+        final ZmqMessage message = new ZmqMessage();
+
+        for (int i = 0; i < 40; i++) {
+            message.setIntProperty("int" + i, i);
+            message.setStringProperty("string" + i, "value" + i);
+        }
+        message.setDoubleProperty("double", 2.5);
+        message.setBooleanProperty("boolean", true);
+
+        final ZmqMessageProperties properties = message.getTypedProperties();
+
+        Assert.assertEquals(82, properties.size());
+        Assert.assertEquals(39, message.getIntProperty("int39"));
+        Assert.assertEquals("value39", message.getStringProperty("string39"));
+        Assert.assertTrue(properties.isNumber("int7"));
+        Assert.assertTrue(properties.isIntegral("int7"));
+        Assert.assertFalse(properties.isNumber("string7"));
+        Assert.assertEquals(7L, properties.getLong("int7"));
+        Assert.assertEquals(2.5, properties.getDouble("double"), 0.0);
+        Assert.assertTrue(properties.getBoolean("boolean"));
+        Assert.assertEquals("7", properties.getAsString("int7"));
+        Assert.assertEquals("2.5", properties.getAsString("double"));
+
+        int nameCount = 0;
+        final Enumeration<String> names = message.getPropertyNames();
+        while (names.hasMoreElements()) {
+            Assert.assertTrue(message.propertyExists(names.nextElement()));
+            nameCount++;
+        }
+        Assert.assertEquals(82, nameCount);
+
+        for (int i = 0; i < 40; i += 2) {
+            Assert.assertEquals(i, properties.remove("int" + i));
+        }
+
+        Assert.assertEquals(62, properties.size());
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals(i % 2 == 1, message.propertyExists("int" + i));
+            Assert.assertEquals("value" + i, message.getStringProperty("string" + i));
+        }
+
+        message.setObjectProperty("int1", Long.valueOf(100L));
+        Assert.assertEquals(100L, message.getLongProperty("int1"));
+        Assert.assertEquals(Long.valueOf(100L), message.getProperties().get("int1"));
+
+        message.clearProperties();
+        Assert.assertEquals(0, properties.size());
+        Assert.assertFalse(message.getPropertyNames().hasMoreElements());
+    }
+
     /**
      * Test the Zero MQ JMS Text Message instance.
      * @throws JMSException  throws JMS exceptions
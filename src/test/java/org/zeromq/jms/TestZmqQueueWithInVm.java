@@ -0,0 +1,255 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicPublisher;
+import javax.jms.TopicSession;
+import javax.jms.TopicSubscriber;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for Zero MQ JMS queues and topics handing on the messages in-VM, i.e. without serialization.
+ */
+public class TestZmqQueueWithInVm {
+
+    private static final String QUEUE_NAME = "queue_invm";
+    private static final String QUEUE_URI = "jms:queue:" + QUEUE_NAME + "?gateway=invm&socket.addr=inproc://queue_invm";
+
+    private static final String TOPIC_NAME = "topic_invm";
+    private static final String TOPIC_URI = "jms:topic:" + TOPIC_NAME + "?gateway=invm&socket.addr=inproc://topic_invm";
+
+    /**
+     * Receive the next message and check it is a copy of the sent message.
+     * @param  receiver   the receiver
+     * @param  expected   the sent message
+     * @throws Exception  throws exception on test failure
+     */
+    private void receiveCopy(final QueueReceiver receiver, final TextMessage expected) throws Exception {
+        final TextMessage message = (TextMessage) receiver.receive(1000);
+
+        Assert.assertNotNull(message);
+        Assert.assertNotSame(expected, message);
+        Assert.assertEquals(expected.getText(), message.getText());
+    }
+
+    /**
+     * Test the messages sent before the receiver opens are held back, and then received as copies of the sent
+     * messages.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testSendAndReceive() throws Exception {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { QUEUE_URI });
+        final QueueConnection connection = factory.createQueueConnection();
+        final QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Queue queue = session.createQueue(QUEUE_NAME);
+            final QueueSender sender = session.createSender(queue);
+            final TextMessage message1 = ZmqTextMessageBuilder.create().appendText("message 1").toMessage();
+            final TextMessage message2 = ZmqTextMessageBuilder.create().appendText("message 2").toMessage();
+
+            sender.send(message1);
+            sender.send(message2);
+
+            final QueueReceiver receiver = session.createReceiver(queue);
+
+            receiveCopy(receiver, message1);
+            receiveCopy(receiver, message2);
+            Assert.assertNull(receiver.receive(100));
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Test a message held back beyond its time to live is discarded, rather than received.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testTimeToLive() throws Exception {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { QUEUE_URI });
+        final QueueConnection connection = factory.createQueueConnection();
+        final QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Queue queue = session.createQueue(QUEUE_NAME);
+            final QueueSender sender = session.createSender(queue);
+            final TextMessage message1 = ZmqTextMessageBuilder.create().appendText("message 1").toMessage();
+            final TextMessage message2 = ZmqTextMessageBuilder.create().appendText("message 2").toMessage();
+            final long startTime = System.currentTimeMillis();
+
+            sender.send(message1, DeliveryMode.NON_PERSISTENT, Message.DEFAULT_PRIORITY, 100);
+            sender.send(message2, DeliveryMode.NON_PERSISTENT, Message.DEFAULT_PRIORITY, 60000);
+
+            Assert.assertTrue(message2.getJMSExpiration() >= startTime + 60000);
+
+            Thread.sleep(200);
+
+            final QueueReceiver receiver = session.createReceiver(queue);
+
+            receiveCopy(receiver, message2);
+            Assert.assertNull(receiver.receive(100));
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Test a transacted send is only handed on once committed.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testTransaction() throws Exception {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { QUEUE_URI });
+        final QueueConnection connection = factory.createQueueConnection();
+        final QueueSession session = connection.createQueueSession(true, Session.SESSION_TRANSACTED);
+
+        try {
+            final Queue queue = session.createQueue(QUEUE_NAME);
+            final QueueReceiver receiver = session.createReceiver(queue);
+            final QueueSender sender = session.createSender(queue);
+            final TextMessage message = ZmqTextMessageBuilder.create().appendText("message 1").toMessage();
+
+            sender.send(message);
+            Assert.assertNull(receiver.receive(100));
+
+            session.commit();
+            receiveCopy(receiver, message);
+
+            session.commit();
+            Assert.assertNull(receiver.receive(100));
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Test a published message is fanned out to every subscriber, applying the message selector.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testPublishAndSubscribe() throws Exception {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { TOPIC_URI });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Topic topic = session.createTopic(TOPIC_NAME);
+            final TopicSubscriber subscriber = session.createSubscriber(topic);
+            final TopicSubscriber redSubscriber = session.createSubscriber(topic, "color = 'red'", false);
+            final TopicPublisher publisher = session.createPublisher(topic);
+
+            for (int i = 0; i < 10; i++) {
+                final ZmqTextMessage message = ZmqTextMessageBuilder.create().appendText("message " + i).toMessage();
+
+                message.setStringProperty("color", (i % 2 == 0) ? "red" : "blue");
+                publisher.publish(message);
+            }
+
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("message " + i, ((TextMessage) subscriber.receive(1000)).getText());
+            }
+
+            for (int i = 0; i < 10; i = i + 2) {
+                Assert.assertEquals("message " + i, ((TextMessage) redSubscriber.receive(1000)).getText());
+            }
+
+            Assert.assertNull(subscriber.receive(100));
+            Assert.assertNull(redSubscriber.receive(100));
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Test a subscriber changing its message changes neither the published message nor the message of another
+     * subscriber.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testSubscribersReceiveCopies() throws Exception {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { TOPIC_URI });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Topic topic = session.createTopic(TOPIC_NAME);
+            final TopicSubscriber subscriber1 = session.createSubscriber(topic);
+            final TopicSubscriber subscriber2 = session.createSubscriber(topic);
+            final TopicPublisher publisher = session.createPublisher(topic);
+            final ZmqTextMessage message = ZmqTextMessageBuilder.create().appendText("message 1").toMessage();
+
+            message.setStringProperty("color", "red");
+            publisher.publish(message);
+
+            final TextMessage message1 = (TextMessage) subscriber1.receive(1000);
+            final TextMessage message2 = (TextMessage) subscriber2.receive(1000);
+
+            message1.setStringProperty("color", "blue");
+            message1.setText("changed");
+
+            Assert.assertEquals("red", message.getStringProperty("color"));
+            Assert.assertEquals("red", message2.getStringProperty("color"));
+            Assert.assertEquals("message 1", message.getText());
+            Assert.assertEquals("message 1", message2.getText());
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Test a send fails once the backlog held back for the first receiver is full.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testBacklogFull() throws Exception {
+        final String queueName = "queue_invm_backlog";
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] {
+            "jms:queue:" + queueName + "?gateway=invm&socket.addr=inproc://queue_invm_backlog&gateway.backlogSize=2" });
+        final QueueConnection connection = factory.createQueueConnection();
+        final QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Queue queue = session.createQueue(queueName);
+            final QueueSender sender = session.createSender(queue);
+
+            sender.send(ZmqTextMessageBuilder.create().appendText("message 1").toMessage());
+            sender.send(ZmqTextMessageBuilder.create().appendText("message 2").toMessage());
+
+            try {
+                sender.send(ZmqTextMessageBuilder.create().appendText("message 3").toMessage());
+                Assert.fail("Expected the send to fail with a full backlog");
+            } catch (RuntimeException | JMSException ex) {
+                Assert.assertNotNull(ex);
+            }
+
+            final QueueReceiver receiver = session.createReceiver(queue);
+
+            Assert.assertEquals("message 1", ((TextMessage) receiver.receive(1000)).getText());
+            Assert.assertEquals("message 2", ((TextMessage) receiver.receive(1000)).getText());
+            Assert.assertNull(receiver.receive(100));
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.CompletionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.jms.TextMessage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.protocol.ZmqReqRepGateway;
+
+/**
+ * Unit tests for Zero MQ JMS request/reply, with replies routed back to a temporary queue.
+ */
+public class TestZmqQueueWithReqRep {
+
+    private static final String QUEUE_NAME = "queue_reqrep";
+    private static final String QUEUE_ADDR = "tcp://*:9760";
+    private static final String QUEUE_URI = "jms:queue:" + QUEUE_NAME + "?gateway=reqrep&socket.addr=" + QUEUE_ADDR + "&event=stomp";
+
+    private static final String LISTENER_QUEUE_NAME = "queue_reqrep_listener";
+    private static final String LISTENER_QUEUE_ADDR = "tcp://*:9775";
+    private static final String LISTENER_QUEUE_URI = "jms:queue:" + LISTENER_QUEUE_NAME + "?gateway=reqrep&socket.addr="
+        + LISTENER_QUEUE_ADDR + "&event=stomp";
+
+    private static final String ASYNC_QUEUE_NAME = "queue_reqrep_async";
+    private static final String ASYNC_QUEUE_ADDR = "tcp://*:9784";
+    private static final String ASYNC_QUEUE_URI = "jms:queue:" + ASYNC_QUEUE_NAME + "?gateway=reqrep&socket.addr="
+        + ASYNC_QUEUE_ADDR + "&event=stomp";
+
+    /**
+     * Test replies are correlated to their requests, even when replied to out of order.
+     * @throws JMSException  throws exception on test failure
+     */
+    @Test
+    public void testRequestReply() throws JMSException {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { QUEUE_URI });
+        final QueueConnection connection = factory.createQueueConnection();
+        final QueueSession requesterSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        final QueueSession replierSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Queue queue = requesterSession.createQueue(QUEUE_NAME);
+            final QueueReceiver replier = replierSession.createReceiver(queue);
+            final QueueSender requester = requesterSession.createSender(queue);
+            final TemporaryQueue replyQueue = requesterSession.createTemporaryQueue();
+            final QueueReceiver replyReceiver = requesterSession.createReceiver(replyQueue);
+            final Map<String, String> requestTexts = new HashMap<String, String>();
+
+            for (int i = 0; i < 5; i++) {
+                final ZmqTextMessage request = ZmqTextMessageBuilder.create().appendText("request " + i).toMessage();
+
+                request.setJMSReplyTo(replyQueue);
+                requester.send(request);
+
+                Assert.assertNotNull(request.getJMSMessageID());
+                requestTexts.put(request.getJMSMessageID(), "request " + i);
+            }
+
+            final List<TextMessage> requests = new ArrayList<TextMessage>();
+
+            for (int i = 0; i < 5; i++) {
+                final TextMessage request = (TextMessage) replier.receive(3000);
+
+                Assert.assertNotNull(request);
+                Assert.assertNotNull(request.getJMSReplyTo());
+                requests.add(0, request);
+            }
+
+            // reply in reverse order
+            for (TextMessage request : requests) {
+                final QueueSender replySender = replierSession.createSender((Queue) request.getJMSReplyTo());
+
+                replySender.send(ZmqTextMessageBuilder.create().appendText("reply to " + request.getText()).toMessage());
+                replySender.close();
+            }
+
+            for (int i = 0; i < 5; i++) {
+                final TextMessage reply = (TextMessage) replyReceiver.receive(3000);
+
+                Assert.assertNotNull(reply);
+                Assert.assertEquals("reply to " + requestTexts.remove(reply.getJMSCorrelationID()), reply.getText());
+            }
+
+            Assert.assertTrue(requestTexts.isEmpty());
+            Assert.assertNull(replyReceiver.receiveNoWait());
+
+            // the request has already been replied to
+            try {
+                final QueueSender replySender = replierSession.createSender((Queue) requests.get(0).getJMSReplyTo());
+
+                replySender.send(ZmqTextMessageBuilder.create().appendText("reply again").toMessage());
+                Assert.fail("Expected failure replying twice to a request");
+            } catch (JMSException ex) {
+                Assert.assertNotNull(ex.getMessage());
+            }
+
+            replyReceiver.close();
+            replyQueue.delete();
+        } finally {
+            requesterSession.close();
+            replierSession.close();
+        }
+    }
+
+    /**
+     * Test a one-way message is received without a reply queue, and a reply is delivered to the message listener of
+     * the temporary queue receiver.
+     * @throws JMSException          throws exception on test failure
+     * @throws InterruptedException  throws exception on test failure
+     */
+    @Test
+    public void testOneWayAndReplyListener() throws JMSException, InterruptedException {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { LISTENER_QUEUE_URI });
+        final QueueConnection connection = factory.createQueueConnection();
+        final QueueSession requesterSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        final QueueSession replierSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Queue queue = requesterSession.createQueue(LISTENER_QUEUE_NAME);
+            final QueueReceiver replier = replierSession.createReceiver(queue);
+            final QueueSender requester = requesterSession.createSender(queue);
+            final TemporaryQueue replyQueue = requesterSession.createTemporaryQueue();
+            final QueueReceiver replyReceiver = requesterSession.createReceiver(replyQueue);
+
+            requester.send(ZmqTextMessageBuilder.create().appendText("one-way").toMessage());
+
+            final TextMessage oneWay = (TextMessage) replier.receive(3000);
+
+            Assert.assertEquals("one-way", oneWay.getText());
+            Assert.assertNull(oneWay.getJMSReplyTo());
+            Assert.assertNull(oneWay.getStringProperty(ZmqReqRepGateway.PROPERTY_REPLY_REQUESTED));
+
+            final CountDownLatch replyCountDownLatch = new CountDownLatch(1);
+            final List<String> replyTexts = new ArrayList<String>();
+            final MessageListener listener = new MessageListener() {
+
+                @Override
+                public void onMessage(final Message message) {
+                    try {
+                        replyTexts.add(((TextMessage) message).getText());
+                    } catch (JMSException ex) {
+                        ex.printStackTrace();
+                    }
+
+                    replyCountDownLatch.countDown();
+                }
+            };
+
+            replyReceiver.setMessageListener(listener);
+            Assert.assertSame(listener, replyReceiver.getMessageListener());
+
+            final ZmqTextMessage request = ZmqTextMessageBuilder.create().appendText("request").toMessage();
+
+            request.setJMSReplyTo(replyQueue);
+            requester.send(request);
+
+            final TextMessage received = (TextMessage) replier.receive(3000);
+            final QueueSender replySender = replierSession.createSender((Queue) received.getJMSReplyTo());
+
+            replySender.send(ZmqTextMessageBuilder.create().appendText("reply").toMessage());
+            replySender.close();
+
+            Assert.assertTrue(replyCountDownLatch.await(3, TimeUnit.SECONDS));
+            Assert.assertEquals("reply", replyTexts.get(0));
+
+            replyReceiver.close();
+            replyQueue.delete();
+        } finally {
+            requesterSession.close();
+            replierSession.close();
+        }
+    }
+
+    /**
+     * Test a request and its reply sent asynchronously (with a completion listener) are correlated as when sent
+     * synchronously.
+     * @throws JMSException          throws exception on test failure
+     * @throws InterruptedException  throws exception on test failure
+     */
+    @Test
+    public void testAsyncRequestReply() throws JMSException, InterruptedException {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { ASYNC_QUEUE_URI });
+        final QueueConnection connection = factory.createQueueConnection();
+        final QueueSession requesterSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        final QueueSession replierSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        final CountDownLatch completeCountDownLatch = new CountDownLatch(2);
+        final List<Exception> failures = new ArrayList<Exception>();
+        final CompletionListener completionListener = new CompletionListener() {
+
+            @Override
+            public void onCompletion(final Message message) {
+                completeCountDownLatch.countDown();
+            }
+
+            @Override
+            public void onException(final Message message, final Exception ex) {
+                failures.add(ex);
+                completeCountDownLatch.countDown();
+            }
+        };
+
+        try {
+            final Queue queue = requesterSession.createQueue(ASYNC_QUEUE_NAME);
+            final QueueReceiver replier = replierSession.createReceiver(queue);
+            final QueueSender requester = requesterSession.createSender(queue);
+            final TemporaryQueue replyQueue = requesterSession.createTemporaryQueue();
+            final QueueReceiver replyReceiver = requesterSession.createReceiver(replyQueue);
+
+            final ZmqTextMessage request = ZmqTextMessageBuilder.create().appendText("request").toMessage();
+
+            request.setJMSReplyTo(replyQueue);
+            requester.send(request, completionListener);
+
+            Assert.assertNotNull(request.getJMSMessageID());
+
+            final TextMessage received = (TextMessage) replier.receive(3000);
+
+            Assert.assertNotNull(received);
+            Assert.assertNotNull(received.getJMSReplyTo());
+            Assert.assertNull(received.getStringProperty(ZmqReqRepGateway.PROPERTY_REPLY_REQUESTED));
+
+            final QueueSender replySender = replierSession.createSender((Queue) received.getJMSReplyTo());
+
+            replySender.send(ZmqTextMessageBuilder.create().appendText("reply").toMessage(), completionListener);
+
+            final TextMessage reply = (TextMessage) replyReceiver.receive(3000);
+
+            Assert.assertNotNull(reply);
+            Assert.assertEquals("reply", reply.getText());
+            Assert.assertEquals(request.getJMSMessageID(), reply.getJMSCorrelationID());
+
+            Assert.assertTrue(completeCountDownLatch.await(3, TimeUnit.SECONDS));
+            Assert.assertTrue(failures.isEmpty());
+
+            replySender.close();
+            replyReceiver.close();
+            replyQueue.delete();
+        } finally {
+            requesterSession.close();
+            replierSession.close();
+        }
+    }
+}
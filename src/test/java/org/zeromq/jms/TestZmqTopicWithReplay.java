@@ -0,0 +1,295 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicPublisher;
+import javax.jms.TopicSession;
+import javax.jms.TopicSubscriber;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for Zero MQ JMS durable topic subscribers, catching up through the publisher journal.
+ */
+public class TestZmqTopicWithReplay {
+
+    private static final String TOPIC_NAME = "topic_replay";
+    private static final String TOPIC_ADDR = "tcp://*:9765";
+    private static final String REPLAY_ADDR = "tcp://*:9766";
+
+    /**
+     * Return the topic URI, with the journal and offsets named by the replay name.
+     * @param  replayName  the replay name
+     * @return             return the URI
+     */
+    private String getTopicUri(final String replayName) {
+        return "jms:topic:" + TOPIC_NAME + "?gateway=replay&socket.addr=" + TOPIC_ADDR + "&event=stomp"
+            + "&gateway.replayAddr=" + REPLAY_ADDR + "&gateway.replayName=" + replayName + "&gateway.replayBatchSize=7";
+    }
+
+    /**
+     * Receive the expected messages in order.
+     * @param  subscriber    the subscriber
+     * @param  from          the first expected message number
+     * @param  to            the last expected message number (exclusive)
+     * @throws JMSException  throws exception on test failure
+     */
+    private void receive(final TopicSubscriber subscriber, final int from, final int to) throws JMSException {
+        for (int i = from; i < to; i++) {
+            final TextMessage message = (TextMessage) subscriber.receive(5000);
+
+            Assert.assertNotNull("Missing message " + i, message);
+            Assert.assertEquals("message " + i, message.getText());
+        }
+    }
+
+    /**
+     * Delete the segment files of the publisher journal.
+     * @param  directory    the replay directory
+     * @param  replayName   the replay name
+     * @throws IOException  throws exception on test failure
+     */
+    private void deleteJournal(final Path directory, final String replayName) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, replayName + ".journal.*")) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Test a durable subscriber replays the messages published before it started, and on re-start only those
+     * published while it was down, without gaps or duplicates.
+     * @throws JMSException  throws exception on test failure
+     * @throws IOException   throws exception on test failure
+     */
+    @Test
+    public void testDurableSubscriberReplay() throws JMSException, IOException {
+        final String replayName = "testreplay" + System.currentTimeMillis();
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { getTopicUri(replayName) });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession publisherSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Topic topic = publisherSession.createTopic(TOPIC_NAME);
+            final TopicPublisher publisher = publisherSession.createPublisher(topic);
+
+            for (int i = 0; i < 20; i++) {
+                publisher.publish(ZmqTextMessageBuilder.create().appendText("message " + i).toMessage());
+            }
+
+            TopicSession subscriberSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+            TopicSubscriber subscriber = subscriberSession.createDurableSubscriber(topic, "durable1");
+
+            receive(subscriber, 0, 20);
+
+            // now live
+            for (int i = 20; i < 25; i++) {
+                publisher.publish(ZmqTextMessageBuilder.create().appendText("message " + i).toMessage());
+            }
+
+            receive(subscriber, 20, 25);
+            Assert.assertNull(subscriber.receive(500));
+
+            subscriberSession.close();
+
+            // published while the subscriber is down
+            for (int i = 25; i < 40; i++) {
+                publisher.publish(ZmqTextMessageBuilder.create().appendText("message " + i).toMessage());
+            }
+
+            subscriberSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+            subscriber = subscriberSession.createDurableSubscriber(topic, "durable1");
+
+            receive(subscriber, 25, 40);
+            Assert.assertNull(subscriber.receive(500));
+
+            subscriberSession.close();
+        } finally {
+            publisherSession.close();
+
+            final Path directory = Paths.get(System.getProperty("java.io.tmpdir"));
+
+            deleteJournal(directory, replayName);
+            Files.deleteIfExists(directory.resolve(replayName + "-durable1.offset"));
+        }
+    }
+
+    /**
+     * Test a durable subscriber of one tag, of a publisher of two tags, replays and receives only the messages of its
+     * tag, without taking the offsets of the other tag for missed messages.
+     * @throws JMSException  throws exception on test failure
+     * @throws IOException   throws exception on test failure
+     */
+    @Test
+    public void testDurableSubscriberReplayWithTags() throws JMSException, IOException {
+        final String replayName = "testreplaytags" + System.currentTimeMillis();
+        final String topicName = "topic_replay_tags";
+        final String topicUri = "jms:topic:" + topicName + "?gateway=replay&socket.addr=tcp://*:9776&event=stomp"
+            + "&filter=propertyTag&filter.pubPropertyName=Region&filter.subTags=EMEA"
+            + "&gateway.replayAddr=tcp://*:9777&gateway.replayName=" + replayName + "&gateway.replayBatchSize=3";
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { topicUri });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession publisherSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Topic topic = publisherSession.createTopic(topicName);
+            final TopicPublisher publisher = publisherSession.createPublisher(topic);
+
+            publish(publisher, 0, 10);
+
+            TopicSession subscriberSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+            TopicSubscriber subscriber = subscriberSession.createDurableSubscriber(topic, "durable3");
+
+            receiveEmea(subscriber, 0, 10);
+
+            // now live, where every other offset is of the other tag
+            publish(publisher, 10, 20);
+
+            receiveEmea(subscriber, 10, 20);
+            Assert.assertNull(subscriber.receive(500));
+
+            subscriberSession.close();
+
+            // published while the subscriber is down
+            publish(publisher, 20, 30);
+
+            subscriberSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+            subscriber = subscriberSession.createDurableSubscriber(topic, "durable3");
+
+            receiveEmea(subscriber, 20, 30);
+            Assert.assertNull(subscriber.receive(500));
+
+            subscriberSession.close();
+        } finally {
+            publisherSession.close();
+
+            final Path directory = Paths.get(System.getProperty("java.io.tmpdir"));
+
+            deleteJournal(directory, replayName);
+            Files.deleteIfExists(directory.resolve(replayName + "-durable3.offset"));
+        }
+    }
+
+    /**
+     * Publish the messages, alternating between the "EMEA" and "APAC" regions.
+     * @param  publisher     the publisher
+     * @param  from          the first message number
+     * @param  to            the last message number (exclusive)
+     * @throws JMSException  throws exception on test failure
+     */
+    private void publish(final TopicPublisher publisher, final int from, final int to) throws JMSException {
+        for (int i = from; i < to; i++) {
+            final String region = (i % 2 == 0) ? "EMEA" : "APAC";
+
+            publisher.publish(ZmqTextMessageBuilder.create().appendText(region + " " + i).appendProperty("Region", region).toMessage());
+        }
+    }
+
+    /**
+     * Receive the expected "EMEA" messages in order.
+     * @param  subscriber    the subscriber
+     * @param  from          the first message number
+     * @param  to            the last message number (exclusive)
+     * @throws JMSException  throws exception on test failure
+     */
+    private void receiveEmea(final TopicSubscriber subscriber, final int from, final int to) throws JMSException {
+        for (int i = from; i < to; i = i + 2) {
+            final TextMessage message = (TextMessage) subscriber.receive(5000);
+
+            Assert.assertNotNull("Missing message " + i, message);
+            Assert.assertEquals("EMEA " + i, message.getText());
+        }
+    }
+
+    /**
+     * Test a durable subscription requires the replay gateway.
+     * @throws JMSException  throws the expected exception
+     */
+    @Test(expected = ZmqException.class)
+    public void testDurableSubscriberWithoutReplay() throws JMSException {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { "jms:topic:topic_no_replay?socket.addr=tcp://*:9767" });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            session.createDurableSubscriber(session.createTopic("topic_no_replay"), "durable2");
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Test a new subscriber replays from the oldest message the publisher journal still keeps, once the older ones
+     * have been deleted on retention, and then carries on live.
+     * @throws JMSException  throws exception on test failure
+     * @throws IOException   throws exception on test failure
+     */
+    @Test
+    public void testReplayAfterRetention() throws JMSException, IOException {
+        final String replayName = "testreplayretention" + System.currentTimeMillis();
+        final String topicName = "topic_replay_retention";
+        final String topicUri = "jms:topic:" + topicName + "?gateway=replay&socket.addr=tcp://*:9786&event=stomp"
+            + "&gateway.replayAddr=tcp://*:9787&gateway.replayName=" + replayName + "&gateway.replayBatchSize=7"
+            + "&gateway.replaySegmentSize=2000&gateway.replayRetentionSize=4000";
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { topicUri });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession publisherSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Topic topic = publisherSession.createTopic(topicName);
+            final TopicPublisher publisher = publisherSession.createPublisher(topic);
+
+            for (int i = 0; i < 40; i++) {
+                publisher.publish(ZmqTextMessageBuilder.create().appendText("message " + i).toMessage());
+            }
+
+            final TopicSession subscriberSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+            final TopicSubscriber subscriber = subscriberSession.createDurableSubscriber(topic, "durable4");
+            final TextMessage firstMessage = (TextMessage) subscriber.receive(5000);
+
+            Assert.assertNotNull(firstMessage);
+
+            // the oldest messages are no longer kept
+            final int first = Integer.parseInt(firstMessage.getText().substring("message ".length()));
+
+            Assert.assertTrue("Expected messages deleted on retention, first replayed: " + first, first > 0);
+
+            receive(subscriber, first + 1, 40);
+
+            // now live
+            for (int i = 40; i < 45; i++) {
+                publisher.publish(ZmqTextMessageBuilder.create().appendText("message " + i).toMessage());
+            }
+
+            receive(subscriber, 40, 45);
+            Assert.assertNull(subscriber.receive(500));
+
+            subscriberSession.close();
+        } finally {
+            publisherSession.close();
+
+            final Path directory = Paths.get(System.getProperty("java.io.tmpdir"));
+
+            deleteJournal(directory, replayName);
+            Files.deleteIfExists(directory.resolve(replayName + "-durable4.offset"));
+        }
+    }
+}
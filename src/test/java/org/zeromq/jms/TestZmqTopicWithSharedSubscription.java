@@ -0,0 +1,317 @@
+package org.zeromq.jms;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicPublisher;
+import javax.jms.TopicSession;
+import javax.jms.TopicSubscriber;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for Zero MQ JMS topic subscribers sharing one gateway per connection.
+ */
+public class TestZmqTopicWithSharedSubscription {
+
+    private static final String FANOUT_TOPIC_NAME = "topic_fanout";
+    private static final String FANOUT_TOPIC_URI = "jms:topic:" + FANOUT_TOPIC_NAME + "?socket.addr=tcp://*:9768&event=stomp&subscription.fanout=true";
+
+    private static final String SHARED_TOPIC_NAME = "topic_shared";
+    private static final String SHARED_TOPIC_URI = "jms:topic:" + SHARED_TOPIC_NAME + "?socket.addr=tcp://*:9769&event=stomp";
+
+    /**
+     * Publish messages alternating the "color" property between red and blue.
+     * @param  publisher     the publisher
+     * @param  count         the number of messages
+     * @throws JMSException  throws exception on test failure
+     */
+    private void publish(final TopicPublisher publisher, final int count) throws JMSException {
+        for (int i = 0; i < count; i++) {
+            final ZmqTextMessage message = ZmqTextMessageBuilder.create().appendText("message " + i).toMessage();
+
+            message.setStringProperty("color", (i % 2 == 0) ? "red" : "blue");
+            publisher.publish(message);
+        }
+    }
+
+    /**
+     * Return the number of messages received, until none are received within the timeout.
+     * @param  consumer      the consumer
+     * @return               return the number of messages
+     * @throws JMSException  throws exception on test failure
+     */
+    private int receiveAll(final MessageConsumer consumer) throws JMSException {
+        int count = 0;
+
+        while (consumer.receive(1000) != null) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Test the subscribers of a connection share one gateway, with each message fanned out to every subscriber
+     * whose selector it matches.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testFanout() throws Exception {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { FANOUT_TOPIC_URI });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Topic topic = session.createTopic(FANOUT_TOPIC_NAME);
+            final TopicSubscriber subscriber1 = session.createSubscriber(topic);
+            final TopicSubscriber subscriber2 = session.createSubscriber(topic);
+            final TopicSubscriber redSubscriber = session.createSubscriber(topic, "color = 'red'", false);
+
+            final ZmqSharedSubscription subscription = ((ZmqSharedSubscriber) subscriber1).getSubscription();
+
+            Assert.assertSame(subscription, ((ZmqSharedSubscriber) subscriber2).getSubscription());
+            Assert.assertSame(subscription, ((ZmqSharedSubscriber) redSubscriber).getSubscription());
+            Assert.assertEquals(3, subscription.getSubscriberCount());
+            Assert.assertFalse(subscription.isBalanced());
+
+            final TopicPublisher publisher = session.createPublisher(topic);
+
+            Thread.sleep(500);
+            publish(publisher, 10);
+
+            Assert.assertEquals(10, receiveAll(subscriber1));
+            Assert.assertEquals(10, receiveAll(subscriber2));
+            Assert.assertEquals(5, receiveAll(redSubscriber));
+
+            subscriber1.close();
+            subscriber2.close();
+            Assert.assertFalse(subscription.isClosed());
+
+            redSubscriber.close();
+            Assert.assertTrue(subscription.isClosed());
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Test the consumers of a shared subscription have the messages balanced across them, and must share the
+     * same selector.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testSharedConsumers() throws Exception {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] { SHARED_TOPIC_URI });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Topic topic = session.createTopic(SHARED_TOPIC_NAME);
+            final MessageConsumer consumer1 = session.createSharedConsumer(topic, "shared1");
+            final MessageConsumer consumer2 = session.createSharedConsumer(topic, "shared1");
+
+            Assert.assertSame(((ZmqSharedSubscriber) consumer1).getSubscription(), ((ZmqSharedSubscriber) consumer2).getSubscription());
+            Assert.assertTrue(((ZmqSharedSubscriber) consumer1).getSubscription().isBalanced());
+
+            try {
+                session.createSharedConsumer(topic, "shared1", "color = 'red'");
+                Assert.fail("Expected failure sharing a subscription with a different selector");
+            } catch (ZmqException ex) {
+                Assert.assertNotNull(ex.getMessage());
+            }
+
+            final TopicPublisher publisher = session.createPublisher(topic);
+
+            Thread.sleep(500);
+            publish(publisher, 10);
+
+            Assert.assertEquals(5, receiveAll(consumer1));
+            Assert.assertEquals(5, receiveAll(consumer2));
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Test a subscriber with noLocal set does not receive the messages published by its own connection.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testNoLocal() throws Exception {
+        final String topicName = "topic_fanout_nolocal";
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] {
+            "jms:topic:" + topicName + "?socket.addr=tcp://*:9778&event=stomp&subscription.fanout=true" });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Topic topic = session.createTopic(topicName);
+            final TopicSubscriber subscriber = session.createSubscriber(topic);
+            final TopicSubscriber noLocalSubscriber = session.createSubscriber(topic, null, true);
+            final TopicPublisher publisher = session.createPublisher(topic);
+
+            Thread.sleep(500);
+            publish(publisher, 4);
+
+            Assert.assertEquals(4, receiveAll(subscriber));
+            Assert.assertEquals(0, receiveAll(noLocalSubscriber));
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Test a slow (blocked) message listener does not hold up another subscriber of the subscription.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testSlowListener() throws Exception {
+        final String topicName = "topic_fanout_listener";
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] {
+            "jms:topic:" + topicName + "?socket.addr=tcp://*:9779&event=stomp&subscription.fanout=true" });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(10);
+
+        try {
+            final Topic topic = session.createTopic(topicName);
+            final TopicSubscriber slowSubscriber = session.createSubscriber(topic);
+            final TopicSubscriber subscriber = session.createSubscriber(topic);
+
+            slowSubscriber.setMessageListener(new MessageListener() {
+
+                @Override
+                public void onMessage(final Message message) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    received.countDown();
+                }
+            });
+
+            final TopicPublisher publisher = session.createPublisher(topic);
+
+            Thread.sleep(500);
+            publish(publisher, 10);
+
+            Assert.assertEquals(10, receiveAll(subscriber));
+
+            release.countDown();
+            Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            session.close();
+        }
+    }
+
+    /**
+     * Test a rollback of a transacted session hands the received messages of a shared consumer on again, marked
+     * as redelivered, and a commit does not.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testSharedConsumerRollback() throws Exception {
+        final String topicName = "topic_shared_transacted";
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] {
+            "jms:topic:" + topicName + "?socket.addr=tcp://*:9780&event=stomp" });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession publisherSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+        final TopicSession session = connection.createTopicSession(true, Session.SESSION_TRANSACTED);
+
+        try {
+            final Topic topic = session.createTopic(topicName);
+            final MessageConsumer consumer = session.createSharedConsumer(topic, "shared2");
+            final TopicPublisher publisher = publisherSession.createPublisher(topic);
+
+            Thread.sleep(500);
+            publish(publisher, 2);
+
+            final Message message1 = consumer.receive(5000);
+            final Message message2 = consumer.receive(5000);
+
+            Assert.assertNotNull(message1);
+            Assert.assertNotNull(message2);
+            Assert.assertFalse(message1.getJMSRedelivered());
+
+            session.rollback();
+
+            Assert.assertSame(message1, consumer.receive(5000));
+            Assert.assertSame(message2, consumer.receive(5000));
+            Assert.assertTrue(message1.getJMSRedelivered());
+
+            session.commit();
+            session.rollback();
+
+            Assert.assertNull(consumer.receive(500));
+        } finally {
+            session.close();
+            publisherSession.close();
+        }
+    }
+
+    /**
+     * Test each fanned out subscriber has its own copy of the message, so rolling back one does not mark the message
+     * of the other as redelivered.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testFanoutCopies() throws Exception {
+        final String topicName = "topic_fanout_copies";
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] {
+            "jms:topic:" + topicName + "?socket.addr=tcp://*:9785&event=stomp&subscription.fanout=true" });
+        final TopicConnection connection = factory.createTopicConnection();
+        final TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+        final TopicSession transactedSession = connection.createTopicSession(true, Session.SESSION_TRANSACTED);
+
+        try {
+            final Topic topic = session.createTopic(topicName);
+            final TopicSubscriber subscriber = session.createSubscriber(topic);
+            final TopicSubscriber transactedSubscriber = transactedSession.createSubscriber(topic);
+            final TopicPublisher publisher = session.createPublisher(topic);
+
+            Thread.sleep(500);
+            publisher.publish(ZmqTextMessageBuilder.create().appendText("message").toMessage());
+
+            final TextMessage message = (TextMessage) subscriber.receive(5000);
+            final TextMessage transactedMessage = (TextMessage) transactedSubscriber.receive(5000);
+
+            Assert.assertNotNull(message);
+            Assert.assertNotNull(transactedMessage);
+            Assert.assertNotSame(message, transactedMessage);
+            Assert.assertEquals("message", message.getText());
+            Assert.assertEquals("message", transactedMessage.getText());
+
+            transactedSession.rollback();
+
+            Assert.assertSame(transactedMessage, transactedSubscriber.receive(5000));
+            Assert.assertTrue(transactedMessage.getJMSRedelivered());
+            Assert.assertFalse(message.getJMSRedelivered());
+
+            transactedSession.commit();
+        } finally {
+            transactedSession.close();
+            session.close();
+        }
+    }
+}
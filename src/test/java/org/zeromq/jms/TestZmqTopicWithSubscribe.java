@@ -26,11 +26,14 @@ public class TestZmqTopicWithSubscribe {
 
     private static final String TOPIC_ADDR1 = "tcp://*:9725";
     private static final String TOPIC_ADDR2 = "tcp://*:9726";
+    private static final String TOPIC_ADDR3 = "tcp://*:9749";
 
     private static final String TOPIC_URI1 = "jms:topic:topic_1?socket.addr=" + TOPIC_ADDR1
         + "&redelivery.retry=0&event=stomp";
     private static final String TOPIC_URI2 = "jms:topic:topic_2?socket.addr=" + TOPIC_ADDR2
         + "&filter=propertyTag&filter.subTags=NASA,APAC&filter.pubPropertyName=Region&event=stomp";
+    private static final String TOPIC_URI3 = "jms:topic:topic_3?socket.addr=" + TOPIC_ADDR3
+        + "&filter=propertyTag&filter.pubPropertyName=Region&event=stomp";
 
     private static final String MESSAGE_1 = "this is the text message 1";
     private static final String MESSAGE_2 = "this is the text message 2";
@@ -153,4 +156,55 @@ public class TestZmqTopicWithSubscribe {
             Assert.fail(ex.getMessage());
         }
     }
+
+    /**
+     * Test the JMS selector is pushed down into the ZMQ subscription when there are no explicit subscription tags.
+     */
+    @Test
+    public void testSelectorPushdownPublishedAndSubscribe() {
+        try {
+            final TopicConnectionFactory factory = new ZmqConnectionFactory();
+            final TopicConnection connection = factory.createTopicConnection();
+            final TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+            final Topic topic = session.createTopic(TOPIC_URI3);
+
+            TopicPublisher publisher = null;
+            TopicSubscriber subscriber = null;
+
+            try {
+                publisher = session.createPublisher(topic);
+                subscriber = session.createSubscriber(topic, "Region IN ('NASA','APAC') AND Desk = 'FX'", false);
+
+                Thread.sleep(100);
+
+                publisher.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_1).appendProperty("Region", "EMEA")
+                    .appendProperty("Desk", "FX").toMessage());
+                publisher.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_2).appendProperty("Region", "APAC")
+                    .appendProperty("Desk", "FX").toMessage());
+                publisher.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_1).appendProperty("Region", "NASA")
+                    .appendProperty("Desk", "RATES").toMessage());
+                publisher.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_3).appendProperty("Region", "NASA")
+                    .appendProperty("Desk", "FX").toMessage());
+
+                TextMessage message1 = (TextMessage) subscriber.receive(1000);
+
+                Assert.assertNotNull(message1);
+                Assert.assertEquals(MESSAGE_2, message1.getText());
+
+                TextMessage message2 = (TextMessage) subscriber.receive(1000);
+
+                Assert.assertNotNull(message2);
+                Assert.assertEquals(MESSAGE_3, message2.getText());
+
+                TextMessage message3 = (TextMessage) subscriber.receiveNoWait();
+
+                Assert.assertNull(message3);
+            } finally {
+                session.close();
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
 }
@@ -35,7 +35,7 @@ public class TestAnnotation {
     public void testFindClassesUnderPackage() throws ClassNotFoundException, IOException {
         final List<Class<?>> classes = ClassUtils.getClasses("org.zeromq.jms.protocol");
 
-        Assert.assertEquals(50, classes.size());
+        Assert.assertEquals(126, classes.size());
     }
 
     /**
@@ -47,7 +47,7 @@ public class TestAnnotation {
     public void testFindClassesWithAnnotiation() throws ClassNotFoundException, IOException {
         final List<Class<?>> classes = ClassUtils.getClasses("org.zeromq.jms.protocol", ZmqComponent.class);
 
-        Assert.assertEquals(8, classes.size());
+        Assert.assertEquals(13, classes.size());
     }
 
     /**
@@ -8,10 +8,18 @@ package org.zeromq.jms.protocol;
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import javax.jms.CompletionListener;
 import javax.jms.JMSException;
+import javax.jms.Message;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -21,6 +29,7 @@ import org.zeromq.jms.ZmqTextMessage;
 import org.zeromq.jms.ZmqTextMessageBuilder;
 import org.zeromq.jms.protocol.ZmqGateway.Direction;
 import org.zeromq.jms.protocol.event.ZmqEventHandler;
+import org.zeromq.jms.protocol.event.ZmqSerializeEventHandler;
 import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
 import org.zeromq.jms.protocol.filter.ZmqFilterPolicy;
 import org.zeromq.jms.protocol.filter.ZmqFixedFilterPolicy;
@@ -82,6 +91,124 @@ public class TestZmqFireAndForgetGateway {
         }
     }
 
+    /**
+     * Test asynchronous sends are completed once handed to the socket, or failed when the transaction is rolled back.
+     */
+    @Test
+    public void testSendWithCompletionListener() {
+
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway sender = new ZmqFireAndForgetGateway("protocol:sender", senderContext,
+                null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext transactedContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway transactedSender = new ZmqFireAndForgetGateway("protocol:transacted", transactedContext,
+                null, handler, null, null, null, null, true, Direction.OUTGOING);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PULL, true, flags);
+        final ZmqGateway receiver = new ZmqFireAndForgetGateway("protocol:receiver", receiverContext,
+                 null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        final CountDownLatch completionCountDownLatch = new CountDownLatch(1);
+        final CountDownLatch exceptionCountDownLatch = new CountDownLatch(1);
+
+        final CompletionListener completionListener = new CompletionListener() {
+
+            @Override
+            public void onCompletion(final Message message) {
+                completionCountDownLatch.countDown();
+            }
+
+            @Override
+            public void onException(final Message message, final Exception ex) {
+                exceptionCountDownLatch.countDown();
+            }
+        };
+
+        sender.open(-1);
+        transactedSender.open(-1);
+        receiver.open(-1);
+
+        try {
+            sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage(), completionListener);
+
+            Assert.assertTrue(completionCountDownLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertNotNull(receiver.receive(1000));
+
+            transactedSender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage(), completionListener);
+            transactedSender.rollback();
+
+            Assert.assertTrue(exceptionCountDownLatch.await(10, TimeUnit.SECONDS));
+        } catch (JMSException | InterruptedException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        } finally {
+            sender.close(-1);
+            transactedSender.close(-1);
+            receiver.close(-1);
+        }
+    }
+
+    /**
+     * Test asynchronous sends of events without a message identifier (serialize handler) are completed, including
+     * once the gateway has been closed and re-opened.
+     */
+    @Test
+    public void testSendWithCompletionListenerAndSerialize() {
+
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqSerializeEventHandler();
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway sender = new ZmqFireAndForgetGateway("protocol:sender", senderContext,
+                null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PULL, true, flags);
+        final ZmqGateway receiver = new ZmqFireAndForgetGateway("protocol:receiver", receiverContext,
+                 null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        final CountDownLatch completionCountDownLatch = new CountDownLatch(2);
+
+        final CompletionListener completionListener = new CompletionListener() {
+
+            @Override
+            public void onCompletion(final Message message) {
+                completionCountDownLatch.countDown();
+            }
+
+            @Override
+            public void onException(final Message message, final Exception ex) {
+                ex.printStackTrace();
+            }
+        };
+
+        receiver.open(-1);
+
+        try {
+            sender.open(-1);
+            sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage(), completionListener);
+            Assert.assertNotNull(receiver.receive(1000));
+            sender.close(-1);
+
+            sender.open(-1);
+            sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage(), completionListener);
+            Assert.assertNotNull(receiver.receive(1000));
+
+            Assert.assertTrue(completionCountDownLatch.await(10, TimeUnit.SECONDS));
+        } catch (JMSException | InterruptedException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        } finally {
+            sender.close(-1);
+            receiver.close(-1);
+        }
+    }
+
     /**
      * Test a send and receive protocol functionality with transactions.
      */
@@ -269,4 +396,70 @@ public class TestZmqFireAndForgetGateway {
             Assert.fail(ex.getMessage());
         }
     }
+
+    /**
+     * Test the flyweight receive mode re-uses the delivered messages once the listener has returned.
+     */
+    @Test
+    public void testSendAndReceiveMessageWithFlyweight() {
+
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway sender = new ZmqFireAndForgetGateway("protocol:sender", senderContext,
+                null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final CountDownLatch messageCountDownLatch = new CountDownLatch(3);
+        final List<String> texts = new ArrayList<String>();
+        final Set<ZmqMessage> instances = Collections.newSetFromMap(new IdentityHashMap<ZmqMessage, Boolean>());
+
+        final ZmqGatewayListener listener = new ZmqGatewayListener() {
+
+            @Override
+            public void onMessage(final ZmqMessage message) {
+                try {
+                    texts.add(((ZmqTextMessage) message).getText());
+                    instances.add(message);
+                } catch (JMSException ex) {
+                    ex.printStackTrace();
+                }
+                messageCountDownLatch.countDown();
+            }
+
+            @Override
+            public void onException(final ZmqException ex) {
+                ex.printStackTrace();
+            }
+        };
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PULL, true, flags);
+        final ZmqFireAndForgetGateway receiver = new ZmqFireAndForgetGateway("protocol:receiver", receiverContext,
+                null, handler, listener, null, null, null, false, Direction.INCOMING);
+
+        receiver.setFlyweight(true);
+
+        sender.open(-1);
+        receiver.open(-1);
+
+        try {
+            for (String text : new String[] { MESSAGE_1, MESSAGE_2, MESSAGE_3 }) {
+                sender.send(ZmqTextMessageBuilder.create().appendText(text).toMessage());
+                Thread.sleep(100);
+            }
+
+            messageCountDownLatch.await(10, TimeUnit.SECONDS);
+
+            Assert.assertEquals(0, messageCountDownLatch.getCount());
+            Assert.assertEquals(Arrays.asList(MESSAGE_1, MESSAGE_2, MESSAGE_3), texts);
+            Assert.assertTrue(instances.size() < 3);
+        } catch (JMSException | InterruptedException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        } finally {
+            sender.close(-1);
+            receiver.close(-1);
+        }
+    }
 }
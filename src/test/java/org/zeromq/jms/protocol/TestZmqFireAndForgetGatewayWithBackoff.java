@@ -0,0 +1,226 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.nio.file.Paths;
+
+import javax.jms.JMSException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqTextMessage;
+import org.zeromq.jms.ZmqTextMessageBuilder;
+import org.zeromq.jms.protocol.ZmqGateway.Direction;
+import org.zeromq.jms.protocol.event.ZmqEventHandler;
+import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
+import org.zeromq.jms.protocol.redelivery.ZmqBackoffRedeliveryPolicy;
+import org.zeromq.jms.protocol.store.ZmqMappedJournalStore;
+
+/**
+ * Test Fire and Forget send/receive protocol delayed (back-off) re-delivery and dead-letter functionality.
+ */
+public class TestZmqFireAndForgetGatewayWithBackoff {
+
+    private static final String SOCKET_ADDR = "tcp://*:9770";
+    private static final String DEAD_LETTER_SOCKET_ADDR = "tcp://*:9771";
+    private static final String JOURNAL_SOCKET_ADDR = "tcp://*:9781";
+    private static final String JOURNAL_DEAD_LETTER_SOCKET_ADDR = "tcp://*:9782";
+
+    private static final String MESSAGE_1 = "this is the text message 1";
+    private static final String MESSAGE_2 = "this is the text message 2";
+
+    /**
+     * Test the back-off delays of the policy.
+     */
+    @Test
+    public void testDelay() {
+        final ZmqBackoffRedeliveryPolicy redelivery = new ZmqBackoffRedeliveryPolicy();
+
+        redelivery.setDelay(100);
+        redelivery.setMultiplier(2.0);
+        redelivery.setMaxDelay(500);
+
+        Assert.assertEquals(100, redelivery.getDelay(1));
+        Assert.assertEquals(200, redelivery.getDelay(2));
+        Assert.assertEquals(400, redelivery.getDelay(3));
+        Assert.assertEquals(500, redelivery.getDelay(4));
+    }
+
+    /**
+     * Test a rolled back message is re-delivered after a delay with its delivery count, and sent on to the
+     * dead-letter gateway once the retries are exhausted.
+     */
+    @Test
+    public void testRedeliverAndDeadLetter() {
+
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+        final ZmqBackoffRedeliveryPolicy redelivery = new ZmqBackoffRedeliveryPolicy();
+
+        redelivery.setRetryCount(2);
+        redelivery.setDelay(200);
+        redelivery.setMultiplier(2.0);
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway sender = new ZmqFireAndForgetGateway("protocol:sender", senderContext,
+                  null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PULL, true, flags);
+        final ZmqGateway receiver = new ZmqFireAndForgetGateway("protocol:receiver", receiverContext,
+                  null, handler, null, null, null, redelivery, true, Direction.INCOMING);
+
+        final ZmqSocketContext deadLetterSenderContext = new ZmqSocketContext(DEAD_LETTER_SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway deadLetterSender = new ZmqFireAndForgetGateway("protocol:deadLetterSender", deadLetterSenderContext,
+                  null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext deadLetterReceiverContext = new ZmqSocketContext(DEAD_LETTER_SOCKET_ADDR, ZmqSocketType.PULL, true, flags);
+        final ZmqGateway deadLetterReceiver = new ZmqFireAndForgetGateway("protocol:deadLetterReceiver", deadLetterReceiverContext,
+                  null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        receiver.setDeadLetterGateway(deadLetterSender);
+
+        try {
+            final ZmqTextMessage outMessage1 = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+            final ZmqTextMessage outMessage2 = ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage();
+
+            deadLetterReceiver.open(-1);
+            sender.open(-1);
+            receiver.open(-1);
+
+            try {
+                sender.send(outMessage1);
+
+                ZmqTextMessage inMessage1 = (ZmqTextMessage) receiver.receive(1000);
+                Assert.assertEquals(MESSAGE_1, inMessage1.getText());
+                Assert.assertFalse(inMessage1.getJMSRedelivered());
+                receiver.rollback();
+
+                // held back until the delay is due, so not handed straight back
+                Assert.assertNull(receiver.receive(50));
+                Assert.assertEquals(1, redelivery.getPendingCount());
+
+                inMessage1 = (ZmqTextMessage) receiver.receive(1000);
+                Assert.assertEquals(MESSAGE_1, inMessage1.getText());
+                Assert.assertTrue(inMessage1.getJMSRedelivered());
+                Assert.assertEquals(2, inMessage1.getIntProperty(ZmqBackoffRedeliveryPolicy.DELIVERY_COUNT_PROPERTY));
+
+                // healthy messages are not held up by the pending re-delivery
+                sender.send(outMessage2);
+                receiver.rollback();
+
+                final ZmqTextMessage inMessage2 = (ZmqTextMessage) receiver.receive(1000);
+                Assert.assertEquals(MESSAGE_2, inMessage2.getText());
+                receiver.commit();
+
+                inMessage1 = (ZmqTextMessage) receiver.receive(2000);
+                Assert.assertEquals(MESSAGE_1, inMessage1.getText());
+                Assert.assertEquals(3, inMessage1.getIntProperty(ZmqBackoffRedeliveryPolicy.DELIVERY_COUNT_PROPERTY));
+                receiver.rollback();
+
+                // retries exhausted, so backed out to the dead-letter gateway
+                Assert.assertNull(receiver.receive(1000));
+                Assert.assertEquals(0, redelivery.getPendingCount());
+
+                final ZmqTextMessage deadLetterMessage = (ZmqTextMessage) deadLetterReceiver.receive(1000);
+                Assert.assertEquals(MESSAGE_1, deadLetterMessage.getText());
+            } catch (ZmqException ex) {
+                ex.printStackTrace();
+
+                Assert.fail(ex.getMessage());
+            } finally {
+                sender.close(-1);
+                receiver.close(-1);
+                deadLetterReceiver.close(-1);
+            }
+        } catch (JMSException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    /**
+     * Test a message backed out to the dead-letter gateway is deleted from the journal of the receiver, so it is not
+     * recovered (and delivered again) once the receiver is re-opened.
+     */
+    @Test
+    public void testDeadLetterDeletedFromJournal() {
+
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+        final ZmqBackoffRedeliveryPolicy redelivery = new ZmqBackoffRedeliveryPolicy();
+
+        redelivery.setRetryCount(0);
+
+        final ZmqMappedJournalStore store =
+            new ZmqMappedJournalStore(Paths.get(System.getProperty("java.io.tmpdir")).resolve("test-queue"), "backoff", "zmq");
+
+        store.setSweepPeriod(-1);
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(JOURNAL_SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway sender = new ZmqFireAndForgetGateway("protocol:sender", senderContext,
+                  null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(JOURNAL_SOCKET_ADDR, ZmqSocketType.PULL, true, flags);
+        final ZmqGateway receiver = new ZmqFireAndForgetGateway("protocol:receiver", receiverContext,
+                  null, handler, null, store, null, redelivery, true, Direction.INCOMING);
+
+        final ZmqSocketContext deadLetterSenderContext =
+            new ZmqSocketContext(JOURNAL_DEAD_LETTER_SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway deadLetterSender = new ZmqFireAndForgetGateway("protocol:deadLetterSender", deadLetterSenderContext,
+                  null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext deadLetterReceiverContext =
+            new ZmqSocketContext(JOURNAL_DEAD_LETTER_SOCKET_ADDR, ZmqSocketType.PULL, true, flags);
+        final ZmqGateway deadLetterReceiver = new ZmqFireAndForgetGateway("protocol:deadLetterReceiver", deadLetterReceiverContext,
+                  null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        receiver.setDeadLetterGateway(deadLetterSender);
+
+        try {
+            final ZmqTextMessage outMessage1 = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+
+            store.reset();
+            deadLetterReceiver.open(-1);
+            sender.open(-1);
+            receiver.open(-1);
+
+            try {
+                sender.send(outMessage1);
+
+                final ZmqTextMessage inMessage1 = (ZmqTextMessage) receiver.receive(1000);
+                Assert.assertEquals(MESSAGE_1, inMessage1.getText());
+                receiver.rollback();
+
+                final ZmqTextMessage deadLetterMessage = (ZmqTextMessage) deadLetterReceiver.receive(1000);
+                Assert.assertEquals(MESSAGE_1, deadLetterMessage.getText());
+            } finally {
+                sender.close(-1);
+                receiver.close(-1);
+                deadLetterReceiver.close(-1);
+            }
+
+            final ZmqMappedJournalStore recoveredStore =
+                new ZmqMappedJournalStore(Paths.get(System.getProperty("java.io.tmpdir")).resolve("test-queue"), "backoff", "zmq");
+
+            recoveredStore.setSweepPeriod(-1);
+            recoveredStore.open();
+
+            try {
+                Assert.assertNull(recoveredStore.read());
+            } finally {
+                recoveredStore.close();
+            }
+        } catch (JMSException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        }
+    }
+}
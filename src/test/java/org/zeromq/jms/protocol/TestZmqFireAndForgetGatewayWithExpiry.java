@@ -0,0 +1,148 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import javax.jms.JMSException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.ZMsg;
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqTextMessage;
+import org.zeromq.jms.ZmqTextMessageBuilder;
+import org.zeromq.jms.protocol.ZmqGateway.Direction;
+import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
+
+/**
+ * Test Fire and Forget send/receive protocol discarding of expired messages.
+ */
+public class TestZmqFireAndForgetGatewayWithExpiry {
+
+    private static final String SOCKET_ADDR = "tcp://*:9772";
+
+    private static final String MESSAGE_1 = "this is the text message 1";
+    private static final String MESSAGE_2 = "this is the text message 2";
+
+    /**
+     * Test an expired message is discarded by the sender, while the expiration of a live message travels with it.
+     */
+    @Test
+    public void testSendExpiredMessage() {
+
+        final int flags = 0;
+        final ZmqStompEventHandler handler = new ZmqStompEventHandler();
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway sender = new ZmqFireAndForgetGateway("protocol:sender", senderContext,
+                  null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PULL, true, flags);
+        final ZmqGateway receiver = new ZmqFireAndForgetGateway("protocol:receiver", receiverContext,
+                  null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        try {
+            final long expiration = System.currentTimeMillis() + 60000;
+            final ZmqTextMessage outMessage1 = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+            final ZmqTextMessage outMessage2 = ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage();
+
+            outMessage1.setJMSExpiration(System.currentTimeMillis() - 1);
+            outMessage2.setJMSExpiration(expiration);
+
+            sender.open(-1);
+            receiver.open(-1);
+
+            try {
+                sender.send(outMessage1);
+                sender.send(outMessage2);
+
+                final ZmqTextMessage inMessage2 = (ZmqTextMessage) receiver.receive(1000);
+                Assert.assertEquals(MESSAGE_2, inMessage2.getText());
+                Assert.assertEquals(expiration, inMessage2.getJMSExpiration());
+
+                Assert.assertNull(receiver.receive(500));
+
+                Assert.assertEquals(1, sender.getExpiredSendCount());
+                Assert.assertEquals(0, receiver.getExpiredReceiveCount());
+                Assert.assertEquals(0, receiver.getExpiredJournalCount());
+            } finally {
+                sender.close(-1);
+                receiver.close(-1);
+            }
+        } catch (JMSException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    /**
+     * Test an expired STOMP message is only decoded as far as its headers, leaving the body and properties.
+     * @throws JMSException  throws exception on test failure
+     */
+    @Test
+    public void testReceiveExpiredMessage() throws JMSException {
+        final ZmqStompEventHandler handler = new ZmqStompEventHandler();
+        final ZmqTextMessage outMessage = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+
+        outMessage.setStringProperty("color", "red");
+        outMessage.setJMSExpiration(System.currentTimeMillis() - 1);
+
+        final ZMsg msg = handler.createMsg(ZmqSocketType.PUSH, null, handler.createSendEvent(outMessage));
+
+        try {
+            final ZmqSendEvent event = (ZmqSendEvent) handler.createEvent(ZmqSocketType.PULL, msg);
+            final ZmqTextMessage inMessage = (ZmqTextMessage) event.getMessage();
+
+            Assert.assertTrue(inMessage.isExpired(System.currentTimeMillis()));
+            Assert.assertEquals(outMessage.getJMSExpiration(), inMessage.getJMSExpiration());
+            Assert.assertNull(inMessage.getText());
+            Assert.assertNull(inMessage.getStringProperty("color"));
+        } catch (ZmqException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    /**
+     * Test a message property named "expires" travels as a property, leaving the expiration alone, and an
+     * expiration header that is not a number is ignored rather than dropping the message.
+     * @throws JMSException  throws exception on test failure
+     */
+    @Test
+    public void testExpiresProperty() throws JMSException {
+        final ZmqStompEventHandler handler = new ZmqStompEventHandler();
+        final long expiration = System.currentTimeMillis() + 60000;
+        final ZmqTextMessage outMessage1 = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+        final ZmqTextMessage outMessage2 = ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage();
+
+        outMessage1.setStringProperty("expires", "tomorrow");
+        outMessage1.setJMSExpiration(expiration);
+        outMessage2.setStringProperty("JMSExpiration", "never");
+
+        final ZMsg msg1 = handler.createMsg(ZmqSocketType.PUSH, null, handler.createSendEvent(outMessage1));
+        final ZMsg msg2 = handler.createMsg(ZmqSocketType.PUSH, null, handler.createSendEvent(outMessage2));
+
+        try {
+            final ZmqTextMessage inMessage1 = (ZmqTextMessage) ((ZmqSendEvent) handler.createEvent(ZmqSocketType.PULL, msg1)).getMessage();
+
+            Assert.assertEquals(MESSAGE_1, inMessage1.getText());
+            Assert.assertEquals("tomorrow", inMessage1.getStringProperty("expires"));
+            Assert.assertEquals(expiration, inMessage1.getJMSExpiration());
+
+            final ZmqTextMessage inMessage2 = (ZmqTextMessage) ((ZmqSendEvent) handler.createEvent(ZmqSocketType.PULL, msg2)).getMessage();
+
+            Assert.assertEquals(MESSAGE_2, inMessage2.getText());
+            Assert.assertEquals(0, inMessage2.getJMSExpiration());
+        } catch (ZmqException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        }
+    }
+}
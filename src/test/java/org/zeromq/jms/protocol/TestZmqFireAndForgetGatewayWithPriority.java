@@ -0,0 +1,133 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import javax.jms.JMSException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.ZMsg;
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqTextMessage;
+import org.zeromq.jms.ZmqTextMessageBuilder;
+import org.zeromq.jms.protocol.ZmqGateway.Direction;
+import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
+
+/**
+ * Test Fire and Forget send/receive protocol queuing by message priority, with the top band on its own socket.
+ */
+public class TestZmqFireAndForgetGatewayWithPriority {
+
+    private static final String SOCKET_ADDR = "tcp://*:9773";
+    private static final String PRIORITY_SOCKET_ADDR = "tcp://*:9774";
+
+    /**
+     * Test the received messages are queued by priority band, and the top band travels through its own socket.
+     * @throws InterruptedException  throws exception on test failure
+     */
+    @Test
+    public void testPriority() throws InterruptedException {
+
+        final int flags = 0;
+        final ZmqStompEventHandler handler = new ZmqStompEventHandler();
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqFireAndForgetGateway sender = new ZmqFireAndForgetGateway("protocol:sender", senderContext,
+                  null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.PULL, true, flags);
+        final ZmqFireAndForgetGateway receiver = new ZmqFireAndForgetGateway("protocol:receiver", receiverContext,
+                  null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        for (AbstractZmqGateway gateway : new AbstractZmqGateway[] { sender, receiver }) {
+            gateway.setPriorityBands(2);
+            gateway.setPriorityAddr(PRIORITY_SOCKET_ADDR);
+        }
+
+        try {
+            receiver.open(-1);
+            sender.open(-1);
+
+            try {
+                for (int i = 0; i < 5; i++) {
+                    final ZmqTextMessage message = ZmqTextMessageBuilder.create().appendText("low " + i).toMessage();
+
+                    sender.send(message);
+                }
+
+                final ZmqTextMessage highMessage = ZmqTextMessageBuilder.create().appendText("high").toMessage();
+
+                highMessage.setJMSPriority(9);
+                sender.send(highMessage);
+
+                // let all the messages arrive on the incoming queue
+                Thread.sleep(500);
+
+                final ZmqTextMessage inMessage = (ZmqTextMessage) receiver.receive(1000);
+                Assert.assertEquals("high", inMessage.getText());
+                Assert.assertEquals(9, inMessage.getJMSPriority());
+
+                for (int i = 0; i < 5; i++) {
+                    Assert.assertEquals("low " + i, ((ZmqTextMessage) receiver.receive(1000)).getText());
+                }
+
+                Assert.assertNull(receiver.receive(100));
+
+                for (ZmqSocketMetrics metrics : sender.getMetrics()) {
+                    final long expectedCount = (metrics.getAddr().equals(PRIORITY_SOCKET_ADDR)) ? 1 : 5;
+
+                    Assert.assertEquals(expectedCount, metrics.getSendCount());
+                }
+            } finally {
+                sender.close(-1);
+                receiver.close(-1);
+            }
+        } catch (JMSException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    /**
+     * Test a message property named "priority" travels as a property, leaving the priority alone, and a priority
+     * header that is not a number is ignored rather than dropping the message.
+     * @throws JMSException  throws exception on test failure
+     */
+    @Test
+    public void testPriorityProperty() throws JMSException {
+        final ZmqStompEventHandler handler = new ZmqStompEventHandler();
+        final ZmqTextMessage outMessage1 = ZmqTextMessageBuilder.create().appendText("message 1").toMessage();
+        final ZmqTextMessage outMessage2 = ZmqTextMessageBuilder.create().appendText("message 2").toMessage();
+
+        outMessage1.setStringProperty("priority", "urgent");
+        outMessage1.setJMSPriority(7);
+        outMessage2.setStringProperty("JMSPriority", "high");
+        outMessage2.setJMSPriority(0);
+
+        final ZMsg msg1 = handler.createMsg(ZmqSocketType.PUSH, null, handler.createSendEvent(outMessage1));
+        final ZMsg msg2 = handler.createMsg(ZmqSocketType.PUSH, null, handler.createSendEvent(outMessage2));
+
+        try {
+            final ZmqTextMessage inMessage1 = (ZmqTextMessage) ((ZmqSendEvent) handler.createEvent(ZmqSocketType.PULL, msg1)).getMessage();
+
+            Assert.assertEquals("message 1", inMessage1.getText());
+            Assert.assertEquals("urgent", inMessage1.getStringProperty("priority"));
+            Assert.assertEquals(7, inMessage1.getJMSPriority());
+
+            final ZmqTextMessage inMessage2 = (ZmqTextMessage) ((ZmqSendEvent) handler.createEvent(ZmqSocketType.PULL, msg2)).getMessage();
+
+            Assert.assertEquals("message 2", inMessage2.getText());
+            Assert.assertEquals(0, inMessage2.getJMSPriority());
+        } catch (ZmqException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        }
+    }
+}
@@ -11,6 +11,7 @@ import javax.jms.JMSException;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.zeromq.ZMQ;
 import org.zeromq.jms.ZmqException;
 import org.zeromq.jms.ZmqTextMessage;
 import org.zeromq.jms.ZmqTextMessageBuilder;
@@ -26,6 +27,10 @@ public class TestZmqGatewayWithProxy {
     private static final String SOCKET_PROXY_ADDR = "tcp://*:9732";
     private static final String SOCKET_SERVER_ADDR = "tcp://*:9733";
 
+    private static final String SOCKET_BALANCE_PROXY_ADDR = "tcp://*:9761";
+    private static final String SOCKET_BALANCE_SERVER_ADDRS = "tcp://*:9762,tcp://*:9763";
+    private static final String SOCKET_CAPTURE_ADDR = "tcp://*:9764";
+
     private static final String MESSAGE_1 = "this is the text message 1";
     private static final String MESSAGE_2 = "this is the text message 2";
     private static final String MESSAGE_3 = "this is the text message 3";
@@ -115,4 +120,85 @@ public class TestZmqGatewayWithProxy {
             Assert.fail(ex.getMessage());
         }
     }
+
+    /**
+     * Test the proxy balances across a back socket per gateway address, counts the traffic within the metrics and
+     * publishes the messages to the capture socket.
+     * @throws JMSException  throws exception on test failure
+     */
+    @Test
+    public void testPullPushWithBalancingProxy() throws JMSException {
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_BALANCE_PROXY_ADDR, ZmqSocketType.PUSH, false, flags);
+        final ZmqGateway sender = new ZmqFireAndForgetGateway("snd", senderContext,
+                null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_BALANCE_SERVER_ADDRS, ZmqSocketType.PULL, false, flags);
+        receiverContext.setProxyAddr(SOCKET_BALANCE_PROXY_ADDR);
+        receiverContext.setProxyType(ZmqSocketType.PULL);
+        receiverContext.setProxyOutType(ZmqSocketType.PUSH);
+        receiverContext.setProxyCaptureAddr(SOCKET_CAPTURE_ADDR);
+
+        final ZmqGateway receiver = new ZmqFireAndForgetGateway("rcv", receiverContext,
+                 null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        final ZMQ.Context captureContext = ZMQ.context(1);
+        final ZMQ.Socket captureSocket = captureContext.socket(ZMQ.SUB);
+
+        try {
+            receiver.open(-1);
+            sender.open(-1);
+
+            captureSocket.subscribe(ZMQ.SUBSCRIPTION_ALL);
+            captureSocket.setReceiveTimeOut(500);
+            captureSocket.connect(SOCKET_CAPTURE_ADDR.replace("*", "localhost"));
+
+            for (int i = 0; i < 4; i++) {
+                sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage());
+
+                final ZmqTextMessage inMessage = (ZmqTextMessage) receiver.receive(3000);
+
+                Assert.assertNotNull(inMessage);
+                Assert.assertEquals(MESSAGE_1, inMessage.getText());
+            }
+
+            int backSocketCount = 0;
+
+            for (ZmqSocketMetrics metrics : receiver.getMetrics()) {
+                if (metrics.getAddr().startsWith("proxy(")) {
+                    if (metrics.getAddr().equals("proxy(" + SOCKET_BALANCE_PROXY_ADDR + ")")) {
+                        Assert.assertEquals(4, metrics.getReceiveCount());
+                    } else {
+                        // each back socket takes a turn
+                        Assert.assertEquals(2, metrics.getSendCount());
+                        Assert.assertTrue(metrics.getSendBytes() > 0);
+                        backSocketCount++;
+                    }
+                }
+            }
+
+            Assert.assertEquals(2, backSocketCount);
+
+            // the capture misses the messages while the subscription is joining, so keep sending until it is live
+            final long deadline = System.currentTimeMillis() + 10000;
+            byte[] capturedMsg = captureSocket.recv();
+
+            while (capturedMsg == null && System.currentTimeMillis() < deadline) {
+                sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage());
+                Assert.assertNotNull(receiver.receive(3000));
+
+                capturedMsg = captureSocket.recv();
+            }
+
+            Assert.assertNotNull(capturedMsg);
+        } finally {
+            sender.close(-1);
+            receiver.close(-1);
+
+            captureSocket.close();
+            captureContext.close();
+        }
+    }
 }
@@ -0,0 +1,157 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.nio.file.Paths;
+
+import javax.jms.CompletionListener;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqConnectionFactory;
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqTextMessage;
+import org.zeromq.jms.ZmqTextMessageBuilder;
+import org.zeromq.jms.protocol.ZmqGateway.Direction;
+import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
+import org.zeromq.jms.protocol.store.ZmqJournalPolicy;
+import org.zeromq.jms.protocol.store.ZmqMappedJournalStore;
+
+/**
+ * Test the in-VM gateway forgets an address once nothing is left on it, and fails sends once its backlog is full.
+ */
+public class TestZmqInVmGateway {
+
+    private static final String QUEUE_NAME = "queue_invm_endpoint";
+    private static final String QUEUE_ADDR = "inproc://queue_invm_endpoint";
+    private static final String BACKLOG_ADDR = "inproc://queue_invm_backlog";
+
+    /**
+     * Test the address is forgotten once its receivers have closed, but not while it holds messages back.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testEndpointRemovedOnClose() throws Exception {
+        final ZmqConnectionFactory factory = new ZmqConnectionFactory(new String[] {
+            "jms:queue:" + QUEUE_NAME + "?gateway=invm&socket.addr=" + QUEUE_ADDR });
+        final QueueConnection connection = factory.createQueueConnection();
+
+        QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Queue queue = session.createQueue(QUEUE_NAME);
+
+            session.createReceiver(queue);
+            Assert.assertTrue(ZmqInVmGateway.isEndpoint(QUEUE_ADDR));
+        } finally {
+            session.close();
+        }
+
+        Assert.assertFalse(ZmqInVmGateway.isEndpoint(QUEUE_ADDR));
+
+        session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Queue queue = session.createQueue(QUEUE_NAME);
+
+            session.createSender(queue).send(ZmqTextMessageBuilder.create().appendText("message 1").toMessage());
+        } finally {
+            session.close();
+        }
+
+        // held back for the next receiver
+        Assert.assertTrue(ZmqInVmGateway.isEndpoint(QUEUE_ADDR));
+
+        session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        try {
+            final Queue queue = session.createQueue(QUEUE_NAME);
+
+            Assert.assertNotNull(session.createReceiver(queue).receive(1000));
+        } finally {
+            session.close();
+        }
+
+        Assert.assertFalse(ZmqInVmGateway.isEndpoint(QUEUE_ADDR));
+    }
+
+    /**
+     * Test a send fails (synchronous and asynchronous) once the backlog is full, even when journaled before being
+     * handed on, and succeeds again once a receiver takes the backlog.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testBacklogFull() throws Exception {
+        final ZmqMappedJournalStore store =
+            new ZmqMappedJournalStore(Paths.get(System.getProperty("java.io.tmpdir")).resolve("test-queue"), "invm-backlog", "zmq");
+
+        store.setSweepPeriod(-1);
+
+        final ZmqInVmGateway sender = new ZmqInVmGateway("protocol:sender", new ZmqSocketContext(BACKLOG_ADDR, ZmqSocketType.PUSH, true, 0),
+            null, new ZmqStompEventHandler(), null, store, null, null, false, Direction.OUTGOING);
+        final ZmqInVmGateway receiver = new ZmqInVmGateway("protocol:receiver", new ZmqSocketContext(BACKLOG_ADDR, ZmqSocketType.PULL, false, 0),
+            null, new ZmqStompEventHandler(), null, null, null, null, false, Direction.INCOMING);
+
+        sender.setJournalPolicy(ZmqJournalPolicy.BEFORE_SEND);
+        sender.setBacklogSize(2);
+
+        final CompletionListener completionListener = new CompletionListener() {
+
+            @Override
+            public void onCompletion(final Message message) {
+            }
+
+            @Override
+            public void onException(final Message message, final Exception exception) {
+            }
+        };
+
+        try {
+            store.reset();
+            sender.open(-1);
+
+            sender.send(ZmqTextMessageBuilder.create().appendText("message 1").toMessage());
+            sender.send(ZmqTextMessageBuilder.create().appendText("message 2").toMessage());
+
+            try {
+                sender.send(ZmqTextMessageBuilder.create().appendText("message 3").toMessage());
+                Assert.fail("Expected failure sending to a full backlog");
+            } catch (ZmqException ex) {
+                Assert.assertNotNull(ex.getMessage());
+            }
+
+            try {
+                sender.send(ZmqTextMessageBuilder.create().appendText("message 3").toMessage(), completionListener);
+                Assert.fail("Expected failure sending asynchronously to a full backlog");
+            } catch (ZmqException ex) {
+                Assert.assertNotNull(ex.getMessage());
+            }
+
+            receiver.open(-1);
+
+            Assert.assertEquals("message 1", ((ZmqTextMessage) receiver.receive(3000)).getText());
+            Assert.assertEquals("message 2", ((ZmqTextMessage) receiver.receive(3000)).getText());
+
+            sender.send(ZmqTextMessageBuilder.create().appendText("message 3").toMessage());
+
+            Assert.assertEquals("message 3", ((ZmqTextMessage) receiver.receive(3000)).getText());
+            Assert.assertNull(receiver.receive(500));
+        } finally {
+            sender.close(-1);
+            receiver.close(-1);
+            store.close();
+        }
+
+        Assert.assertFalse(ZmqInVmGateway.isEndpoint(BACKLOG_ADDR));
+    }
+}
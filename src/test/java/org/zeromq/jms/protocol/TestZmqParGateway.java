@@ -7,7 +7,18 @@ package org.zeromq.jms.protocol;
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at http://mozilla.org/MPL/2.0/.
  */
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.CompletionListener;
 import javax.jms.JMSException;
+import javax.jms.Message;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -16,6 +27,8 @@ import org.zeromq.jms.ZmqTextMessageBuilder;
 import org.zeromq.jms.protocol.ZmqGateway.Direction;
 import org.zeromq.jms.protocol.event.ZmqEventHandler;
 import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
+import org.zeromq.jms.protocol.store.ZmqJournalPolicy;
+import org.zeromq.jms.protocol.store.ZmqMappedJournalStore;
 
 /**
  * Test PAR gateway functionality send/receive protocol functionality.
@@ -86,4 +99,240 @@ public class TestZmqParGateway {
             Assert.fail(ex.getMessage());
         }
     }
+
+    /**
+     * Test the sender stops once the receiver has no credit, and resumes as the receiver consumes its backlog.
+     */
+    @Test
+    public void testSendWithCreditFlowControl() {
+
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.DEALER, true, flags);
+        final ZmqParGateway sender = new ZmqParGateway("protocol:sender", senderContext,
+                  null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.ROUTER, false, flags);
+        final ZmqParGateway receiver = new ZmqParGateway("protocol:receiver", receiverContext,
+                  null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        sender.setCredit(2);
+        receiver.setCredit(2);
+
+        sender.open(-1);
+        receiver.open(-1);
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                sender.send(ZmqTextMessageBuilder.create().appendText("message " + i).toMessage());
+            }
+
+            Thread.sleep(1000);
+
+            // only the credit of the receiver is in flight
+            Assert.assertEquals(8, sender.getOutgoingCount());
+
+            for (int i = 0; i < 10; i++) {
+                final ZmqTextMessage inMessage = (ZmqTextMessage) receiver.receive(5000);
+
+                Assert.assertNotNull(inMessage);
+                Assert.assertEquals("message " + i, inMessage.getText());
+            }
+
+            Assert.assertEquals(0, sender.getOutgoingCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        } finally {
+            sender.close(-1);
+            receiver.close(-1);
+        }
+    }
+
+    /**
+     * Test a sender held without credit waits (rather than spins) and makes progress once the receiver returns credit.
+     */
+    @Test
+    public void testThrottledSessionWaitsForCredit() {
+
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+        final AtomicLong sendCalls = new AtomicLong();
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext("tcp://*:9783", ZmqSocketType.DEALER, true, flags);
+        final ZmqParGateway sender = new ZmqParGateway("protocol:sender", senderContext,
+                  null, handler, null, null, null, null, false, Direction.OUTGOING) {
+
+            @Override
+            protected ZmqEvent socketSend(final ZmqSocketSession source) {
+                sendCalls.incrementAndGet();
+
+                return super.socketSend(source);
+            }
+        };
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext("tcp://*:9783", ZmqSocketType.ROUTER, false, flags);
+        final ZmqParGateway receiver = new ZmqParGateway("protocol:receiver", receiverContext,
+                  null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        sender.setCredit(1);
+        receiver.setCredit(1);
+
+        sender.open(-1);
+        receiver.open(-1);
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                sender.send(ZmqTextMessageBuilder.create().appendText("message " + i).toMessage());
+            }
+
+            Thread.sleep(1000);
+
+            // held by the receiver backlog
+            Assert.assertEquals(2, sender.getOutgoingCount());
+
+            final long startCalls = sendCalls.get();
+
+            Thread.sleep(1000);
+
+            Assert.assertTrue("Throttled session spinning: " + (sendCalls.get() - startCalls), sendCalls.get() - startCalls < 100);
+
+            for (int i = 0; i < 3; i++) {
+                final ZmqTextMessage inMessage = (ZmqTextMessage) receiver.receive(5000);
+
+                Assert.assertNotNull(inMessage);
+                Assert.assertEquals("message " + i, inMessage.getText());
+            }
+
+            Assert.assertEquals(0, sender.getOutgoingCount());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        } finally {
+            sender.close(-1);
+            receiver.close(-1);
+        }
+    }
+
+    /**
+     * Test asynchronous sends are completed, in order, once acknowledged by the receiver.
+     */
+    @Test
+    public void testSendWithCompletionListener() {
+
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.DEALER, true, flags);
+        final ZmqGateway sender = new ZmqParGateway("protocol:sender", senderContext,
+                  null, handler, null, null, null, null, false, Direction.OUTGOING);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.ROUTER, false, flags);
+        final ZmqGateway receiver = new ZmqParGateway("protocol:receiver", receiverContext,
+                  null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        final CountDownLatch completionCountDownLatch = new CountDownLatch(3);
+        final List<String> completedTexts = Collections.synchronizedList(new ArrayList<String>());
+
+        final CompletionListener completionListener = new CompletionListener() {
+
+            @Override
+            public void onCompletion(final Message message) {
+                try {
+                    completedTexts.add(((ZmqTextMessage) message).getText());
+                } catch (JMSException ex) {
+                    ex.printStackTrace();
+                }
+
+                completionCountDownLatch.countDown();
+            }
+
+            @Override
+            public void onException(final Message message, final Exception ex) {
+                ex.printStackTrace();
+            }
+        };
+
+        sender.open(-1);
+        receiver.open(-1);
+
+        try {
+            sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage(), completionListener);
+            sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage(), completionListener);
+            sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_3).toMessage(), completionListener);
+
+            for (int i = 0; i < 3; i++) {
+                Assert.assertNotNull(receiver.receive(3000));
+            }
+
+            Assert.assertTrue(completionCountDownLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(Arrays.asList(MESSAGE_1, MESSAGE_2, MESSAGE_3), completedTexts);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        } finally {
+            sender.close(-1);
+            receiver.close(-1);
+        }
+    }
+
+    /**
+     * Test a send and receive protocol functionality with the messages journaled asynchronously before sending.
+     */
+    @Test
+    public void testSendAndReceiveMessageWithAsyncJournal() {
+
+        final int flags = 0;
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+        final ZmqMappedJournalStore store =
+            new ZmqMappedJournalStore(Paths.get(System.getProperty("java.io.tmpdir")).resolve("test-queue"), "par-async", "zmq");
+
+        store.setSweepPeriod(-1);
+
+        final ZmqSocketContext senderContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.DEALER, true, flags);
+        final ZmqParGateway sender = new ZmqParGateway("protocol:sender", senderContext,
+                  null, handler, null, store, null, null, false, Direction.OUTGOING);
+
+        sender.setJournalPolicy(ZmqJournalPolicy.BEFORE_SEND);
+
+        final ZmqSocketContext receiverContext = new ZmqSocketContext(SOCKET_ADDR, ZmqSocketType.ROUTER, false, flags);
+        final ZmqGateway receiver = new ZmqParGateway("protocol:receiver", receiverContext,
+                  null, handler, null, null, null, null, false, Direction.INCOMING);
+
+        try {
+            store.reset();
+
+            sender.open(-1);
+            receiver.open(-1);
+
+            try {
+                sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage());
+                sender.send(ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage());
+
+                final ZmqTextMessage inMessage1 = (ZmqTextMessage) receiver.receive(3000);
+                final ZmqTextMessage inMessage2 = (ZmqTextMessage) receiver.receive(3000);
+
+                Assert.assertNotNull(inMessage1);
+                Assert.assertEquals(MESSAGE_1, inMessage1.getText());
+
+                Assert.assertNotNull(inMessage2);
+                Assert.assertEquals(MESSAGE_2, inMessage2.getText());
+            } catch (Exception ex) {
+                ex.printStackTrace();
+
+                Assert.fail(ex.getMessage());
+            } finally {
+                sender.close(-1);
+                receiver.close(-1);
+            }
+        } catch (JMSException ex) {
+            ex.printStackTrace();
+
+            Assert.fail(ex.getMessage());
+        }
+    }
 }
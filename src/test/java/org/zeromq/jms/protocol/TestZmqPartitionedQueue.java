@@ -0,0 +1,154 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqTextMessage;
+import org.zeromq.jms.ZmqTextMessageBuilder;
+import org.zeromq.jms.protocol.event.ZmqEventHandler;
+import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
+
+/**
+ * Test the outgoing event queue partitioned by socket address.
+ */
+public class TestZmqPartitionedQueue {
+
+    private static final String[] ADDRS = { "tcp://server1:9711", "tcp://server2:9711", "tcp://server3:9711" };
+
+    /**
+     * Return a partitioned queue over the addresses.
+     * @param  addrs  the socket addresses
+     * @return        return the queue
+     */
+    private ZmqPartitionedQueue getQueue(final String... addrs) {
+        final Map<String, BlockingQueue<ZmqSendEvent>> partitionQueues = new LinkedHashMap<String, BlockingQueue<ZmqSendEvent>>();
+
+        for (String addr : addrs) {
+            partitionQueues.put(addr, new LinkedTransferQueue<ZmqSendEvent>());
+        }
+
+        return new ZmqPartitionedQueue("JMSXGroupID", new LinkedTransferQueue<ZmqSendEvent>(), partitionQueues);
+    }
+
+    /**
+     * Test messages of the same key are polled in order from the same address, while keys spread across addresses.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testPartitionOrder() throws Exception {
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+        final ZmqPartitionedQueue queue = getQueue(ADDRS);
+
+        for (int i = 0; i < 300; i++) {
+            final ZmqTextMessage message = ZmqTextMessageBuilder.create().appendText("message " + i).toMessage();
+
+            message.setStringProperty("JMSXGroupID", "group-" + (i % 30));
+            queue.put(handler.createSendEvent("messageId-" + i, message));
+        }
+
+        queue.put(handler.createSendEvent("messageId-nokey", ZmqTextMessageBuilder.create().appendText("no key").toMessage()));
+
+        Assert.assertEquals(301, queue.size());
+
+        final Map<String, String> groupAddrs = new HashMap<String, String>();
+        final Map<String, Integer> lastIndexes = new HashMap<String, Integer>();
+        final Map<String, Integer> addrCounts = new HashMap<String, Integer>();
+        int noKeyCount = 0;
+
+        for (String addr : ADDRS) {
+            ZmqSendEvent event;
+
+            while ((event = queue.poll(addr, 10, TimeUnit.MILLISECONDS)) != null) {
+                final String group = event.getMessage().getStringProperty("JMSXGroupID");
+
+                if (group == null) {
+                    noKeyCount++;
+                    continue;
+                }
+
+                final int index = Integer.parseInt(((ZmqTextMessage) event.getMessage()).getText().substring(8));
+
+                Assert.assertEquals(addr, queue.getAddr(group));
+                Assert.assertEquals(addr, groupAddrs.getOrDefault(group, addr));
+                Assert.assertTrue(lastIndexes.getOrDefault(group, -1) < index);
+
+                groupAddrs.put(group, addr);
+                lastIndexes.put(group, index);
+                addrCounts.put(addr, addrCounts.getOrDefault(addr, 0) + 1);
+            }
+        }
+
+        Assert.assertEquals(1, noKeyCount);
+        Assert.assertEquals(30, groupAddrs.size());
+        Assert.assertEquals(ADDRS.length, addrCounts.size());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    /**
+     * Test a failed event is put back at the head of its partition, ahead of the later events of its key.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testOfferFirst() throws Exception {
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+        final Map<String, BlockingQueue<ZmqSendEvent>> partitionQueues = new LinkedHashMap<String, BlockingQueue<ZmqSendEvent>>();
+
+        for (String addr : ADDRS) {
+            partitionQueues.put(addr, new LinkedBlockingDeque<ZmqSendEvent>());
+        }
+
+        final ZmqPartitionedQueue queue = new ZmqPartitionedQueue("JMSXGroupID", new LinkedBlockingDeque<ZmqSendEvent>(), partitionQueues);
+
+        for (int i = 0; i < 3; i++) {
+            final ZmqTextMessage message = ZmqTextMessageBuilder.create().appendText("message " + i).toMessage();
+
+            message.setStringProperty("JMSXGroupID", "group");
+            queue.put(handler.createSendEvent("messageId-" + i, message));
+        }
+
+        final String addr = queue.getAddr("group");
+        final ZmqSendEvent failedEvent = queue.poll(addr, 10, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals("messageId-0", failedEvent.getMessageId());
+
+        AbstractZmqSendQueue.offerFirst(queue, failedEvent);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("messageId-" + i, queue.poll(addr, 10, TimeUnit.MILLISECONDS).getMessageId());
+        }
+
+        Assert.assertEquals(0, queue.size());
+    }
+
+    /**
+     * Test removing an address only moves the keys of that address.
+     */
+    @Test
+    public void testConsistentHashing() {
+        final ZmqPartitionedQueue queue = getQueue(ADDRS);
+        final ZmqPartitionedQueue reducedQueue = getQueue(ADDRS[0], ADDRS[1]);
+
+        for (int i = 0; i < 1000; i++) {
+            final String key = "group-" + i;
+            final String addr = queue.getAddr(key);
+
+            if (!addr.equals(ADDRS[2])) {
+                Assert.assertEquals(addr, reducedQueue.getAddr(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqTextMessage;
+import org.zeromq.jms.ZmqTextMessageBuilder;
+import org.zeromq.jms.protocol.event.ZmqEventHandler;
+import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
+
+/**
+ * Test the event queue by message priority band.
+ */
+public class TestZmqPriorityQueue {
+
+    private final ZmqEventHandler handler = new ZmqStompEventHandler();
+
+    /**
+     * Return a priority queue of the bands.
+     * @param  bands            the number of bands
+     * @param  starvationLimit  the starvation limit
+     * @return                  return the queue
+     */
+    private ZmqPriorityQueue getQueue(final int bands, final int starvationLimit) {
+        final List<BlockingQueue<ZmqSendEvent>> bandQueues = new ArrayList<BlockingQueue<ZmqSendEvent>>();
+
+        for (int band = 0; band < bands; band++) {
+            bandQueues.add(new LinkedTransferQueue<ZmqSendEvent>());
+        }
+
+        return new ZmqPriorityQueue(bandQueues, starvationLimit);
+    }
+
+    /**
+     * Put a message of the priority on to the queue.
+     * @param  queue      the queue
+     * @param  text       the message text
+     * @param  priority   the JMS priority
+     * @throws Exception  throws exception on test failure
+     */
+    private void put(final ZmqPriorityQueue queue, final String text, final int priority) throws Exception {
+        final ZmqTextMessage message = ZmqTextMessageBuilder.create().appendText(text).toMessage();
+
+        message.setJMSPriority(priority);
+        queue.put(handler.createSendEvent(text, message));
+    }
+
+    /**
+     * Return the text of the next message on the queue.
+     * @param  queue      the queue
+     * @return            return the text, or null when empty
+     * @throws Exception  throws exception on test failure
+     */
+    private String poll(final ZmqPriorityQueue queue) throws Exception {
+        final ZmqSendEvent event = queue.poll(10, TimeUnit.MILLISECONDS);
+
+        return (event == null) ? null : ((ZmqTextMessage) event.getMessage()).getText();
+    }
+
+    /**
+     * Test the JMS priorities are collapsed into the bands.
+     */
+    @Test
+    public void testBands() {
+        final ZmqPriorityQueue queue = getQueue(3, 0);
+
+        Assert.assertEquals(0, queue.getBand(0));
+        Assert.assertEquals(0, queue.getBand(3));
+        Assert.assertEquals(1, queue.getBand(4));
+        Assert.assertEquals(1, queue.getBand(6));
+        Assert.assertEquals(2, queue.getBand(7));
+        Assert.assertEquals(2, queue.getBand(9));
+        Assert.assertEquals(2, queue.getBand(99));
+        Assert.assertEquals(2, queue.getTopBand());
+    }
+
+    /**
+     * Test the highest band is polled first, in the order sent within a band.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testPriorityOrder() throws Exception {
+        final ZmqPriorityQueue queue = getQueue(3, 0);
+
+        put(queue, "low 1", 1);
+        put(queue, "normal 1", 4);
+        put(queue, "high 1", 9);
+        put(queue, "low 2", 0);
+        put(queue, "high 2", 7);
+
+        Assert.assertEquals(5, queue.size());
+        Assert.assertEquals("high 1", poll(queue));
+        Assert.assertEquals("high 2", poll(queue));
+        Assert.assertEquals("normal 1", poll(queue));
+        Assert.assertEquals("low 1", poll(queue));
+        Assert.assertEquals("low 2", poll(queue));
+        Assert.assertNull(poll(queue));
+    }
+
+    /**
+     * Test a waiting lower band is taken once passed over the starvation limit.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testStarvationLimit() throws Exception {
+        final ZmqPriorityQueue queue = getQueue(2, 2);
+
+        put(queue, "low 1", 0);
+
+        for (int i = 1; i <= 4; i++) {
+            put(queue, "high " + i, 9);
+        }
+
+        Assert.assertEquals("high 1", poll(queue));
+        Assert.assertEquals("high 2", poll(queue));
+        Assert.assertEquals("low 1", poll(queue));
+        Assert.assertEquals("high 3", poll(queue));
+        Assert.assertEquals("high 4", poll(queue));
+        Assert.assertNull(poll(queue));
+    }
+
+    /**
+     * Test polling a range of bands, i.e. the top band on its own.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testPollBands() throws Exception {
+        final ZmqPriorityQueue queue = getQueue(2, 0);
+
+        put(queue, "low 1", 0);
+        put(queue, "high 1", 9);
+
+        Assert.assertEquals("low 1", ((ZmqTextMessage) queue.poll(0, 0, 10, TimeUnit.MILLISECONDS).getMessage()).getText());
+        Assert.assertNull(queue.poll(0, 0, 10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("high 1", ((ZmqTextMessage) queue.poll(1, 1, 10, TimeUnit.MILLISECONDS).getMessage()).getText());
+        Assert.assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,88 @@
+package org.zeromq.jms.protocol;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqTextMessage;
+import org.zeromq.jms.ZmqTextMessageBuilder;
+import org.zeromq.jms.protocol.event.ZmqEventHandler;
+import org.zeromq.jms.protocol.event.ZmqStompEventHandler;
+
+/**
+ * Test the outgoing event queue which spills the overflow to file.
+ */
+public class TestZmqSpillQueue {
+
+    /**
+     * Test the overflow is spilled to file and read back in order, interleaved with new events.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testSpillAndReadBack() throws Exception {
+        final ZmqEventHandler handler = new ZmqStompEventHandler();
+        final Path directory = Paths.get(System.getProperty("java.io.tmpdir")).resolve("test-spill");
+        final ZmqSpillQueue queue = new ZmqSpillQueue(4, directory, handler);
+
+        for (int i = 0; i < 100; i++) {
+            final ZmqTextMessage message = ZmqTextMessageBuilder.create().appendText("message " + i).appendProperty("index", "index " + i)
+                .toMessage();
+
+            message.setJMSPriority(7);
+            queue.put(handler.createSendEvent("messageId-" + i, message));
+        }
+
+        Assert.assertEquals(100, queue.size());
+        Assert.assertEquals(96, queue.getSpilledCount());
+
+        int received = 0;
+
+        for (int i = 100; i < 150; i++) {
+            // new events queue behind the spilled events
+            queue.put(handler.createSendEvent("messageId-" + i, ZmqTextMessageBuilder.create().appendText("message " + i).toMessage()));
+
+            final ZmqSendEvent event = queue.poll(100, TimeUnit.MILLISECONDS);
+
+            Assert.assertEquals("messageId-" + received, event.getMessageId());
+            Assert.assertEquals("message " + received, ((ZmqTextMessage) event.getMessage()).getText());
+            // the whole message is spilled, not only its headers
+            Assert.assertEquals("index " + received, event.getMessage().getStringProperty("index"));
+            Assert.assertEquals(7, event.getMessage().getJMSPriority());
+            received++;
+        }
+
+        ZmqSendEvent event;
+
+        while ((event = queue.poll(100, TimeUnit.MILLISECONDS)) != null) {
+            Assert.assertEquals("messageId-" + received, event.getMessageId());
+            received++;
+        }
+
+        Assert.assertEquals(150, received);
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(146, queue.getSpillTotal());
+
+        // the spill has been read back, so the memory buffer is used again
+        queue.put(handler.createSendEvent("messageId-last", ZmqTextMessageBuilder.create().appendText("last").toMessage()));
+
+        Assert.assertEquals(0, queue.getSpilledCount());
+        Assert.assertEquals("messageId-last", queue.poll().getMessageId());
+
+        queue.close();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(0, files.count());
+        }
+    }
+}
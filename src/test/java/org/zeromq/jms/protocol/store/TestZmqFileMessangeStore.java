@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.jms.JMSException;
 
@@ -79,6 +82,49 @@ public class TestZmqFileMessangeStore {
         store.close();
     }
 
+    /**
+     * Test a batch of messages is created, and flagged as deleted, as one batch.
+     * @throws IOException           throws I/O exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test()
+    public void testCreateAndDeleteAll() throws IOException, JMSException {
+        final String tempDir = System.getProperty("java.io.tmpdir");
+        final Path location = Paths.get(tempDir).resolve("test-queue-batch");
+        final String uniqueId = "zmq";
+
+        final ZmqFileJounralStore store = new ZmqFileJounralStore(location, "grouping", uniqueId, "yyyyMMdd", "GMT");
+        final Map<Object, ZmqMessage> messages = new LinkedHashMap<Object, ZmqMessage>();
+
+        messages.put("messageId-1", ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage());
+        messages.put("messageId-2", ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage());
+        messages.put("messageId-3", ZmqTextMessageBuilder.create().appendText(MESSAGE_3).toMessage());
+        messages.put("messageId-4", ZmqTextMessageBuilder.create().appendText(MESSAGE_3).toMessage());
+
+        store.setSweepPeriod(-1);
+        store.reset();
+        store.open();
+
+        store.createAll(messages);
+
+        Assert.assertEquals(2, store.deleteAll(Arrays.<Object>asList("messageId-2", "messageId-4", "messageId-5")));
+        Assert.assertEquals(0, store.deleteAll(Arrays.<Object>asList("messageId-2", "messageId-4")));
+
+        store.sweepJournalFile(store.getCurrentJournalFle(uniqueId), 1000);
+
+        final ZmqJournalEntry entry1 = store.read();
+        Assert.assertNotNull(entry1);
+        Assert.assertEquals("messageId-1", entry1.getMessageId());
+
+        final ZmqJournalEntry entry3 = store.read();
+        Assert.assertNotNull(entry3);
+        Assert.assertEquals("messageId-3", entry3.getMessageId());
+
+        Assert.assertNull(store.read());
+
+        store.close();
+    }
+
     /**
      * Test storing of message in the "MULTIPLE" journal file.
      * @throws IOException           throws I/O exception on test failure
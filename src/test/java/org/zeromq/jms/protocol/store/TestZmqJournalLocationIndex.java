@@ -0,0 +1,197 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the primitive journal location index.
+ */
+public class TestZmqJournalLocationIndex {
+
+    /**
+     * Key with a fixed hash code, so all keys collide.
+     */
+    private static final class CollidingKey {
+        private final int value;
+
+        /**
+         * @param value  the key value
+         */
+        private CollidingKey(final int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof CollidingKey && ((CollidingKey) obj).value == value;
+        }
+    }
+
+    /**
+     * Return an index which resolves the keys from the list, using the position as the list index.
+     * @param  keys  the keys
+     * @return       return the index
+     */
+    private ZmqJournalLocationIndex getIndex(final List<Object> keys) {
+        return new ZmqJournalLocationIndex(new ZmqJournalLocationIndex.KeyMatcher() {
+
+            @Override
+            public boolean matches(final Object key, final int segment, final int position) {
+                return key.equals(keys.get(position));
+            }
+        }, 4);
+    }
+
+    /**
+     * Test the index grows, and removes the entries returning the segment number and record index.
+     */
+    @Test
+    public void testPutAndRemove() {
+        final List<Object> keys = new ArrayList<Object>();
+        final ZmqJournalLocationIndex index = getIndex(keys);
+
+        for (int i = 0; i < 10000; i++) {
+            final Object key = (i % 2 == 0) ? "messageId-" + i : UUID.randomUUID();
+
+            keys.add(key);
+            index.put(key, i / 100 + 1, i % 100, i, System.currentTimeMillis());
+        }
+
+        Assert.assertEquals(10000, index.size());
+        Assert.assertEquals(-1, index.remove("messageId-unknown"));
+
+        for (int i = 0; i < 10000; i += 3) {
+            final long reference = index.remove(keys.get(i));
+
+            Assert.assertEquals(i / 100 + 1, ZmqJournalLocationIndex.getSegment(reference));
+            Assert.assertEquals(i % 100, ZmqJournalLocationIndex.getIndex(reference));
+            Assert.assertEquals(-1, index.remove(keys.get(i)));
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(i % 3 != 0, index.contains(keys.get(i)));
+        }
+
+        index.clear();
+
+        Assert.assertEquals(0, index.size());
+        Assert.assertFalse(index.contains(keys.get(1)));
+    }
+
+    /**
+     * Test keys with the same hash are resolved by the key matcher, including after removals within the probe sequence.
+     */
+    @Test
+    public void testCollisions() {
+        final List<Object> keys = new ArrayList<Object>();
+        final ZmqJournalLocationIndex index = getIndex(keys);
+
+        for (int i = 0; i < 100; i++) {
+            keys.add(new CollidingKey(i));
+            index.put(keys.get(i), 1, i, i, 0);
+        }
+
+        // replacing an existing key does not add an entry
+        index.put(new CollidingKey(5), 1, 5, 5, 0);
+        Assert.assertEquals(100, index.size());
+
+        for (int i = 0; i < 100; i += 2) {
+            Assert.assertEquals(i, ZmqJournalLocationIndex.getIndex(index.remove(new CollidingKey(i))));
+        }
+
+        Assert.assertEquals(50, index.size());
+
+        for (int i = 1; i < 100; i += 2) {
+            Assert.assertTrue(index.contains(new CollidingKey(i)));
+            Assert.assertFalse(index.contains(new CollidingKey(i - 1)));
+        }
+    }
+
+    /**
+     * Test the key matcher (reading the record back) is only consulted for the entries sharing their hash.
+     */
+    @Test
+    public void testMatcherOnlyOnSharedHash() {
+        final List<Object> keys = new ArrayList<Object>();
+        final int[] matchCount = new int[1];
+        final ZmqJournalLocationIndex index = new ZmqJournalLocationIndex(new ZmqJournalLocationIndex.KeyMatcher() {
+
+            @Override
+            public boolean matches(final Object key, final int segment, final int position) {
+                matchCount[0]++;
+
+                return key.equals(keys.get(position));
+            }
+        }, 4);
+
+        for (int i = 0; i < 100; i++) {
+            keys.add("messageId-" + i);
+            index.put(keys.get(i), 1, i, i, 0);
+        }
+
+        keys.add(new CollidingKey(1));
+        index.put(keys.get(100), 1, 100, 100, 0);
+        keys.add(new CollidingKey(2));
+        index.put(keys.get(101), 1, 101, 101, 0);
+
+        matchCount[0] = 0;
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, ZmqJournalLocationIndex.getPosition(index.get(keys.get(i))));
+            Assert.assertEquals(i, ZmqJournalLocationIndex.getIndex(index.remove(keys.get(i))));
+        }
+
+        Assert.assertEquals(0, matchCount[0]);
+
+        Assert.assertEquals(101, ZmqJournalLocationIndex.getPosition(index.get(new CollidingKey(2))));
+        Assert.assertTrue(matchCount[0] > 0);
+    }
+
+    /**
+     * Test the visitor sees every entry, and can change its timestamp.
+     */
+    @Test
+    public void testForEach() {
+        final List<Object> keys = new ArrayList<Object>();
+        final ZmqJournalLocationIndex index = getIndex(keys);
+
+        for (int i = 0; i < 100; i++) {
+            keys.add("messageId-" + i);
+            index.put(keys.get(i), 1 + i % 2, i, i, 0);
+        }
+
+        final int[] counts = new int[2];
+
+        for (int pass = 0; pass < 2; pass++) {
+            index.forEach(new ZmqJournalLocationIndex.LocationVisitor() {
+
+                @Override
+                public long visit(final int segment, final int recordIndex, final int position, final long timestamp) {
+                    Assert.assertEquals(recordIndex, position);
+                    counts[(int) timestamp]++;
+
+                    return (segment == 1) ? 1 : timestamp;
+                }
+            });
+        }
+
+        Assert.assertEquals(150, counts[0]);
+        Assert.assertEquals(50, counts[1]);
+    }
+}
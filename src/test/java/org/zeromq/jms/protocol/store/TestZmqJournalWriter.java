@@ -0,0 +1,184 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqMessage;
+import org.zeromq.jms.ZmqTextMessage;
+import org.zeromq.jms.ZmqTextMessageBuilder;
+
+/**
+ * Test the asynchronous journal writer.
+ */
+public class TestZmqJournalWriter {
+
+    private static final String MESSAGE_1 = "this is the text message 1";
+    private static final String MESSAGE_2 = "this is the text message 2";
+
+    /**
+     * Return a new store within the temp directory, with auto-sweep disabled.
+     * @param  groupId   the group identifier
+     * @return           return the store
+     */
+    private ZmqMappedJournalStore getStore(final String groupId) {
+        final String tempDir = System.getProperty("java.io.tmpdir");
+        final Path location = Paths.get(tempDir).resolve("test-queue");
+        final ZmqMappedJournalStore store = new ZmqMappedJournalStore(location, groupId, "zmq");
+
+        store.setSweepPeriod(-1);
+
+        return store;
+    }
+
+    /**
+     * Test the writes are applied in order through a small buffer, and the pending writes are applied on stop.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testWritesInOrder() throws Exception {
+        final ZmqMappedJournalStore store = getStore("writer-order");
+        final ZmqMessage message = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+        final ZmqJournalWriter writer = new ZmqJournalWriter(store, 16);
+        final Set<Object> expectedMessageIds = new HashSet<Object>();
+
+        store.reset();
+        store.open();
+        writer.start();
+
+        CompletableFuture<Boolean> future = null;
+
+        for (int i = 0; i < 1000; i++) {
+            future = writer.create("messageId-" + i, message);
+
+            if (i % 2 == 0) {
+                // deleted straight after the create was queued
+                future = writer.delete("messageId-" + i);
+            } else {
+                expectedMessageIds.add("messageId-" + i);
+            }
+        }
+
+        Assert.assertTrue(future.get());
+
+        future = writer.create("messageId-last", message);
+        expectedMessageIds.add("messageId-last");
+
+        writer.stop(3000);
+
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(0, writer.getPendingCount());
+
+        try {
+            writer.create("messageId-closed", message);
+            Assert.fail("Expected failure writing to a stopped writer");
+        } catch (ZmqException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+
+        store.close();
+
+        final ZmqMappedJournalStore recoveredStore = getStore("writer-order");
+        final Set<Object> messageIds = new HashSet<Object>();
+
+        recoveredStore.open();
+
+        ZmqJournalEntry entry;
+
+        while ((entry = recoveredStore.read()) != null) {
+            messageIds.add(entry.getMessageId());
+        }
+
+        Assert.assertEquals(expectedMessageIds, messageIds);
+
+        recoveredStore.close();
+    }
+
+    /**
+     * Test a failed write completes its future exceptionally, without stopping the writer.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testFailedWrite() throws Exception {
+        final ZmqMappedJournalStore store = getStore("writer-failed");
+        final ZmqMessage message = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+        final ZmqJournalWriter writer = new ZmqJournalWriter(store, 16);
+
+        store.reset();
+        writer.start();
+
+        // the store has not been opened
+        final CompletableFuture<Boolean> failedFuture = writer.create("messageId-1", message);
+
+        try {
+            failedFuture.get();
+            Assert.fail("Expected failure writing to a closed store");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof ZmqException);
+        }
+
+        store.open();
+
+        Assert.assertTrue(writer.create("messageId-2", message).get());
+
+        writer.stop(3000);
+        store.close();
+    }
+
+    /**
+     * Test the journal holds the message as it was when the create was queued, although the message is changed
+     * (i.e. re-used by the producer) before the writer thread gets to it.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testMessageReusedAfterCreate() throws Exception {
+        final ZmqMappedJournalStore store = getStore("writer-reuse");
+        final ZmqTextMessage message = (ZmqTextMessage) ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+        final ZmqJournalWriter writer = new ZmqJournalWriter(store, 2048);
+
+        store.reset();
+        store.open();
+        writer.start();
+
+        // keep the writer thread busy, so the message is changed before its entry is written
+        for (int i = 0; i < 1000; i++) {
+            writer.create("messageId-busy-" + i, message);
+            writer.delete("messageId-busy-" + i);
+        }
+
+        final CompletableFuture<Boolean> future = writer.create("messageId-1", message);
+
+        message.setText(MESSAGE_2);
+
+        Assert.assertTrue(future.get());
+
+        writer.stop(3000);
+        store.close();
+
+        final ZmqMappedJournalStore recoveredStore = getStore("writer-reuse");
+
+        recoveredStore.open();
+
+        final ZmqJournalEntry entry = recoveredStore.read();
+
+        Assert.assertNotNull(entry);
+        Assert.assertEquals("messageId-1", entry.getMessageId());
+        Assert.assertEquals(MESSAGE_1, ((ZmqTextMessage) entry.getMessage()).getText());
+        Assert.assertNull(recoveredStore.read());
+
+        recoveredStore.close();
+    }
+}
@@ -0,0 +1,611 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.jms.JMSException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqException;
+import org.zeromq.jms.ZmqMessage;
+import org.zeromq.jms.ZmqTextMessageBuilder;
+
+/**
+ * Test the memory-mapped segment journal store.
+ */
+public class TestZmqMappedJournalStore {
+
+    private static final String MESSAGE_1 = "this is the text message 1";
+    private static final String MESSAGE_2 = "this is the text message 1 2";
+    private static final String MESSAGE_3 = "this is the text message 1 2 3";
+
+    /**
+     * Return a new store within the temp directory, with auto-sweep disabled.
+     * @param  groupId        the group identifier
+     * @param  uniqueId       the unique identifier
+     * @param  segmentSize    the segment size
+     * @return                return the store
+     */
+    private ZmqMappedJournalStore getStore(final String groupId, final String uniqueId, final int segmentSize) {
+        final String tempDir = System.getProperty("java.io.tmpdir");
+        final Path location = Paths.get(tempDir).resolve("test-queue");
+        final ZmqMappedJournalStore store = new ZmqMappedJournalStore(location, groupId, uniqueId);
+
+        store.setSegmentSize(segmentSize);
+        store.setSweepPeriod(-1);
+
+        return store;
+    }
+
+    /**
+     * Test storing of messages, rolling over segments and archiving of deleted segments.
+     * @throws IOException           throws I/O exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test
+    public void testStoreMessage() throws IOException, JMSException {
+        final ZmqMappedJournalStore store = getStore("mapped-grouping", "zmq", 4096);
+
+        store.reset();
+        store.open();
+
+        final Path firstSegmentFile = store.getCurrentSegmentFile();
+        final ZmqMessage message1 = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+
+        store.create("messageId-1", message1);
+        store.create("messageId-2", ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage());
+        store.create("messageId-3", ZmqTextMessageBuilder.create().appendText(MESSAGE_3).toMessage());
+
+        Assert.assertNull(store.read());
+
+        for (int i = 4; store.getCurrentSegmentFile().equals(firstSegmentFile); i++) {
+            store.create("messageId-" + i, message1);
+        }
+
+        Assert.assertEquals(2, store.getSegmentFiles().size());
+
+        Assert.assertTrue(store.delete("messageId-2"));
+        Assert.assertFalse(store.delete("messageId-2"));
+
+        // delete all of the first segment, except message 1 and 3
+        for (int i = 4; store.delete("messageId-" + i); i++) {
+            continue;
+        }
+
+        final int count = store.sweepSegment(firstSegmentFile, 0);
+        Assert.assertEquals(2, count);
+
+        final ZmqJournalEntry entry1 = store.read();
+        Assert.assertNotNull(entry1);
+        Assert.assertEquals("messageId-1", entry1.getMessageId());
+        Assert.assertEquals(message1, entry1.getMessage());
+        Assert.assertFalse(entry1.isDeleted());
+
+        final ZmqJournalEntry entry3 = store.read();
+        Assert.assertNotNull(entry3);
+        Assert.assertEquals("messageId-3", entry3.getMessageId());
+
+        Assert.assertNull(store.read());
+
+        store.delete("messageId-1");
+        store.delete("messageId-3");
+
+        store.sweepSegments(0);
+
+        Assert.assertFalse(Files.exists(firstSegmentFile));
+        Assert.assertTrue(Files.exists(store.getAchiveJournalDir().resolve(firstSegmentFile.getFileName())));
+        Assert.assertEquals(1, store.getSegmentFiles().size());
+
+        store.close();
+    }
+
+    /**
+     * Test the sweep purges expired messages rather than republishing them.
+     * @throws IOException           throws I/O exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test
+    public void testPurgeExpiredMessages() throws IOException, JMSException {
+        final ZmqMappedJournalStore store = getStore("mapped-expiry", "zmq", 4096);
+
+        store.reset();
+        store.open();
+
+        final Path firstSegmentFile = store.getCurrentSegmentFile();
+        final ZmqMessage message1 = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+        final ZmqMessage message2 = ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage();
+
+        message1.setJMSExpiration(System.currentTimeMillis() - 1);
+        message2.setJMSExpiration(System.currentTimeMillis() + 60000);
+
+        store.create("messageId-1", message1);
+        store.create("messageId-2", message2);
+
+        for (int i = 3; store.getCurrentSegmentFile().equals(firstSegmentFile); i++) {
+            store.create("messageId-" + i, message2);
+        }
+
+        for (int i = 3; store.delete("messageId-" + i); i++) {
+            continue;
+        }
+
+        Assert.assertEquals(1, store.sweepSegment(firstSegmentFile, 0));
+        Assert.assertEquals(1, store.getExpiredCount());
+
+        final ZmqJournalEntry entry2 = store.read();
+        Assert.assertNotNull(entry2);
+        Assert.assertEquals("messageId-2", entry2.getMessageId());
+        Assert.assertNull(store.read());
+
+        // the expired message has been deleted, so the segment is archived once message 2 is
+        Assert.assertFalse(store.delete("messageId-1"));
+        Assert.assertTrue(store.delete("messageId-2"));
+
+        store.sweepSegments(0);
+
+        Assert.assertFalse(Files.exists(firstSegmentFile));
+
+        store.close();
+    }
+
+    /**
+     * Test a message larger than the segment size is given its own segment.
+     * @throws IOException           throws I/O exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test
+    public void testLargeMessage() throws IOException, JMSException {
+        final ZmqMappedJournalStore store = getStore("mapped-large", "zmq", 1024);
+
+        store.reset();
+        store.open();
+
+        final StringBuilder text = new StringBuilder();
+
+        while (text.length() < 8192) {
+            text.append(MESSAGE_3);
+        }
+
+        final ZmqMessage message = ZmqTextMessageBuilder.create().appendText(text.toString()).toMessage();
+
+        store.create("messageId-1", message);
+        Assert.assertTrue(Files.size(store.getCurrentSegmentFile()) > 8192);
+
+        store.close();
+
+        final ZmqMappedJournalStore recoveredStore = getStore("mapped-large", "zmq", 1024);
+
+        recoveredStore.open();
+
+        final ZmqJournalEntry entry = recoveredStore.read();
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(message, entry.getMessage());
+
+        recoveredStore.close();
+    }
+
+    /**
+     * Test messages not deleted are recovered when the store is re-opened.
+     * @throws ZmqException          throws ZMQ exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test
+    public void testRecoverMessages() throws ZmqException, JMSException {
+        final ZmqMappedJournalStore store = getStore("mapped-recover", "zmq", 1024 * 1024);
+
+        store.reset();
+        store.open();
+
+        store.create("messageId-1", ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage());
+        store.create("messageId-2", ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage());
+        store.create("messageId-3", ZmqTextMessageBuilder.create().appendText(MESSAGE_3).toMessage());
+        store.delete("messageId-2");
+        store.close();
+
+        final ZmqMappedJournalStore recoveredStore = getStore("mapped-recover", "zmq", 1024 * 1024);
+
+        recoveredStore.open();
+
+        final Set<Object> messageIds = new HashSet<Object>();
+
+        for (ZmqJournalEntry entry = recoveredStore.read(); entry != null; entry = recoveredStore.read()) {
+            messageIds.add(entry.getMessageId());
+        }
+
+        Assert.assertEquals(2, messageIds.size());
+        Assert.assertTrue(messageIds.contains("messageId-1"));
+        Assert.assertTrue(messageIds.contains("messageId-3"));
+
+        Assert.assertTrue(recoveredStore.delete("messageId-1"));
+        Assert.assertTrue(recoveredStore.delete("messageId-3"));
+
+        recoveredStore.close();
+    }
+
+    /**
+     * Test a batch of messages is created as one write, which recovery either finds whole or not at all, and is
+     * deleted as one batch.
+     * @throws IOException           throws I/O exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test
+    public void testCreateAndDeleteAll() throws IOException, JMSException {
+        final ZmqMappedJournalStore store = getStore("mapped-batch", "zmq", 1024 * 1024);
+        final Map<Object, ZmqMessage> messages = new LinkedHashMap<Object, ZmqMessage>();
+
+        messages.put("messageId-2", ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage());
+        messages.put("messageId-3", ZmqTextMessageBuilder.create().appendText(MESSAGE_3).toMessage());
+        messages.put("messageId-4", ZmqTextMessageBuilder.create().appendText(MESSAGE_3).toMessage());
+
+        store.reset();
+        store.open();
+
+        store.create("messageId-1", ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage());
+        store.createAll(messages);
+
+        Assert.assertEquals(2, store.deleteAll(Arrays.<Object>asList("messageId-2", "messageId-4")));
+
+        final Path segmentFile = store.getCurrentSegmentFile();
+        store.close();
+
+        final ZmqMappedJournalStore recoveredStore = getStore("mapped-batch", "zmq", 1024 * 1024);
+        final Set<Object> messageIds = new HashSet<Object>();
+
+        recoveredStore.open();
+
+        for (ZmqJournalEntry entry = recoveredStore.read(); entry != null; entry = recoveredStore.read()) {
+            messageIds.add(entry.getMessageId());
+        }
+
+        Assert.assertEquals(new HashSet<Object>(Arrays.asList("messageId-1", "messageId-3")), messageIds);
+
+        recoveredStore.close();
+
+        // the length of the first batch record is written last, so without it none of the batch is recovered
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            final int position = 8 + buffer.getInt(8);
+
+            buffer.putInt(position, 0);
+        }
+
+        Files.delete(store.getCheckpointFile());
+        Files.deleteIfExists(store.getAckFile(segmentFile));
+
+        final ZmqMappedJournalStore tornStore = getStore("mapped-batch", "zmq", 1024 * 1024);
+
+        tornStore.open();
+
+        final ZmqJournalEntry entry = tornStore.read();
+        Assert.assertNotNull(entry);
+        Assert.assertEquals("messageId-1", entry.getMessageId());
+        Assert.assertNull(tornStore.read());
+
+        tornStore.close();
+    }
+
+    /**
+     * Test the segments of an orphaned store are adopted by another store in the same group.
+     * @throws IOException           throws I/O exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test
+    public void testAdoptOrphanedSegments() throws IOException, JMSException {
+        final ZmqMappedJournalStore store1 = getStore("mapped-adopt", "zmq-1", 1024 * 1024);
+        final ZmqMappedJournalStore store2 = getStore("mapped-adopt", "zmq-2", 1024 * 1024);
+
+        store1.reset();
+        store1.open();
+        store2.open();
+
+        final ZmqMessage message1 = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+
+        store1.create("messageId-1", message1);
+
+        final Path orphanedFile = store1.getCurrentSegmentFile();
+        store1.close();
+
+        // still "active", so nothing adopted
+        store2.sweepSegments(60000);
+        Assert.assertNull(store2.read());
+
+        Files.setLastModifiedTime(orphanedFile, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+
+        store2.sweepSegments(60000);
+
+        final ZmqJournalEntry entry = store2.read();
+        Assert.assertNotNull(entry);
+        Assert.assertEquals("messageId-1", entry.getMessageId());
+        Assert.assertEquals(message1, entry.getMessage());
+        Assert.assertFalse(Files.exists(orphanedFile));
+
+        final List<Path> segmentFiles = store2.getSegmentFiles();
+        Assert.assertEquals(2, segmentFiles.size());
+
+        Assert.assertTrue(store2.delete("messageId-1"));
+
+        store2.close();
+    }
+
+    /**
+     * Test concurrent creates with group commit durability are all forced, with at most one force per create.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testGroupCommit() throws Exception {
+        final ZmqMappedJournalStore store = getStore("mapped-group", "zmq", 1024 * 1024);
+        final ZmqMessage message = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+        final int threadCount = 8;
+        final int messageCount = 200;
+
+        store.setDurability(ZmqJournalDurability.GROUP);
+        store.reset();
+        store.open();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+        for (int t = 0; t < threadCount; t++) {
+            final int threadIndex = t;
+
+            futures.add(executor.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    for (int i = 0; i < messageCount; i++) {
+                        store.create("messageId-" + threadIndex + "-" + i, message);
+                    }
+
+                    return messageCount;
+                }
+            }));
+        }
+
+        int total = 0;
+
+        for (Future<Integer> future : futures) {
+            total += future.get();
+        }
+
+        executor.shutdown();
+
+        Assert.assertEquals(threadCount * messageCount, total);
+        Assert.assertTrue(store.getSyncCount() > 0);
+        Assert.assertTrue(store.getSyncCount() <= total);
+
+        // already committed, so nothing more to force
+        final long syncCount = store.getSyncCount();
+        store.commit();
+        Assert.assertEquals(syncCount, store.getSyncCount());
+
+        for (int t = 0; t < threadCount; t++) {
+            for (int i = 0; i < messageCount; i++) {
+                Assert.assertTrue(store.delete("messageId-" + t + "-" + i));
+            }
+        }
+
+        store.close();
+    }
+
+    /**
+     * Test per message durability forces every create, while none never forces until closed.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testMessageAndNoDurability() throws Exception {
+        final ZmqMessage message = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+
+        final ZmqMappedJournalStore store1 = getStore("mapped-message", "zmq", 1024 * 1024);
+
+        store1.setDurability(ZmqJournalDurability.MESSAGE);
+        store1.reset();
+        store1.open();
+
+        for (int i = 0; i < 10; i++) {
+            store1.create("messageId-" + i, message);
+        }
+
+        Assert.assertEquals(10, store1.getSyncCount());
+        store1.close();
+
+        final ZmqMappedJournalStore store2 = getStore("mapped-none", "zmq", 1024 * 1024);
+
+        store2.setDurability(ZmqJournalDurability.NONE);
+        store2.reset();
+        store2.open();
+
+        for (int i = 0; i < 10; i++) {
+            store2.create("messageId-" + i, message);
+        }
+
+        Assert.assertEquals(0, store2.getSyncCount());
+        store2.close();
+    }
+
+    /**
+     * Test deletes only change the acknowledgement watermark and bitmap, which are persisted by the sweep.
+     * @throws IOException           throws I/O exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test
+    public void testAcknowledgements() throws IOException, JMSException {
+        final ZmqMappedJournalStore store = getStore("mapped-ack", "zmq", 1024 * 1024);
+        final ZmqMessage message = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+
+        store.reset();
+        store.open();
+
+        for (int i = 0; i < 100; i++) {
+            store.create("messageId-" + i, message);
+        }
+
+        final Path segmentFile = store.getCurrentSegmentFile();
+        final Path ackFile = store.getAckFile(segmentFile);
+        final byte[] segmentBytes = Files.readAllBytes(segmentFile);
+
+        // delete all, except 50 and 75
+        for (int i = 0; i < 100; i++) {
+            if (i != 50 && i != 75) {
+                Assert.assertTrue(store.delete("messageId-" + i));
+            }
+        }
+
+        Assert.assertArrayEquals(segmentBytes, Files.readAllBytes(segmentFile));
+        Assert.assertFalse(Files.exists(ackFile));
+
+        store.sweepSegments(-1);
+
+        Assert.assertTrue(Files.exists(ackFile));
+        // watermark at 50, so only the bits of the 50 records after it
+        Assert.assertTrue(Files.size(ackFile) <= 16 + 8);
+
+        // deleted after the last sweep, but persisted on close
+        Assert.assertTrue(store.delete("messageId-75"));
+        store.close();
+
+        final ZmqMappedJournalStore recoveredStore = getStore("mapped-ack", "zmq", 1024 * 1024);
+
+        recoveredStore.open();
+
+        final ZmqJournalEntry entry = recoveredStore.read();
+        Assert.assertNotNull(entry);
+        Assert.assertEquals("messageId-50", entry.getMessageId());
+        Assert.assertNull(recoveredStore.read());
+
+        Assert.assertTrue(recoveredStore.delete("messageId-50"));
+        recoveredStore.sweepSegments(-1);
+
+        Assert.assertFalse(Files.exists(segmentFile));
+        Assert.assertFalse(Files.exists(ackFile));
+
+        recoveredStore.close();
+    }
+
+    /**
+     * Test recovery from a checkpoint, after a crash (i.e. store not closed), recovers the messages live at the
+     * checkpoint and those written after it, and checkpoint payloads are only read when required.
+     * @throws IOException           throws I/O exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test
+    public void testCheckpointRecovery() throws IOException, JMSException {
+        final ZmqMappedJournalStore store = getStore("mapped-checkpoint", "zmq", 4096);
+        final ZmqMessage message = ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage();
+        final Set<Object> expectedMessageIds = new HashSet<Object>();
+
+        store.reset();
+        store.open();
+
+        for (int i = 0; i < 100; i++) {
+            store.create("messageId-" + i, message);
+
+            if (i % 3 == 0) {
+                expectedMessageIds.add("messageId-" + i);
+            }
+        }
+
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 != 0) {
+                Assert.assertTrue(store.delete("messageId-" + i));
+            }
+        }
+
+        store.sweepSegments(-1);
+
+        Assert.assertTrue(Files.exists(store.getCheckpointFile()));
+        Assert.assertTrue(store.getSegmentFiles().size() > 1);
+
+        for (int i = 100; i < 120; i++) {
+            store.create("messageId-" + i, message);
+            expectedMessageIds.add("messageId-" + i);
+        }
+
+        final ZmqMappedJournalStore recoveredStore = getStore("mapped-checkpoint", "zmq", 4096);
+
+        recoveredStore.setRecoveryThreads(4);
+        recoveredStore.open();
+
+        final Set<Object> messageIds = new HashSet<Object>();
+        ZmqJournalEntry entry;
+
+        while ((entry = recoveredStore.read()) != null) {
+            Assert.assertEquals(message, entry.getMessage());
+            messageIds.add(entry.getMessageId());
+        }
+
+        Assert.assertEquals(expectedMessageIds, messageIds);
+
+        recoveredStore.close();
+        store.close();
+    }
+
+    /**
+     * Test recovery stops at a torn (corrupt) record, and UUID identifiers survive the binary record format.
+     * @throws IOException           throws I/O exception on test failure
+     * @throws JMSException          throw JMS exception on test failure
+     */
+    @Test
+    public void testTornRecord() throws IOException, JMSException {
+        final ZmqMappedJournalStore store = getStore("mapped-torn", "zmq", 1024 * 1024);
+        final UUID messageId1 = UUID.randomUUID();
+
+        store.reset();
+        store.open();
+
+        store.create(messageId1, ZmqTextMessageBuilder.create().appendText(MESSAGE_1).toMessage());
+        store.create("messageId-2", ZmqTextMessageBuilder.create().appendText(MESSAGE_2).toMessage());
+        store.create("messageId-3", ZmqTextMessageBuilder.create().appendText(MESSAGE_3).toMessage());
+
+        final Path segmentFile = store.getCurrentSegmentFile();
+        store.close();
+
+        // flip the last byte of the second record
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            final int position = 8 + buffer.getInt(8);
+            final int lastBytePosition = position + buffer.getInt(position) - 1;
+
+            buffer.put(lastBytePosition, (byte) ~buffer.get(lastBytePosition));
+        }
+
+        // without the checkpoint (written on close) the whole segment is scanned
+        Files.delete(store.getCheckpointFile());
+
+        final ZmqMappedJournalStore recoveredStore = getStore("mapped-torn", "zmq", 1024 * 1024);
+
+        recoveredStore.open();
+
+        final ZmqJournalEntry entry = recoveredStore.read();
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(messageId1, entry.getMessageId());
+        Assert.assertNull(recoveredStore.read());
+
+        recoveredStore.close();
+    }
+}
@@ -0,0 +1,215 @@
+package org.zeromq.jms.protocol.store;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqException;
+
+/**
+ * Test the offset journal.
+ */
+public class TestZmqOffsetJournal {
+
+    /**
+     * Return a new (empty) journal file within the temp directory, deleting the segments of any earlier run.
+     * @param  name          the journal name
+     * @return               return the journal file
+     * @throws IOException   throws exception on test failure
+     */
+    private Path getFile(final String name) throws IOException {
+        final String tempDir = System.getProperty("java.io.tmpdir");
+        final Path file = Paths.get(tempDir).resolve("test-offset").resolve(name + ".journal");
+
+        Files.createDirectories(file.getParent());
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), name + ".journal.*")) {
+            for (Path segmentFile : stream) {
+                Files.deleteIfExists(segmentFile);
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * Test records are read back in batches from any offset, limited by the maximum records and bytes.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testAppendAndRead() throws Exception {
+        final ZmqOffsetJournal journal = new ZmqOffsetJournal(getFile("append"));
+
+        journal.open();
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(i, journal.append(("record " + i).getBytes()));
+            }
+
+            Assert.assertEquals(100, journal.getNextOffset());
+
+            List<byte[]> records = journal.read(10, 5, Integer.MAX_VALUE);
+
+            Assert.assertEquals(5, records.size());
+
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals("record " + (10 + i), new String(records.get(i)));
+            }
+
+            // at least one record, no matter the byte limit
+            records = journal.read(20, 5, 1);
+
+            Assert.assertEquals(1, records.size());
+            Assert.assertEquals("record 20", new String(records.get(0)));
+
+            records = journal.read(98, 5, Integer.MAX_VALUE);
+
+            Assert.assertEquals(2, records.size());
+            Assert.assertTrue(journal.read(100, 5, Integer.MAX_VALUE).isEmpty());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test the index is rebuilt on re-open and a torn record at the tail is truncated.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testReopenWithTornRecord() throws Exception {
+        final Path file = getFile("reopen");
+        ZmqOffsetJournal journal = new ZmqOffsetJournal(file);
+
+        journal.open();
+
+        for (int i = 0; i < 10; i++) {
+            journal.append(("record " + i).getBytes());
+        }
+
+        journal.close();
+
+        // a record header without its body
+        try (FileChannel channel = FileChannel.open(file.resolveSibling("reopen.journal.0"), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            final ByteBuffer header = ByteBuffer.allocate(8).putInt(100).putInt(0);
+
+            header.flip();
+            channel.write(header);
+        }
+
+        journal = new ZmqOffsetJournal(file);
+        journal.open();
+
+        try {
+            Assert.assertEquals(10, journal.getNextOffset());
+            Assert.assertEquals(10, journal.append("record 10".getBytes()));
+
+            final List<byte[]> records = journal.read(0, 100, Integer.MAX_VALUE);
+
+            Assert.assertEquals(11, records.size());
+            Assert.assertEquals("record 10", new String(records.get(10)));
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test the oldest segments are deleted beyond the retention size, moving the first offset kept forward, and the
+     * segments kept are found again on re-open.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testRetentionSize() throws Exception {
+        final Path file = getFile("retention");
+        ZmqOffsetJournal journal = new ZmqOffsetJournal(file);
+
+        // 10 records (of 16 bytes) per segment, keeping 3 segments
+        journal.setSegmentSize(160);
+        journal.setRetentionSize(480);
+        journal.open();
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, journal.append(String.format("record%02d", i).getBytes()));
+        }
+
+        Assert.assertEquals(100, journal.getNextOffset());
+        Assert.assertEquals(70, journal.getFirstOffset());
+        Assert.assertTrue(journal.getSize() <= 480);
+        Assert.assertTrue(journal.read(69, 5, Integer.MAX_VALUE).isEmpty());
+        Assert.assertFalse(Files.exists(file.resolveSibling("retention.journal.0")));
+
+        // a read stops at the end of the segment
+        final List<byte[]> records = journal.read(75, 100, Integer.MAX_VALUE);
+
+        Assert.assertEquals(5, records.size());
+        Assert.assertEquals("record75", new String(records.get(0)));
+
+        journal.close();
+
+        journal = new ZmqOffsetJournal(file);
+        journal.open();
+
+        try {
+            Assert.assertEquals(70, journal.getFirstOffset());
+            Assert.assertEquals(100, journal.getNextOffset());
+            Assert.assertEquals("record99", new String(journal.read(99, 1, Integer.MAX_VALUE).get(0)));
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test a segment is deleted once its last record is older than the retention time, but never the segment being
+     * appended to.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testRetentionTime() throws Exception {
+        final ZmqOffsetJournal journal = new ZmqOffsetJournal(getFile("retentiontime"));
+
+        journal.setSegmentSize(160);
+        journal.setRetentionTime(200);
+        journal.open();
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                journal.append(String.format("record%02d", i).getBytes());
+            }
+
+            Assert.assertEquals(0, journal.getFirstOffset());
+
+            Thread.sleep(500);
+            journal.append(String.format("record%02d", 20).getBytes());
+
+            // only the segment appended to is kept
+            Assert.assertEquals(20, journal.getFirstOffset());
+            Assert.assertEquals(21, journal.getNextOffset());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test appending to a journal which has not been opened fails.
+     * @throws ZmqException  throws the expected exception
+     */
+    @Test(expected = ZmqException.class)
+    public void testAppendWhenClosed() throws ZmqException {
+        new ZmqOffsetJournal(Paths.get("closed.journal")).append(new byte[0]);
+    }
+}
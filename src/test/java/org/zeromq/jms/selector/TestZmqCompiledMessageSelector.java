@@ -0,0 +1,169 @@
+package org.zeromq.jms.selector;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqMessageProperties;
+
+/**
+ *  Test the Zero MQ JMS compiled selector functionality.
+ */
+public class TestZmqCompiledMessageSelector {
+
+    private static final String[] EXPRESSIONS = {
+        "6 = 2.0 + 3.0 + 1",
+        "3.0 = var1 + 2.0",
+        "1 = 1 and var1 in ((0.5 + 0.5), 2.0, 3.0)",
+        "var1 between 1.0 and 5.0",
+        "var2 like '%is a%'",
+        "var2 like 't__t'",
+        "var2 like 'this%'",
+        "var2 like '%test'",
+        "var2 is null",
+        "var2 is not null",
+        "var2 IN ('NASA','APAC')",
+        "var1 > 2 OR var2 = 'test'",
+        "('and' = mid('This and that', 6, 3)) AND (len(var2) = 4)",
+        "round(var1 * 2.0) = 2"
+    };
+
+    /**
+     * Test the compiled selector produces the same results as the interpreted selector.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testSameAsInterpreted() throws Exception {
+        final Object[][] values = { { 1.0, "test" }, { 1, "this is a test" }, { 3.0f, "APAC" }, { 5L, "tent" } };
+
+        for (String expression : EXPRESSIONS) {
+            final ZmqMessageSelector interpreted = ZmqSimpleMessageSelector.parse(expression);
+            final ZmqMessageSelector compiled = ZmqCompiledMessageSelector.compile(expression);
+
+            for (Object[] value : values) {
+                final Map<String, Object> variables = new HashMap<String, Object>();
+                variables.put("var1", value[0]);
+                variables.put("var2", value[1]);
+
+                final ZmqMessageProperties properties = new ZmqMessageProperties();
+                properties.putAll(variables);
+
+                final boolean expected = interpreted.evaluate(variables);
+
+                Assert.assertEquals(expression + " " + variables, expected, compiled.evaluate(variables));
+                Assert.assertEquals(expression + " " + variables, expected, compiled.evaluate(properties));
+            }
+        }
+    }
+
+    /**
+     * Test the AND/OR operators do not evaluate the right side when not required.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testShortCircuit() throws Exception {
+        final ZmqMessageSelector selectorAnd = ZmqCompiledMessageSelector.compile("var1 = 'X' AND var2 > 1");
+        final ZmqMessageSelector selectorOr = ZmqCompiledMessageSelector.compile("var1 = 'X' OR var2 > 1");
+        final Map<String, Object> variables = new HashMap<String, Object>();
+
+        // var2 is missing, so comparing it would fail
+        variables.put("var1", "Y");
+        Assert.assertFalse(selectorAnd.evaluate(variables));
+
+        variables.put("var1", "X");
+        Assert.assertTrue(selectorOr.evaluate(variables));
+
+        try {
+            selectorAnd.evaluate(variables);
+            Assert.fail("Expected failure comparing a missing variable");
+        } catch (ArithmeticException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+    }
+
+    /**
+     * Test constant sub-expressions are folded at compile time.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testConstantFolding() throws Exception {
+        final ZmqCompiledMessageSelector selectorTrue = (ZmqCompiledMessageSelector) ZmqCompiledMessageSelector
+                .compile("(2 * 3 = 6) AND ucase('abc') = 'ABC'");
+
+        Assert.assertTrue(selectorTrue.isConstant());
+        Assert.assertTrue(selectorTrue.evaluate(new HashMap<String, Object>()));
+
+        final ZmqCompiledMessageSelector selectorFalse = (ZmqCompiledMessageSelector) ZmqCompiledMessageSelector.compile("1 = 2 AND var1 = 3");
+
+        Assert.assertTrue(selectorFalse.isConstant());
+        Assert.assertFalse(selectorFalse.evaluate(new HashMap<String, Object>()));
+
+        final ZmqCompiledMessageSelector selectorVariable = (ZmqCompiledMessageSelector) ZmqCompiledMessageSelector.compile("1 = 1 AND var1 = 3");
+
+        Assert.assertFalse(selectorVariable.isConstant());
+    }
+
+    /**
+     * Test LIKE patterns only treat "%" and "_" as wild cards.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testLikeLiteralCharacters() throws Exception {
+        final ZmqMessageSelector selector = ZmqCompiledMessageSelector.compile("topic like 'org.fedora_project.%'");
+        final Map<String, Object> variables = new HashMap<String, Object>();
+
+        variables.put("topic", "org.fedora-project.logger");
+        Assert.assertTrue(selector.evaluate(variables));
+
+        variables.put("topic", "orgXfedora-project.logger");
+        Assert.assertFalse(selector.evaluate(variables));
+
+        variables.put("topic", null);
+        Assert.assertFalse(selector.evaluate(variables));
+    }
+
+    /**
+     * Test the selector factory caches the compiled selectors.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testFactoryCache() throws Exception {
+        final ZmqMessageSelectorFactory factory = new ZmqMessageSelectorFactory();
+
+        final ZmqMessageSelector selector1 = factory.parse("Region IN ('NASA','APAC')");
+        final ZmqMessageSelector selector2 = new ZmqMessageSelectorFactory().parse("Region IN ('NASA','APAC')");
+
+        Assert.assertSame(selector1, selector2);
+        Assert.assertTrue(selector1 instanceof ZmqCompiledMessageSelector);
+    }
+
+    /**
+     * Test the string values of a variable can be extracted for transport level filtering.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testStringValues() throws Exception {
+        final ZmqCompiledMessageSelector selector1 = (ZmqCompiledMessageSelector) ZmqCompiledMessageSelector
+                .compile("Price > 10 AND Region IN ('NASA','APAC')");
+
+        Assert.assertEquals(2, selector1.getStringValues("Region").length);
+        Assert.assertNull(selector1.getStringValues("Price"));
+
+        final ZmqCompiledMessageSelector selector2 = (ZmqCompiledMessageSelector) ZmqCompiledMessageSelector
+                .compile("Price > 10 OR Region = 'APAC'");
+
+        Assert.assertNull(selector2.getStringValues("Region"));
+
+        final ZmqCompiledMessageSelector selector3 = (ZmqCompiledMessageSelector) ZmqCompiledMessageSelector.compile("'EMEA' = Region");
+
+        Assert.assertArrayEquals(new String[] { "EMEA" }, selector3.getStringValues("Region"));
+    }
+}
@@ -0,0 +1,141 @@
+package org.zeromq.jms.selector;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.jms.ZmqMessageProperties;
+
+/**
+ *  Test the Zero MQ JMS selector index functionality.
+ */
+public class TestZmqMessageSelectorIndex {
+
+    private static final String[] REGIONS = { "NASA", "APAC", "EMEA", "LATAM" };
+
+    /**
+     * Test the index returns the same consumers as evaluating each selector.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testSameAsSelectorEvaluation() throws Exception {
+        final ZmqMessageSelectorFactory factory = new ZmqMessageSelectorFactory();
+        final ZmqMessageSelectorIndex<String> index = new ZmqMessageSelectorIndex<String>();
+        final Map<String, ZmqMessageSelector> selectors = new LinkedHashMap<String, ZmqMessageSelector>();
+
+        for (int i = 0; i < 300; i++) {
+            final String expression;
+
+            switch (i % 10) {
+            case 0:
+                expression = "Symbol = 'SYM" + (i % 50) + "'";
+                break;
+            case 1:
+                expression = "Region IN ('" + REGIONS[i % 4] + "', '" + REGIONS[(i + 1) % 4] + "') AND Price > " + (i % 100);
+                break;
+            case 2:
+                expression = "Price between " + (i % 100) + " and " + (i % 100 + 10);
+                break;
+            case 3:
+                expression = (i % 100) + " <= Price";
+                break;
+            case 4:
+                expression = "Quantity = " + (i % 7) + " AND Symbol LIKE 'SYM1%'";
+                break;
+            case 5:
+                expression = "Region = 'APAC' OR Quantity > 3";
+                break;
+            case 6:
+                expression = "Quantity IN (1, 2.0, 2)";
+                break;
+            case 7:
+                expression = null;
+                break;
+            default:
+                expression = "Price < " + (i % 100) + " AND Region = 'EMEA'";
+                break;
+            }
+
+            final ZmqMessageSelector selector = (expression == null) ? null : factory.parse(expression);
+            final String consumer = "consumer" + i;
+
+            selectors.put(consumer, selector);
+            index.register(consumer, selector);
+        }
+
+        Assert.assertEquals(300, index.size());
+        Assert.assertTrue(index.toString(), index.toString().contains("Symbol") && index.toString().contains("Price"));
+
+        final Random random = new Random(1234);
+
+        for (int i = 0; i < 2000; i++) {
+            final ZmqMessageProperties properties = new ZmqMessageProperties();
+
+            properties.putObject("Symbol", "SYM" + random.nextInt(60));
+            properties.putObject("Region", REGIONS[random.nextInt(4)]);
+            properties.putDouble("Price", random.nextInt(12000) / 100.0);
+            if (random.nextBoolean()) {
+                properties.putInt("Quantity", random.nextInt(8));
+            }
+
+            final List<String> expected = new ArrayList<String>();
+
+            for (Map.Entry<String, ZmqMessageSelector> entry : selectors.entrySet()) {
+                try {
+                    if (entry.getValue() == null || entry.getValue().evaluate(properties)) {
+                        expected.add(entry.getKey());
+                    }
+                } catch (ArithmeticException ex) {
+                    continue;
+                }
+            }
+
+            final List<String> actual = index.match(properties);
+
+            Collections.sort(expected);
+            Collections.sort(actual);
+
+            Assert.assertEquals(properties.toString(), expected, actual);
+        }
+    }
+
+    /**
+     * Test consumers can be registered and unregistered.
+     * @throws Exception  throws exception on test failure
+     */
+    @Test
+    public void testUnregister() throws Exception {
+        final ZmqMessageSelectorIndex<String> index = new ZmqMessageSelectorIndex<String>();
+        final ZmqMessageSelectorFactory factory = new ZmqMessageSelectorFactory();
+
+        index.register("consumer1", factory.parse("Region = 'APAC'"));
+        index.register("consumer2", factory.parse("Region = 'APAC'"));
+
+        final Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("Region", "APAC");
+
+        Assert.assertEquals(2, index.match(variables).size());
+
+        Assert.assertTrue(index.unregister("consumer1"));
+        Assert.assertFalse(index.unregister("consumer1"));
+
+        Assert.assertEquals(Collections.singletonList("consumer2"), index.match(variables));
+
+        variables.put("Region", "EMEA");
+
+        Assert.assertTrue(index.match(variables).isEmpty());
+    }
+}
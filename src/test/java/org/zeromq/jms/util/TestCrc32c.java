@@ -0,0 +1,54 @@
+package org.zeromq.jms.util;
+
+/*
+ * Copyright (c) 2015 Jeremy Miller
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the CRC-32C checksum.
+ */
+public class TestCrc32c {
+
+    /**
+     * Test the standard check value, and the byte and buffer updates give the same checksum.
+     */
+    @Test
+    public void testChecksum() {
+        final Crc32c crc = new Crc32c();
+
+        crc.update("123456789".getBytes(StandardCharsets.US_ASCII), 0, 9);
+        Assert.assertEquals(0xE3069283L, crc.getValue());
+
+        final byte[] bytes = new byte[10000];
+        new Random(1234).nextBytes(bytes);
+
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+
+        final long expected = crc.getValue();
+
+        crc.reset();
+        for (byte b : bytes) {
+            crc.update(b);
+        }
+        Assert.assertEquals(expected, crc.getValue());
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+
+        crc.reset();
+        crc.update(direct);
+        Assert.assertEquals(expected, crc.getValue());
+        Assert.assertEquals(0, direct.position());
+    }
+}